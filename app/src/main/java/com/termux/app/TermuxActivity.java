@@ -243,6 +243,10 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
     private static final int CONTEXT_MENU_SHARE_TRANSCRIPT_ID = 1;
 
+    private static final int CONTEXT_MENU_FIND_IN_TRANSCRIPT_ID = 15;
+
+    private static final int CONTEXT_MENU_TOGGLE_RECORD_SESSION_ID = 16;
+
     private static final int CONTEXT_MENU_SHARE_SELECTED_TEXT = 10;
     private static final int CONTEXT_MENU_AUTOFILL_USERNAME = 14;
     private static final int CONTEXT_MENU_AUTOFILL_PASSWORD = 2;
@@ -1100,6 +1104,14 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         termuxSessionsListView.setAdapter(mTermuxSessionListViewController);
         termuxSessionsListView.setOnItemClickListener(mTermuxSessionListViewController);
         termuxSessionsListView.setOnItemLongClickListener(mTermuxSessionListViewController);
+        // Update the rows allocated by the sessions shown in the list whenever it is opened.
+        getDrawer().addDrawerListener(new DrawerLayout.SimpleDrawerListener() {
+
+            @Override
+            public void onDrawerOpened(@NonNull View drawerView) {
+                termuxSessionListNotifyUpdated();
+            }
+        });
     }
 
     private void setTerminalToolbarView(Bundle savedInstanceState) {
@@ -1352,6 +1364,8 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
         menu.add(Menu.NONE, CONTEXT_MENU_SELECT_URL_ID, Menu.NONE, R.string.action_select_url);
         menu.add(Menu.NONE, CONTEXT_MENU_SHARE_TRANSCRIPT_ID, Menu.NONE, R.string.action_share_transcript);
+        menu.add(Menu.NONE, CONTEXT_MENU_FIND_IN_TRANSCRIPT_ID, Menu.NONE, R.string.action_find_in_transcript);
+        menu.add(Menu.NONE, CONTEXT_MENU_TOGGLE_RECORD_SESSION_ID, Menu.NONE, R.string.action_record_session).setCheckable(true).setChecked(currentSession.isRecording()).setEnabled(currentSession.isRunning() || currentSession.isRecording());
         if (!DataUtils.isNullOrEmpty(mTerminalView.getStoredSelectedText()))
             menu.add(Menu.NONE, CONTEXT_MENU_SHARE_SELECTED_TEXT, Menu.NONE, R.string.action_share_selected_text);
         if (autoFillEnabled)
@@ -1390,6 +1404,12 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
             case CONTEXT_MENU_SHARE_TRANSCRIPT_ID:
                 mTermuxTerminalViewClient.shareSessionTranscript();
                 return true;
+            case CONTEXT_MENU_FIND_IN_TRANSCRIPT_ID:
+                mTermuxTerminalViewClient.showTranscriptSearch();
+                return true;
+            case CONTEXT_MENU_TOGGLE_RECORD_SESSION_ID:
+                mTermuxTerminalViewClient.toggleSessionRecording();
+                return true;
             case CONTEXT_MENU_SHARE_SELECTED_TEXT:
                 mTermuxTerminalViewClient.shareSelectedText();
                 return true;
@@ -122,6 +122,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
      */
     boolean mWantsToStop = false;
 
+    /**
+     * The directory the rows of hibernated terminal sessions are written to, see
+     * {@link TerminalSession#setHibernation(File, int)}.
+     */
+    private File mHibernatedSessionsDir;
+
     private static final String LOG_TAG = "TermuxService";
 
     @Override
@@ -131,10 +137,25 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         // load and TermuxActivity handles reloads
         mProperties = TermuxAppSharedProperties.getProperties();
         mShellManager = TermuxShellManager.getShellManager();
+        mHibernatedSessionsDir = new File(getNoBackupFilesDir(), "hibernated-sessions");
+        deleteStaleHibernatedSessions();
         runStartForeground();
         SystemEventReceiver.registerPackageUpdateEvents(this);
     }
 
+    /**
+     * Delete the files of sessions hibernated before the app process was killed, whose processes are gone.
+     */
+    private void deleteStaleHibernatedSessions() {
+        File[] files = mHibernatedSessionsDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (!file.delete())
+                Logger.logWarn(LOG_TAG, "Failed to delete stale hibernated session file \"" + file + "\"");
+        }
+    }
+
     @SuppressLint("Wakelock")
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
@@ -207,6 +228,15 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         return false;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Logger.logVerbose(LOG_TAG, "onTrimMemory: " + level);
+        // Drop the decoded images of the sessions which are not on screen.
+        for (TermuxSession termuxSession : getTermuxSessions())
+            termuxSession.getTerminalSession().onTrimMemory(level);
+    }
+
     /**
      * Make service run in foreground mode.
      */
@@ -630,6 +660,15 @@ void logd(String l){
             return null;
         }
         // newTermuxSession.getTerminalSession().setBoldWithBright(mProperties.shouldDrawBoldTextWithBrightColors());
+        newTermuxSession.getTerminalSession().setUseEmulatorThread(mProperties.shouldUseTerminalEmulatorThread());
+        newTermuxSession.getTerminalSession().setMaxBytesParsedPerFrame(mProperties.getTerminalMaxBytesParsedPerFrame());
+        newTermuxSession.getTerminalSession().setProcessToTerminalIOQueueCapacity(mProperties.getTerminalOutputQueueCapacity());
+        newTermuxSession.getTerminalSession().setTerminalToProcessIOQueueCapacity(mProperties.getTerminalInputQueueCapacity());
+        newTermuxSession.getTerminalSession().setInlineImageMaxBytes(mProperties.getTerminalInlineImageMaxBytes());
+        newTermuxSession.getTerminalSession().setImageCacheMaxBytes(mProperties.getTerminalImageCacheMaxBytes());
+        newTermuxSession.getTerminalSession().setHibernation(mHibernatedSessionsDir, mProperties.getTerminalHibernateDelay());
+        // Sessions are marked visible by the activity when shown, so that sessions started in the background may be hibernated.
+        newTermuxSession.getTerminalSession().setVisible(false);
         mShellManager.mTermuxSessions.add(newTermuxSession);
         // Remove the execution command from the pending plugin execution commands list since it has
         // now been processed
@@ -0,0 +1,99 @@
+package com.termux.app.terminal;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.termux.TermuxConstants;
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes terminal text which is too large to be passed as a String to other apps to a file in the cache directory,
+ * which is then shared with a content uri of {@link #FILE_PROVIDER_AUTHORITY}. The text is streamed from the
+ * {@link TerminalBuffer} row by row as UTF-8 to a buffer while holding the emulator lock, and the buffer is written to
+ * the file after releasing it, so that output is only held back while the text is copied and not during file IO.
+ */
+public class TerminalTextExporter {
+
+    /** The authority of the FileProvider for {@link #EXPORT_DIRECTORY_NAME} in the cache directory. */
+    public static final String FILE_PROVIDER_AUTHORITY = TermuxConstants.TERMUX_PACKAGE_NAME + ".transcripts";
+
+    /** The directory in the cache directory for the files, also declared in res/xml/transcript_paths.xml. */
+    private static final String EXPORT_DIRECTORY_NAME = "transcripts";
+
+    private static final String LOG_TAG = "TerminalTextExporter";
+
+    private interface TextWriter {
+        void write(TerminalBuffer screen, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Get whether the text of rows may be too large to be passed as a String in an intent or clip, see
+     * {@link DataUtils#TRANSACTION_SIZE_LIMIT_IN_BYTES}.
+     */
+    public static boolean isLarge(int rows, int columns) {
+        return (long) rows * columns > DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES;
+    }
+
+    /**
+     * Write the transcript and screen text of an emulator to a file, like
+     * {@link TerminalBuffer#getTranscriptTextWithoutJoinedLines()}. This must be called on a background thread.
+     *
+     * @return Returns the content uri of the file, or {@code null} if it could not be written.
+     */
+    @Nullable
+    public static Uri writeTranscriptText(@NonNull Context context, @NonNull TerminalEmulator emulator, @NonNull String fileName) {
+        return write(context, emulator, fileName, (screen, out) -> screen.writeTranscriptText(out, false, false));
+    }
+
+    /**
+     * Write the selected text of an emulator to a file, like {@link TerminalEmulator#getSelectedText(int, int, int, int)}.
+     * This must be called on a background thread.
+     *
+     * @return Returns the content uri of the file, or {@code null} if it could not be written.
+     */
+    @Nullable
+    public static Uri writeSelectedText(@NonNull Context context, @NonNull TerminalEmulator emulator, @NonNull String fileName,
+                                        int selX1, int selY1, int selX2, int selY2) {
+        return write(context, emulator, fileName, (screen, out) -> screen.writeSelectedText(out, selX1, selY1, selX2, selY2, true, false, false));
+    }
+
+    @Nullable
+    private static Uri write(@NonNull Context context, @NonNull TerminalEmulator emulator, @NonNull String fileName, @NonNull TextWriter textWriter) {
+        File directory = new File(context.getCacheDir(), EXPORT_DIRECTORY_NAME);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.logError(LOG_TAG, "Failed to create directory \"" + directory + "\"");
+            return null;
+        }
+        File file = new File(directory, fileName);
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        try {
+            // Output is appended to the emulator while holding its lock, so rows cannot change while being copied.
+            synchronized (emulator) {
+                textWriter.write(emulator.getScreen(), text);
+            }
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream.
+            throw new IllegalStateException(e);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            text.writeTo(out);
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write terminal text to \"" + file + "\"", e);
+            return null;
+        }
+        return FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITY, file);
+    }
+}
@@ -7,6 +7,7 @@ import android.graphics.Typeface;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.TextUtils;
+import android.text.style.RelativeSizeSpan;
 import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -21,8 +22,10 @@ import com.termux.app.TermuxActivity;
 import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
 import com.termux.shared.theme.NightMode;
 import com.termux.shared.theme.ThemeUtils;
+import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import java.util.List;
+import java.util.Locale;
 
 public class TermuxSessionsListViewController extends ArrayAdapter<TermuxSession> implements AdapterView.OnItemClickListener, AdapterView.OnItemLongClickListener {
 
@@ -32,6 +35,8 @@ public class TermuxSessionsListViewController extends ArrayAdapter<TermuxSession
 
     final StyleSpan italicSpan = new StyleSpan(Typeface.ITALIC);
 
+    final RelativeSizeSpan smallSpan = new RelativeSizeSpan(0.8f);
+
     public TermuxSessionsListViewController(TermuxActivity activity, List<TermuxSession> sessionList) {
         super(activity.getApplicationContext(), R.layout.item_terminal_sessions_list, sessionList);
         this.mActivity = activity;
@@ -58,10 +63,12 @@ public class TermuxSessionsListViewController extends ArrayAdapter<TermuxSession
         String numberPart = "[" + (position + 1) + "] ";
         String sessionNamePart = (TextUtils.isEmpty(name) ? "" : name);
         String sessionTitlePart = (TextUtils.isEmpty(sessionTitle) ? "" : ((sessionNamePart.isEmpty() ? "" : "\n") + sessionTitle));
-        String fullSessionTitle = numberPart + sessionNamePart + sessionTitlePart;
+        String rowsPart = getAllocatedRowsText(sessionAtRow) + getInputStatsText(sessionAtRow);
+        String fullSessionTitle = numberPart + sessionNamePart + sessionTitlePart + rowsPart;
         SpannableString fullSessionTitleStyled = new SpannableString(fullSessionTitle);
         fullSessionTitleStyled.setSpan(boldSpan, 0, numberPart.length() + sessionNamePart.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        fullSessionTitleStyled.setSpan(italicSpan, numberPart.length() + sessionNamePart.length(), fullSessionTitle.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        fullSessionTitleStyled.setSpan(italicSpan, numberPart.length() + sessionNamePart.length(), fullSessionTitle.length() - rowsPart.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        fullSessionTitleStyled.setSpan(smallSpan, fullSessionTitle.length() - rowsPart.length(), fullSessionTitle.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         sessionTitleView.setText(fullSessionTitleStyled);
         boolean sessionRunning = sessionAtRow.isRunning();
         if (sessionRunning) {
@@ -75,6 +82,40 @@ public class TermuxSessionsListViewController extends ArrayAdapter<TermuxSession
         return sessionRowView;
     }
 
+    /**
+     * Get the rows allocated by the terminal buffers of a session and the rows they can hold, since rows of the
+     * transcript are only allocated when first written.
+     */
+    private static String getAllocatedRowsText(TerminalSession session) {
+        // The rows of a hibernated session are released until it is restored.
+        if (session.isHibernated())
+            return "\nhibernated";
+        TerminalEmulator emulator = session.getEmulator();
+        if (emulator == null)
+            return "";
+        // The emulator may be changed by the emulator thread of the session.
+        synchronized (emulator) {
+            return "\n" + emulator.getAllocatedRows() + "/" + emulator.getRowCapacity() + " rows";
+        }
+    }
+
+    /**
+     * Get the output read from the pty of a session, the max time of parsing a batch of it and the last keystroke
+     * echo latency, to find sessions with slow output.
+     */
+    private static String getInputStatsText(TerminalSession session) {
+        if (session.getEmulator() == null)
+            return "";
+        String text = "\n" + (session.getBytesRead() / 1024) + " KiB read, parse max " + formatMillis(session.getMaxParseBatchNanos());
+        if (session.getEchoes() > 0)
+            text += ", echo " + formatMillis(session.getLastEchoLatencyNanos());
+        return text;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+    }
+
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
         TermuxSession clickedSession = getItem(position);
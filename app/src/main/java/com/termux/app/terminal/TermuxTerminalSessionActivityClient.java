@@ -27,6 +27,7 @@ import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.termux.terminal.io.BellHandler;
 import com.termux.shared.logger.Logger;
 import com.termux.terminal.TerminalColors;
+import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 import java.io.File;
@@ -65,6 +66,12 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
      * Should be called when mActivity.onStart() is called
      */
     public void onStart() {
+        // The session still attached to the terminal view since onStop() is shown again, restore it if hibernated.
+        TerminalSession attachedSession = mActivity.getCurrentSession();
+        if (attachedSession != null) {
+            attachedSession.setVisible(true);
+            attachedSession.restore();
+        }
         // The service has connected, but data may have changed since we were last in the foreground.
         // Get the session stored in shared preferences stored by {@link #onStop} if its valid,
         // otherwise get the last session currently running.
@@ -97,6 +104,10 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         // Store current session in shared preferences so that it can be restored later in
         // {@link #onStart} if needed.
         setCurrentStoredSession();
+        // The current session is not shown anymore, so it may be hibernated too.
+        TerminalSession currentSession = mActivity.getCurrentSession();
+        if (currentSession != null)
+            currentSession.setVisible(false);
         // Release mBellSoundPool resources, specially to prevent exceptions like the following to be thrown
         // java.util.concurrent.TimeoutException: android.media.SoundPool.finalize() timed out after 10 seconds
         // Bell is not played in background anyways
@@ -225,6 +236,11 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
 
     @Override
     public void onTerminalCursorStateChange(boolean enabled) {
+        // May be called from the session emulator thread if "terminal-emulator-thread" is enabled
+        mActivity.runOnUiThread(() -> updateTerminalCursorState(enabled));
+    }
+
+    private void updateTerminalCursorState(boolean enabled) {
         // Do not start cursor blinking thread if activity is not visible
         if (enabled && !mActivity.isVisible()) {
             Logger.logVerbose(LOG_TAG, "Ignoring call to start cursor blinking since activity is not visible");
@@ -290,6 +306,12 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
     public void setCurrentSession(TerminalSession session) {
         if (session == null)
             return;
+        // Restore the session if it was hibernated before it is attached, and let the previous one hibernate.
+        TerminalSession previousSession = mActivity.getCurrentSession();
+        session.setVisible(true);
+        session.restore();
+        if (previousSession != null && previousSession != session)
+            previousSession.setVisible(false);
         if (mActivity.getTerminalView().attachSession(session)) {
             // notify about switched session if not already displaying the session
             notifyOfSessionChange();
@@ -500,7 +522,10 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
             TerminalColors.COLOR_SCHEME.updateWith(props);
             TerminalSession session = mActivity.getCurrentSession();
             if (session != null && session.getEmulator() != null) {
-                session.getEmulator().mColors.reset();
+                TerminalEmulator emulator = session.getEmulator();
+                synchronized (emulator) {
+                    emulator.mColors.reset();
+                }
             }
             final Typeface newTypeface = (fontFile.exists() && fontFile.length() > 0) ? Typeface.createFromFile(fontFile) : Typeface.MONOSPACE;
             final Typeface newItalicTypeface = (italicFontFile.exists() && italicFontFile.length() > 0) ? Typeface.createFromFile(italicFontFile) : newTypeface;
@@ -5,7 +5,9 @@ import android.app.AlertDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
+import android.content.Intent;
 import android.media.AudioManager;
+import android.net.Uri;
 import android.os.Environment;
 import android.text.TextUtils;
 import android.view.Gravity;
@@ -38,17 +40,28 @@ import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.data.TermuxUrlUtils;
+import com.termux.shared.termux.interact.TextInputDialogUtils;
 import com.termux.shared.view.KeyboardUtils;
 import com.termux.shared.view.ViewUtils;
 import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSearch;
 import com.termux.terminal.TerminalSession;
+import com.termux.view.TerminalView;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+import androidx.annotation.NonNull;
 import androidx.drawerlayout.widget.DrawerLayout;
 
 public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
@@ -72,6 +85,14 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
     private List<KeyboardShortcut> mSessionShortcuts;
 
+    /** The last search of {@link #showTranscriptSearch()}, and the text it was created for. */
+    private TerminalSearch mTranscriptSearch;
+
+    private String mTranscriptSearchQuery;
+
+    /** The directory of the recordings of {@link #toggleSessionRecording()}. */
+    private static final String SESSION_RECORDINGS_DIR_PATH = TermuxConstants.TERMUX_DATA_HOME_DIR_PATH + "/recordings";
+
     private static final String LOG_TAG = "TermuxTerminalViewClient";
     private SuggestionBarCallback mSuggestionBarCallback;
 
@@ -184,7 +205,10 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalEmulator term = mActivity.getCurrentSession().getEmulator();
         if (mActivity.getProperties().shouldOpenTerminalTranscriptURLOnClick()) {
             int[] columnAndRow = mActivity.getTerminalView().getColumnAndRow(e, true);
-            String wordAtTap = term.getScreen().getWordAtLocation(columnAndRow[0], columnAndRow[1]);
+            String wordAtTap;
+            synchronized (term) {
+                wordAtTap = term.getScreen().getWordAtLocation(columnAndRow[0], columnAndRow[1]);
+            }
             LinkedHashSet<CharSequence> urlSet = TermuxUrlUtils.extractUrls(wordAtTap);
             if (!urlSet.isEmpty()) {
                 String url = (String) urlSet.iterator().next();
@@ -443,7 +467,11 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
             }
             if (resultingKeyCode != -1) {
                 TerminalEmulator term = session.getEmulator();
-                session.write(KeyHandler.getCode(resultingKeyCode, 0, term.isCursorKeysApplicationMode(), term.isKeypadApplicationMode()));
+                String code;
+                synchronized (term) {
+                    code = KeyHandler.getCode(resultingKeyCode, 0, term.isCursorKeysApplicationMode(), term.isKeypadApplicationMode());
+                }
+                session.write(code);
             } else if (resultingCodePoint != -1) {
                 session.writeCodePoint(altDown, resultingCodePoint);
             }
@@ -649,6 +677,17 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null)
             return;
+        TerminalEmulator emulator = session.getEmulator();
+        if (emulator != null) {
+            boolean large;
+            synchronized (emulator) {
+                large = TerminalTextExporter.isLarge(emulator.getScreen().getActiveRows(), emulator.mColumns);
+            }
+            if (large) {
+                shareLargeSessionTranscript(emulator);
+                return;
+            }
+        }
         String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
         if (transcriptText == null)
             return;
@@ -657,6 +696,98 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         ShareUtils.shareText(mActivity, mActivity.getString(R.string.title_share_transcript), transcriptText, mActivity.getString(R.string.title_share_transcript_with));
     }
 
+    /**
+     * Start recording the output of the current session to a file in the asciicast v2 format under
+     * {@link #SESSION_RECORDINGS_DIR_PATH}, or stop recording if it is already being recorded.
+     */
+    public void toggleSessionRecording() {
+        TerminalSession session = mActivity.getCurrentSession();
+        if (session == null || session.getEmulator() == null)
+            return;
+        if (session.isRecording()) {
+            session.stopRecording();
+            Logger.showToast(mActivity, mActivity.getString(R.string.msg_session_recording_stopped, SESSION_RECORDINGS_DIR_PATH), true);
+            return;
+        }
+        String recordingPath = SESSION_RECORDINGS_DIR_PATH + "/session-" + session.getPid() + "-" +
+            new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.US).format(new Date()) + ".cast";
+        try {
+            File recordingsDir = new File(SESSION_RECORDINGS_DIR_PATH);
+            if (!recordingsDir.isDirectory() && !recordingsDir.mkdirs())
+                throw new IOException("Failed to create " + SESSION_RECORDINGS_DIR_PATH);
+            FileOutputStream recordingStream = new FileOutputStream(recordingPath);
+            try {
+                session.startRecording(recordingStream);
+            } catch (IOException e) {
+                recordingStream.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to start recording session", e);
+            Logger.showToast(mActivity, mActivity.getString(R.string.error_session_recording_failed, e.getMessage()), true);
+            return;
+        }
+        Logger.showToast(mActivity, mActivity.getString(R.string.msg_session_recording_started, recordingPath), true);
+    }
+
+    /**
+     * Share a transcript which may not fit in an intent as a file, instead of truncating it to
+     * {@link DataUtils#TRANSACTION_SIZE_LIMIT_IN_BYTES}.
+     */
+    private void shareLargeSessionTranscript(@NonNull TerminalEmulator emulator) {
+        final Context context = mActivity.getApplicationContext();
+        new Thread() {
+
+            @Override
+            public void run() {
+                Uri uri = TerminalTextExporter.writeTranscriptText(context, emulator, "transcript.txt");
+                mActivity.runOnUiThread(() -> {
+                    if (uri == null) {
+                        Logger.showToast(mActivity, mActivity.getString(R.string.error_write_terminal_text_failed), true);
+                        return;
+                    }
+                    Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                    shareIntent.setType("text/plain");
+                    shareIntent.putExtra(Intent.EXTRA_SUBJECT, mActivity.getString(R.string.title_share_transcript));
+                    shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
+                    // The chooser passes the grant on to the chosen app for the uri of the clip data.
+                    shareIntent.setClipData(ClipData.newRawUri(null, uri));
+                    shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                    ShareUtils.openSystemAppChooser(mActivity, shareIntent, mActivity.getString(R.string.title_share_transcript_with));
+                });
+            }
+        }.start();
+    }
+
+    /**
+     * Copy a selection which may not fit in a clip as text as the content uri of a file with its text
+     * instead, which apps read as text when pasting with {@link ClipData.Item#coerceToText(Context)}.
+     */
+    @Override
+    public boolean onCopySelectedText(TerminalSession session, int selX1, int selY1, int selX2, int selY2) {
+        final TerminalEmulator emulator = session == null ? null : session.getEmulator();
+        if (emulator == null || !TerminalTextExporter.isLarge(selY2 - selY1 + 1, emulator.mColumns))
+            return false;
+        final Context context = mActivity.getApplicationContext();
+        new Thread() {
+
+            @Override
+            public void run() {
+                Uri uri = TerminalTextExporter.writeSelectedText(context, emulator, "selection.txt", selX1, selY1, selX2, selY2);
+                mActivity.runOnUiThread(() -> {
+                    if (uri == null) {
+                        Logger.showToast(mActivity, mActivity.getString(R.string.error_write_terminal_text_failed), true);
+                        return;
+                    }
+                    ClipboardManager clipboardManager = (ClipboardManager) context.getSystemService(Context.CLIPBOARD_SERVICE);
+                    if (clipboardManager != null)
+                        clipboardManager.setPrimaryClip(ClipData.newUri(context.getContentResolver(), mActivity.getString(R.string.title_share_selected_text), uri));
+                });
+            }
+        }.start();
+        return true;
+    }
+
     public void shareSelectedText() {
         String selectedText = mActivity.getTerminalView().getStoredSelectedText();
         if (DataUtils.isNullOrEmpty(selectedText))
@@ -664,6 +795,56 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         ShareUtils.shareText(mActivity, mActivity.getString(R.string.title_share_selected_text), selectedText, mActivity.getString(R.string.title_share_selected_text_with));
     }
 
+    /**
+     * Show a dialog to find text in the transcript of the current session, going back from the highlighted match or
+     * the end of the transcript with "Previous" and forward with "Next". Text between slashes is searched as a regex,
+     * and case is ignored if the text has no upper case letters.
+     */
+    public void showTranscriptSearch() {
+        if (mActivity.getCurrentSession() == null)
+            return;
+        TextInputDialogUtils.textInput(mActivity, R.string.title_find_in_transcript, mTranscriptSearchQuery,
+            R.string.action_find_previous, text -> findInTranscript(text, false),
+            R.string.action_find_next, text -> findInTranscript(text, true),
+            R.string.action_find_clear, text -> mActivity.getTerminalView().clearSearchMatch(), null);
+    }
+
+    private void findInTranscript(String query, boolean forward) {
+        TerminalSession session = mActivity.getCurrentSession();
+        TerminalEmulator emulator = session == null ? null : session.getEmulator();
+        if (emulator == null || query.isEmpty())
+            return;
+        if (mTranscriptSearch == null || !query.equals(mTranscriptSearchQuery)) {
+            boolean regex = query.length() > 2 && query.startsWith("/") && query.endsWith("/");
+            try {
+                mTranscriptSearch = new TerminalSearch(regex ? query.substring(1, query.length() - 1) : query, regex, query.chars().noneMatch(Character::isUpperCase));
+            } catch (PatternSyntaxException e) {
+                Logger.showToast(mActivity, mActivity.getString(R.string.msg_find_in_transcript_invalid_regex, e.getDescription()), true);
+                return;
+            }
+            mTranscriptSearchQuery = query;
+        }
+        TerminalView terminalView = mActivity.getTerminalView();
+        // Continue from the highlighted match, or else from the end or start of the transcript.
+        int row, column;
+        if (terminalView.hasSearchMatch()) {
+            row = terminalView.getSearchMatchRow();
+            column = terminalView.getSearchMatchColumn() + (forward ? 1 : -1);
+        } else {
+            row = forward ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            column = 0;
+        }
+        boolean found;
+        // The emulator may be changed by the emulator thread of the session.
+        synchronized (emulator) {
+            found = mTranscriptSearch.find(emulator.getScreen(), row, column, forward);
+        }
+        if (found)
+            terminalView.setSearchMatch(mTranscriptSearch.getMatchStartRow(), mTranscriptSearch.getMatchStartColumn(), mTranscriptSearch.getMatchEndRow(), mTranscriptSearch.getMatchEndColumn());
+        else
+            Logger.showToast(mActivity, mActivity.getString(R.string.msg_find_in_transcript_not_found), true);
+    }
+
     public void showUrlSelection() {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null)
@@ -702,15 +883,49 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
             return;
         final String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
         if (transcriptText == null) return;
+        final String terminalSessionDebugInfo = getTerminalSessionDebugMarkdownString(session, mActivity.getTerminalView());
 
         MessageDialogUtils.showMessage(mActivity, TermuxConstants.TERMUX_APP_NAME + " Report Issue",
             mActivity.getString(R.string.msg_add_termux_debug_info),
-            mActivity.getString(com.termux.shared.R.string.action_yes), (dialog, which) -> reportIssueFromTranscript(transcriptText, true),
-            mActivity.getString(com.termux.shared.R.string.action_no), (dialog, which) -> reportIssueFromTranscript(transcriptText, false),
+            mActivity.getString(com.termux.shared.R.string.action_yes), (dialog, which) -> reportIssueFromTranscript(transcriptText, terminalSessionDebugInfo, true),
+            mActivity.getString(com.termux.shared.R.string.action_no), (dialog, which) -> reportIssueFromTranscript(transcriptText, terminalSessionDebugInfo, false),
             null);
     }
 
-    private void reportIssueFromTranscript(String transcriptText, boolean addTermuxDebugInfo) {
+    /**
+     * Get a markdown {@link String} of the terminal emulator state of a session that is useful for debugging, like the
+     * heap saved by compacting its transcript rows, and of the rendering by the {@link TerminalView} showing it.
+     */
+    private static String getTerminalSessionDebugMarkdownString(TerminalSession session, TerminalView terminalView) {
+        TerminalEmulator emulator = session.getEmulator();
+        if (emulator == null) return null;
+
+        StringBuilder markdownString = new StringBuilder();
+        markdownString.append("## Terminal Session\n");
+        // The emulator may be changed by the emulator thread of the session.
+        synchronized (emulator) {
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Columns", emulator.mColumns, "-"));
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Rows", emulator.mRows, "-"));
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Allocated Rows", emulator.getAllocatedRows() + "/" + emulator.getRowCapacity(), "-"));
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Compacted Transcript Rows", emulator.getCompactedTranscriptRows(), "-"));
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Transcript Compaction Heap Saved", (emulator.getTranscriptCompactionBytesSaved() / 1024) + " KiB", "-"));
+        }
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Last Frame Dirty Rows", terminalView.getLastDirtyRowCount(), "-"));
+        if (terminalView.mRenderer != null)
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Glyph Width Cache Hit Rate", Math.round(terminalView.mRenderer.getGlyphWidthCacheHitRate() * 100) + "%", "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Hibernated", session.isHibernated(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Bytes Read", session.getBytesRead(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Bytes Parsed", session.getBytesParsed(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Input Queue High Water Mark", session.getInputQueueHighWaterMark(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Reader Blocked", (session.getReaderBlockedNanos() / 1000000) + " ms", "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Parse Batches", session.getParseBatches(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Max Parse Batch", (session.getMaxParseBatchNanos() / 1000) + " us", "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Last Echo Latency", (session.getLastEchoLatencyNanos() / 1000) + " us", "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Max Echo Latency", (session.getMaxEchoLatencyNanos() / 1000) + " us", "-"));
+        return markdownString.toString();
+    }
+
+    private void reportIssueFromTranscript(String transcriptText, String terminalSessionDebugInfo, boolean addTermuxDebugInfo) {
         Logger.showToast(mActivity, mActivity.getString(R.string.msg_generating_report), true);
         new Thread() {
 
@@ -736,6 +951,8 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
                     String termuxDebugInfo = TermuxUtils.getTermuxDebugMarkdownString(mActivity);
                     if (termuxDebugInfo != null)
                         reportString.append("\n\n").append(termuxDebugInfo);
+                    if (terminalSessionDebugInfo != null)
+                        reportString.append("\n\n").append(terminalSessionDebugInfo);
                 }
                 String userActionName = UserAction.REPORT_ISSUE_FROM_TRANSCRIPT.getName();
                 ReportInfo reportInfo = new ReportInfo(userActionName, TermuxConstants.TERMUX_APP.TERMUX_ACTIVITY_NAME, title);
@@ -754,7 +971,11 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         if (!session.isRunning())
             return;
         String text = ShareUtils.getTextStringFromClipboardIfSet(mActivity, true);
-        if (text != null)
-            session.getEmulator().paste(text);
+        if (text != null) {
+            TerminalEmulator emulator = session.getEmulator();
+            synchronized (emulator) {
+                emulator.paste(text);
+            }
+        }
     }
 }
@@ -15,6 +15,8 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.AudioManager;
 import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.StatFs;
 import android.os.SystemClock;
 import android.provider.Settings;
@@ -25,6 +27,9 @@ import com.termux.privileged.PrivilegedPolicyStore;
 import com.termux.privileged.ShizukuBackend;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.shell.TermuxShellManager;
+import com.termux.shared.termux.shell.command.runner.terminal.TermuxSession;
+import com.termux.terminal.TerminalSession;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -52,6 +57,7 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -81,6 +87,7 @@ public class LauncherCtlApiServer {
     private static final int MIN_BRIGHTNESS = 0;
     private static final int MAX_BRIGHTNESS = 255;
     private static final int DEFAULT_VOLUME_STREAM = AudioManager.STREAM_MUSIC;
+    private static final int TERMINAL_SESSIONS_TIMEOUT_MS = 2_000;
 
     private static LauncherCtlApiServer instance;
 
@@ -224,6 +231,8 @@ public class LauncherCtlApiServer {
                 return jsonResponse(buildNowPlayingArt());
             } else if ("GET".equals(request.method) && "/v1/notifications".equals(request.path)) {
                 return jsonResponse(buildNotifications());
+            } else if ("GET".equals(request.method) && "/v1/terminal/sessions".equals(request.path)) {
+                return jsonResponse(buildTerminalSessions());
             } else if ("POST".equals(request.method) && "/v1/exec".equals(request.path)) {
                 return jsonResponse(runExec(context, request.body));
             } else if ("POST".equals(request.method) && "/v1/system/brightness".equals(request.path)) {
@@ -434,6 +443,57 @@ public class LauncherCtlApiServer {
         return snapshot;
     }
 
+    /**
+     * Build the output and latency counters of the terminal sessions, see {@link TerminalSession#getBytesRead()}. The
+     * list of sessions is only changed on the main thread, so it is copied there.
+     */
+    private JSONObject buildTerminalSessions() throws Exception {
+        TermuxShellManager shellManager = TermuxShellManager.getShellManager();
+        FutureTask<List<TerminalSession>> sessionsTask = new FutureTask<>(() -> {
+            List<TerminalSession> terminalSessions = new ArrayList<>();
+            if (shellManager != null) {
+                for (TermuxSession termuxSession : shellManager.mTermuxSessions)
+                    terminalSessions.add(termuxSession.getTerminalSession());
+            }
+            return terminalSessions;
+        });
+        new Handler(Looper.getMainLooper()).post(sessionsTask);
+        List<TerminalSession> terminalSessions = sessionsTask.get(TERMINAL_SESSIONS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        JSONArray sessions = new JSONArray();
+        for (int i = 0; i < terminalSessions.size(); i++) {
+            TerminalSession session = terminalSessions.get(i);
+            JSONObject item = new JSONObject();
+            item.put("index", i);
+            item.put("handle", session.mHandle);
+            item.put("name", session.mSessionName == null ? "" : session.mSessionName);
+            item.put("title", session.getTitle() == null ? "" : session.getTitle());
+            item.put("pid", session.getPid());
+            item.put("running", session.isRunning());
+            item.put("hibernated", session.isHibernated());
+            item.put("bytesRead", session.getBytesRead());
+            item.put("bytesParsed", session.getBytesParsed());
+            item.put("inputQueueHighWaterMarkBytes", session.getInputQueueHighWaterMark());
+            item.put("readerBlockedMs", session.getReaderBlockedNanos() / 1e6);
+            item.put("parseBatches", session.getParseBatches());
+            item.put("parseMs", session.getParseNanos() / 1e6);
+            item.put("lastParseBatchMs", session.getLastParseBatchNanos() / 1e6);
+            item.put("maxParseBatchMs", session.getMaxParseBatchNanos() / 1e6);
+            item.put("screenUpdateFrames", session.getScreenUpdateFrames());
+            item.put("maxFrameBytesParsed", session.getMaxFrameBytesParsed());
+            item.put("echoes", session.getEchoes());
+            item.put("lastEchoLatencyMs", session.getLastEchoLatencyNanos() / 1e6);
+            item.put("maxEchoLatencyMs", session.getMaxEchoLatencyNanos() / 1e6);
+            sessions.put(item);
+        }
+        JSONObject data = new JSONObject();
+        data.put("ok", true);
+        data.put("timestampMs", System.currentTimeMillis());
+        data.put("count", sessions.length());
+        data.put("sessions", sessions);
+        return data;
+    }
+
     private JSONObject runExec(Context context, String body) throws JSONException {
         JSONObject endpointGuard = ensurePrivilegedEndpointEnabled(context, PrivilegedPolicyStore.Endpoint.EXEC, "/v1/exec");
         if (endpointGuard != null) return endpointGuard;
@@ -872,6 +932,7 @@ public class LauncherCtlApiServer {
         rateLimiters.put("GET:/v1/media/now-playing", new SimpleRateLimiter(120, 60_000));
         rateLimiters.put("GET:/v1/media/art", new SimpleRateLimiter(60, 60_000));
         rateLimiters.put("GET:/v1/notifications", new SimpleRateLimiter(120, 60_000));
+        rateLimiters.put("GET:/v1/terminal/sessions", new SimpleRateLimiter(120, 60_000));
         rateLimiters.put("POST:/v1/exec", new SimpleRateLimiter(30, 60_000));
         rateLimiters.put("POST:/v1/system/brightness", new SimpleRateLimiter(30, 60_000));
         rateLimiters.put("POST:/v1/system/volume", new SimpleRateLimiter(30, 60_000));
@@ -931,6 +992,9 @@ public class LauncherCtlApiServer {
             "  notifications)\n" +
             "    curl $CURL_COMMON -H \"Authorization: Bearer $TOKEN\" \"$BASE/v1/notifications\"\n" +
             "    ;;\n" +
+            "  sessions)\n" +
+            "    curl $CURL_COMMON -H \"Authorization: Bearer $TOKEN\" \"$BASE/v1/terminal/sessions\"\n" +
+            "    ;;\n" +
             "  brightness)\n" +
             "    if [ \"$#\" -gt 0 ]; then\n" +
             "      curl $CURL_COMMON -X POST -H \"Authorization: Bearer $TOKEN\" -H \"Content-Type: application/json\" \\\n" +
@@ -968,7 +1032,7 @@ public class LauncherCtlApiServer {
             "    curl $CURL_COMMON -X POST -H \"Authorization: Bearer $TOKEN\" \"$BASE/v1/auth/rotate\"\n" +
             "    ;;\n" +
             "  *)\n" +
-            "    echo \"usage: launcherctl {status|apps|resources|media|art|notifications|brightness [value]|volume [value] [stream]|exec|permission|lock|token rotate}\" >&2\n" +
+            "    echo \"usage: launcherctl {status|apps|resources|media|art|notifications|sessions|brightness [value]|volume [value] [stream]|exec|permission|lock|token rotate}\" >&2\n" +
             "    exit 2\n" +
             "    ;;\n" +
             "esac\n";
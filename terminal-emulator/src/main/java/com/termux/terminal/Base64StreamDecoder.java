@@ -0,0 +1,120 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A base64 decoder which is fed one char at a time, for data which arrives as part of terminal output like the images
+ * of OSC 1337, so that the encoded data never has to be collected. The decoded bytes are stored in a growable buffer
+ * of at most {@link #reset(int)} bytes, beyond which the data is dropped and {@link #isOverflowed()} is set.
+ * <p>
+ * Chars outside of the standard and URL safe base64 alphabets, like line breaks and padding, are ignored.
+ */
+final class Base64StreamDecoder {
+
+    /** The initial capacity of {@link #mBuffer}, which grows by doubling. */
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /** The max capacity of {@link #mBuffer} kept for the next data after {@link #reset(int)}. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /** The 6 bit values of the base64 chars, or -1. */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        // The URL safe alphabet.
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+
+    private byte[] mBuffer = new byte[0];
+
+    private int mLength;
+
+    private int mMaxLength;
+
+    private boolean mOverflowed;
+
+    /** The bits of the current group of up to 4 chars, and the number of chars in it. */
+    private int mBits, mBitsChars;
+
+    /**
+     * Start decoding new data of at most {@code maxLength} decoded bytes.
+     */
+    void reset(int maxLength) {
+        if (mBuffer.length > MAX_RETAINED_CAPACITY)
+            mBuffer = new byte[0];
+        mLength = 0;
+        mMaxLength = maxLength;
+        mOverflowed = false;
+        mBits = 0;
+        mBitsChars = 0;
+    }
+
+    void decode(int c) {
+        if (c >= DECODE_TABLE.length)
+            return;
+        final int value = DECODE_TABLE[c];
+        if (value < 0)
+            return;
+        mBits = (mBits << 6) | value;
+        if (++mBitsChars == 4) {
+            append(mBits >> 16);
+            append(mBits >> 8);
+            append(mBits);
+            mBits = 0;
+            mBitsChars = 0;
+        }
+    }
+
+    /**
+     * Decode the bytes of the last group of chars, which is incomplete if the padding of the data was omitted.
+     */
+    void finish() {
+        if (mBitsChars == 2) {
+            append(mBits >> 4);
+        } else if (mBitsChars == 3) {
+            append(mBits >> 10);
+            append(mBits >> 2);
+        }
+        mBits = 0;
+        mBitsChars = 0;
+    }
+
+    private void append(int b) {
+        if (mLength == mBuffer.length) {
+            if (mLength >= mMaxLength) {
+                mOverflowed = true;
+                return;
+            }
+            mBuffer = Arrays.copyOf(mBuffer, Math.min(Math.max(INITIAL_CAPACITY, mLength * 2), mMaxLength));
+        }
+        mBuffer[mLength++] = (byte) b;
+    }
+
+    /**
+     * Get the buffer containing the decoded bytes, of which the first {@link #getLength()} are valid.
+     */
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Get the decoded bytes and stop using the buffer holding them, so that it may be used by another thread.
+     */
+    byte[] takeBuffer() {
+        final byte[] buffer = mBuffer;
+        mBuffer = new byte[0];
+        return buffer;
+    }
+
+    boolean isOverflowed() {
+        return mOverflowed;
+    }
+}
@@ -1,61 +1,86 @@
 package com.termux.terminal;
 
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * A circular byte buffer allowing one producer and one consumer thread.
+ * <p>
+ * The producer only advances {@link #mTail} and the consumer only advances {@link #mHead}, so no lock is taken on
+ * reads and writes. A thread only parks when the queue is full (producer) or empty (consumer), after publishing itself
+ * in {@link #mWaitingWriter} or {@link #mWaitingReader} so that the other side can unpark it. Callers with more than
+ * one producer thread must serialize their calls to {@link #write(byte[], int, int)}.
  */
 final class ByteQueue {
 
+    /**
+     * The number of times to yield to the other side before parking when the queue is empty or full, which avoids a
+     * park and unpark per write when the producer and consumer run at the same rate.
+     */
+    private static final int YIELDS_BEFORE_PARKING = 4;
+
     private final byte[] mBuffer;
 
-    private int mHead;
+    /** The total number of bytes read, only written by the consumer. */
+    private volatile long mHead;
+
+    /** The total number of bytes written, only written by the producer. */
+    private volatile long mTail;
 
-    private int mStoredBytes;
+    private volatile boolean mOpen = true;
 
-    private boolean mOpen = true;
+    private volatile Thread mWaitingReader;
+
+    private volatile Thread mWaitingWriter;
+
+    /** The max number of bytes that were in the queue after a write, only written by the producer. */
+    private volatile int mHighWaterMark;
+
+    /** The total time the producer waited for space in a full queue, only written by the producer. */
+    private volatile long mWriterBlockedNanos;
 
     public ByteQueue(int size) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size <= 0");
         mBuffer = new byte[size];
     }
 
-    public synchronized void close() {
+    public void close() {
         mOpen = false;
-        notify();
+        unpark(mWaitingReader);
+        unpark(mWaitingWriter);
     }
 
-    public synchronized int read(byte[] buffer, boolean block) {
-        while (mStoredBytes == 0 && mOpen) {
-            if (block) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    // Ignore.
-                }
-            } else {
+    public int read(byte[] buffer, boolean block) {
+        final long head = mHead;
+        long tail = mTail;
+        int yields = 0;
+        while (tail == head && mOpen) {
+            if (!block)
                 return 0;
+            if (yields++ < YIELDS_BEFORE_PARKING) {
+                Thread.yield();
+                tail = mTail;
+                continue;
             }
+            mWaitingReader = Thread.currentThread();
+            // Check again after publishing the waiting thread so that a concurrent write or close cannot be missed.
+            if (mTail == head && mOpen)
+                LockSupport.park(this);
+            mWaitingReader = null;
+            tail = mTail;
         }
         if (!mOpen)
             return -1;
-        int totalRead = 0;
-        int bufferLength = mBuffer.length;
-        boolean wasFull = bufferLength == mStoredBytes;
-        int length = buffer.length;
-        int offset = 0;
-        while (length > 0 && mStoredBytes > 0) {
-            int oneRun = Math.min(bufferLength - mHead, mStoredBytes);
-            int bytesToCopy = Math.min(length, oneRun);
-            System.arraycopy(mBuffer, mHead, buffer, offset, bytesToCopy);
-            mHead += bytesToCopy;
-            if (mHead >= bufferLength)
-                mHead = 0;
-            mStoredBytes -= bytesToCopy;
-            length -= bytesToCopy;
-            offset += bytesToCopy;
-            totalRead += bytesToCopy;
-        }
-        if (wasFull)
-            notify();
-        return totalRead;
+        final int bufferLength = mBuffer.length;
+        final int bytesToRead = (int) Math.min(buffer.length, tail - head);
+        final int start = (int) (head % bufferLength);
+        final int firstRun = Math.min(bytesToRead, bufferLength - start);
+        System.arraycopy(mBuffer, start, buffer, 0, firstRun);
+        if (firstRun < bytesToRead)
+            System.arraycopy(mBuffer, 0, buffer, firstRun, bytesToRead - firstRun);
+        mHead = head + bytesToRead;
+        unpark(mWaitingWriter);
+        return bytesToRead;
     }
 
     /**
@@ -70,45 +95,98 @@ final class ByteQueue {
             throw new IllegalArgumentException("length <= 0");
         }
         final int bufferLength = mBuffer.length;
-        synchronized (this) {
-            while (lengthToWrite > 0) {
-                while (bufferLength == mStoredBytes && mOpen) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        // Ignore.
-                    }
-                }
-                if (!mOpen)
-                    return false;
-                final boolean wasEmpty = mStoredBytes == 0;
-                int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
-                lengthToWrite -= bytesToWriteBeforeWaiting;
-                while (bytesToWriteBeforeWaiting > 0) {
-                    int tail = mHead + mStoredBytes;
-                    int oneRun;
-                    if (tail >= bufferLength) {
-                        // Buffer: [.............]
-                        // ________________H_______T
-                        // =>
-                        // Buffer: [.............]
-                        // ___________T____H
-                        // onRun= _____----_
-                        tail = tail - bufferLength;
-                        oneRun = mHead - tail;
-                    } else {
-                        oneRun = bufferLength - tail;
-                    }
-                    int bytesToCopy = Math.min(oneRun, bytesToWriteBeforeWaiting);
-                    System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
-                    offset += bytesToCopy;
-                    bytesToWriteBeforeWaiting -= bytesToCopy;
-                    mStoredBytes += bytesToCopy;
+        long tail = mTail;
+        while (lengthToWrite > 0) {
+            long head = mHead;
+            int yields = 0;
+            final boolean full = tail - head == bufferLength;
+            final long blockedStart = full ? System.nanoTime() : 0;
+            while (tail - head == bufferLength && mOpen) {
+                if (yields++ < YIELDS_BEFORE_PARKING) {
+                    Thread.yield();
+                    head = mHead;
+                    continue;
                 }
-                if (wasEmpty)
-                    notify();
+                mWaitingWriter = Thread.currentThread();
+                // Check again after publishing the waiting thread so that a concurrent read or close cannot be missed.
+                if (tail - mHead == bufferLength && mOpen)
+                    LockSupport.park(this);
+                mWaitingWriter = null;
+                head = mHead;
             }
+            if (full)
+                mWriterBlockedNanos += System.nanoTime() - blockedStart;
+            if (!mOpen)
+                return false;
+            final int bytesToWrite = (int) Math.min(lengthToWrite, bufferLength - (tail - head));
+            tail = append(buffer, offset, bytesToWrite, tail);
+            offset += bytesToWrite;
+            lengthToWrite -= bytesToWrite;
         }
         return true;
     }
+
+    /**
+     * Write as much of the specified portion of the provided buffer as fits in the queue, without waiting for space.
+     * <p/>
+     * Returns the number of bytes written, or -1 if the queue was closed.
+     */
+    public int offer(byte[] buffer, int offset, int lengthToWrite) {
+        if (lengthToWrite + offset > buffer.length)
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        if (!mOpen)
+            return -1;
+        final long tail = mTail;
+        final int bytesToWrite = (int) Math.min(lengthToWrite, mBuffer.length - (tail - mHead));
+        if (bytesToWrite > 0)
+            append(buffer, offset, bytesToWrite, tail);
+        return bytesToWrite;
+    }
+
+    /**
+     * Copy bytes which fit in the queue to its tail, publish them and wake up a waiting reader.
+     *
+     * @return Returns the new tail.
+     */
+    private long append(byte[] buffer, int offset, int bytesToWrite, long tail) {
+        final int bufferLength = mBuffer.length;
+        final int start = (int) (tail % bufferLength);
+        final int firstRun = Math.min(bytesToWrite, bufferLength - start);
+        System.arraycopy(buffer, offset, mBuffer, start, firstRun);
+        if (firstRun < bytesToWrite)
+            System.arraycopy(buffer, offset + firstRun, mBuffer, 0, bytesToWrite - firstRun);
+        tail += bytesToWrite;
+        mTail = tail;
+        final int used = (int) (tail - mHead);
+        if (used > mHighWaterMark)
+            mHighWaterMark = used;
+        unpark(mWaitingReader);
+        return tail;
+    }
+
+    /** The number of bytes written and not read yet. */
+    public int size() {
+        // Read the head first, since a read between the two would otherwise make the size appear larger than it is.
+        final long head = mHead;
+        return (int) (mTail - head);
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /** The max number of bytes that were in the queue after a write. */
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /** The total time in nanoseconds that writes waited for space in a full queue. */
+    public long getWriterBlockedNanos() {
+        return mWriterBlockedNanos;
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
 }
@@ -63,7 +63,44 @@ public final class KeyHandler {
 
     public static final int KEYMOD_NUM_LOCK = 0x10000000;
 
-    private static final Map<String, Integer> TERMCAP_TO_KEYCODE = new HashMap<>();
+    /** The highest key code for which {@link #computeCode(int, int, boolean, boolean)} returns a code. */
+    static final int MAX_KEYCODE = KEYCODE_NUMPAD_EQUALS;
+
+    /** The number of combinations of the {@code KEYMOD_*} flags, which are the four highest bits. */
+    static final int KEYMOD_COMBINATIONS = 16;
+
+    /**
+     * The codes for every key code up to {@link #MAX_KEYCODE}, combination of modifiers and cursor and keypad
+     * application modes, see {@link #getCodeIndex(int, int, boolean, boolean)}. Built once, so that key presses do
+     * not build their codes again, and equal codes share the same string.
+     */
+    private static final String[] CODES = new String[(MAX_KEYCODE + 1) * KEYMOD_COMBINATIONS * 4];
+
+    /** The key code and modifiers of each termcap name, which are looked up in {@link #TERMCAP_TO_CODES} instead. */
+    static final Map<String, Integer> TERMCAP_TO_KEYCODE = new HashMap<>();
+
+    /** The codes for each termcap name in {@link #TERMCAP_TO_KEYCODE}, indexed by {@link #getModeIndex(boolean, boolean)}. */
+    private static final Map<String, String[]> TERMCAP_TO_CODES = new HashMap<>();
+
+    static {
+        Map<String, String> sharedCodes = new HashMap<>();
+        for (int keyCode = 0; keyCode <= MAX_KEYCODE; keyCode++) {
+            for (int keyModIndex = 0; keyModIndex < KEYMOD_COMBINATIONS; keyModIndex++) {
+                int keyMod = keyModIndex << 28;
+                for (int mode = 0; mode < 4; mode++) {
+                    boolean cursorApp = (mode & 2) != 0;
+                    boolean keypadApplication = (mode & 1) != 0;
+                    String code = computeCode(keyCode, keyMod, cursorApp, keypadApplication);
+                    if (code == null)
+                        continue;
+                    String sharedCode = sharedCodes.get(code);
+                    if (sharedCode == null)
+                        sharedCodes.put(code, sharedCode = code);
+                    CODES[getCodeIndex(keyCode, keyMod, cursorApp, keypadApplication)] = sharedCode;
+                }
+            }
+        }
+    }
 
     static {
         // terminfo: http://pubs.opengroup.org/onlinepubs/7990989799/xcurses/terminfo.html
@@ -132,9 +169,29 @@ public final class KeyHandler {
         TERMCAP_TO_KEYCODE.put("kUP", KEYMOD_SHIFT | KEYCODE_DPAD_UP);
         TERMCAP_TO_KEYCODE.put("@7", KEYCODE_MOVE_END);
         TERMCAP_TO_KEYCODE.put("@8", KEYCODE_NUMPAD_ENTER);
+
+        for (String termcap : TERMCAP_TO_KEYCODE.keySet()) {
+            String[] codes = new String[4];
+            for (int mode = 0; mode < 4; mode++)
+                codes[mode] = computeCodeFromTermcap(termcap, (mode & 2) != 0, (mode & 1) != 0);
+            TERMCAP_TO_CODES.put(termcap, codes);
+        }
+    }
+
+    private static int getModeIndex(boolean cursorApp, boolean keypadApplication) {
+        return (cursorApp ? 2 : 0) | (keypadApplication ? 1 : 0);
+    }
+
+    private static int getCodeIndex(int keyCode, int keyMod, boolean cursorApp, boolean keypadApplication) {
+        return ((keyCode * KEYMOD_COMBINATIONS) + (keyMod >>> 28)) * 4 + getModeIndex(cursorApp, keypadApplication);
     }
 
     static String getCodeFromTermcap(String termcap, boolean cursorKeysApplication, boolean keypadApplication) {
+        String[] codes = TERMCAP_TO_CODES.get(termcap);
+        return codes == null ? null : codes[getModeIndex(cursorKeysApplication, keypadApplication)];
+    }
+
+    static String computeCodeFromTermcap(String termcap, boolean cursorKeysApplication, boolean keypadApplication) {
         Integer keyCodeAndMod = TERMCAP_TO_KEYCODE.get(termcap);
         if (keyCodeAndMod == null)
             return null;
@@ -156,10 +213,23 @@ public final class KeyHandler {
             keyMod |= KEYMOD_NUM_LOCK;
             keyCode &= ~KEYMOD_NUM_LOCK;
         }
-        return getCode(keyCode, keyMod, cursorKeysApplication, keypadApplication);
+        return computeCode(keyCode, keyMod, cursorKeysApplication, keypadApplication);
     }
 
+    /**
+     * Get the code to send to the process for a key press, or null if the key has no code. The returned strings are
+     * shared constants.
+     */
     public static String getCode(int keyCode, int keyMode, boolean cursorApp, boolean keypadApplication) {
+        if (keyCode < 0 || keyCode > MAX_KEYCODE)
+            return null;
+        if ((keyMode & ~(KEYMOD_ALT | KEYMOD_CTRL | KEYMOD_SHIFT | KEYMOD_NUM_LOCK)) != 0)
+            return computeCode(keyCode, keyMode, cursorApp, keypadApplication);
+        return CODES[getCodeIndex(keyCode, keyMode, cursorApp, keypadApplication)];
+    }
+
+    /** Build the code for a key press, which {@link #getCode(int, int, boolean, boolean)} looks up instead. */
+    static String computeCode(int keyCode, int keyMode, boolean cursorApp, boolean keypadApplication) {
         boolean numLockOn = (keyMode & KEYMOD_NUM_LOCK) != 0;
         keyMode &= ~KEYMOD_NUM_LOCK;
         switch(keyCode) {
@@ -3,6 +3,8 @@ package com.termux.terminal;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Rect;
@@ -16,7 +18,8 @@ import android.os.SystemClock;
  */
 public class TerminalBitmap {
 
-    public Bitmap bitmap;
+    /** The bitmap, which is null until an inline image has been decoded. */
+    public volatile Bitmap bitmap;
 
     public int cellWidth;
 
@@ -26,30 +29,64 @@ public class TerminalBitmap {
 
     public int[] cursorDelta;
 
+    /** The number of rows the cells of the image were placed in, and the bytes of its bitmap. */
+    int rows;
+
+    long byteCount;
+
+    /** The state kept by {@link TerminalBitmapStore}. */
+    int num, references, referenceStamp, pendingReleases;
+
+    long lastUsed;
+
+    volatile boolean evicted;
+
     private static final String LOG_TAG = "TerminalBitmap";
 
+    /** The thread decoding inline images, in the order they were received. */
+    private static final ExecutorService DECODE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TerminalBitmapDecoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public TerminalBitmap(int num, WorkingTerminalBitmap sixel, int Y, int X, int cellW, int cellH, TerminalBuffer screen) {
-        Bitmap bm = sixel.bitmap;
-        bm = resizeBitmapConstraints(bm, sixel.width, sixel.height, cellW, cellH, screen.mColumns - X);
-        addBitmap(num, bm, Y, X, cellW, cellH, screen);
+        // Width and height must be multiples of the cell width and height, and not extend beyond the screen width.
+        int w = Math.min(cellW * (screen.mColumns - X), ((sixel.width + cellW - 1) / cellW) * cellW);
+        int h = ((sixel.height + cellH - 1) / cellH) * cellH;
+        addBitmap(num, sixel.toBitmap(w, h), Y, X, cellW, cellH, screen);
+    }
+
+    /**
+     * Place the cells of an image of {@code width} x {@code height} pixels at the cursor without a bitmap, so that
+     * they draw nothing until {@link #bitmap} is set.
+     */
+    TerminalBitmap(int num, int width, int height, int Y, int X, int cellW, int cellH, TerminalBuffer screen) {
+        placeCells(num, width, height, Y, X, cellW, cellH, screen);
     }
 
-    public TerminalBitmap(int num, byte[] image, int Y, int X, int cellW, int cellH, int width, int height, boolean aspect, TerminalBuffer screen) {
-        Bitmap bm = null;
-        int imageHeight;
-        int imageWidth;
+    /**
+     * Place an encoded image, of which only the bounds are decoded here to reserve its cells. The pixels are decoded
+     * on the {@link #DECODE_EXECUTOR}, which sets {@link #bitmap} and then runs {@code onDecoded}. If the image cannot
+     * be placed {@link #cursorDelta} is null.
+     */
+    public TerminalBitmap(int num, byte[] image, int length, int Y, int X, int cellW, int cellH, int width, int height, boolean aspect, TerminalBuffer screen, Runnable onDecoded) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try {
+            BitmapFactory.decodeByteArray(image, 0, length, options);
+        } catch (Exception e) {
+            Logger.logWarn(null, LOG_TAG, "Cannot decode image");
+        }
+        final int imageHeight = options.outHeight;
+        final int imageWidth = options.outWidth;
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            Logger.logWarn(null, LOG_TAG, "Cannot decode image");
+            return;
+        }
         int newWidth = width;
         int newHeight = height;
         if (height > 0 || width > 0) {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            try {
-                BitmapFactory.decodeByteArray(image, 0, image.length, options);
-            } catch (Exception e) {
-                Logger.logWarn(null, LOG_TAG, "Cannot decode image");
-            }
-            imageHeight = options.outHeight;
-            imageWidth = options.outWidth;
             if (aspect) {
                 double wFactor = 9999.0;
                 double hFactor = 9999.0;
@@ -70,56 +107,72 @@ public class TerminalBitmap {
                     newWidth = imageWidth;
                 }
             }
-            int scaleFactor = 1;
-            while (imageHeight >= 2 * newHeight * scaleFactor && imageWidth >= 2 * newWidth * scaleFactor) {
-                scaleFactor = scaleFactor * 2;
-            }
-            BitmapFactory.Options scaleOptions = new BitmapFactory.Options();
-            scaleOptions.inSampleSize = scaleFactor;
-            try {
-                bm = BitmapFactory.decodeByteArray(image, 0, image.length, scaleOptions);
-            } catch (Exception e) {
-                Logger.logWarn(null, LOG_TAG, "Out of memory, cannot decode image");
-                bitmap = null;
-                return;
-            }
-            if (bm == null) {
-                Logger.logWarn(null, LOG_TAG, "Could not decode image");
-                bitmap = null;
+        } else {
+            newWidth = imageWidth;
+            newHeight = imageHeight;
+        }
+        newWidth = Math.max(1, newWidth);
+        newHeight = Math.max(1, newHeight);
+        int scaleFactor = 1;
+        while (imageHeight >= 2 * newHeight * scaleFactor && imageWidth >= 2 * newWidth * scaleFactor) {
+            scaleFactor = scaleFactor * 2;
+        }
+        final int maxWidth = (screen.mColumns - X) * cellW;
+        final int columns = placeCells(num, Math.min(newWidth, maxWidth), newHeight, Y, X, cellW, cellH, screen);
+        cursorDelta = new int[] { scrollLines, columns };
+
+        final int sampleSize = scaleFactor, scaledWidth = newWidth, scaledHeight = newHeight;
+        DECODE_EXECUTOR.execute(() -> {
+            if (evicted)
                 return;
+            Bitmap bm = decodeImage(image, length, sampleSize, scaledWidth, scaledHeight, maxWidth, cellW, cellH);
+            if (bm != null && !evicted) {
+                bitmap = bm;
+                // Do not keep a bitmap if the image was evicted meanwhile.
+                if (evicted)
+                    bitmap = null;
+                else
+                    onDecoded.run();
             }
-            int maxWidth = (screen.mColumns - X) * cellW;
-            if (newWidth > maxWidth) {
-                int cropWidth = bm.getWidth() * maxWidth / newWidth;
-                try {
-                    bm = Bitmap.createBitmap(bm, 0, 0, cropWidth, bm.getHeight());
-                    newWidth = maxWidth;
-                } catch (OutOfMemoryError e) {
-                    // This is just a memory optimization. If it fails,
-                    // continue (and probably fail later).
-                }
-            }
+        });
+    }
+
+    /**
+     * Decode an image scaled to {@code width} and {@code height}, cropped to {@code maxWidth} and padded to whole cells.
+     */
+    private static Bitmap decodeImage(byte[] image, int length, int sampleSize, int width, int height, int maxWidth, int cellW, int cellH) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bm;
+        try {
+            bm = BitmapFactory.decodeByteArray(image, 0, length, options);
+        } catch (Exception | OutOfMemoryError e) {
+            Logger.logWarn(null, LOG_TAG, "Out of memory, cannot decode image");
+            return null;
+        }
+        if (bm == null) {
+            Logger.logWarn(null, LOG_TAG, "Could not decode image");
+            return null;
+        }
+        if (width > maxWidth) {
+            int cropWidth = Math.max(1, bm.getWidth() * maxWidth / width);
             try {
-                bm = Bitmap.createScaledBitmap(bm, newWidth, newHeight, true);
+                bm = Bitmap.createBitmap(bm, 0, 0, cropWidth, bm.getHeight());
+                width = maxWidth;
             } catch (OutOfMemoryError e) {
-                Logger.logWarn(null, LOG_TAG, "Out of memory, cannot rescale image");
-                bm = null;
+                // This is just a memory optimization. If it fails,
+                // continue (and probably fail later).
             }
-        } else {
+        }
+        if (bm.getWidth() != width || bm.getHeight() != height) {
             try {
-                bm = BitmapFactory.decodeByteArray(image, 0, image.length);
-            } catch (Exception e) {
-                Logger.logWarn(null, LOG_TAG, "Out of memory, cannot decode image");
+                bm = Bitmap.createScaledBitmap(bm, width, height, true);
+            } catch (OutOfMemoryError e) {
+                Logger.logWarn(null, LOG_TAG, "Out of memory, cannot rescale image");
+                return null;
             }
         }
-        if (bm == null) {
-            Logger.logWarn(null, LOG_TAG, "Cannot decode image");
-            bitmap = null;
-            return;
-        }
-        bm = resizeBitmapConstraints(bm, bm.getWidth(), bm.getHeight(), cellW, cellH, screen.mColumns - X);
-        addBitmap(num, bm, Y, X, cellW, cellH, screen);
-        cursorDelta = new int[] { scrollLines, (bitmap.getWidth() + cellW - 1) / cellW };
+        return resizeBitmapConstraints(bm, bm.getWidth(), bm.getHeight(), cellW, cellH, maxWidth / cellW);
     }
 
     private void addBitmap(int num, Bitmap bm, int Y, int X, int cellW, int cellH, TerminalBuffer screen) {
@@ -129,6 +182,25 @@ public class TerminalBitmap {
         }
         int width = bm.getWidth();
         int height = bm.getHeight();
+        int w = placeCells(num, width, height, Y, X, cellW, cellH, screen);
+        if (w * cellW < width) {
+            try {
+                bm = Bitmap.createBitmap(bm, 0, 0, w * cellW, height);
+            } catch (OutOfMemoryError e) {
+                // Image cannot be cropped to only visible part due to out of memory.
+                // This causes memory waste.
+            }
+        }
+        bitmap = bm;
+    }
+
+    /**
+     * Fill the cells covered by a bitmap of {@code width} and {@code height} pixels at the cursor, scrolling the screen
+     * if it does not fit below it.
+     *
+     * @return The number of columns covered.
+     */
+    private int placeCells(int num, int width, int height, int Y, int X, int cellW, int cellH, TerminalBuffer screen) {
         cellWidth = cellW;
         cellHeight = cellH;
         int w = Math.min(screen.mColumns - X, (width + cellW - 1) / cellW);
@@ -143,20 +215,22 @@ public class TerminalBitmap {
                 screen.setChar(X + j, Y + i - s, '+', TextStyle.encodeBitmap(num, j, i));
             }
         }
-        if (w * cellW < width) {
-            try {
-                bm = Bitmap.createBitmap(bm, 0, 0, w * cellW, height);
-            } catch (OutOfMemoryError e) {
-                // Image cannot be cropped to only visible part due to out of memory.
-                // This causes memory waste.
-            }
-        }
-        bitmap = bm;
         scrollLines = h - s;
+        rows = h;
+        byteCount = 4L * w * cellW * h * cellH;
+        return w;
+    }
+
+    /**
+     * Drop the bitmap, after which the cells of the image draw nothing.
+     */
+    void evict() {
+        evicted = true;
+        bitmap = null;
     }
 
     static public Bitmap resizeBitmap(Bitmap bm, int w, int h) {
-        int[] pixels = new int[bm.getAllocationByteCount()];
+        int[] pixels = new int[bm.getWidth() * bm.getHeight()];
         bm.getPixels(pixels, 0, bm.getWidth(), 0, 0, bm.getWidth(), bm.getHeight());
         Bitmap newbm;
         try {
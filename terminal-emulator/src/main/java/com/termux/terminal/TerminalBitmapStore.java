@@ -0,0 +1,211 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The images of a terminal session, shared by its {@link TerminalBuffer}s and identified by the number encoded in the
+ * styles of the cells showing them with {@link TextStyle#encodeBitmap(int, int, int)}.
+ * <p>
+ * Each image counts the rows referencing it. The buffers update the counts when rows are cleared, scrolled out or
+ * overwritten in bulk, and the image is removed when its count drops to zero. A single cell overwritten with
+ * {@link TerminalBuffer#setChar(int, int, int, long)} does not update the count, so the image is kept until its row
+ * is next cleared.
+ * <p>
+ * The decoded bitmaps are limited to a byte budget. When it is exceeded, the bitmaps of the least recently drawn
+ * images which are not on screen are evicted, after which their cells draw nothing.
+ */
+final class TerminalBitmapStore {
+
+    /** The max number of images, since {@link TextStyle#bitmapNum(long)} sign extends numbers of 16 bits. */
+    static final int MAX_IMAGES = 0x8000;
+
+    private final HashMap<Integer, TerminalBitmap> mImages = new HashMap<>();
+
+    /** The next number to try for a new image, so that numbers are not reused sooner than necessary. */
+    private int mNextNum;
+
+    private long mBudgetBytes = TerminalEmulator.DEFAULT_IMAGE_CACHE_MAX_BYTES;
+
+    /** The bytes of the images whose bitmaps are not evicted. */
+    private long mBitmapBytes;
+
+    /** Incremented when an image is drawn, to order the images by when they were last drawn. */
+    private long mUseCounter;
+
+    /** Incremented per row scanned by {@link #reference(TerminalRow, int, int)}, to count each image once per row. */
+    private int mRowStamp;
+
+    /** The numbers of the images on screen, collected when evicting. */
+    private final BitSet mOnScreen = new BitSet(MAX_IMAGES);
+
+    /** The images with releases pending until {@link #commitReleases()}. */
+    private final ArrayList<TerminalBitmap> mPendingReleases = new ArrayList<>();
+
+    private int mEvictedImages;
+
+    /**
+     * Get a number for a new image, or -1 if all numbers are in use.
+     */
+    int nextNum() {
+        if (mImages.size() >= MAX_IMAGES)
+            return -1;
+        while (mImages.containsKey(mNextNum)) mNextNum = (mNextNum + 1) % MAX_IMAGES;
+        final int num = mNextNum;
+        mNextNum = (mNextNum + 1) % MAX_IMAGES;
+        return num;
+    }
+
+    /**
+     * Add an image whose cells have been placed in {@code rows} rows.
+     */
+    void add(int num, TerminalBitmap image, int rows) {
+        image.num = num;
+        image.references = rows;
+        image.lastUsed = ++mUseCounter;
+        mImages.put(num, image);
+        mBitmapBytes += image.byteCount;
+    }
+
+    /**
+     * Get an image to draw, or null if it was removed.
+     */
+    TerminalBitmap get(int num) {
+        TerminalBitmap image = mImages.get(num);
+        if (image != null)
+            image.lastUsed = ++mUseCounter;
+        return image;
+    }
+
+    /**
+     * Add {@code delta} to the count of each image with cells in the first {@code columns} columns of the row,
+     * removing the images no longer referenced. Does nothing if the row has no cells with bitmaps.
+     *
+     * @return Whether the row has cells with bitmaps.
+     */
+    boolean reference(TerminalRow row, int columns, int delta) {
+        return scanRow(row, columns, delta, false);
+    }
+
+    /**
+     * Release the images of a row which is about to be overwritten, once the new contents of the row have been
+     * referenced and {@link #commitReleases()} is called. This keeps images still in the row from being removed in
+     * between.
+     */
+    void releaseLater(TerminalRow row, int columns) {
+        scanRow(row, columns, 1, true);
+    }
+
+    /**
+     * Apply the releases of {@link #releaseLater(TerminalRow, int)}.
+     */
+    void commitReleases() {
+        for (int i = 0; i < mPendingReleases.size(); i++) {
+            TerminalBitmap image = mPendingReleases.get(i);
+            image.references -= image.pendingReleases;
+            image.pendingReleases = 0;
+            if (image.references <= 0 && mImages.get(image.num) == image)
+                remove(image.num, image);
+        }
+        mPendingReleases.clear();
+    }
+
+    private boolean scanRow(TerminalRow row, int columns, int delta, boolean later) {
+        if (row == null || !row.mHasBitmap)
+            return false;
+        boolean hasBitmap = false;
+        final int stamp = ++mRowStamp;
+        int lastNum = -1;
+        for (int column = 0; column < columns; column++) {
+            final long style = row.getStyle(column);
+            if (!TextStyle.isBitmap(style))
+                continue;
+            hasBitmap = true;
+            final int num = TextStyle.bitmapNum(style);
+            if (num == lastNum)
+                continue;
+            lastNum = num;
+            TerminalBitmap image = mImages.get(num);
+            if (image == null || image.referenceStamp == stamp)
+                continue;
+            image.referenceStamp = stamp;
+            if (later) {
+                if (image.pendingReleases++ == 0)
+                    mPendingReleases.add(image);
+            } else {
+                image.references += delta;
+                if (image.references <= 0)
+                    remove(num, image);
+            }
+        }
+        return hasBitmap;
+    }
+
+    private void remove(int num, TerminalBitmap image) {
+        mImages.remove(num);
+        if (!image.evicted)
+            mBitmapBytes -= image.byteCount;
+        image.evict();
+    }
+
+    void setBudget(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    long getBudget() {
+        return mBudgetBytes;
+    }
+
+    /**
+     * Evict the least recently drawn images not on the screen of {@code screen} until the bitmaps take at most
+     * {@code maxBytes}.
+     */
+    void evict(long maxBytes, TerminalBuffer screen) {
+        if (mBitmapBytes <= maxBytes)
+            return;
+        mOnScreen.clear();
+        for (int row = 0; row < screen.mScreenRows; row++) {
+            TerminalRow line = screen.mLines[screen.externalToInternalRow(row)];
+            if (line == null || !line.mHasBitmap)
+                continue;
+            for (int column = 0; column < screen.mColumns; column++) {
+                final long style = line.getStyle(column);
+                if (TextStyle.isBitmap(style))
+                    mOnScreen.set(TextStyle.bitmapNum(style));
+            }
+        }
+        ArrayList<TerminalBitmap> candidates = new ArrayList<>();
+        for (Map.Entry<Integer, TerminalBitmap> entry : mImages.entrySet()) {
+            if (!entry.getValue().evicted && !mOnScreen.get(entry.getKey()))
+                candidates.add(entry.getValue());
+        }
+        candidates.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        for (int i = 0; i < candidates.size() && mBitmapBytes > maxBytes; i++) {
+            TerminalBitmap image = candidates.get(i);
+            mBitmapBytes -= image.byteCount;
+            image.evict();
+            mEvictedImages++;
+        }
+    }
+
+    /**
+     * Evict images beyond the budget, see {@link #evict(long, TerminalBuffer)}.
+     */
+    void evictOverBudget(TerminalBuffer screen) {
+        evict(mBudgetBytes, screen);
+    }
+
+    int getImageCount() {
+        return mImages.size();
+    }
+
+    long getBitmapBytes() {
+        return mBitmapBytes;
+    }
+
+    int getEvictedImages() {
+        return mEvictedImages;
+    }
+}
@@ -1,13 +1,16 @@
 package com.termux.terminal;
 
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.HashMap;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Rect;
-import android.os.SystemClock;
 
 /**
  * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
@@ -39,13 +42,51 @@ public final class TerminalBuffer {
      */
     private int mScreenFirstRow = 0;
 
-    public HashMap<Integer, TerminalBitmap> bitmaps;
+    /** The images placed in the cells, which may be shared with the other buffer of the terminal. */
+    final TerminalBitmapStore mBitmapStore;
+
+    /**
+     * Whether the image references of rows are updated in {@link #mBitmapStore}, which is not done while
+     * {@link #resize(int, int, int, int[], long, boolean)} references all rows at once.
+     */
+    private boolean mTrackBitmapReferences = true;
+
+    /**
+     * The rows of the transcript before the last resize which have not been reflowed to the columns of the buffer yet,
+     * see {@link #reflowTranscriptRows(int)}, or null if there are none. The first {@link #mPendingReflowRowCount} of
+     * them are to be reflowed, which have {@link #mPendingReflowColumns} columns.
+     */
+    private TerminalRow[] mPendingReflowRows;
+
+    private int mPendingReflowRowCount, mPendingReflowColumns;
+
+    /** The number of rows of {@link #mLines} which are not null, kept so that it is cheap to get. */
+    private int mAllocatedRows;
+
+    /** The style of the blank cells of the rows reflowed by {@link #reflowTranscriptRows(int)}. */
+    private long mPendingReflowStyle;
+
+    /**
+     * The min number of transcript rows which are left to {@link #reflowTranscriptRows(int)} by a resize, instead of
+     * being reflowed at once, since a resize of a small transcript is quick anyway.
+     */
+    static final int DEFERRED_REFLOW_MIN_ROWS = 1000;
+
+    /** The version of the format written by {@link #writeRows(DataOutputStream)}. */
+    private static final int ROWS_FORMAT_VERSION = 1;
 
     public WorkingTerminalBitmap workingBitmap;
 
-    private boolean hasBitmaps;
+    /**
+     * Whether each screen row, indexed by external row, has been changed since the last {@link #clearDirtyRows()}.
+     * Rows are tracked by screen position and not by {@link TerminalRow}, since scrolling moves content on screen.
+     */
+    private boolean[] mDirtyRows;
 
-    private long bitmapLastGC;
+    /**
+     * The number of rows set in {@link #mDirtyRows} and the first and last of them, -1 if none.
+     */
+    private int mDirtyRowCount, mFirstDirtyRow, mLastDirtyRow;
 
     /**
      * Create a transcript screen.
@@ -56,26 +97,33 @@ public final class TerminalBuffer {
      *                   the top of the screen.
      */
     public TerminalBuffer(int columns, int totalRows, int screenRows) {
+        this(columns, totalRows, screenRows, new TerminalBitmapStore());
+    }
+
+    TerminalBuffer(int columns, int totalRows, int screenRows, TerminalBitmapStore bitmapStore) {
+        mBitmapStore = bitmapStore;
         mColumns = columns;
         mTotalRows = totalRows;
         mScreenRows = screenRows;
         mLines = new TerminalRow[totalRows];
+        mDirtyRows = new boolean[screenRows];
+        markAllRowsDirty();
         blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
-        hasBitmaps = false;
-        bitmaps = new HashMap<Integer, TerminalBitmap>();
-        bitmapLastGC = SystemClock.uptimeMillis();
     }
 
     public String getTranscriptText() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows).trim();
+        reflowTranscriptRows(Integer.MAX_VALUE);
+        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, false, true);
     }
 
     public String getTranscriptTextWithoutJoinedLines() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, false).trim();
+        reflowTranscriptRows(Integer.MAX_VALUE);
+        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, false, false, true);
     }
 
     public String getTranscriptTextWithFullLinesJoined() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, true).trim();
+        reflowTranscriptRows(Integer.MAX_VALUE);
+        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, true, true);
     }
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2) {
@@ -87,7 +135,48 @@ public final class TerminalBuffer {
     }
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) {
+        return getSelectedText(selX1, selY1, selX2, selY2, joinBackLines, joinFullLines, false);
+    }
+
+    private String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines, boolean trim) {
         final StringBuilder builder = new StringBuilder();
+        try {
+            writeSelectedText(new StringBuilderWriter(builder), selX1, selY1, selX2, selY2, joinBackLines, joinFullLines, trim);
+        } catch (IOException e) {
+            // Not thrown by a StringBuilderWriter.
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the transcript and screen text as UTF-8 to a stream, like {@link #getTranscriptText()} and the other
+     * getters, without building it as a String first. The stream is flushed but not closed.
+     */
+    public void writeTranscriptText(OutputStream out, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        reflowTranscriptRows(Integer.MAX_VALUE);
+        writeSelectedText(out, 0, -getActiveTranscriptRows(), mColumns, mScreenRows, joinBackLines, joinFullLines, true);
+    }
+
+    /**
+     * Write the selected text as UTF-8 to a stream, see {@link #writeSelectedText(Writer, int, int, int, int, boolean, boolean, boolean)}.
+     * The stream is flushed but not closed.
+     */
+    public void writeSelectedText(OutputStream out, int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines, boolean trim) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeSelectedText(writer, selX1, selY1, selX2, selY2, joinBackLines, joinFullLines, trim);
+        writer.flush();
+    }
+
+    /**
+     * Write the selected text to a writer row by row, which is what {@link #getSelectedText(int, int, int, int, boolean, boolean)}
+     * returns, so that large selections do not have to be built as a String.
+     *
+     * @param trim If to leave out leading and trailing whitespace, like {@link String#trim()}.
+     */
+    public void writeSelectedText(Writer out, int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines, boolean trim) throws IOException {
+        if (trim)
+            out = new TrimmingWriter(out);
         final int columns = mColumns;
         if (selY1 < -getActiveTranscriptRows())
             selY1 = -getActiveTranscriptRows();
@@ -104,6 +193,12 @@ public final class TerminalBuffer {
                 x2 = columns;
             }
             TerminalRow lineObject = mLines[externalToInternalRow(row)];
+            if (lineObject == null) {
+                // A row which was never written or is released by releaseRows() is blank.
+                if (row < selY2 && row < mScreenRows - 1)
+                    out.write('\n');
+                continue;
+            }
             int x1Index = lineObject.findStartOfColumn(x1);
             int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
@@ -126,12 +221,104 @@ public final class TerminalBuffer {
             }
             int len = lastPrintingCharIndex - x1Index + 1;
             if (lastPrintingCharIndex != -1 && len > 0)
-                builder.append(line, x1Index, len);
+                out.write(line, x1Index, len);
             boolean lineFillsWidth = lastPrintingCharIndex == x2Index - 1;
             if ((!joinBackLines || !rowLineWrap) && (!joinFullLines || !lineFillsWidth) && row < selY2 && row < mScreenRows - 1)
-                builder.append('\n');
+                out.write('\n');
+        }
+    }
+
+    /**
+     * A {@link Writer} to a {@link StringBuilder}, which unlike {@link java.io.StringWriter} is not synchronized.
+     */
+    private static final class StringBuilderWriter extends Writer {
+
+        private final StringBuilder mBuilder;
+
+        StringBuilderWriter(StringBuilder builder) {
+            mBuilder = builder;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            mBuilder.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(int c) {
+            mBuilder.append((char) c);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A {@link Writer} which leaves out leading and trailing chars up to ' ' like {@link String#trim()}, by holding back
+     * whitespace until text follows it. Trailing whitespace is never written.
+     */
+    private static final class TrimmingWriter extends Writer {
+
+        private final Writer mOut;
+
+        private boolean mWroteText;
+
+        /** The whitespace after the last text written. */
+        private final StringBuilder mPendingWhitespace = new StringBuilder();
+
+        TrimmingWriter(Writer out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            final int end = offset + length;
+            int textEnd = end;
+            while (textEnd > offset && chars[textEnd - 1] <= ' ') textEnd--;
+            if (textEnd > offset) {
+                int textStart = offset;
+                if (!mWroteText) {
+                    while (chars[textStart] <= ' ') textStart++;
+                    mWroteText = true;
+                } else if (mPendingWhitespace.length() > 0) {
+                    mOut.append(mPendingWhitespace);
+                    mPendingWhitespace.setLength(0);
+                }
+                mOut.write(chars, textStart, textEnd - textStart);
+            }
+            if (mWroteText)
+                mPendingWhitespace.append(chars, textEnd, end - textEnd);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (c <= ' ') {
+                if (mWroteText)
+                    mPendingWhitespace.append((char) c);
+                return;
+            }
+            if (mPendingWhitespace.length() > 0) {
+                mOut.append(mPendingWhitespace);
+                mPendingWhitespace.setLength(0);
+            }
+            mWroteText = true;
+            mOut.write(c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
         }
-        return builder.toString();
     }
 
     public String getWordAtLocation(int x, int y) {
@@ -177,6 +364,20 @@ public final class TerminalBuffer {
         return mActiveTranscriptRows + mScreenRows;
     }
 
+    /**
+     * Get the number of rows which have been allocated, including the rows of the transcript still to be reflowed by
+     * {@link #reflowTranscriptRows(int)}. Rows are only allocated when first written, so this is usually less than
+     * {@link #getTotalRows()}.
+     */
+    public int getAllocatedRows() {
+        return mAllocatedRows + ((mPendingReflowRows == null) ? 0 : mPendingReflowRowCount);
+    }
+
+    /** Get the number of rows of the screen and the transcript this buffer can hold. */
+    public int getTotalRows() {
+        return mTotalRows;
+    }
+
     /**
      * Convert a row value from the public external coordinate system to our internal private coordinate system.
      *
@@ -210,7 +411,8 @@ public final class TerminalBuffer {
     }
 
     public boolean getLineWrap(int row) {
-        return mLines[externalToInternalRow(row)].mLineWrap;
+        final TerminalRow line = mLines[externalToInternalRow(row)];
+        return line != null && line.mLineWrap;
     }
 
     public void clearLineWrap(int row) {
@@ -226,8 +428,19 @@ public final class TerminalBuffer {
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        final boolean reflow = newColumns != mColumns || newRows > mTotalRows;
+        // The rows left by an earlier resize are reflowed to the current columns first.
+        if (reflow)
+            reflowTranscriptRows(Integer.MAX_VALUE);
+        // The rows are moved and reflowed, so release the images of all rows before and reference them again after.
+        for (TerminalRow line : mLines) mBitmapStore.releaseLater(line, mColumns);
+        mTrackBitmapReferences = false;
+        if (mDirtyRows.length != newRows) {
+            mDirtyRows = new boolean[newRows];
+            mDirtyRowCount = 0;
+        }
         // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
-        if (newColumns == mColumns && newRows <= mTotalRows) {
+        if (!reflow) {
             // Fast resize where just the rows changed.
             int shiftDownOfTopRow = mScreenRows - newRows;
             if (shiftDownOfTopRow > 0 && shiftDownOfTopRow < mScreenRows) {
@@ -257,119 +470,63 @@ public final class TerminalBuffer {
             cursor[1] -= shiftDownOfTopRow;
             mScreenRows = newRows;
         } else {
-            // Copy away old state and update new:
-            TerminalRow[] oldLines = mLines;
-            mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++) mLines[i] = new TerminalRow(newColumns, currentStyle);
+            // Reflow the rows in external order, starting with the chunk of the screen so that the screen is ready
+            // first. The rows of a large transcript before it are left to reflowTranscriptRows().
             final int oldActiveTranscriptRows = mActiveTranscriptRows;
-            final int oldScreenFirstRow = mScreenFirstRow;
-            final int oldScreenRows = mScreenRows;
-            final int oldTotalRows = mTotalRows;
+            final int oldRowCount = oldActiveTranscriptRows + mScreenRows;
+            final int oldColumns = mColumns;
+            final TerminalRow[] oldRows = new TerminalRow[oldRowCount];
+            for (int i = 0; i < oldRowCount; i++) oldRows[i] = mLines[externalToInternalRow(i - oldActiveTranscriptRows)];
+            TerminalReflow reflowed = new TerminalReflow(newColumns, currentStyle);
+            int start = TerminalReflow.findChunkStart(oldRows, oldActiveTranscriptRows);
+            reflowed.reflow(oldRows, start, oldRowCount, oldActiveTranscriptRows + cursor[1], cursor[0], true);
+            while (start > 0 && (reflowed.mRowCount < newRows || start < DEFERRED_REFLOW_MIN_ROWS)) {
+                final int chunkStart = (start < DEFERRED_REFLOW_MIN_ROWS) ? 0 : TerminalReflow.findChunkStart(oldRows, start - 1);
+                TerminalReflow chunk = new TerminalReflow(newColumns, currentStyle);
+                chunk.reflow(oldRows, chunkStart, start, -1, -1, false);
+                reflowed.prepend(chunk);
+                start = chunkStart;
+            }
+
+            // The screen shows the last rows, or the first ones at its top if they do not fill it. Rows which do not
+            // fit in the transcript are dropped.
+            final int rowCount = reflowed.mRowCount;
+            final int screenStart = Math.max(0, rowCount - newRows);
+            final int transcriptRows = Math.min(screenStart, newTotalRows - newRows);
+            mLines = new TerminalRow[newTotalRows];
+            System.arraycopy(reflowed.mRows, screenStart - transcriptRows, mLines, 0, rowCount - screenStart + transcriptRows);
+            for (int i = transcriptRows + rowCount - screenStart; i < transcriptRows + newRows; i++) mLines[i] = TerminalRowPool.obtain(newColumns, currentStyle);
+            mAllocatedRows = transcriptRows + newRows;
+            for (int i = 0; i < screenStart - transcriptRows; i++) TerminalRowPool.recycle(reflowed.mRows[i], newColumns);
             mTotalRows = newTotalRows;
             mScreenRows = newRows;
-            mActiveTranscriptRows = mScreenFirstRow = 0;
             mColumns = newColumns;
-            int newCursorRow = -1;
-            int newCursorColumn = -1;
-            int oldCursorRow = cursor[1];
-            int oldCursorColumn = cursor[0];
-            boolean newCursorPlaced = false;
-            int currentOutputExternalRow = 0;
-            int currentOutputExternalColumn = 0;
-            // Loop over every character in the initial state.
-            // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
-            // keep track how many blank lines we have skipped if we later on find a non-blank line.
-            int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
-                TerminalRow oldLine = oldLines[internalOldRow];
-                boolean cursorAtThisRow = externalOldRow == oldCursorRow;
-                // The cursor may only be on a non-null line, which we should not skip:
-                if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
-                    skippedBlankLines++;
-                    continue;
-                } else if (skippedBlankLines > 0) {
-                    // After skipping some blank lines we encounter a non-blank line. Insert the skipped blank lines.
-                    for (int i = 0; i < skippedBlankLines; i++) {
-                        if (currentOutputExternalRow == mScreenRows - 1) {
-                            scrollDownOneLine(0, mScreenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
-                    skippedBlankLines = 0;
-                }
-                int lastNonSpaceIndex = 0;
-                boolean justToCursor = false;
-                if (cursorAtThisRow || oldLine.mLineWrap) {
-                    // Take the whole line, either because of cursor on it, or if line wrapping.
-                    lastNonSpaceIndex = oldLine.getSpaceUsed();
-                    if (cursorAtThisRow)
-                        justToCursor = true;
-                } else {
-                    for (int i = 0; i < oldLine.getSpaceUsed(); i++) // NEWLY INTRODUCED BUG! Should not index oldLine.mStyle with char indices
-                    if (oldLine.mText[i] != ' ')
-                        /* || oldLine.mStyle[i] != currentStyle */
-                        lastNonSpaceIndex = i + 1;
-                }
-                int currentOldCol = 0;
-                long styleAtCol = 0;
-                for (int i = 0; i < lastNonSpaceIndex; i++) {
-                    // Note that looping over java character, not cells.
-                    char c = oldLine.mText[i];
-                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
-                    int displayWidth = WcWidth.width(codePoint);
-                    // Use the last style if this is a zero-width character:
-                    if (displayWidth > 0)
-                        styleAtCol = oldLine.getStyle(currentOldCol);
-                    // Line wrap as necessary:
-                    if (currentOutputExternalColumn + displayWidth > mColumns) {
-                        setLineWrap(currentOutputExternalRow);
-                        if (currentOutputExternalRow == mScreenRows - 1) {
-                            if (newCursorPlaced)
-                                newCursorRow--;
-                            scrollDownOneLine(0, mScreenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
-                    int offsetDueToCombiningChar = ((displayWidth <= 0 && currentOutputExternalColumn > 0) ? 1 : 0);
-                    int outputColumn = currentOutputExternalColumn - offsetDueToCombiningChar;
-                    setChar(outputColumn, currentOutputExternalRow, codePoint, styleAtCol);
-                    if (displayWidth > 0) {
-                        if (oldCursorRow == externalOldRow && oldCursorColumn == currentOldCol) {
-                            newCursorColumn = currentOutputExternalColumn;
-                            newCursorRow = currentOutputExternalRow;
-                            newCursorPlaced = true;
-                        }
-                        currentOldCol += displayWidth;
-                        currentOutputExternalColumn += displayWidth;
-                        if (justToCursor && newCursorPlaced)
-                            break;
-                    }
-                }
-                // Old row has been copied. Check if we need to insert newline if old line was not wrapping:
-                if (externalOldRow != (oldScreenRows - 1) && !oldLine.mLineWrap) {
-                    if (currentOutputExternalRow == mScreenRows - 1) {
-                        if (newCursorPlaced)
-                            newCursorRow--;
-                        scrollDownOneLine(0, mScreenRows, currentStyle);
-                    } else {
-                        currentOutputExternalRow++;
-                    }
-                    currentOutputExternalColumn = 0;
-                }
+            mScreenFirstRow = mActiveTranscriptRows = transcriptRows;
+            if (start > 0 && transcriptRows == screenStart && transcriptRows < newTotalRows - newRows) {
+                mPendingReflowRows = oldRows;
+                mPendingReflowRowCount = start;
+                mPendingReflowColumns = oldColumns;
+                mPendingReflowStyle = currentStyle;
+                // The rows left to be reflowed keep their images.
+                for (int i = 0; i < start; i++) mBitmapStore.reference(oldRows[i], oldColumns, 1);
+            } else {
+                start = 0;
+            }
+            for (int i = start; i < oldRowCount; i++) TerminalRowPool.recycle(oldRows[i], oldColumns);
+            if (reflowed.mCursorRow >= screenStart) {
+                cursor[0] = reflowed.mCursorColumn;
+                cursor[1] = reflowed.mCursorRow - screenStart;
+            } else {
+                cursor[0] = cursor[1] = -1;
             }
-            cursor[0] = newCursorColumn;
-            cursor[1] = newCursorRow;
         }
         // Handle cursor scrolling off screen:
         if (cursor[0] < 0 || cursor[1] < 0)
             cursor[0] = cursor[1] = 0;
+        mTrackBitmapReferences = true;
+        for (TerminalRow line : mLines) mBitmapStore.reference(line, mColumns, 1);
+        mBitmapStore.commitReleases();
+        markAllRowsDirty();
     }
 
     /**
@@ -409,36 +566,25 @@ public final class TerminalBuffer {
         blockCopyLinesDown(externalToInternalRow(bottomMargin), mScreenRows - bottomMargin);
         // Update the screen location in the ring buffer:
         mScreenFirstRow = (mScreenFirstRow + 1) % mTotalRows;
+        markRowsDirty(topMargin, bottomMargin);
         // Note that the history has grown if not already full:
         if (mActiveTranscriptRows < mTotalRows - mScreenRows)
             mActiveTranscriptRows++;
+        // Index the row scrolled into the transcript for searching, since it now rarely changes.
+        if (mTotalRows > mScreenRows) {
+            TerminalRow transcriptRow = mLines[externalToInternalRow(-1)];
+            if (transcriptRow != null)
+                transcriptRow.getSearchMask();
+        }
         // Blank the newly revealed line above the bottom margin:
         int blankRow = externalToInternalRow(bottomMargin - 1);
         if (mLines[blankRow] == null) {
-            mLines[blankRow] = new TerminalRow(mColumns, style);
+            mLines[blankRow] = TerminalRowPool.obtain(mColumns, style);
+            mAllocatedRows++;
         } else {
-            // find if a bitmap is completely scrolled out
-            Set<Integer> used = new HashSet<Integer>();
-            if (mLines[blankRow].mHasBitmap) {
-                for (int column = 0; column < mColumns; column++) {
-                    final long st = mLines[blankRow].getStyle(column);
-                    if (TextStyle.isBitmap(st)) {
-                        used.add((int) (st >> 16) & 0xffff);
-                    }
-                }
-                TerminalRow nextLine = mLines[(blankRow + 1) % mTotalRows];
-                if (nextLine.mHasBitmap) {
-                    for (int column = 0; column < mColumns; column++) {
-                        final long st = nextLine.getStyle(column);
-                        if (TextStyle.isBitmap(st)) {
-                            used.remove((int) (st >> 16) & 0xffff);
-                        }
-                    }
-                }
-                for (Integer bm : used) {
-                    bitmaps.remove(bm);
-                }
-            }
+            // Release the images of a row scrolled out of the transcript.
+            if (mTrackBitmapReferences)
+                mBitmapStore.reference(mLines[blankRow], mColumns, -1);
             mLines[blankRow].clear(style);
         }
     }
@@ -461,11 +607,14 @@ public final class TerminalBuffer {
         if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows || dx < 0 || dx + w > mColumns || dy < 0 || dy + h > mScreenRows)
             throw new IllegalArgumentException();
         boolean copyingUp = sy > dy;
+        releaseBitmapsLater(dy, h);
         for (int y = 0; y < h; y++) {
             int y2 = copyingUp ? y : (h - (y + 1));
             TerminalRow sourceRow = allocateFullLineIfNecessary(externalToInternalRow(sy + y2));
             allocateFullLineIfNecessary(externalToInternalRow(dy + y2)).copyInterval(sourceRow, sx, sx + w, dx);
         }
+        commitBitmapReleases(dy, h);
+        markRowsDirty(dy, dy + h);
     }
 
     /**
@@ -477,30 +626,143 @@ public final class TerminalBuffer {
         if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows) {
             throw new IllegalArgumentException("Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + mColumns + ", " + mScreenRows + ")");
         }
+        releaseBitmapsLater(sy, h);
         for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) setChar(sx + x, sy + y, val, style);
+            if (w > 0)
+                allocateFullLineIfNecessary(externalToInternalRow(sy + y)).fillChars(sx, w, val, style, false, false);
             if (sx + w == mColumns && val == ' ') {
                 clearLineWrap(sy + y);
             }
         }
+        commitBitmapReleases(sy, h);
+        if (w > 0)
+            markRowsDirty(sy, sy + h);
+    }
+
+    /**
+     * Set the characters of a rectangle of the screen, like {@link #setChar(int, int, int, long)} for each of them.
+     * Unlike {@link #blockSet(int, int, int, int, int, long)} the line wrap of rows is kept. Used by the rectangular and
+     * selective erase and fill functions.
+     *
+     * @param right         The column after the last one to set.
+     * @param bottom        The row after the last one to set.
+     * @param skipProtected If cells with {@link TextStyle#CHARACTER_ATTRIBUTE_PROTECTED} are left unchanged.
+     * @param keepStyle     If cells keep their style instead of being set to {@code style}.
+     */
+    public void fillRectangle(int left, int top, int right, int bottom, int codePoint, long style, boolean skipProtected, boolean keepStyle) {
+        if (left >= right || top >= bottom)
+            return;
+        if (left < 0 || right > mColumns || top < 0 || bottom > mScreenRows)
+            throw new IllegalArgumentException("Illegal arguments! fillRectangle(" + left + ", " + top + ", " + right + ", " + bottom + ", " + mColumns + ", " + mScreenRows + ")");
+        for (int y = top; y < bottom; y++)
+            allocateFullLineIfNecessary(externalToInternalRow(y)).fillChars(left, right - left, codePoint, style, skipProtected, keepStyle);
+        markRowsDirty(top, bottom);
+    }
+
+    /**
+     * Move the rows of a region of the screen down by {@code lines} rows, or up if negative, and blank the rows revealed
+     * at the top or bottom of the region with a style. This is like a {@link #blockCopy(int, int, int, int, int, int)}
+     * of the full rows followed by a {@link #blockSet(int, int, int, int, int, long)} of the revealed rows, except that
+     * the rows themselves are rotated instead of copying their cells, so their line wrap moves with them.
+     *
+     * @param top    The first row of the region.
+     * @param bottom The row after the last row of the region. Nothing is moved if it is not after {@code top}.
+     */
+    public void moveRows(int top, int bottom, int lines, long style) {
+        final int rows = bottom - top;
+        if (rows <= 0 || lines == 0)
+            return;
+        if (top < 0 || bottom > mScreenRows)
+            throw new IllegalArgumentException("Illegal arguments! moveRows(" + top + ", " + bottom + ", " + lines + ", " + mScreenRows + ")");
+        if (lines >= rows || lines <= -rows) {
+            blockSet(0, top, mColumns, rows, ' ', style);
+            return;
+        }
+        // Rotating the rows down by a number of rows is reversing all of them and then the rows before and after it.
+        final int rotation = (lines > 0) ? lines : (rows + lines);
+        reverseRows(top, bottom);
+        reverseRows(top, top + rotation);
+        reverseRows(top + rotation, bottom);
+        final int revealedTop = (lines > 0) ? top : (bottom + lines);
+        for (int y = revealedTop; y < revealedTop + Math.abs(lines); y++) {
+            TerminalRow line = allocateFullLineIfNecessary(externalToInternalRow(y));
+            // Release the images of a row moved out of the region.
+            if (mTrackBitmapReferences)
+                mBitmapStore.reference(line, mColumns, -1);
+            line.clear(style);
+        }
+        markRowsDirty(top, bottom);
+    }
+
+    private void reverseRows(int fromRow, int toRow) {
+        for (int row1 = fromRow, row2 = toRow - 1; row1 < row2; row1++, row2--) {
+            final int internalRow1 = externalToInternalRow(row1), internalRow2 = externalToInternalRow(row2);
+            final TerminalRow line = mLines[internalRow1];
+            mLines[internalRow1] = mLines[internalRow2];
+            mLines[internalRow2] = line;
+        }
+    }
+
+    /**
+     * Release the images of the screen rows which are about to be overwritten in bulk, see
+     * {@link TerminalBitmapStore#releaseLater(TerminalRow, int)}.
+     */
+    private void releaseBitmapsLater(int row, int rows) {
+        if (!mTrackBitmapReferences)
+            return;
+        for (int y = row; y < row + rows; y++) mBitmapStore.releaseLater(mLines[externalToInternalRow(y)], mColumns);
+    }
+
+    /**
+     * Reference the images of the overwritten screen rows and apply the releases of
+     * {@link #releaseBitmapsLater(int, int)}.
+     */
+    private void commitBitmapReleases(int row, int rows) {
+        if (!mTrackBitmapReferences)
+            return;
+        for (int y = row; y < row + rows; y++) {
+            TerminalRow line = mLines[externalToInternalRow(y)];
+            if (line != null && line.mHasBitmap)
+                line.mHasBitmap = mBitmapStore.reference(line, mColumns, 1);
+        }
+        mBitmapStore.commitReleases();
     }
 
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (mLines[row] == null) ? (mLines[row] = new TerminalRow(mColumns, 0)) : mLines[row];
+        if (mLines[row] == null) {
+            mLines[row] = TerminalRowPool.obtain(mColumns, 0);
+            mAllocatedRows++;
+        }
+        return mLines[row];
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
         if (row < 0 || row >= mScreenRows || column < 0 || column >= mColumns)
             throw new IllegalArgumentException("TerminalBuffer.setChar(): row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        markRowDirty(row);
         row = externalToInternalRow(row);
         allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
     }
 
+    /**
+     * Set a run of printable ASCII characters starting at the specified column, all with the same style. The run must
+     * fit on the row.
+     */
+    public void setChars(int column, int row, byte[] asciiChars, int offset, int count, long style) {
+        if (row < 0 || row >= mScreenRows || column < 0 || column + count > mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setChars(): row=" + row + ", column=" + column + ", count=" + count + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        markRowDirty(row);
+        row = externalToInternalRow(row);
+        allocateFullLineIfNecessary(row).setChars(column, asciiChars, offset, count, style);
+    }
+
     /** used to read aloud the character under the cursor in A11Y */
     public Character getChar(int column, int row) {
         if (row  < 0 || row >= mScreenRows || column < 0 || column >= mColumns)
             throw new IllegalArgumentException("TerminalBuffer.setChar(): row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
         row = externalToInternalRow(row);
+        if (mLines[row] == null)
+            return null;
         if(column < mLines[row].mText.length)
             return mLines[row].mText[column];
         else
@@ -515,12 +777,20 @@ public final class TerminalBuffer {
      * Support for http://vt100.net/docs/vt510-rm/DECCARA and http://vt100.net/docs/vt510-rm/DECCARA
      */
     public void setOrClearEffect(int bits, boolean setOrClear, boolean reverse, boolean rectangular, int leftMargin, int rightMargin, int top, int left, int bottom, int right) {
+        // The effect bits kept by TextStyle.encode(), which can be changed in place for styles which are not bitmaps.
+        final long effectBits = bits & 0b111111111;
         for (int y = top; y < bottom; y++) {
             TerminalRow line = mLines[externalToInternalRow(y)];
+            line.markChanged();
+            final long[] styles = line.mStyle;
             int startOfLine = (rectangular || y == top) ? left : leftMargin;
             int endOfLine = (rectangular || y + 1 == bottom) ? right : rightMargin;
             for (int x = startOfLine; x < endOfLine; x++) {
-                long currentStyle = line.getStyle(x);
+                long currentStyle = styles[x];
+                if (!TextStyle.isBitmap(currentStyle)) {
+                    styles[x] = reverse ? (currentStyle ^ effectBits) : (setOrClear ? (currentStyle | effectBits) : (currentStyle & ~effectBits));
+                    continue;
+                }
                 int foreColor = TextStyle.decodeForeColor(currentStyle);
                 int backColor = TextStyle.decodeBackColor(currentStyle);
                 int effect = TextStyle.decodeEffect(currentStyle);
@@ -532,29 +802,256 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
+                styles[x] = TextStyle.encode(foreColor, backColor, effect);
             }
         }
+        markRowsDirty(top, bottom);
+    }
+
+    /**
+     * Mark the screen row as changed.
+     */
+    public void markRowDirty(int row) {
+        if (mDirtyRows[row])
+            return;
+        mDirtyRows[row] = true;
+        if (mDirtyRowCount++ == 0) {
+            mFirstDirtyRow = mLastDirtyRow = row;
+        } else if (row < mFirstDirtyRow) {
+            mFirstDirtyRow = row;
+        } else if (row > mLastDirtyRow) {
+            mLastDirtyRow = row;
+        }
+    }
+
+    /**
+     * Mark the screen rows from {@code fromRow} (inclusive) to {@code toRow} (exclusive) as changed.
+     */
+    public void markRowsDirty(int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; row++) markRowDirty(row);
+    }
+
+    /**
+     * Mark all screen rows as changed, e.g. on changes affecting how every row is rendered.
+     */
+    public void markAllRowsDirty() {
+        Arrays.fill(mDirtyRows, true);
+        mDirtyRowCount = mDirtyRows.length;
+        mFirstDirtyRow = 0;
+        mLastDirtyRow = mDirtyRows.length - 1;
+    }
+
+    public boolean isRowDirty(int row) {
+        return mDirtyRows[row];
+    }
+
+    /** The number of screen rows changed since the last {@link #clearDirtyRows()}. */
+    public int getDirtyRowCount() {
+        return mDirtyRowCount;
+    }
+
+    /** The first changed screen row, or -1 if none. */
+    public int getFirstDirtyRow() {
+        return mDirtyRowCount == 0 ? -1 : mFirstDirtyRow;
+    }
+
+    /** The last changed screen row, or -1 if none. */
+    public int getLastDirtyRow() {
+        return mDirtyRowCount == 0 ? -1 : mLastDirtyRow;
+    }
+
+    /**
+     * Clear the changed state of all screen rows, to be called once the changes have been consumed.
+     */
+    public void clearDirtyRows() {
+        if (mDirtyRowCount == 0)
+            return;
+        Arrays.fill(mDirtyRows, mFirstDirtyRow, mLastDirtyRow + 1, false);
+        mDirtyRowCount = 0;
     }
 
     public void clearTranscript() {
-        if (mScreenFirstRow < mActiveTranscriptRows) {
-            Arrays.fill(mLines, mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows, null);
-            Arrays.fill(mLines, 0, mScreenFirstRow, null);
-        } else {
-            Arrays.fill(mLines, mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow, null);
+        if (mPendingReflowRows != null) {
+            for (int i = 0; i < mPendingReflowRowCount; i++) {
+                mBitmapStore.reference(mPendingReflowRows[i], mPendingReflowColumns, -1);
+                TerminalRowPool.recycle(mPendingReflowRows[i], mPendingReflowColumns);
+            }
+            mPendingReflowRows = null;
+        }
+        // The rows are returned to the pool, so that a session which keeps outputting after clearing its transcript
+        // does not allocate new rows as the transcript fills up again.
+        for (int row = -mActiveTranscriptRows; row < 0; row++) {
+            final int internalRow = externalToInternalRow(row);
+            if (mLines[internalRow] == null)
+                continue;
+            mBitmapStore.reference(mLines[internalRow], mColumns, -1);
+            TerminalRowPool.recycle(mLines[internalRow], mColumns);
+            mLines[internalRow] = null;
+            mAllocatedRows--;
         }
         mActiveTranscriptRows = 0;
-        bitmaps.clear();
-        hasBitmaps = false;
     }
 
+    /**
+     * Reflow up to about {@code maxRows} of the transcript rows which the last resize left to be reflowed later, and
+     * add them to the top of the transcript. Until then, the transcript does not include them. The most recent rows
+     * are reflowed first. Rows which do not fit in the transcript anymore are dropped.
+     *
+     * @return Returns whether there are more rows to reflow.
+     */
+    public boolean reflowTranscriptRows(int maxRows) {
+        final TerminalRow[] pendingRows = mPendingReflowRows;
+        if (pendingRows == null)
+            return false;
+        final int end = mPendingReflowRowCount;
+        final int start = TerminalReflow.findChunkStart(pendingRows, Math.max(0, end - maxRows));
+        TerminalReflow reflowed = new TerminalReflow(mColumns, mPendingReflowStyle);
+        reflowed.reflow(pendingRows, start, end, -1, -1, false);
+        for (int i = start; i < end; i++) {
+            mBitmapStore.releaseLater(pendingRows[i], mPendingReflowColumns);
+            TerminalRowPool.recycle(pendingRows[i], mPendingReflowColumns);
+        }
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        // The last reflowed row is the empty row started after the last line, which is the first row of the transcript.
+        int row = reflowed.mRowCount - 2;
+        for (; row >= 0 && mActiveTranscriptRows < maxTranscriptRows; row--) {
+            int internalRow = mScreenFirstRow - mActiveTranscriptRows - 1;
+            if (internalRow < 0)
+                internalRow += mTotalRows;
+            // A row left from before the transcript was cleared or shrunk.
+            if (mLines[internalRow] == null)
+                mAllocatedRows++;
+            mBitmapStore.releaseLater(mLines[internalRow], mColumns);
+            TerminalRowPool.recycle(mLines[internalRow], mColumns);
+            final TerminalRow line = reflowed.mRows[row];
+            if (line.mHasBitmap)
+                line.mHasBitmap = mBitmapStore.reference(line, mColumns, 1);
+            mLines[internalRow] = line;
+            mActiveTranscriptRows++;
+        }
+        for (; row >= 0; row--) TerminalRowPool.recycle(reflowed.mRows[row], mColumns);
+        if (mActiveTranscriptRows == maxTranscriptRows || start == 0) {
+            for (int i = 0; i < start; i++) {
+                mBitmapStore.releaseLater(pendingRows[i], mPendingReflowColumns);
+                TerminalRowPool.recycle(pendingRows[i], mPendingReflowColumns);
+            }
+            mPendingReflowRows = null;
+        } else {
+            mPendingReflowRowCount = start;
+        }
+        mBitmapStore.commitReleases();
+        return mPendingReflowRows != null;
+    }
+
+    /**
+     * Compact up to {@code maxRows} of the transcript rows which are not compacted yet, starting with the most recently
+     * scrolled off rows. See {@link TerminalRow#compact()}.
+     *
+     * @return Returns whether there may be more rows to compact.
+     */
+    public boolean compactTranscriptRows(int maxRows) {
+        int compactedRows = 0;
+        for (int row = -1; row >= -mActiveTranscriptRows; row--) {
+            TerminalRow line = mLines[externalToInternalRow(row)];
+            if (line == null || line.isCompacted())
+                continue;
+            if (compactedRows == maxRows)
+                return true;
+            line.compact();
+            compactedRows++;
+        }
+        return false;
+    }
+
+    public int getCompactedTranscriptRows() {
+        int compactedRows = 0;
+        for (int row = -1; row >= -mActiveTranscriptRows; row--) {
+            TerminalRow line = mLines[externalToInternalRow(row)];
+            if (line != null && line.isCompacted())
+                compactedRows++;
+        }
+        return compactedRows;
+    }
+
+    /**
+     * Get the estimated number of heap bytes saved by compacting rows, see {@link TerminalRow#getCompactionBytesSaved()}.
+     */
+    public long getCompactionBytesSaved() {
+        long bytesSaved = 0;
+        for (TerminalRow line : mLines) {
+            if (line != null)
+                bytesSaved += line.getCompactionBytesSaved();
+        }
+        return bytesSaved;
+    }
+
+    /**
+     * Write the rows of the transcript and the screen, so that they can be released with {@link #releaseRows()} and
+     * read again with {@link #restoreRows(DataInputStream)}. Transcript rows still to be reflowed are reflowed first.
+     */
+    void writeRows(DataOutputStream out) throws IOException {
+        reflowTranscriptRows(Integer.MAX_VALUE);
+        out.writeInt(ROWS_FORMAT_VERSION);
+        out.writeInt(mColumns);
+        out.writeInt(getActiveRows());
+        for (int row = -mActiveTranscriptRows; row < mScreenRows; row++) {
+            TerminalRow line = mLines[externalToInternalRow(row)];
+            out.writeBoolean(line != null);
+            if (line != null)
+                line.writeTo(out);
+        }
+    }
+
+    /**
+     * Release all rows after they were written with {@link #writeRows(DataOutputStream)}. The buffer must not be changed
+     * until they are restored with {@link #restoreRows(DataInputStream)}, but its text can be read, with blank rows. The
+     * rows are not returned to the {@link TerminalRowPool}, and the images they show stay referenced, since the restored
+     * rows show them again.
+     */
+    void releaseRows() {
+        Arrays.fill(mLines, null);
+        mAllocatedRows = 0;
+    }
+
+    /**
+     * Restore the rows written with {@link #writeRows(DataOutputStream)} after {@link #releaseRows()}. The size of the
+     * buffer must not have changed in between.
+     *
+     * @throws IOException If reading fails, in which case the rows which could not be read are blank.
+     */
+    void restoreRows(DataInputStream in) throws IOException {
+        final TerminalRow[] rows = new TerminalRow[getActiveRows()];
+        try {
+            if (in.readInt() != ROWS_FORMAT_VERSION || in.readInt() != mColumns || in.readInt() != rows.length)
+                throw new IOException("Rows were written by a buffer of another size");
+            for (int i = 0; i < rows.length; i++) rows[i] = in.readBoolean() ? TerminalRow.readFrom(in, mColumns) : null;
+        } catch (IOException e) {
+            for (int i = 0; i < rows.length; i++) if (rows[i] == null)
+                rows[i] = TerminalRowPool.obtain(mColumns, TextStyle.NORMAL);
+            throw e;
+        } finally {
+            mAllocatedRows = 0;
+            for (int row = -mActiveTranscriptRows; row < mScreenRows; row++) {
+                final TerminalRow line = rows[row + mActiveTranscriptRows];
+                mLines[externalToInternalRow(row)] = line;
+                if (line != null)
+                    mAllocatedRows++;
+            }
+            markAllRowsDirty();
+        }
+    }
+
+    /**
+     * Get the bitmap of a cell with a bitmap style, or null if it is not available, e.g. while an inline image is still
+     * being decoded.
+     */
     public Bitmap getSixelBitmap(int codePoint, long style) {
-        return bitmaps.get(TextStyle.bitmapNum(style)).bitmap;
+        TerminalBitmap bm = mBitmapStore.get(TextStyle.bitmapNum(style));
+        return bm == null ? null : bm.bitmap;
     }
 
     public Rect getSixelRect(int codePoint, long style) {
-        TerminalBitmap bm = bitmaps.get(TextStyle.bitmapNum(style));
+        TerminalBitmap bm = mBitmapStore.get(TextStyle.bitmapNum(style));
         int x = TextStyle.bitmapX(style);
         int y = TextStyle.bitmapY(style);
         Rect r = new Rect(x * bm.cellWidth, y * bm.cellHeight, (x + 1) * bm.cellWidth, (y + 1) * bm.cellHeight);
@@ -565,6 +1062,14 @@ public final class TerminalBuffer {
         workingBitmap = new WorkingTerminalBitmap(width, height);
     }
 
+    /**
+     * Reserve space for a sixel image of the size from its raster attributes, so that the framebuffer does not grow
+     * while it is drawn.
+     */
+    public void sixelReserve(int width, int height) {
+        workingBitmap.ensureCapacity(width, height);
+    }
+
     public void sixelChar(int c, int rep) {
         workingBitmap.sixelChar(c, rep);
     }
@@ -577,60 +1082,46 @@ public final class TerminalBuffer {
         workingBitmap.sixelSetColor(col, r, g, b);
     }
 
-    private int findFreeBitmap() {
-        int i = 0;
-        while (bitmaps.containsKey(i)) {
-            i++;
-        }
-        return i;
-    }
-
     public int sixelEnd(int Y, int X, int cellW, int cellH) {
-        int num = findFreeBitmap();
-        bitmaps.put(num, new TerminalBitmap(num, workingBitmap, Y, X, cellW, cellH, this));
+        int num = mBitmapStore.nextNum();
+        if (num < 0) {
+            workingBitmap = null;
+            return 0;
+        }
+        TerminalBitmap bm = new TerminalBitmap(num, workingBitmap, Y, X, cellW, cellH, this);
         workingBitmap = null;
-        if (bitmaps.get(num).bitmap == null) {
-            bitmaps.remove(num);
+        if (bm.bitmap == null) {
             return 0;
         }
-        hasBitmaps = true;
-        bitmapGC(30000);
-        return bitmaps.get(num).scrollLines;
+        addBitmap(num, bm);
+        return bm.scrollLines;
     }
 
-    public int[] addImage(byte[] image, int Y, int X, int cellW, int cellH, int width, int height, boolean aspect) {
-        int num = findFreeBitmap();
-        bitmaps.put(num, new TerminalBitmap(num, image, Y, X, cellW, cellH, width, height, aspect, this));
-        if (bitmaps.get(num).bitmap == null) {
-            bitmaps.remove(num);
+    /**
+     * Place an encoded image of {@code length} bytes at the cursor, which is decoded in the background after which
+     * {@code onDecoded} is run on the decoding thread.
+     *
+     * @return The number of lines and columns to move the cursor by.
+     */
+    public int[] addImage(byte[] image, int length, int Y, int X, int cellW, int cellH, int width, int height, boolean aspect, Runnable onDecoded) {
+        int num = mBitmapStore.nextNum();
+        if (num < 0) {
+            return new int[] { 0, 0 };
+        }
+        TerminalBitmap bm = new TerminalBitmap(num, image, length, Y, X, cellW, cellH, width, height, aspect, this, onDecoded);
+        if (bm.cursorDelta == null) {
             return new int[] { 0, 0 };
         }
-        hasBitmaps = true;
-        bitmapGC(30000);
-        return bitmaps.get(num).cursorDelta;
+        addBitmap(num, bm);
+        return bm.cursorDelta;
     }
 
-    public void bitmapGC(int timeDelta) {
-        if (!hasBitmaps || bitmapLastGC + timeDelta > SystemClock.uptimeMillis()) {
-            return;
-        }
-        Set<Integer> used = new HashSet<Integer>();
-        for (int line = 0; line < mLines.length; line++) {
-            if (mLines[line] != null && mLines[line].mHasBitmap) {
-                for (int column = 0; column < mColumns; column++) {
-                    final long st = mLines[line].getStyle(column);
-                    if (TextStyle.isBitmap(st)) {
-                        used.add((int) (st >> 16) & 0xffff);
-                    }
-                }
-            }
-        }
-        Set<Integer> keys = new HashSet<Integer>(bitmaps.keySet());
-        for (Integer bn : keys) {
-            if (!used.contains(bn)) {
-                bitmaps.remove(bn);
-            }
-        }
-        bitmapLastGC = SystemClock.uptimeMillis();
+    /**
+     * Add an image whose cells have been placed to the {@link #mBitmapStore}, evicting older images if over budget.
+     * Rows of a tall image may already have scrolled out of the buffer while placing it.
+     */
+    void addBitmap(int num, TerminalBitmap bm) {
+        mBitmapStore.add(num, bm, Math.min(bm.rows, mTotalRows));
+        mBitmapStore.evictOverBudget(this);
     }
 }
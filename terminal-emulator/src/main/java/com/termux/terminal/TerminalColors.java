@@ -18,6 +18,12 @@ public final class TerminalColors {
      */
     public final int[] mCurrentColors = new int[TextStyle.NUM_INDEXED_COLORS];
 
+    /**
+     * Incremented whenever {@link #mCurrentColors} is changed through this class, so that renderers can cache what
+     * depends on the colors.
+     */
+    private int mVersion;
+
     /**
      * Create a new instance with default colors from the theme.
      */
@@ -30,6 +36,7 @@ public final class TerminalColors {
      */
     public void reset(int index) {
         mCurrentColors[index] = COLOR_SCHEME.mDefaultColors[index];
+        mVersion++;
     }
 
     /**
@@ -37,6 +44,11 @@ public final class TerminalColors {
      */
     public void reset() {
         System.arraycopy(COLOR_SCHEME.mDefaultColors, 0, mCurrentColors, 0, TextStyle.NUM_INDEXED_COLORS);
+        mVersion++;
+    }
+
+    public int getVersion() {
+        return mVersion;
     }
 
     /**
@@ -84,8 +96,10 @@ public final class TerminalColors {
      */
     public void tryParseColor(int intoIndex, String textParameter) {
         int c = parse(textParameter);
-        if (c != 0)
+        if (c != 0) {
             mCurrentColors[intoIndex] = c;
+            mVersion++;
+        }
     }
 
     /**
@@ -1,8 +1,14 @@
 package com.termux.terminal;
 
 import android.util.Base64;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Objects;
@@ -253,6 +259,20 @@ public final class TerminalEmulator {
 
     public static final int DEFAULT_TERMINAL_TRANSCRIPT_ROWS = 2000;
 
+    /** The max number of decoded bytes of an OSC 1337 inline image, beyond which the image is dropped. */
+    public static final int INLINE_IMAGE_MAX_BYTES_MIN = 64 * 1024;
+
+    public static final int INLINE_IMAGE_MAX_BYTES_MAX = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_INLINE_IMAGE_MAX_BYTES = 8 * 1024 * 1024;
+
+    /** The max number of bytes of the decoded images of a session, beyond which off screen images are evicted. */
+    public static final int IMAGE_CACHE_MAX_BYTES_MIN = 1024 * 1024;
+
+    public static final int IMAGE_CACHE_MAX_BYTES_MAX = 1024 * 1024 * 1024;
+
+    public static final int DEFAULT_IMAGE_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+
     /* The supported terminal cursor styles. */
     public static final int TERMINAL_CURSOR_STYLE_BLOCK = 0;
 
@@ -326,10 +346,39 @@ public final class TerminalEmulator {
 
     private boolean ESC_P_sixel = false;
 
-    private ArrayList<Byte> ESC_OSC_data;
+    /* The states of parsing the data of a sixel image in {@link #doSixel(int)}. */
+    private static final int SIXEL_DATA = 0;
+
+    /** After '!', reading the repeat count of the next sixel char. */
+    private static final int SIXEL_REPEAT = 1;
+
+    /** After '#', reading the color register to select and optionally its color. */
+    private static final int SIXEL_COLOR = 2;
+
+    /** After '"', reading the raster attributes. */
+    private static final int SIXEL_RASTER = 3;
+
+    /** The max value of numeric sixel parameters, so that they cannot overflow. */
+    private static final int SIXEL_PARAMETER_MAX = 99999;
+
+    private int mSixelState;
+
+    private int mSixelRepeat;
+
+    private final int[] mSixelArgs = new int[5];
+
+    private int mSixelArgIndex;
+
+    /** The decoder of the base64 payload of an OSC 1337 inline image, which follows the ':' at {@link #ESC_OSC_colon}. */
+    private final Base64StreamDecoder ESC_OSC_data = new Base64StreamDecoder();
 
     private int ESC_OSC_colon = 0;
 
+    private int mInlineImageMaxBytes = DEFAULT_INLINE_IMAGE_MAX_BYTES;
+
+    /** The images of both {@link #mMainBuffer} and {@link #mAltBuffer}. */
+    private final TerminalBitmapStore mBitmapStore = new TerminalBitmapStore();
+
     private final SavedScreenState mSavedStateMain = new SavedScreenState();
 
     private final SavedScreenState mSavedStateAlt = new SavedScreenState();
@@ -424,6 +473,48 @@ public final class TerminalEmulator {
         cellH = h;
     }
 
+    /**
+     * Set the max number of decoded bytes of an OSC 1337 inline image. Values outside
+     * {@link #INLINE_IMAGE_MAX_BYTES_MIN} and {@link #INLINE_IMAGE_MAX_BYTES_MAX} reset it to
+     * {@link #DEFAULT_INLINE_IMAGE_MAX_BYTES}.
+     */
+    public void setInlineImageMaxBytes(int maxBytes) {
+        if (maxBytes < INLINE_IMAGE_MAX_BYTES_MIN || maxBytes > INLINE_IMAGE_MAX_BYTES_MAX)
+            maxBytes = DEFAULT_INLINE_IMAGE_MAX_BYTES;
+        mInlineImageMaxBytes = maxBytes;
+    }
+
+    /**
+     * Set the max number of bytes of the decoded images, beyond which the least recently drawn images not on screen
+     * are evicted. Values outside {@link #IMAGE_CACHE_MAX_BYTES_MIN} and {@link #IMAGE_CACHE_MAX_BYTES_MAX} reset it
+     * to {@link #DEFAULT_IMAGE_CACHE_MAX_BYTES}.
+     */
+    public void setImageCacheMaxBytes(int maxBytes) {
+        if (maxBytes < IMAGE_CACHE_MAX_BYTES_MIN || maxBytes > IMAGE_CACHE_MAX_BYTES_MAX)
+            maxBytes = DEFAULT_IMAGE_CACHE_MAX_BYTES;
+        mBitmapStore.setBudget(maxBytes);
+        mBitmapStore.evictOverBudget(mScreen);
+    }
+
+    /**
+     * Evict the least recently drawn images not on screen until the decoded images take at most
+     * {@code percentOfBudget} percent of the max set by {@link #setImageCacheMaxBytes(int)}, to free memory when the
+     * system is low on it. The max itself is not changed.
+     */
+    public void trimImageCache(int percentOfBudget) {
+        mBitmapStore.evict(mBitmapStore.getBudget() * percentOfBudget / 100, mScreen);
+    }
+
+    /** The number of images referenced by the cells of the screen and transcript. */
+    public int getImageCount() {
+        return mBitmapStore.getImageCount();
+    }
+
+    /** The number of bytes of the decoded images which have not been evicted. */
+    public long getImageCacheBytes() {
+        return mBitmapStore.getBitmapBytes();
+    }
+
     private boolean isDecsetInternalBitSet(int bit) {
         return (mCurrentDecSetFlags & bit) != 0;
     }
@@ -477,8 +568,8 @@ public final class TerminalEmulator {
 
     public TerminalEmulator(TerminalOutput session, boolean boldWithBright, int columns, int rows, int cellWidthPixels, int cellHeightPixels, Integer transcriptRows, TerminalSessionClient client) {
         mSession = session;
-        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows);
-        mAltBuffer = new TerminalBuffer(columns, rows, rows);
+        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows, mBitmapStore);
+        mAltBuffer = new TerminalBuffer(columns, rows, rows, mBitmapStore);
         mClient = client;
         mBoldWithBright = boldWithBright;
         mRows = rows;
@@ -499,6 +590,89 @@ public final class TerminalEmulator {
         return mScreen;
     }
 
+    /**
+     * Compact up to {@code maxRows} rows of the transcript, see {@link TerminalBuffer#compactTranscriptRows(int)}.
+     *
+     * @return Returns whether there may be more rows to compact.
+     */
+    public boolean compactTranscriptRows(int maxRows) {
+        return mMainBuffer.compactTranscriptRows(maxRows);
+    }
+
+    /**
+     * Reflow up to about {@code maxRows} rows of the transcript which the last resize left to be reflowed later, see
+     * {@link TerminalBuffer#reflowTranscriptRows(int)}.
+     *
+     * @return Returns whether there are more rows to reflow.
+     */
+    public boolean reflowTranscriptRows(int maxRows) {
+        return mMainBuffer.reflowTranscriptRows(maxRows);
+    }
+
+    /**
+     * Write the rows of the main and alternate buffers, so that they can be released with {@link #releaseRows()} while
+     * the rest of the state of the emulator, like the cursor and modes, is kept. See
+     * {@link TerminalBuffer#writeRows(DataOutputStream)}.
+     */
+    public void writeRows(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        mMainBuffer.writeRows(data);
+        mAltBuffer.writeRows(data);
+        data.flush();
+    }
+
+    /**
+     * Release the rows of the main and alternate buffers written with {@link #writeRows(OutputStream)}. Nothing may be
+     * appended, resized or read until they are restored with {@link #restoreRows(InputStream)}.
+     */
+    public void releaseRows() {
+        mMainBuffer.releaseRows();
+        mAltBuffer.releaseRows();
+    }
+
+    /**
+     * Restore the rows written with {@link #writeRows(OutputStream)} after {@link #releaseRows()}.
+     *
+     * @throws IOException If reading fails, in which case the rows which could not be read are blank.
+     */
+    public void restoreRows(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            mMainBuffer.restoreRows(data);
+        } finally {
+            // Restore the alternate buffer even if the main buffer failed, which leaves it blank if it cannot be read.
+            mAltBuffer.restoreRows(data);
+        }
+    }
+
+    int getCellWidthPixels() {
+        return mCellWidthPixels;
+    }
+
+    int getCellHeightPixels() {
+        return mCellHeightPixels;
+    }
+
+    /**
+     * Get the number of rows allocated by the main and alternate buffers, see {@link TerminalBuffer#getAllocatedRows()}.
+     */
+    public int getAllocatedRows() {
+        return mMainBuffer.getAllocatedRows() + mAltBuffer.getAllocatedRows();
+    }
+
+    /** Get the number of rows the main and alternate buffers can hold. */
+    public int getRowCapacity() {
+        return mMainBuffer.getTotalRows() + mAltBuffer.getTotalRows();
+    }
+
+    public int getCompactedTranscriptRows() {
+        return mMainBuffer.getCompactedTranscriptRows();
+    }
+
+    public long getTranscriptCompactionBytesSaved() {
+        return mMainBuffer.getCompactionBytesSaved();
+    }
+
     public boolean isAlternateBufferActive() {
         return mScreen == mAltBuffer;
     }
@@ -658,7 +832,54 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++) processByte(buffer[i]);
+        for (int i = 0; i < length; i++) {
+            if (mEscapeState == ESC_NONE && mUtf8ToFollow == 0) {
+                int consumed = appendPrintableAsciiRun(buffer, i, length);
+                if (consumed > 0) {
+                    i += consumed - 1;
+                    continue;
+                }
+            }
+            processByte(buffer[i]);
+        }
+    }
+
+    /**
+     * Fast path for the ground state: copy a run of printable ASCII bytes straight into the current row instead of
+     * sending every byte through {@link #processByte(byte)} and {@link #emitCodePoint(int)}. The resulting screen,
+     * cursor and wrap state is identical to emitting the bytes one by one.
+     *
+     * @return the number of bytes consumed, or 0 if the per-byte path should handle the byte at {@code start}.
+     */
+    private int appendPrintableAsciiRun(byte[] buffer, int start, int length) {
+        if (mInsertMode || (mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1))
+            return 0;
+        final int column = mCursorCol;
+        if (column < 0 || column >= mRightMargin)
+            return 0;
+        final boolean autoWrap = isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP);
+        // Wrapping to the next line is left to emitCodePoint(), after which the run continues on the new row.
+        if (autoWrap && mAboutToAutoWrap && column == mRightMargin - 1)
+            return 0;
+        final int end = Math.min(length, start + (mRightMargin - column));
+        int runEnd = start;
+        while (runEnd < end && isPrintableAscii(buffer[runEnd])) runEnd++;
+        final int count = runEnd - start;
+        // A single byte gains nothing from the bulk copy.
+        if (count < 2)
+            return 0;
+        mScreen.setChars(column, mCursorRow, buffer, start, count, getStyle());
+        mLastEmittedCodePoint = buffer[runEnd - 1];
+        mContinueSequence = false;
+        final int lastColumnWritten = column + count - 1;
+        if (autoWrap)
+            mAboutToAutoWrap = (lastColumnWritten == mRightMargin - 1);
+        mCursorCol = Math.min(lastColumnWritten + 1, mRightMargin - 1);
+        return count;
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return b >= 32 && b < 127;
     }
 
     private void processByte(byte byteToProcess) {
@@ -924,9 +1145,7 @@ public final class TerminalEmulator {
                                     int left = Math.min(getArg(argIndex++, 1, true) + effectiveLeftMargin, effectiveRightMargin + 1);
                                     int bottom = Math.min(getArg(argIndex++, mRows, true) + effectiveTopMargin, effectiveBottomMargin);
                                     int right = Math.min(getArg(argIndex, mColumns, true) + effectiveLeftMargin, effectiveRightMargin);
-                                    long style = getStyle();
-                                    for (int row = top - 1; row < bottom; row++) for (int col = left - 1; col < right; col++) if (!selective || (TextStyle.decodeEffect(mScreen.getStyleAt(row, col)) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
-                                        mScreen.setChar(col, row, fillChar, keepVisualAttributes ? mScreen.getStyleAt(row, col) : style);
+                                    mScreen.fillRectangle(left - 1, top - 1, right, bottom, fillChar, getStyle(), selective, keepVisualAttributes);
                                 }
                                 break;
                             // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$r"
@@ -1144,17 +1363,31 @@ public final class TerminalEmulator {
      * When in {@link #ESC_P} ("device control") sequence.
      */
     private void doDeviceControl(int b) {
-        boolean firstSixel = false;
-        if (!ESC_P_sixel && (b == '$' || b == '-' || b == '#')) {
-            //Check if sixel sequence that needs breaking
-            String dcs = mOSCOrDeviceControlArgs.toString();
-            if (dcs.matches("[0-9;]*q.*")) {
-                firstSixel = true;
+        if (ESC_P_sixel) {
+            if (ESC_P_escape && b == '\\') {
+                // ESC \ terminates the sixel image.
+                ESC_P_escape = false;
+                ESC_P_sixel = false;
+                doSixel(-1);
+                int n = mScreen.sixelEnd(mCursorRow, mCursorCol, cellW, cellH);
+                for (; n > 0; n--) {
+                    doLinefeed();
+                }
+                finishSequence();
+            } else {
+                // Sixel images may be very long, so their data is drawn as it arrives instead of being collected.
+                ESC_P_escape = false;
+                doSixel(b);
+                continueSequence(mEscapeState);
             }
-        }
-        if (firstSixel || (ESC_P_escape && b == '\\') || (ESC_P_sixel && (b == '$' || b == '-' || b == '#'))) // ESC \ terminates OSC
-        // Sixel sequences may be very long. '$' and '!' are natural for breaking the sequence.
-        {
+        } else if (b == 'q' && !ESC_P_escape && isSixelIntroducer()) {
+            ESC_P_sixel = true;
+            mSixelState = SIXEL_DATA;
+            mSixelRepeat = 1;
+            mScreen.sixelStart(100, 100);
+            continueSequence(mEscapeState);
+        } else if (ESC_P_escape && b == '\\') {
+            // ESC \ terminates OSC
             String dcs = mOSCOrDeviceControlArgs.toString();
             // DCS $ q P t ST. Request Status String (DECRQSS)
             if (dcs.startsWith("$q")) {
@@ -1251,95 +1484,6 @@ public final class TerminalEmulator {
                         Logger.logError(mClient, LOG_TAG, "Invalid device termcap/terminfo name of odd length: " + part);
                     }
                 }
-            } else if (ESC_P_sixel || dcs.matches("[0-9;]*q.*")) {
-                int pos = 0;
-                if (!ESC_P_sixel) {
-                    ESC_P_sixel = true;
-                    mScreen.sixelStart(100, 100);
-                    while (dcs.codePointAt(pos) != 'q') {
-                        pos++;
-                    }
-                    pos++;
-                }
-                if (b == '$' || b == '-') {
-                    // Add to string
-                    dcs = dcs + (char) b;
-                }
-                int rep = 1;
-                while (pos < dcs.length()) {
-                    if (dcs.codePointAt(pos) == '"') {
-                        pos++;
-                        int[] args = { 0, 0, 0, 0 };
-                        int arg = 0;
-                        while (pos < dcs.length() && ((dcs.codePointAt(pos) >= '0' && dcs.codePointAt(pos) <= '9') || dcs.codePointAt(pos) == ';')) {
-                            if (dcs.codePointAt(pos) >= '0' && dcs.codePointAt(pos) <= '9') {
-                                args[arg] = args[arg] * 10 + dcs.codePointAt(pos) - '0';
-                            } else {
-                                arg++;
-                                if (arg > 3) {
-                                    break;
-                                }
-                            }
-                            pos++;
-                        }
-                        if (pos == dcs.length()) {
-                            break;
-                        }
-                    } else if (dcs.codePointAt(pos) == '#') {
-                        int col = 0;
-                        pos++;
-                        while (pos < dcs.length() && dcs.codePointAt(pos) >= '0' && dcs.codePointAt(pos) <= '9') {
-                            col = col * 10 + dcs.codePointAt(pos++) - '0';
-                        }
-                        if (pos == dcs.length() || dcs.codePointAt(pos) != ';') {
-                            mScreen.sixelSetColor(col);
-                        } else {
-                            pos++;
-                            int[] args = { 0, 0, 0, 0 };
-                            int arg = 0;
-                            while (pos < dcs.length() && ((dcs.codePointAt(pos) >= '0' && dcs.codePointAt(pos) <= '9') || dcs.codePointAt(pos) == ';')) {
-                                if (dcs.codePointAt(pos) >= '0' && dcs.codePointAt(pos) <= '9') {
-                                    args[arg] = args[arg] * 10 + dcs.codePointAt(pos) - '0';
-                                } else {
-                                    arg++;
-                                    if (arg > 3) {
-                                        break;
-                                    }
-                                }
-                                pos++;
-                            }
-                            if (args[0] == 2) {
-                                mScreen.sixelSetColor(col, args[1], args[2], args[3]);
-                            }
-                        }
-                    } else if (dcs.codePointAt(pos) == '!') {
-                        rep = 0;
-                        pos++;
-                        while (pos < dcs.length() && dcs.codePointAt(pos) >= '0' && dcs.codePointAt(pos) <= '9') {
-                            rep = rep * 10 + dcs.codePointAt(pos++) - '0';
-                        }
-                    } else if (dcs.codePointAt(pos) == '$' || dcs.codePointAt(pos) == '-' || (dcs.codePointAt(pos) >= '?' && dcs.codePointAt(pos) <= '~')) {
-                        mScreen.sixelChar(dcs.codePointAt(pos++), rep);
-                        rep = 1;
-                    } else {
-                        pos++;
-                    }
-                }
-                if (b == '\\') {
-                    ESC_P_sixel = false;
-                    int n = mScreen.sixelEnd(mCursorRow, mCursorCol, cellW, cellH);
-                    for (; n > 0; n--) {
-                        doLinefeed();
-                    }
-                } else {
-                    mOSCOrDeviceControlArgs.setLength(0);
-                    if (b == '#') {
-                        mOSCOrDeviceControlArgs.appendCodePoint(b);
-                    }
-                    // Do not finish sequence
-                    continueSequence(mEscapeState);
-                    return;
-                }
             } else {
                 if (LOG_ESCAPE_SEQUENCES)
                     Logger.logError(mClient, LOG_TAG, "Unrecognized device control string: " + dcs);
@@ -1358,6 +1502,77 @@ public final class TerminalEmulator {
         }
     }
 
+    /**
+     * Whether the device control string collected so far introduces a sixel image if followed by 'q', i.e. consists of
+     * only numeric parameters.
+     */
+    private boolean isSixelIntroducer() {
+        for (int i = 0; i < mOSCOrDeviceControlArgs.length(); i++) {
+            char c = mOSCOrDeviceControlArgs.charAt(i);
+            if ((c < '0' || c > '9') && c != ';')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse a char of sixel data, or -1 for the end of the data. Parameters are accumulated in {@link #mSixelArgs}
+     * until the char which follows them.
+     */
+    private void doSixel(int b) {
+        if (mSixelState != SIXEL_DATA) {
+            if (b >= '0' && b <= '9') {
+                if (mSixelState == SIXEL_REPEAT) {
+                    mSixelRepeat = Math.min(SIXEL_PARAMETER_MAX, mSixelRepeat * 10 + b - '0');
+                } else if (mSixelArgIndex < mSixelArgs.length) {
+                    mSixelArgs[mSixelArgIndex] = Math.min(SIXEL_PARAMETER_MAX, mSixelArgs[mSixelArgIndex] * 10 + b - '0');
+                }
+                return;
+            } else if (b == ';' && mSixelState != SIXEL_REPEAT) {
+                mSixelArgIndex++;
+                return;
+            }
+            if (mSixelState == SIXEL_COLOR) {
+                if (mSixelArgIndex == 0) {
+                    mScreen.sixelSetColor(mSixelArgs[0]);
+                } else if (mSixelArgs[1] == 2) {
+                    // RGB color, HLS colors are not supported.
+                    mScreen.sixelSetColor(mSixelArgs[0], mSixelArgs[2], mSixelArgs[3], mSixelArgs[4]);
+                }
+            } else if (mSixelState == SIXEL_RASTER && mSixelArgIndex >= 3) {
+                mScreen.sixelReserve(mSixelArgs[2], mSixelArgs[3]);
+            }
+            mSixelState = SIXEL_DATA;
+        }
+        switch (b) {
+            case '!':
+                mSixelState = SIXEL_REPEAT;
+                mSixelRepeat = 0;
+                break;
+            case '#':
+                mSixelState = SIXEL_COLOR;
+                Arrays.fill(mSixelArgs, 0);
+                mSixelArgIndex = 0;
+                break;
+            case '"':
+                mSixelState = SIXEL_RASTER;
+                Arrays.fill(mSixelArgs, 0);
+                mSixelArgIndex = 0;
+                break;
+            case '$':
+            case '-':
+                mScreen.sixelChar(b, 1);
+                mSixelRepeat = 1;
+                break;
+            default:
+                if (b >= '?' && b <= '~') {
+                    mScreen.sixelChar(b, mSixelRepeat);
+                    mSixelRepeat = 1;
+                }
+                break;
+        }
+    }
+
     /**
      * When in {@link #ESC_APC} (APC, Application Program Command) sequence.
      */
@@ -1459,13 +1674,7 @@ public final class TerminalEmulator {
                         unknownSequence(b);
                         break;
                 }
-                long style = getStyle();
-                for (int row = startRow; row < endRow; row++) {
-                    for (int col = startCol; col < endCol; col++) {
-                        if ((TextStyle.decodeEffect(mScreen.getStyleAt(row, col)) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
-                            mScreen.setChar(col, row, fillChar, style);
-                    }
-                }
+                mScreen.fillRectangle(startCol, startRow, endCol, endRow, fillChar, getStyle(), true, false);
                 break;
             case 'h':
             case 'l':
@@ -1538,8 +1747,9 @@ public final class TerminalEmulator {
             case // DECSCLM-Scrolling Mode. Ignore.
             4:
                 break;
-            case // Reverse video. No action.
+            case // Reverse video. No action except redrawing.
             5:
+                mScreen.markAllRowsDirty();
                 break;
             case // Set: Origin Mode. Reset: Normal Cursor Mode. Ansi name: DECOM.
             6:
@@ -1605,6 +1815,7 @@ public final class TerminalEmulator {
                         if (setting)
                             saveCursor();
                         mScreen = newScreen;
+                        mScreen.markAllRowsDirty();
                         if (!setting) {
                             int col = mSavedStateMain.mSavedCursorCol;
                             int row = mSavedStateMain.mSavedCursorRow;
@@ -1822,8 +2033,12 @@ public final class TerminalEmulator {
                 // http://www.vt100.net/docs/vt100-ug/chapter3.html: "Move the active position to the same horizontal
                 // position on the preceding line. If the active position is at the top margin, a scroll down is performed".
                 if (mCursorRow <= mTopMargin) {
-                    mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, mBottomMargin - (mTopMargin + 1), mLeftMargin, mTopMargin + 1);
-                    blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin);
+                    if (mLeftMargin == 0 && mRightMargin == mColumns) {
+                        mScreen.moveRows(mTopMargin, mBottomMargin, 1, getStyle());
+                    } else {
+                        mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, mBottomMargin - (mTopMargin + 1), mLeftMargin, mTopMargin + 1);
+                        blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin);
+                    }
                 } else {
                     mCursorRow--;
                 }
@@ -1837,6 +2052,7 @@ public final class TerminalEmulator {
             'P':
                 mOSCOrDeviceControlArgs.setLength(0);
                 ESC_P_escape = false;
+                ESC_P_sixel = false;
                 continueSequence(ESC_P);
                 break;
             case '[':
@@ -2020,9 +2236,7 @@ public final class TerminalEmulator {
                 {
                     int linesAfterCursor = mBottomMargin - mCursorRow;
                     int linesToInsert = Math.min(getArg0(1), linesAfterCursor);
-                    int linesToMove = linesAfterCursor - linesToInsert;
-                    mScreen.blockCopy(0, mCursorRow, mColumns, linesToMove, 0, mCursorRow + linesToInsert);
-                    blockClear(0, mCursorRow, mColumns, linesToInsert);
+                    mScreen.moveRows(mCursorRow, mBottomMargin, linesToInsert, getStyle());
                 }
                 break;
             case // "${CSI}${N}M" - delete N lines (DL).
@@ -2031,9 +2245,7 @@ public final class TerminalEmulator {
                     mAboutToAutoWrap = false;
                     int linesAfterCursor = mBottomMargin - mCursorRow;
                     int linesToDelete = Math.min(getArg0(1), linesAfterCursor);
-                    int linesToMove = linesAfterCursor - linesToDelete;
-                    mScreen.blockCopy(0, mCursorRow + linesToDelete, mColumns, linesToMove, 0, mCursorRow);
-                    blockClear(0, mCursorRow + linesToMove, mColumns, linesToDelete);
+                    mScreen.moveRows(mCursorRow, mBottomMargin, -linesToDelete, getStyle());
                 }
                 break;
             case // "${CSI}{N}P" - delete ${N} characters (DCH).
@@ -2068,8 +2280,12 @@ public final class TerminalEmulator {
                     final int linesToScrollArg = getArg0(1);
                     final int linesBetweenTopAndBottomMargins = mBottomMargin - mTopMargin;
                     final int linesToScroll = Math.min(linesBetweenTopAndBottomMargins, linesToScrollArg);
-                    mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesBetweenTopAndBottomMargins - linesToScroll, mLeftMargin, mTopMargin + linesToScroll);
-                    blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesToScroll);
+                    if (mLeftMargin == 0 && mRightMargin == mColumns) {
+                        mScreen.moveRows(mTopMargin, mBottomMargin, linesToScroll, getStyle());
+                    } else {
+                        mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesBetweenTopAndBottomMargins - linesToScroll, mLeftMargin, mTopMargin + linesToScroll);
+                        blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesToScroll);
+                    }
                 } else {
                     // "${CSI}${func};${startx};${starty};${firstrow};${lastrow}T" - initiate highlight mouse tracking.
                     unimplementedSequence(b);
@@ -2428,21 +2644,16 @@ public final class TerminalEmulator {
                 continueSequence(ESC_OSC_ESC);
                 break;
             default:
+                if (ESC_OSC_colon >= 0) {
+                    // Decode the base64 data of OSC 1337 as it arrives instead of collecting it.
+                    ESC_OSC_data.decode(b);
+                    continueSequence(mEscapeState);
+                    break;
+                }
                 collectOSCArgs(b);
-                if (ESC_OSC_colon == -1 && b == ':') {
-                    // Collect base64 data for OSC 1337
+                if (ESC_OSC_colon == -1 && b == ':' && mOSCOrDeviceControlArgs.indexOf("1337;File=") == 0) {
                     ESC_OSC_colon = mOSCOrDeviceControlArgs.length();
-                    ESC_OSC_data = new ArrayList<Byte>(65536);
-                } else if (ESC_OSC_colon >= 0 && mOSCOrDeviceControlArgs.length() - ESC_OSC_colon == 4) {
-                    try {
-                        byte[] decoded = Base64.decode(mOSCOrDeviceControlArgs.substring(ESC_OSC_colon), 0);
-                        for (int i = 0; i < decoded.length; i++) {
-                            ESC_OSC_data.add(decoded[i]);
-                        }
-                    } catch (Exception e) {
-                        // Ignore non-Base64 data.
-                    }
-                    mOSCOrDeviceControlArgs.setLength(ESC_OSC_colon);
+                    ESC_OSC_data.reset(mInlineImageMaxBytes);
                 }
                 break;
         }
@@ -2515,7 +2726,7 @@ public final class TerminalEmulator {
                                 return;
                             } else {
                                 mColors.tryParseColor(colorIndex, textParameter.substring(parsingPairStart, i));
-                                mSession.onColorsChanged();
+                                onColorsChanged();
                                 colorIndex = -1;
                                 parsingPairStart = -1;
                             }
@@ -2554,7 +2765,7 @@ public final class TerminalEmulator {
                                 mSession.write("\033]" + value + ";rgb:" + String.format(Locale.US, "%04x", r) + "/" + String.format(Locale.US, "%04x", g) + "/" + String.format(Locale.US, "%04x", b) + bellOrStringTerminator);
                             } else {
                                 mColors.tryParseColor(specialIndex, colorSpec);
-                                mSession.onColorsChanged();
+                                onColorsChanged();
                             }
                             specialIndex++;
                             if (endOfInput || (specialIndex > TextStyle.COLOR_INDEX_CURSOR) || ++charIndex >= textParameter.length())
@@ -2583,7 +2794,7 @@ public final class TerminalEmulator {
                 // parameters are given, the entire table will be reset.
                 if (textParameter.isEmpty()) {
                     mColors.reset();
-                    mSession.onColorsChanged();
+                    onColorsChanged();
                 } else {
                     int lastIndex = 0;
                     for (int charIndex = 0; ; charIndex++) {
@@ -2592,7 +2803,7 @@ public final class TerminalEmulator {
                             try {
                                 int colorToReset = Integer.parseInt(textParameter.substring(lastIndex, charIndex));
                                 mColors.reset(colorToReset);
-                                mSession.onColorsChanged();
+                                onColorsChanged();
                                 if (endOfInput)
                                     break;
                                 charIndex++;
@@ -2611,7 +2822,7 @@ public final class TerminalEmulator {
             case // Reset cursor color.
             112:
                 mColors.reset(TextStyle.COLOR_INDEX_FOREGROUND + (value - 110));
-                mSession.onColorsChanged();
+                onColorsChanged();
                 break;
             case // Reset highlight color.
             119:
@@ -2679,26 +2890,16 @@ public final class TerminalEmulator {
                         finishSequence();
                         return;
                     }
-                    if (osc_colon >= 0 && mOSCOrDeviceControlArgs.length() > osc_colon) {
-                        while (mOSCOrDeviceControlArgs.length() - osc_colon < 4) {
-                            mOSCOrDeviceControlArgs.append('=');
-                        }
-                        try {
-                            byte[] decoded = Base64.decode(mOSCOrDeviceControlArgs.substring(osc_colon), 0);
-                            for (int i = 0; i < decoded.length; i++) {
-                                ESC_OSC_data.add(decoded[i]);
-                            }
-                        } catch (Exception e) {
-                            // Ignore non-Base64 data.
-                        }
-                        mOSCOrDeviceControlArgs.setLength(osc_colon);
-                    }
                     if (osc_colon >= 0) {
-                        byte[] result = new byte[ESC_OSC_data.size()];
-                        for (int i = 0; i < ESC_OSC_data.size(); i++) {
-                            result[i] = ESC_OSC_data.get(i).byteValue();
+                        ESC_OSC_data.finish();
+                        if (ESC_OSC_data.isOverflowed()) {
+                            Logger.logWarn(mClient, LOG_TAG, "Ignoring inline image larger than " + mInlineImageMaxBytes + " bytes");
+                            finishSequence();
+                            return;
                         }
-                        int[] res = mScreen.addImage(result, mCursorRow, mCursorCol, cellW, cellH, width, height, aspect);
+                        final int length = ESC_OSC_data.getLength();
+                        // The buffer is handed over to the image, which decodes it in the background.
+                        int[] res = mScreen.addImage(ESC_OSC_data.takeBuffer(), length, mCursorRow, mCursorCol, cellW, cellH, width, height, aspect, mSession::onImageDecoded);
                         int col = res[1] + mCursorCol;
                         if (col < mColumns - 1) {
                             res[0] -= 1;
@@ -2709,8 +2910,6 @@ public final class TerminalEmulator {
                             doLinefeed();
                         }
                         mCursorCol = col;
-                        ESC_OSC_data.clear();
-                    } else {
                     }
                 } else if (textParameter.startsWith("ReportCellSize")) {
                     mSession.write(String.format(Locale.US, "\0331337;ReportCellSize=%d;%d\007", cellH, cellW));
@@ -3139,6 +3338,15 @@ public final class TerminalEmulator {
         mAutoScrollDisabled = !mAutoScrollDisabled;
     }
 
+    /**
+     * Mark all rows of both buffers for redrawing and notify the session that the colors have changed.
+     */
+    private void onColorsChanged() {
+        mMainBuffer.markAllRowsDirty();
+        mAltBuffer.markAllRowsDirty();
+        mSession.onColorsChanged();
+    }
+
     /**
      * Reset terminal state so user can interact with it regardless of present state.
      */
@@ -3167,7 +3375,7 @@ public final class TerminalEmulator {
         // XXX: Should we set terminal driver back to IUTF8 with termios?
         mUtf8Index = mUtf8ToFollow = 0;
         mColors.reset();
-        mSession.onColorsChanged();
+        onColorsChanged();
         ESC_P_escape = false;
         ESC_P_sixel = false;
         ESC_OSC_colon = -1;
@@ -3202,15 +3410,33 @@ public final class TerminalEmulator {
      * If DECSET 2004 is set, prefix paste with "\033[200~" and suffix with "\033[201~".
      */
     public void paste(String text) {
-        // First: Always remove escape key and C1 control characters [0x80,0x9F]:
-        text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
-        // Second: Replace all newlines (\n) or CRLF (\r\n) with carriage returns (\r).
-        text = text.replaceAll("\r?\n", "\r");
+        // Always remove escape key and C1 control characters [0x80,0x9F], and replace all newlines (\n) or CRLF
+        // (\r\n) with carriage returns (\r), in a single pass since pastes may be large.
+        final int length = text.length();
+        StringBuilder filtered = new StringBuilder(length);
+        boolean pendingCarriageReturn = false;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '\033' || (c >= '\u0080' && c <= '\u009F'))
+                continue;
+            if (pendingCarriageReturn) {
+                pendingCarriageReturn = false;
+                filtered.append('\r');
+                if (c == '\n')
+                    continue;
+            }
+            if (c == '\r')
+                pendingCarriageReturn = true;
+            else
+                filtered.append(c == '\n' ? '\r' : c);
+        }
+        if (pendingCarriageReturn)
+            filtered.append('\r');
         // Then: Implement bracketed paste mode if enabled:
         boolean bracketed = isDecsetInternalBitSet(DECSET_BIT_BRACKETED_PASTE_MODE);
         if (bracketed)
             mSession.write("\033[200~");
-        mSession.write(text);
+        mSession.write(filtered.toString());
         if (bracketed)
             mSession.write("\033[201~");
     }
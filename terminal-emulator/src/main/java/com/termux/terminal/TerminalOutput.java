@@ -1,5 +1,10 @@
 package com.termux.terminal;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -7,14 +12,37 @@ import java.nio.charset.StandardCharsets;
  */
 public abstract class TerminalOutput {
 
+    /** The max number of bytes written at once by {@link #write(String)}. */
+    private static final int WRITE_CHUNK_BYTES = 8192;
+
     /**
-     * Write a string using the UTF-8 encoding to the terminal client.
+     * Write a string using the UTF-8 encoding to the terminal client. Long strings, like pastes, are encoded and
+     * written in chunks of {@link #WRITE_CHUNK_BYTES}, instead of being encoded to a single array first.
      */
     public final void write(String data) {
         if (data == null)
             return;
-        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
-        write(bytes, 0, bytes.length);
+        // A char never encodes to more than 3 bytes.
+        if (data.length() <= WRITE_CHUNK_BYTES / 3) {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            write(bytes, 0, bytes.length);
+            return;
+        }
+        // Replace malformed input with '?' like String#getBytes() does.
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer in = CharBuffer.wrap(data);
+        ByteBuffer out = ByteBuffer.allocate(WRITE_CHUNK_BYTES);
+        CoderResult result;
+        do {
+            result = encoder.encode(in, out, true);
+            if (result.isUnderflow())
+                encoder.flush(out);
+            if (out.position() > 0) {
+                write(out.array(), 0, out.position());
+                out.clear();
+            }
+        } while (result.isOverflow());
     }
 
     /**
@@ -43,4 +71,11 @@ public abstract class TerminalOutput {
     public abstract void onBell();
 
     public abstract void onColorsChanged();
+
+    /**
+     * Notify the terminal client that an image on the screen has been decoded and can be drawn. Called from the thread
+     * decoding images.
+     */
+    public void onImageDecoded() {
+    }
 }
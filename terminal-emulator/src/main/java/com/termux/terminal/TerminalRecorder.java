@@ -0,0 +1,125 @@
+package com.termux.terminal;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Records the output a session reads from its pty and the resizes of its terminal in the asciicast v2 format of
+ * asciinema, a header line followed by a line per event with its time in seconds since the start of the recording. A
+ * recording can be played by {@link TerminalRecording}, or by any asciicast player.
+ * <p>
+ * Output events hold text, so output is decoded as UTF-8 first. A code point split between two reads is written with
+ * the second read, and malformed input is replaced with U+FFFD like {@link TerminalEmulator} does when it is appended.
+ * Output is recorded on the reader thread of a session and resizes on the main thread, so methods are synchronized.
+ */
+public final class TerminalRecorder implements Closeable {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer mWriter;
+
+    private final long mStartNanos = System.nanoTime();
+
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** The output to decode, holding the bytes of an incomplete code point at the end of the last output. */
+    private ByteBuffer mInput = ByteBuffer.allocate(4096);
+
+    private CharBuffer mText = CharBuffer.allocate(4096);
+
+    private final StringBuilder mEvent = new StringBuilder();
+
+    private boolean mClosed;
+
+    /**
+     * Start a recording of a terminal with a size. The stream is closed when the recorder is closed.
+     */
+    public TerminalRecorder(OutputStream out, int columns, int rows) throws IOException {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mWriter.write(String.format(Locale.ROOT, "{\"version\": 2, \"width\": %d, \"height\": %d, \"timestamp\": %d, \"env\": {\"TERM\": \"xterm-256color\"}}\n",
+            columns, rows, System.currentTimeMillis() / 1000));
+    }
+
+    /** Record output read from the pty. */
+    public synchronized void recordOutput(byte[] buffer, int offset, int length) throws IOException {
+        if (mClosed || length <= 0)
+            return;
+        if (mInput.remaining() < length) {
+            ByteBuffer input = ByteBuffer.allocate(mInput.position() + length);
+            mInput.flip();
+            input.put(mInput);
+            mInput = input;
+        }
+        mInput.put(buffer, offset, length);
+        mInput.flip();
+        // A byte never decodes to more than one char, except for the surrogate pair of a four byte code point.
+        if (mText.capacity() < mInput.remaining())
+            mText = CharBuffer.allocate(mInput.remaining());
+        mText.clear();
+        mDecoder.decode(mInput, mText, false);
+        mInput.compact();
+        mText.flip();
+        if (mText.hasRemaining())
+            writeEvent('o', mText);
+    }
+
+    /** Record a resize of the terminal. */
+    public synchronized void recordResize(int columns, int rows) throws IOException {
+        if (mClosed)
+            return;
+        writeEvent('r', columns + "x" + rows);
+        mWriter.flush();
+    }
+
+    private void writeEvent(char type, CharSequence data) throws IOException {
+        mEvent.setLength(0);
+        mEvent.append(String.format(Locale.ROOT, "[%.6f, \"", (System.nanoTime() - mStartNanos) / 1e9)).append(type).append("\", \"");
+        for (int i = 0; i < data.length(); i++) {
+            final char c = data.charAt(i);
+            switch (c) {
+                case '"':
+                    mEvent.append("\\\"");
+                    break;
+                case '\\':
+                    mEvent.append("\\\\");
+                    break;
+                case '\n':
+                    mEvent.append("\\n");
+                    break;
+                case '\r':
+                    mEvent.append("\\r");
+                    break;
+                case '\t':
+                    mEvent.append("\\t");
+                    break;
+                default:
+                    if (c < ' ' || c == 127)
+                        mEvent.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+                    else
+                        mEvent.append(c);
+            }
+        }
+        mEvent.append("\"]\n");
+        mWriter.append(mEvent);
+    }
+
+    /** Stop recording, which drops the bytes of an incomplete code point at the end of the output, and close the stream. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed)
+            return;
+        mClosed = true;
+        mWriter.close();
+    }
+}
@@ -0,0 +1,243 @@
+package com.termux.terminal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A recording of the output of a session and the resizes of its terminal in the asciicast v2 format, as written by
+ * {@link TerminalRecorder}, which can be played back through {@link TerminalEmulator#append(byte[], int)}.
+ * <p>
+ * {@link #play(TerminalEmulator)} plays all events at once without a session, so that a recording can be used as a
+ * fixture of a plain JVM test. {@link TerminalSession#playRecording(TerminalRecording, boolean)} plays events on the
+ * screen of a session, at their original times or as fast as they are parsed. Events of other types than output and
+ * resize, like input and markers, are skipped.
+ */
+public final class TerminalRecording {
+
+    private static final Pattern HEADER_SIZE_PATTERN = Pattern.compile("\"(width|height)\"\\s*:\\s*(\\d+)");
+
+    private static final Pattern RESIZE_PATTERN = Pattern.compile("(\\d+)x(\\d+)");
+
+    private final int mColumns, mRows;
+
+    /** The time of each event in nanoseconds since the start of the recording. */
+    final long[] mEventNanos;
+
+    /** The output of each event, or null for a resize. */
+    final byte[][] mEventOutput;
+
+    /** The size of the terminal after each resize event, as columns in the high and rows in the low 32 bits. */
+    final long[] mEventSize;
+
+    private TerminalRecording(int columns, int rows, List<Long> nanos, List<byte[]> output, List<Long> size) {
+        mColumns = columns;
+        mRows = rows;
+        final int events = nanos.size();
+        mEventNanos = new long[events];
+        mEventOutput = new byte[events][];
+        mEventSize = new long[events];
+        for (int i = 0; i < events; i++) {
+            mEventNanos[i] = nanos.get(i);
+            mEventOutput[i] = output.get(i);
+            mEventSize[i] = size.get(i);
+        }
+    }
+
+    /**
+     * Read a recording in the asciicast v2 format.
+     *
+     * @throws IOException If reading fails or the recording is not valid asciicast v2.
+     */
+    public static TerminalRecording read(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String header = lines.readLine();
+        if (header == null || !header.trim().startsWith("{"))
+            throw new IOException("Missing asciicast header");
+        int columns = -1, rows = -1;
+        Matcher sizeMatcher = HEADER_SIZE_PATTERN.matcher(header);
+        while (sizeMatcher.find()) {
+            if (sizeMatcher.group(1).equals("width"))
+                columns = Integer.parseInt(sizeMatcher.group(2));
+            else
+                rows = Integer.parseInt(sizeMatcher.group(2));
+        }
+        if (columns <= 0 || rows <= 0)
+            throw new IOException("Missing terminal size in asciicast header: " + header);
+
+        List<Long> nanos = new ArrayList<>();
+        List<byte[]> output = new ArrayList<>();
+        List<Long> size = new ArrayList<>();
+        String line;
+        int lineNumber = 1;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty())
+                continue;
+            EventParser event = new EventParser(line, lineNumber);
+            event.expect('[');
+            final double seconds = event.parseNumber();
+            event.expect(',');
+            final String type = event.parseString();
+            event.expect(',');
+            final String data = event.parseString();
+            event.expect(']');
+            if (type.equals("o")) {
+                nanos.add((long) (seconds * 1e9));
+                output.add(data.getBytes(StandardCharsets.UTF_8));
+                size.add(0L);
+            } else if (type.equals("r")) {
+                Matcher resizeMatcher = RESIZE_PATTERN.matcher(data);
+                if (!resizeMatcher.matches())
+                    throw new IOException("Invalid resize event at line " + lineNumber + ": " + data);
+                nanos.add((long) (seconds * 1e9));
+                output.add(null);
+                size.add(((long) Integer.parseInt(resizeMatcher.group(1)) << 32) | Integer.parseInt(resizeMatcher.group(2)));
+            }
+        }
+        return new TerminalRecording(columns, rows, nanos, output, size);
+    }
+
+    /** The number of columns of the terminal when the recording started. */
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /** The number of rows of the terminal when the recording started. */
+    public int getRows() {
+        return mRows;
+    }
+
+    /** The number of output and resize events. */
+    public int getEventCount() {
+        return mEventNanos.length;
+    }
+
+    /** The time in nanoseconds of the last event since the start of the recording. */
+    public long getDurationNanos() {
+        return mEventNanos.length == 0 ? 0 : mEventNanos[mEventNanos.length - 1];
+    }
+
+    /** The total number of bytes of output. */
+    public long getOutputBytes() {
+        long bytes = 0;
+        for (byte[] output : mEventOutput) if (output != null)
+            bytes += output.length;
+        return bytes;
+    }
+
+    /**
+     * Play all events through an emulator at once, usually created with the size of {@link #getColumns()} and
+     * {@link #getRows()}. The transcript is reflowed completely after each resize.
+     */
+    public void play(TerminalEmulator emulator) {
+        for (int i = 0; i < mEventNanos.length; i++) playEvent(emulator, i);
+    }
+
+    /** Play an event through an emulator, reflowing the whole transcript at once on a resize. */
+    private void playEvent(TerminalEmulator emulator, int event) {
+        final byte[] output = mEventOutput[event];
+        if (output != null) {
+            emulator.append(output, output.length);
+        } else {
+            emulator.resize((int) (mEventSize[event] >>> 32), (int) mEventSize[event], emulator.getCellWidthPixels(), emulator.getCellHeightPixels());
+            emulator.reflowTranscriptRows(Integer.MAX_VALUE);
+        }
+    }
+
+    /** A parser of the JSON array of an event line. */
+    private static final class EventParser {
+
+        private final String mLine;
+
+        private final int mLineNumber;
+
+        private int mIndex;
+
+        EventParser(String line, int lineNumber) {
+            mLine = line;
+            mLineNumber = lineNumber;
+        }
+
+        private IOException error(String message) {
+            return new IOException(message + " at line " + mLineNumber + ", column " + (mIndex + 1));
+        }
+
+        private void skipWhitespace() {
+            while (mIndex < mLine.length() && Character.isWhitespace(mLine.charAt(mIndex))) mIndex++;
+        }
+
+        void expect(char c) throws IOException {
+            skipWhitespace();
+            if (mIndex >= mLine.length() || mLine.charAt(mIndex) != c)
+                throw error("Expected '" + c + "'");
+            mIndex++;
+        }
+
+        double parseNumber() throws IOException {
+            skipWhitespace();
+            final int start = mIndex;
+            while (mIndex < mLine.length() && "+-0123456789.eE".indexOf(mLine.charAt(mIndex)) >= 0) mIndex++;
+            try {
+                return Double.parseDouble(mLine.substring(start, mIndex));
+            } catch (NumberFormatException e) {
+                mIndex = start;
+                throw error("Expected a number");
+            }
+        }
+
+        String parseString() throws IOException {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (true) {
+                if (mIndex >= mLine.length())
+                    throw error("Unterminated string");
+                final char c = mLine.charAt(mIndex++);
+                if (c == '"')
+                    return string.toString();
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+                if (mIndex >= mLine.length())
+                    throw error("Unterminated string");
+                final char escaped = mLine.charAt(mIndex++);
+                switch (escaped) {
+                    case 'b':
+                        string.append('\b');
+                        break;
+                    case 'f':
+                        string.append('\f');
+                        break;
+                    case 'n':
+                        string.append('\n');
+                        break;
+                    case 'r':
+                        string.append('\r');
+                        break;
+                    case 't':
+                        string.append('\t');
+                        break;
+                    case 'u':
+                        if (mIndex + 4 > mLine.length())
+                            throw error("Invalid unicode escape");
+                        try {
+                            string.append((char) Integer.parseInt(mLine.substring(mIndex, mIndex + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        mIndex += 4;
+                        break;
+                    default:
+                        // The escapes of '"', '\' and '/'.
+                        string.append(escaped);
+                }
+            }
+        }
+    }
+}
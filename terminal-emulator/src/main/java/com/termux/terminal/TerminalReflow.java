@@ -0,0 +1,166 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Reflows rows of a {@link TerminalBuffer} to a new number of columns, as if their text was output again, into new
+ * rows which are allocated as they are written, from {@link TerminalRowPool} if possible. Used by
+ * {@link TerminalBuffer#resize(int, int, int, int[], long, boolean)}.
+ * <p>
+ * Rows are reflowed in chunks starting after a row which ends a line, see {@link #findChunkStart(TerminalRow[], int)},
+ * which reflow the same as all rows at once. This allows the rows of the screen to be reflowed first, and the rows of
+ * the transcript before them later.
+ */
+final class TerminalReflow {
+
+    private final int mColumns;
+
+    /** The style of the blank cells of new rows. */
+    private final long mStyle;
+
+    /** The reflowed rows, of which the last one is being written. */
+    TerminalRow[] mRows = new TerminalRow[16];
+
+    int mRowCount;
+
+    /** The column of the last row to write the next char at. */
+    private int mColumn;
+
+    /** The index in {@link #mRows} of the row of the cursor and its column, or -1 if the cursor was not placed. */
+    int mCursorRow = -1, mCursorColumn = -1;
+
+    TerminalReflow(int columns, long style) {
+        mColumns = columns;
+        mStyle = style;
+        newRow();
+    }
+
+    /**
+     * Get the start of the chunk with a row, which is the row after the last row before it that ends a line, or 0. A
+     * row ends a line if it is not wrapped and not blank, since blank rows are only kept if followed by other rows.
+     */
+    static int findChunkStart(TerminalRow[] rows, int row) {
+        while (row > 0 && !endsLine(rows[row - 1])) row--;
+        return row;
+    }
+
+    private static boolean endsLine(TerminalRow row) {
+        return row != null && !row.mLineWrap && !row.isBlank();
+    }
+
+    /**
+     * Reflow a chunk of rows.
+     *
+     * @param start        The start of the chunk, see {@link #findChunkStart(TerminalRow[], int)}.
+     * @param end          The end of the chunk (exclusive), which must be a chunk start or the end of the rows.
+     * @param cursorRow    The row of the cursor, or -1. Text after the cursor on its row is dropped.
+     * @param cursorColumn The column of the cursor.
+     * @param endOfRows    If the chunk ends at the end of the rows, after which no new row is started.
+     */
+    void reflow(TerminalRow[] rows, int start, int end, int cursorRow, int cursorColumn, boolean endOfRows) {
+        int skippedBlankRows = 0;
+        for (int index = start; index < end; index++) {
+            final TerminalRow row = rows[index];
+            final boolean cursorAtThisRow = index == cursorRow;
+            // Blank rows are skipped until a row which is not blank, so that blank rows at the end are dropped. The
+            // cursor may only be on a non-null row, which is not skipped.
+            if (row == null || (!cursorAtThisRow && row.isBlank())) {
+                skippedBlankRows++;
+                continue;
+            }
+            for (; skippedBlankRows > 0; skippedBlankRows--) newRow();
+            int length = 0;
+            if (cursorAtThisRow || row.mLineWrap) {
+                // Take the whole row, either because of the cursor on it, or if it is wrapped.
+                length = row.getSpaceUsed();
+            } else {
+                final char[] text = row.mText;
+                for (int i = 0; i < row.getSpaceUsed(); i++) if (text[i] != ' ')
+                    length = i + 1;
+            }
+            if (row.mHasNonOneWidthOrSurrogateChars)
+                writeChars(row, length, cursorAtThisRow ? cursorColumn : -1);
+            else
+                writeOneWidthChars(row, cursorAtThisRow ? Math.min(length, cursorColumn + 1) : length, cursorAtThisRow ? cursorColumn : -1);
+            if (!row.mLineWrap && !(endOfRows && index == end - 1))
+                newRow();
+        }
+    }
+
+    /**
+     * Write the first {@code length} columns of a row without wide, combining or surrogate chars in runs.
+     */
+    private void writeOneWidthChars(TerminalRow row, int length, int cursorColumn) {
+        for (int column = 0; column < length; ) {
+            if (mColumn == mColumns)
+                wrapRow();
+            final int count = Math.min(length - column, mColumns - mColumn);
+            if (cursorColumn >= column && cursorColumn < column + count) {
+                mCursorRow = mRowCount - 1;
+                mCursorColumn = mColumn + cursorColumn - column;
+            }
+            mRows[mRowCount - 1].copyOneWidthChars(row, column, mColumn, count);
+            column += count;
+            mColumn += count;
+        }
+    }
+
+    /**
+     * Write the first {@code length} chars of a row one code point at a time.
+     */
+    private void writeChars(TerminalRow row, int length, int cursorColumn) {
+        final char[] text = row.mText;
+        int column = 0;
+        long style = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text[i];
+            final int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[++i]) : c;
+            final int width = WcWidth.width(codePoint);
+            // Use the last style if this is a zero-width character:
+            if (width > 0)
+                style = row.getStyle(column);
+            if (mColumn + width > mColumns)
+                wrapRow();
+            final int offsetDueToCombiningChar = (width <= 0 && mColumn > 0) ? 1 : 0;
+            mRows[mRowCount - 1].setChar(mColumn - offsetDueToCombiningChar, codePoint, style);
+            if (width > 0) {
+                if (column == cursorColumn) {
+                    mCursorRow = mRowCount - 1;
+                    mCursorColumn = mColumn;
+                }
+                column += width;
+                mColumn += width;
+                if (cursorColumn >= 0 && mCursorRow >= 0)
+                    break;
+            }
+        }
+    }
+
+    private void wrapRow() {
+        mRows[mRowCount - 1].mLineWrap = true;
+        newRow();
+    }
+
+    private void newRow() {
+        if (mRowCount == mRows.length)
+            mRows = Arrays.copyOf(mRows, mRowCount * 2);
+        mRows[mRowCount++] = TerminalRowPool.obtain(mColumns, mStyle);
+        mColumn = 0;
+    }
+
+    /**
+     * Add the rows of a reflowed chunk which ends before the chunk of these rows before them. The last row of the
+     * chunk is the empty row started after its last line, which is the first row of these rows instead.
+     */
+    void prepend(TerminalReflow chunk) {
+        final int chunkRows = chunk.mRowCount - 1;
+        TerminalRow[] rows = new TerminalRow[chunkRows + mRowCount];
+        System.arraycopy(chunk.mRows, 0, rows, 0, chunkRows);
+        System.arraycopy(mRows, 0, rows, chunkRows, mRowCount);
+        TerminalRowPool.recycle(chunk.mRows[chunkRows], mColumns);
+        mRows = rows;
+        mRowCount += chunkRows;
+        if (mCursorRow >= 0)
+            mCursorRow += chunkRows;
+    }
+}
@@ -1,5 +1,8 @@
 package com.termux.terminal;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -53,9 +56,18 @@ public final class TerminalRow {
     boolean mLineWrap;
 
     /**
-     * The style bits of each cell in the row. See {@link TextStyle}.
+     * The style bits of each cell in the row. See {@link TextStyle}. Null if the row is compacted, see
+     * {@link #compact()}.
      */
-    final long[] mStyle;
+    long[] mStyle;
+
+    /**
+     * The run-length encoded styles of a compacted row, with the style of each run and the column it ends at
+     * (exclusive). Null if the row is not compacted.
+     */
+    private long[] mCompactStyles;
+
+    private short[] mCompactStyleEnds;
 
     /**
      * If this row might contain chars with width != 1, used for deactivating fast path
@@ -67,6 +79,29 @@ public final class TerminalRow {
      */
     public boolean mHasBitmap;
 
+    /**
+     * Incremented whenever the text or style of the row changes, so that renderers can cache what was drawn for it.
+     */
+    private int mVersion;
+
+    /**
+     * The mask of the chars in the row for {@link TerminalSearch}, valid if {@link #mSearchMaskVersion} is
+     * {@link #mVersion}.
+     */
+    private long mSearchMask;
+
+    private int mSearchMaskVersion;
+
+    /**
+     * The index in {@link #mText} of the start of each column, of which the first {@link #mValidColumnStarts} are
+     * valid. Used by {@link #findStartOfColumn(int)} and {@link #wideDisplayCharacterStartingAt(int)} when the row
+     * has chars with width != 1, so that they do not need to scan the row from the start on every call. Allocated on
+     * first use and invalidated from the changed column onwards by {@link #setChar(int, int, long)}.
+     */
+    private short[] mColumnStarts;
+
+    private int mValidColumnStarts;
+
     /**
      * Construct a blank row (containing only whitespace, ' ') with a specified style.
      */
@@ -75,12 +110,82 @@ public final class TerminalRow {
         mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
         mStyle = new long[columns];
         clear(style);
+        mSearchMaskVersion = mVersion - 1;
+    }
+
+    /**
+     * Construct a row read by {@link #readFrom(DataInputStream, int)}, which sets the text and styles.
+     */
+    private TerminalRow(int columns) {
+        mColumns = columns;
+        mSearchMaskVersion = mVersion - 1;
+    }
+
+    /**
+     * Write the text and styles of the row, with the styles run-length encoded like {@link #compact()}, to read it
+     * again with {@link #readFrom(DataInputStream, int)}.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeBoolean(mLineWrap);
+        out.writeBoolean(mHasNonOneWidthOrSurrogateChars);
+        out.writeBoolean(mHasBitmap);
+        out.writeBoolean(isCompacted());
+        out.writeShort(mSpaceUsed);
+        for (int i = 0; i < mSpaceUsed; i++) out.writeChar(mText[i]);
+        int runs = 1;
+        for (int column = 1; column < mColumns; column++) if (getStyle(column) != getStyle(column - 1))
+            runs++;
+        out.writeShort(runs);
+        for (int column = 1; column < mColumns; column++) {
+            if (getStyle(column) != getStyle(column - 1)) {
+                out.writeLong(getStyle(column - 1));
+                out.writeShort(column);
+            }
+        }
+        out.writeLong(getStyle(mColumns - 1));
+        out.writeShort(mColumns);
+    }
+
+    /**
+     * Read a row written by {@link #writeTo(DataOutputStream)}, which is compacted again if it was compacted.
+     */
+    static TerminalRow readFrom(DataInputStream in, int columns) throws IOException {
+        TerminalRow row = new TerminalRow(columns);
+        row.mLineWrap = in.readBoolean();
+        row.mHasNonOneWidthOrSurrogateChars = in.readBoolean();
+        row.mHasBitmap = in.readBoolean();
+        final boolean compacted = in.readBoolean();
+        final int spaceUsed = in.readShort();
+        if (spaceUsed < 0 || spaceUsed > columns * (MAX_COMBINING_CHARACTERS_PER_COLUMN + 2))
+            throw new IOException("Invalid row length " + spaceUsed + " for " + columns + " columns");
+        row.mSpaceUsed = (short) spaceUsed;
+        row.mText = new char[Math.max(spaceUsed, columns)];
+        for (int i = 0; i < spaceUsed; i++) row.mText[i] = in.readChar();
+        final int runs = in.readShort();
+        if (runs < 1 || runs > columns)
+            throw new IOException("Invalid number of style runs " + runs + " for " + columns + " columns");
+        row.mCompactStyles = new long[runs];
+        row.mCompactStyleEnds = new short[runs];
+        for (int run = 0, start = 0; run < runs; run++) {
+            row.mCompactStyles[run] = in.readLong();
+            row.mCompactStyleEnds[run] = in.readShort();
+            if (row.mCompactStyleEnds[run] <= start || row.mCompactStyleEnds[run] > columns || (run == runs - 1 && row.mCompactStyleEnds[run] != columns))
+                throw new IOException("Invalid style run end " + row.mCompactStyleEnds[run]);
+            start = row.mCompactStyleEnds[run];
+        }
+        if (!compacted)
+            row.inflate();
+        return row;
     }
 
     /**
      * NOTE: The sourceX2 is exclusive.
      */
     public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
+        if (!mHasNonOneWidthOrSurrogateChars && !line.mHasNonOneWidthOrSurrogateChars) {
+            copyOneWidthChars(line, sourceX1, destinationX, sourceX2 - sourceX1);
+            return;
+        }
         mHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
         final int x1 = line.findStartOfColumn(sourceX1);
         final int x2 = line.findStartOfColumn(sourceX2);
@@ -115,6 +220,18 @@ public final class TerminalRow {
     public int findStartOfColumn(int column) {
         if (column == mColumns)
             return getSpaceUsed();
+        if (!mHasNonOneWidthOrSurrogateChars)
+            return column;
+        if (mStyle == null)
+            // Compacted rows are rarely read by column, so do not allocate the column starts for them.
+            return scanForStartOfColumn(column);
+        final int cachedStart = getCachedStartOfColumn(column);
+        if (cachedStart >= 0)
+            return cachedStart;
+        return scanForStartOfColumn(column);
+    }
+
+    private int scanForStartOfColumn(int column) {
         int currentColumn = 0;
         int currentCharIndex = 0;
         while (true) {
@@ -154,6 +271,13 @@ public final class TerminalRow {
     }
 
     private boolean wideDisplayCharacterStartingAt(int column) {
+        if (!mHasNonOneWidthOrSurrogateChars)
+            return false;
+        final int cachedStart = getCachedStartOfColumn(column);
+        if (cachedStart >= 0) {
+            // The column is the second half of a wide char if the previous column starts at the same index.
+            return (column == 0 || mColumnStarts[column - 1] != cachedStart) && WcWidth.width(mText, cachedStart) == 2;
+        }
         for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < mSpaceUsed; ) {
             char c = mText[currentCharIndex++];
             int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[currentCharIndex++]) : c;
@@ -169,18 +293,79 @@ public final class TerminalRow {
         return false;
     }
 
+    /**
+     * Get the start of a column from {@link #mColumnStarts}, extending the valid columns if necessary.
+     *
+     * @return Returns the index in {@link #mText}, or -1 if the column does not have a start in the used text.
+     */
+    private int getCachedStartOfColumn(int column) {
+        if (column < 0)
+            return -1;
+        if (column >= mValidColumnStarts) {
+            if (mColumnStarts == null)
+                mColumnStarts = new short[mColumns];
+            extendColumnStarts(column);
+            if (column >= mValidColumnStarts)
+                return -1;
+        }
+        return mColumnStarts[column];
+    }
+
+    private void extendColumnStarts(int column) {
+        final short[] starts = mColumnStarts;
+        final char[] text = mText;
+        int currentColumn = mValidColumnStarts;
+        int currentCharIndex;
+        if (currentColumn == 0) {
+            currentCharIndex = skipZeroWidthChars(0);
+        } else {
+            // Continue from the start of the code point in the last valid column, which may span the columns before.
+            currentCharIndex = starts[--currentColumn];
+            while (currentColumn > 0 && starts[currentColumn - 1] == currentCharIndex) currentColumn--;
+        }
+        while (currentColumn <= column && currentCharIndex < mSpaceUsed) {
+            final int charsForCodePoint = Character.isHighSurrogate(text[currentCharIndex]) ? 2 : 1;
+            final int endColumn = Math.min(currentColumn + WcWidth.width(text, currentCharIndex), mColumns);
+            for (; currentColumn < endColumn; currentColumn++) starts[currentColumn] = (short) currentCharIndex;
+            currentCharIndex = skipZeroWidthChars(currentCharIndex + charsForCodePoint);
+        }
+        mValidColumnStarts = currentColumn;
+    }
+
+    /**
+     * Skip combining chars, which are part of the column of the code point before them.
+     */
+    private int skipZeroWidthChars(int charIndex) {
+        while (charIndex < mSpaceUsed && WcWidth.width(mText, charIndex) <= 0)
+            charIndex += Character.isHighSurrogate(mText[charIndex]) ? 2 : 1;
+        return charIndex;
+    }
+
     public void clear(long style) {
+        mVersion++;
+        if (mStyle == null) {
+            // No need to inflate the compacted contents which are overwritten anyway.
+            mText = new char[(int) (SPARE_CAPACITY_FACTOR * mColumns)];
+            mStyle = new long[mColumns];
+            mCompactStyles = null;
+            mCompactStyleEnds = null;
+        }
         Arrays.fill(mText, ' ');
         Arrays.fill(mStyle, style);
         mSpaceUsed = (short) mColumns;
+        // A row reused for new output after scrolling out of a full transcript must not be joined with the next row.
+        mLineWrap = false;
         mHasNonOneWidthOrSurrogateChars = false;
         mHasBitmap = false;
+        mValidColumnStarts = 0;
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        if (columnToSet < 0 || columnToSet >= mStyle.length)
+        if (columnToSet < 0 || columnToSet >= mColumns)
             throw new IllegalArgumentException("TerminalRow.setChar(): columnToSet=" + columnToSet + ", codePoint=" + codePoint + ", style=" + style);
+        inflate();
+        mVersion++;
         mStyle[columnToSet] = style;
         if (!mHasBitmap && TextStyle.isBitmap(style)) {
             mHasBitmap = true;
@@ -230,6 +415,10 @@ public final class TerminalRow {
                 return;
         }
 
+        // The text of this column and the columns after it is about to change.
+        if (mValidColumnStarts > columnToSet)
+            mValidColumnStarts = columnToSet;
+
         // Find how many chars this column will need
         int newCharactersUsedForColumn = Character.charCount(codePoint);
         if (newIsCombining) {
@@ -291,6 +480,101 @@ public final class TerminalRow {
         }
     }
 
+    /**
+     * Bulk version of {@link #setChar(int, int, long)} for a run of printable ASCII characters, which all have a
+     * display width of one. Rows without wide, combining or surrogate chars are written directly, other rows fall
+     * back to setting one char at a time.
+     */
+    public void setChars(int columnToSet, byte[] asciiChars, int offset, int count, long style) {
+        if (columnToSet < 0 || columnToSet + count > mColumns)
+            throw new IllegalArgumentException("TerminalRow.setChars(): columnToSet=" + columnToSet + ", count=" + count);
+        inflate();
+        mVersion++;
+        if (mHasNonOneWidthOrSurrogateChars) {
+            for (int i = 0; i < count; i++) setChar(columnToSet + i, asciiChars[offset + i], style);
+            return;
+        }
+        Arrays.fill(mStyle, columnToSet, columnToSet + count, style);
+        if (!mHasBitmap && TextStyle.isBitmap(style)) {
+            mHasBitmap = true;
+        }
+        final char[] text = mText;
+        for (int i = 0; i < count; i++) text[columnToSet + i] = (char) asciiChars[offset + i];
+    }
+
+    /**
+     * Bulk version of {@link #setChar(int, int, long)} for setting {@code count} columns to the same char. Rows without
+     * wide, combining or surrogate chars are filled directly, as are rows which are set whole to a char with a display
+     * width of one, which leaves them without such chars. Other rows fall back to setting one char at a time.
+     *
+     * @param skipProtected If cells with {@link TextStyle#CHARACTER_ATTRIBUTE_PROTECTED} are left unchanged.
+     * @param keepStyle     If cells keep their style instead of being set to {@code style}.
+     */
+    void fillChars(int columnToSet, int count, int codePoint, long style, boolean skipProtected, boolean keepStyle) {
+        if (columnToSet < 0 || columnToSet + count > mColumns)
+            throw new IllegalArgumentException("TerminalRow.fillChars(): columnToSet=" + columnToSet + ", count=" + count);
+        inflate();
+        mVersion++;
+        final boolean oneWidthChar = Character.isBmpCodePoint(codePoint) && !Character.isSurrogate((char) codePoint) && WcWidth.width(codePoint) == 1;
+        if (oneWidthChar && mHasNonOneWidthOrSurrogateChars && columnToSet == 0 && count == mColumns && !skipProtected) {
+            mHasNonOneWidthOrSurrogateChars = false;
+            mSpaceUsed = (short) mColumns;
+            mValidColumnStarts = 0;
+        }
+        if (!oneWidthChar || mHasNonOneWidthOrSurrogateChars) {
+            for (int column = columnToSet; column < columnToSet + count; column++) {
+                final long cellStyle = getStyle(column);
+                if (!skipProtected || (cellStyle & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
+                    setChar(column, codePoint, keepStyle ? cellStyle : style);
+            }
+            return;
+        }
+        final char[] text = mText;
+        final long[] styles = mStyle;
+        if (skipProtected) {
+            for (int column = columnToSet; column < columnToSet + count; column++) {
+                if ((styles[column] & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) != 0)
+                    continue;
+                text[column] = (char) codePoint;
+                if (!keepStyle)
+                    styles[column] = style;
+            }
+        } else {
+            Arrays.fill(text, columnToSet, columnToSet + count, (char) codePoint);
+            if (!keepStyle)
+                Arrays.fill(styles, columnToSet, columnToSet + count, style);
+        }
+        if (!keepStyle && !mHasBitmap && TextStyle.isBitmap(style)) {
+            mHasBitmap = true;
+        }
+    }
+
+    /**
+     * Bulk version of {@link #setChar(int, int, long)} for copying the cells of a row without wide, combining or
+     * surrogate chars, whose columns are the indices in its {@link #mText}. Rows which have such chars themselves fall
+     * back to setting one char at a time.
+     */
+    void copyOneWidthChars(TerminalRow source, int sourceColumn, int columnToSet, int count) {
+        if (columnToSet < 0 || columnToSet + count > mColumns)
+            throw new IllegalArgumentException("TerminalRow.copyOneWidthChars(): columnToSet=" + columnToSet + ", count=" + count);
+        inflate();
+        mVersion++;
+        if (mHasNonOneWidthOrSurrogateChars) {
+            for (int i = 0; i < count; i++) setChar(columnToSet + i, source.mText[sourceColumn + i], source.getStyle(sourceColumn + i));
+            return;
+        }
+        System.arraycopy(source.mText, sourceColumn, mText, columnToSet, count);
+        source.getStyles(sourceColumn, mStyle, columnToSet, count);
+        if (source.mHasBitmap && !mHasBitmap) {
+            for (int column = columnToSet; column < columnToSet + count; column++) {
+                if (TextStyle.isBitmap(mStyle[column])) {
+                    mHasBitmap = true;
+                    break;
+                }
+            }
+        }
+    }
+
     boolean isBlank() {
         for (int charIndex = 0, charLen = getSpaceUsed(); charIndex < charLen; charIndex++) if (mText[charIndex] != ' ')
             return false;
@@ -298,6 +582,139 @@ public final class TerminalRow {
     }
 
     public final long getStyle(int column) {
-        return mStyle[column];
+        final long[] style = mStyle;
+        if (style != null)
+            return style[column];
+        return mCompactStyles[findCompactStyleRun(column)];
+    }
+
+    /**
+     * Copy the styles of {@code count} columns to an array, like {@link #getStyle(int)} for each of them.
+     */
+    private void getStyles(int column, long[] destination, int destinationColumn, int count) {
+        final long[] style = mStyle;
+        if (style != null) {
+            System.arraycopy(style, column, destination, destinationColumn, count);
+            return;
+        }
+        final int endColumn = column + count;
+        for (int run = findCompactStyleRun(column); column < endColumn; run++) {
+            final int runEndColumn = Math.min(mCompactStyleEnds[run], endColumn);
+            Arrays.fill(destination, destinationColumn, destinationColumn + runEndColumn - column, mCompactStyles[run]);
+            destinationColumn += runEndColumn - column;
+            column = runEndColumn;
+        }
+    }
+
+    /**
+     * Binary search for the first run of a compacted row ending after the column.
+     */
+    private int findCompactStyleRun(int column) {
+        final short[] ends = mCompactStyleEnds;
+        int low = 0, high = ends.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= column)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Compact the row by trimming {@link #mText} to the used text and run-length encoding {@link #mStyle}, for rows that
+     * have scrolled off the screen into the transcript and are rarely changed again. The text and styles of a compacted
+     * row can be read as usual, and it is inflated again on the first change.
+     */
+    public void compact() {
+        final long[] style = mStyle;
+        if (style == null)
+            return;
+        int runs = 1;
+        for (int column = 1; column < mColumns; column++) if (style[column] != style[column - 1])
+            runs++;
+        final long[] compactStyles = new long[runs];
+        final short[] compactStyleEnds = new short[runs];
+        int run = 0;
+        for (int column = 1; column < mColumns; column++) {
+            if (style[column] != style[column - 1]) {
+                compactStyles[run] = style[column - 1];
+                compactStyleEnds[run++] = (short) column;
+            }
+        }
+        compactStyles[run] = style[mColumns - 1];
+        compactStyleEnds[run] = (short) mColumns;
+        mCompactStyles = compactStyles;
+        mCompactStyleEnds = compactStyleEnds;
+        mStyle = null;
+        final int textLength = Math.max(mSpaceUsed, mColumns);
+        if (mText.length > textLength)
+            mText = Arrays.copyOf(mText, textLength);
+        mColumnStarts = null;
+        mValidColumnStarts = 0;
+    }
+
+    public boolean isCompacted() {
+        return mStyle == null;
+    }
+
+    /**
+     * Get the estimated number of heap bytes saved by {@link #compact()}, or 0 if the row is not compacted.
+     */
+    public int getCompactionBytesSaved() {
+        if (mStyle != null)
+            return 0;
+        final int inflatedBytes = estimateArrayBytes((int) (SPARE_CAPACITY_FACTOR * mColumns), 2) + estimateArrayBytes(mColumns, 8);
+        final int compactedBytes = estimateArrayBytes(mText.length, 2) + estimateArrayBytes(mCompactStyles.length, 8) + estimateArrayBytes(mCompactStyleEnds.length, 2);
+        return Math.max(0, inflatedBytes - compactedBytes);
+    }
+
+    private static int estimateArrayBytes(int length, int elementBytes) {
+        // The object header and length of an array, aligned to 8 bytes.
+        return (12 + length * elementBytes + 7) & ~7;
+    }
+
+    /**
+     * Undo {@link #compact()} before changing the row.
+     */
+    private void inflate() {
+        if (mStyle != null)
+            return;
+        final long[] style = new long[mColumns];
+        for (int run = 0, start = 0; run < mCompactStyles.length; run++) {
+            Arrays.fill(style, start, mCompactStyleEnds[run], mCompactStyles[run]);
+            start = mCompactStyleEnds[run];
+        }
+        mStyle = style;
+        mCompactStyles = null;
+        mCompactStyleEnds = null;
+        final int textCapacity = (int) (SPARE_CAPACITY_FACTOR * mColumns);
+        if (mText.length < textCapacity)
+            mText = Arrays.copyOf(mText, textCapacity);
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Get the mask of the chars in the row, see {@link TerminalSearch#charMask(char[], int)}, which is computed again
+     * only if the row has changed.
+     */
+    long getSearchMask() {
+        if (mSearchMaskVersion != mVersion) {
+            mSearchMask = TerminalSearch.charMask(mText, mSpaceUsed);
+            mSearchMaskVersion = mVersion;
+        }
+        return mSearchMask;
+    }
+
+    /**
+     * Called before changing {@link #mStyle} directly.
+     */
+    void markChanged() {
+        inflate();
+        mVersion++;
     }
 }
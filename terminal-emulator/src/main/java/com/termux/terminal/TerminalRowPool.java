@@ -0,0 +1,79 @@
+package com.termux.terminal;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small pool of rows no longer used by a {@link TerminalBuffer}, shared by the buffers of all sessions, which keeps
+ * rows per number of columns. Rows of a cleared transcript or left by a resize are recycled here and reused when a
+ * buffer first writes to a row, instead of allocating a new one.
+ * <p>
+ * Only rows which are not compacted are kept, since {@link TerminalRow#clear(long)} allocates new arrays for a
+ * compacted row anyway. The buffers of sessions may be written on different threads, so the pool is synchronized.
+ */
+final class TerminalRowPool {
+
+    /** The max number of rows kept for a number of columns. */
+    static final int MAX_ROWS_PER_COLUMNS = 256;
+
+    /** The max number of different numbers of columns to keep rows for, of which the least recently used is dropped. */
+    static final int MAX_COLUMN_COUNTS = 4;
+
+    private static final Map<Integer, ArrayDeque<TerminalRow>> sRows = new LinkedHashMap<Integer, ArrayDeque<TerminalRow>>(MAX_COLUMN_COUNTS + 1, 1f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ArrayDeque<TerminalRow>> eldest) {
+            return size() > MAX_COLUMN_COUNTS;
+        }
+    };
+
+    private TerminalRowPool() {
+    }
+
+    /**
+     * Get a blank row with the cells set to a style, recycled if one with the number of columns is available.
+     */
+    static TerminalRow obtain(int columns, long style) {
+        TerminalRow row;
+        synchronized (sRows) {
+            ArrayDeque<TerminalRow> rows = sRows.get(columns);
+            row = (rows == null) ? null : rows.pollLast();
+        }
+        if (row == null)
+            return new TerminalRow(columns, style);
+        row.clear(style);
+        return row;
+    }
+
+    /**
+     * Recycle a row which must no longer be referenced by any buffer. Does nothing if the row is null or compacted.
+     */
+    static void recycle(TerminalRow row, int columns) {
+        if (row == null || row.isCompacted())
+            return;
+        synchronized (sRows) {
+            ArrayDeque<TerminalRow> rows = sRows.get(columns);
+            if (rows == null) {
+                rows = new ArrayDeque<>();
+                sRows.put(columns, rows);
+            }
+            if (rows.size() < MAX_ROWS_PER_COLUMNS)
+                rows.addLast(row);
+        }
+    }
+
+    /** Get the number of rows kept for a number of columns. */
+    static int size(int columns) {
+        synchronized (sRows) {
+            ArrayDeque<TerminalRow> rows = sRows.get(columns);
+            return (rows == null) ? 0 : rows.size();
+        }
+    }
+
+    /** Drop all kept rows. */
+    static void clear() {
+        synchronized (sRows) {
+            sRows.clear();
+        }
+    }
+}
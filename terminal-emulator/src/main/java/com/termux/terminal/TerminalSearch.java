@@ -0,0 +1,335 @@
+package com.termux.terminal;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search for text in the transcript and screen of a {@link TerminalBuffer}, which finds one match at a time going
+ * forward or backward from a position, like the find next and previous of a text editor.
+ * <p>
+ * Text is searched per logical line, the rows joined by line wraps, so that a match may span wrapped rows. The chars
+ * of a line are read from {@link TerminalRow#mText} into a reused buffer instead of a String. A literal search first
+ * checks {@link TerminalRow#getSearchMask()} of the rows, a mask of the chars they contain which is computed as rows
+ * scroll into the transcript, so that only the lines which may contain the text are read at all.
+ */
+public final class TerminalSearch {
+
+    /** The bits of the ASCII chars in a search mask, see {@link #charMask(char[], int)}. */
+    private static final long[] ASCII_BITS = new long[128];
+
+    static {
+        for (int c = '!'; c < 127; c++) {
+            if (c >= 'a' && c <= 'z')
+                ASCII_BITS[c] = 1L << (c - 'a');
+            else if (c >= 'A' && c <= 'Z')
+                ASCII_BITS[c] = 1L << (c - 'A');
+            else if (c >= '0' && c <= '9')
+                ASCII_BITS[c] = 1L << (26 + c - '0');
+            else
+                ASCII_BITS[c] = 1L << (36 + c % 14);
+        }
+    }
+
+    /** The text of a literal search, or null for a regex search. */
+    private final char[] mLiteral;
+
+    /** The pattern of a regex search, or null for a literal search. */
+    private final Pattern mPattern;
+
+    private final boolean mIgnoreCase;
+
+    /** The mask of the chars which a row must contain to contain {@link #mLiteral}, or 0 for a regex search. */
+    private final long mQueryMask;
+
+    /** The chars of the line being searched. */
+    private char[] mLineText = new char[256];
+
+    private int mLineLength;
+
+    /** The index in {@link #mLineText} of the first char of each of the {@link #mLineRows} rows of the line. */
+    private int[] mRowStarts = new int[16];
+
+    private int mLineRows;
+
+    private int mMatchStartRow, mMatchStartColumn, mMatchEndRow, mMatchEndColumn;
+
+    /**
+     * Create a search for a text.
+     *
+     * @param query      The text to find, which may not be empty.
+     * @param regex      If the text is a {@link Pattern} instead of a literal text.
+     * @param ignoreCase If upper and lower case letters match each other.
+     * @throws java.util.regex.PatternSyntaxException If the text is not a valid regex.
+     */
+    public TerminalSearch(String query, boolean regex, boolean ignoreCase) {
+        if (query.isEmpty())
+            throw new IllegalArgumentException("Empty search query");
+        mIgnoreCase = ignoreCase;
+        if (regex) {
+            mLiteral = null;
+            mPattern = Pattern.compile(query, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            mQueryMask = 0;
+        } else {
+            mLiteral = query.toCharArray();
+            mPattern = null;
+            long mask = 0;
+            for (int i = 0; i < mLiteral.length; i++) {
+                final char c = mLiteral[i];
+                // Other letters may have more than one case of which the mask only includes the lower case.
+                if (!ignoreCase || c < 128)
+                    mask |= charBit(c);
+                if (ignoreCase)
+                    mLiteral[i] = foldCase(c);
+            }
+            mQueryMask = mask;
+        }
+    }
+
+    /**
+     * Get a mask of the chars in a text, where each char sets a bit for its lower case. A text contains all chars of
+     * another only if its mask contains all bits of the mask of the other. Spaces and control chars set no bits.
+     */
+    static long charMask(char[] text, int length) {
+        long mask = 0;
+        for (int i = 0; i < length; i++) mask |= charBit(text[i]);
+        return mask;
+    }
+
+    private static long charBit(char c) {
+        if (c < 128)
+            return ASCII_BITS[c];
+        return 1L << (50 + Character.toLowerCase(c) % 14);
+    }
+
+    /**
+     * Find the nearest match starting after or at a position going forward, or starting before or at it going
+     * backward. To find the next or previous match after a match, search from the column after or before its start.
+     *
+     * @param screen  The buffer to search in, from the first transcript row to the last screen row.
+     * @param row     The row to search from, which is clamped to the rows of the buffer.
+     * @param column  The column to search from, which may be -1 or the number of columns to search from the end of
+     *                the row before or the start of the next row.
+     * @param forward If to search forward instead of backward.
+     * @return Returns whether a match was found, whose bounds are then available from {@link #getMatchStartRow()}
+     * and the other getters.
+     */
+    public boolean find(TerminalBuffer screen, int row, int column, boolean forward) {
+        final int firstRow = -screen.getActiveTranscriptRows();
+        final int lastRow = screen.mScreenRows - 1;
+        if (row < firstRow) {
+            row = firstRow;
+            column = -1;
+        } else if (row > lastRow) {
+            row = lastRow;
+            column = screen.mColumns;
+        }
+        final long from = position(row, column);
+        int lineStart = startOfLine(screen, row, firstRow);
+        while (true) {
+            int lineEnd = lineStart;
+            while (lineEnd < lastRow && lineWrap(screen, lineEnd)) lineEnd++;
+            if (mayContainMatch(screen, lineStart, lineEnd) && findInLine(screen, lineStart, lineEnd, from, forward))
+                return true;
+            if (forward) {
+                if (lineEnd == lastRow)
+                    return false;
+                lineStart = lineEnd + 1;
+            } else {
+                if (lineStart == firstRow)
+                    return false;
+                lineStart = startOfLine(screen, lineStart - 1, firstRow);
+            }
+        }
+    }
+
+    private static long position(int row, int column) {
+        return ((long) row << 32) + column;
+    }
+
+    private static TerminalRow rowAt(TerminalBuffer screen, int row) {
+        return screen.mLines[screen.externalToInternalRow(row)];
+    }
+
+    private static boolean lineWrap(TerminalBuffer screen, int row) {
+        TerminalRow line = rowAt(screen, row);
+        return line != null && line.mLineWrap;
+    }
+
+    private static int startOfLine(TerminalBuffer screen, int row, int firstRow) {
+        while (row > firstRow && lineWrap(screen, row - 1)) row--;
+        return row;
+    }
+
+    private boolean mayContainMatch(TerminalBuffer screen, int lineStart, int lineEnd) {
+        if (mQueryMask == 0)
+            return true;
+        long mask = 0;
+        for (int row = lineStart; row <= lineEnd; row++) {
+            TerminalRow line = rowAt(screen, row);
+            if (line != null)
+                mask |= line.getSearchMask();
+        }
+        return (mask & mQueryMask) == mQueryMask;
+    }
+
+    private boolean findInLine(TerminalBuffer screen, int lineStart, int lineEnd, long from, boolean forward) {
+        readLine(screen, lineStart, lineEnd);
+        int matchStart = -1, matchEnd = -1;
+        if (mLiteral != null) {
+            // The position of a match is only needed once its text matches, which is rare for most lines.
+            final int last = mLineLength - mLiteral.length;
+            if (forward) {
+                for (int i = 0; i <= last; i++) {
+                    if (literalMatchesAt(i) && cellPosition(screen, lineStart, i) >= from) {
+                        matchStart = i;
+                        break;
+                    }
+                }
+            } else {
+                for (int i = last; i >= 0; i--) {
+                    if (literalMatchesAt(i) && cellPosition(screen, lineStart, i) <= from) {
+                        matchStart = i;
+                        break;
+                    }
+                }
+            }
+            if (matchStart >= 0)
+                matchEnd = matchStart + mLiteral.length;
+        } else {
+            Matcher matcher = mPattern.matcher(CharBuffer.wrap(mLineText, 0, mLineLength));
+            while (matcher.find()) {
+                // Empty matches cannot be shown.
+                if (matcher.end() == matcher.start())
+                    continue;
+                final long start = cellPosition(screen, lineStart, matcher.start());
+                if (forward ? start < from : start > from) {
+                    if (forward)
+                        continue;
+                    break;
+                }
+                matchStart = matcher.start();
+                matchEnd = matcher.end();
+                // Going backward, the last match before the position is the nearest.
+                if (forward)
+                    break;
+            }
+        }
+        if (matchStart < 0)
+            return false;
+        final int columns = screen.mColumns;
+        final int startCell = cellOf(screen, lineStart, matchStart);
+        int lastChar = matchEnd - 1;
+        if (lastChar > 0 && Character.isLowSurrogate(mLineText[lastChar]) && Character.isHighSurrogate(mLineText[lastChar - 1]))
+            lastChar--;
+        final int endCell = cellOf(screen, lineStart, lastChar) + (WcWidth.width(mLineText, lastChar) == 2 ? 1 : 0);
+        mMatchStartRow = lineStart + startCell / columns;
+        mMatchStartColumn = startCell % columns;
+        mMatchEndRow = lineStart + endCell / columns;
+        mMatchEndColumn = endCell % columns;
+        return true;
+    }
+
+    private long cellPosition(TerminalBuffer screen, int lineStart, int charIndex) {
+        final int cell = cellOf(screen, lineStart, charIndex);
+        return position(lineStart + cell / screen.mColumns, cell % screen.mColumns);
+    }
+
+    /**
+     * Get the cell of a char of the line as {@code row * columns + column} from its start. Combining chars are in the
+     * cell of the char before them.
+     */
+    private int cellOf(TerminalBuffer screen, int lineStart, int charIndex) {
+        int row = 0;
+        while (row + 1 < mLineRows && mRowStarts[row + 1] <= charIndex) row++;
+        final int columns = screen.mColumns;
+        final int offset = charIndex - mRowStarts[row];
+        TerminalRow line = rowAt(screen, lineStart + row);
+        if (line == null || !line.mHasNonOneWidthOrSurrogateChars)
+            return row * columns + offset;
+        final char[] text = line.mText;
+        int column = 0, cell = 0;
+        for (int i = 0; i <= offset; ) {
+            final int width = WcWidth.width(text, i);
+            if (width > 0) {
+                cell = Math.min(column, columns - 1);
+                column += width;
+            }
+            i += Character.isHighSurrogate(text[i]) ? 2 : 1;
+        }
+        return row * columns + cell;
+    }
+
+    private boolean literalMatchesAt(int index) {
+        final char[] literal = mLiteral;
+        final char[] text = mLineText;
+        if (mIgnoreCase) {
+            if (foldCase(text[index]) != literal[0])
+                return false;
+            for (int i = 1; i < literal.length; i++) if (foldCase(text[index + i]) != literal[i])
+                return false;
+        } else {
+            // Most chars differ from the first char of the literal, so check it before looping.
+            if (text[index] != literal[0])
+                return false;
+            for (int i = 1; i < literal.length; i++) if (text[index + i] != literal[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Map a char to the same char as the other cases of it, like {@link String#equalsIgnoreCase(String)} compares
+     * chars.
+     */
+    private static char foldCase(char c) {
+        if (c < 128)
+            return (c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Read the chars of the rows of a line into {@link #mLineText}, and where each row starts into
+     * {@link #mRowStarts}.
+     */
+    private void readLine(TerminalBuffer screen, int lineStart, int lineEnd) {
+        final int columns = screen.mColumns;
+        final int rows = lineEnd - lineStart + 1;
+        if (mRowStarts.length < rows)
+            mRowStarts = new int[Math.max(rows, mRowStarts.length * 2)];
+        int length = 0;
+        for (int row = 0; row < rows; row++) {
+            mRowStarts[row] = length;
+            TerminalRow line = rowAt(screen, lineStart + row);
+            final int used = line == null ? columns : line.getSpaceUsed();
+            if (length + used > mLineText.length)
+                mLineText = Arrays.copyOf(mLineText, Math.max(length + used, mLineText.length * 2));
+            if (line == null)
+                Arrays.fill(mLineText, length, length + used, ' ');
+            else
+                System.arraycopy(line.mText, 0, mLineText, length, used);
+            length += used;
+        }
+        mLineRows = rows;
+        mLineLength = length;
+    }
+
+    public int getMatchStartRow() {
+        return mMatchStartRow;
+    }
+
+    public int getMatchStartColumn() {
+        return mMatchStartColumn;
+    }
+
+    /** The last row of the match, which is after the start row if the match spans wrapped rows. */
+    public int getMatchEndRow() {
+        return mMatchEndRow;
+    }
+
+    /** The last column of the match (inclusive). */
+    public int getMatchEndColumn() {
+        return mMatchEndColumn;
+    }
+}
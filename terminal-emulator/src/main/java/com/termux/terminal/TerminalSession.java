@@ -1,27 +1,59 @@
 package com.termux.terminal;
 
 import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
+import android.view.Choreographer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
  * {@link #updateSize(int, int, int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * All terminal emulation and callback methods will be performed on the main thread, unless {@link #setUseEmulatorThread(boolean)}
+ * is enabled, in which case terminal emulation is performed on a session owned emulator thread while holding the
+ * {@link TerminalEmulator} lock and only screen update notifications and callbacks are posted to the main thread.
+ * <p>
+ * Process output is announced with at most one pending {@link #MSG_NEW_INPUT} at a time, and the client is notified of
+ * screen updates at most once per display frame through the {@link Choreographer}. At most
+ * {@link #setMaxBytesParsedPerFrame(int)} bytes are parsed per frame so that a flood of output does not starve input
+ * events, the rest is left in the queue until the next frame.
+ * <p>
+ * A session which is not visible and has no output for the delay set with {@link #setHibernation(File, int)} is
+ * hibernated: the rows of its terminal are released and written to a file on a background thread, while the process
+ * keeps running. Output of a hibernated session is kept in its {@link #mProcessToTerminalIOQueue} until the queue is
+ * half full, and the rows are read back on the background thread when {@link #restore()} is called before the session
+ * is shown again, or earlier if needed.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -33,20 +65,111 @@ public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_PROCESS_EXITED = 4;
 
+    private static final int MSG_SCREEN_UPDATED = 5;
+
+    private static final int MSG_SESSION_FINISHED = 6;
+
+    private static final int MSG_COMPACT_TRANSCRIPT = 7;
+
+    private static final int MSG_REFLOW_TRANSCRIPT = 8;
+
+    private static final int MSG_HIBERNATE = 9;
+
+    public static final int PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MIN = 4 * 1024;
+
+    public static final int PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MAX = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY = 64 * 1024;
+
+    public static final int TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MIN = 4 * 1024;
+
+    public static final int TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MAX = 4 * 1024 * 1024;
+
+    public static final int DEFAULT_TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY = 64 * 1024;
+
+    /**
+     * The max number of bytes kept for writes which did not fit in the queue to the process, 4 times the max capacity
+     * of the queue. Writes beyond it are dropped, so that a process which never reads its input cannot make the
+     * session run out of memory.
+     */
+    public static final int MAX_PENDING_WRITE_BYTES = 4 * TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MAX;
+
+    public static final int MAX_BYTES_PARSED_PER_FRAME_MIN = 4 * 1024;
+
+    public static final int MAX_BYTES_PARSED_PER_FRAME_MAX = 16 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_BYTES_PARSED_PER_FRAME = 256 * 1024;
+
+    public static final int HIBERNATE_DELAY_SECONDS_MIN = 0;
+
+    public static final int HIBERNATE_DELAY_SECONDS_MAX = 7 * 24 * 60 * 60;
+
+    /** Sessions are not hibernated by default. */
+    public static final int DEFAULT_HIBERNATE_DELAY_SECONDS = 0;
+
+    /**
+     * The delay after which a pending screen update is delivered even if no frame arrived, e.g. while the display is
+     * off, so that parsing of output deferred to the next frame is never stalled.
+     */
+    private static final long FRAME_FALLBACK_DELAY_MILLIS = 100;
+
+    /**
+     * The time without process output after which the rows that scrolled into the transcript are compacted, so that
+     * rows which are about to be reused during a burst of output are not compacted needlessly.
+     */
+    private static final long TRANSCRIPT_COMPACTION_DELAY_MILLIS = 2000;
+
+    /**
+     * The max number of transcript rows compacted at once, so that the thread of {@link #mEmulatorHandler} is not
+     * blocked for long after a large amount of output.
+     */
+    private static final int TRANSCRIPT_COMPACTION_BATCH_ROWS = 1000;
+
+    /**
+     * The max number of transcript rows reflowed at once after a resize, see
+     * {@link TerminalEmulator#reflowTranscriptRows(int)}, so that output is not held back for long.
+     */
+    private static final int TRANSCRIPT_REFLOW_BATCH_ROWS = 1000;
+
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
 
     /**
      * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * terminal emulator. Created with {@link #mProcessToTerminalIOQueueCapacity} when the emulator is initialized.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(64 * 1024);
+    ByteQueue mProcessToTerminalIOQueue;
     /**
      * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * writing to the {@link #mTerminalFileDescriptor}. Writes are serialized on the {@link #mPendingWrites} lock since
+     * the emulator thread may also write responses to it. Created with {@link #mTerminalToProcessIOQueueCapacity} when
+     * the emulator is initialized.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    ByteQueue mTerminalToProcessIOQueue;
+
+    /**
+     * Writes which did not fit in {@link #mTerminalToProcessIOQueue}, so that writing never blocks the main thread
+     * while the process does not read its input. Moved to the queue by the thread writing to the process as it frees
+     * space, see {@link #writeToProcess(OutputStream)}. Only accessed while holding its lock.
+     */
+    private final ArrayDeque<byte[]> mPendingWrites = new ArrayDeque<>();
+
+    /** The offset of the bytes of the first of {@link #mPendingWrites} which have not been moved to the queue yet. */
+    private int mPendingWriteOffset;
+
+    private volatile long mPendingWriteBytes;
+
+    /** The max of {@link #mPendingWriteBytes}, {@link #MAX_PENDING_WRITE_BYTES} unless changed by tests. */
+    long mMaxPendingWriteBytes = MAX_PENDING_WRITE_BYTES;
+
+    private int mProcessToTerminalIOQueueCapacity = DEFAULT_PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY;
+
+    private int mTerminalToProcessIOQueueCapacity = DEFAULT_TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY;
+
+    private int mInlineImageMaxBytes = TerminalEmulator.DEFAULT_INLINE_IMAGE_MAX_BYTES;
+
+    private int mImageCacheMaxBytes = TerminalEmulator.DEFAULT_IMAGE_CACHE_MAX_BYTES;
 
     /**
      * Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue
@@ -86,6 +209,129 @@ public final class TerminalSession extends TerminalOutput {
 
     final Handler mMainThreadHandler = new MainThreadHandler();
 
+    /**
+     * Whether to parse process output on {@link #mEmulatorThread} instead of the main thread.
+     */
+    private boolean mUseEmulatorThread;
+
+    /**
+     * The thread owned by this session that runs the terminal emulator if {@link #mUseEmulatorThread} is enabled.
+     */
+    private HandlerThread mEmulatorThread;
+
+    /**
+     * The handler that processes {@link #MSG_NEW_INPUT}, {@link #MSG_PROCESS_EXITED},
+     * {@link #MSG_COMPACT_TRANSCRIPT}, {@link #MSG_REFLOW_TRANSCRIPT} and {@link #MSG_HIBERNATE}. Either an
+     * {@link EmulatorThreadHandler} or the {@link #mMainThreadHandler}.
+     */
+    Handler mEmulatorHandler = mMainThreadHandler;
+
+    /**
+     * Whether a {@link #MSG_NEW_INPUT} has been sent and its processing has not started yet.
+     */
+    private final AtomicBoolean mNewInputPending = new AtomicBoolean();
+
+    /**
+     * The max number of bytes parsed between two frames, checked between reads from {@link #mProcessToTerminalIOQueue}.
+     */
+    private volatile int mMaxBytesParsedPerFrame = DEFAULT_MAX_BYTES_PARSED_PER_FRAME;
+
+    /**
+     * The number of bytes parsed since the last frame.
+     */
+    private final AtomicInteger mBytesParsedInFrame = new AtomicInteger();
+
+    /**
+     * Whether parsing has been stopped since {@link #mMaxBytesParsedPerFrame} was reached and must be resumed on the
+     * next frame.
+     */
+    private volatile boolean mParsingDeferred;
+
+    /**
+     * Whether {@link #mFrameCallback} has been posted. Only accessed on the main thread.
+     */
+    private boolean mFrameCallbackPending;
+
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> onFrame();
+
+    private final Runnable mFrameFallback = this::onFrame;
+
+    private final AtomicLong mNewInputMessagesPosted = new AtomicLong();
+
+    private final AtomicLong mNewInputMessagesCoalesced = new AtomicLong();
+
+    private volatile long mBytesParsed;
+
+    private volatile long mScreenUpdateFrames;
+
+    private volatile int mLastFrameBytesParsed;
+
+    private volatile int mMaxFrameBytesParsed;
+
+    /** The total number of bytes read from the pty, only written by the reader thread. */
+    private volatile long mBytesRead;
+
+    /** The number of calls to {@link EmulatorMessageProcessor#processInput(boolean)} that appended output. */
+    private volatile long mParseBatches;
+
+    private volatile long mParseNanos;
+
+    private volatile long mLastParseBatchNanos;
+
+    private volatile long mMaxParseBatchNanos;
+
+    /**
+     * The time of the first code point written with {@link #writeCodePoint(boolean, int)} since the last screen update
+     * with parsed output, or 0 if none.
+     */
+    private volatile long mKeystrokeNanos;
+
+    private volatile long mEchoes;
+
+    private volatile long mLastEchoLatencyNanos;
+
+    private volatile long mMaxEchoLatencyNanos;
+
+    /** The recorder of the output and resizes of this session, or null if not recording. */
+    private volatile TerminalRecorder mRecorder;
+
+    /** The playback of a recording on the screen of this session, or null if none. Only accessed on the main thread. */
+    private RecordingPlayback mRecordingPlayback;
+
+    /** The directory the rows of the session are written to when it is hibernated, or null to never hibernate it. */
+    private volatile File mHibernationDir;
+
+    /** The time without output while not visible after which the session is hibernated, or 0 to never hibernate it. */
+    private volatile long mHibernateDelayMillis;
+
+    private volatile boolean mVisible = true;
+
+    /**
+     * The file the rows of the emulator were written to when the session was hibernated, or null if it is not
+     * hibernated. Only changed while holding the {@link TerminalEmulator} lock.
+     */
+    private volatile File mHibernationFile;
+
+    /** Whether a restore is queued on {@link #HIBERNATION_EXECUTOR}. Guarded by the {@link TerminalEmulator} lock. */
+    private boolean mRestorePending;
+
+    /**
+     * The changes to the emulator requested while it was hibernated, run on the main thread while holding its lock once
+     * it is restored. Later changes are queued too until they have run, to keep their order. Guarded by the
+     * {@link TerminalEmulator} lock.
+     */
+    private final ArrayList<Runnable> mActionsAfterRestore = new ArrayList<>();
+
+    /** The exit code of the process if it exited while the session was hibernated, handled once it is restored. */
+    private volatile Integer mExitCodeAfterRestore;
+
+    /** The thread writing the rows of hibernated sessions to files and reading them back, in the order requested. */
+    private static final ExecutorService HIBERNATION_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TermSessionHibernation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final String mShellPath;
 
     private final String mCwd;
@@ -123,7 +369,25 @@ public final class TerminalSession extends TerminalOutput {
             initializeEmulator(columns, rows, cellWidthPixels, cellHeightPixels);
         } else {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns, cellWidthPixels, cellHeightPixels);
-            mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+            synchronized (mEmulator) {
+                if (isChangeDeferred()) {
+                    // The rows can only be restored at the size they were written with.
+                    mActionsAfterRestore.add(() -> mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels));
+                } else {
+                    mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+                }
+            }
+            final TerminalRecorder recorder = mRecorder;
+            if (recorder != null) {
+                try {
+                    recorder.recordResize(columns, rows);
+                } catch (IOException e) {
+                    onRecordingFailed(recorder, e);
+                }
+            }
+            // The rows of the screen were reflowed at once, the rows of the transcript before them are reflowed later.
+            mEmulatorHandler.removeMessages(MSG_REFLOW_TRANSCRIPT);
+            mEmulatorHandler.sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
         }
     }
 
@@ -142,11 +406,20 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void initializeEmulator(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
         mEmulator = new TerminalEmulator(this, mBoldWithBright, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
+        mEmulator.setInlineImageMaxBytes(mInlineImageMaxBytes);
+        mEmulator.setImageCacheMaxBytes(mImageCacheMaxBytes);
+        mProcessToTerminalIOQueue = new ByteQueue(mProcessToTerminalIOQueueCapacity);
+        mTerminalToProcessIOQueue = new ByteQueue(mTerminalToProcessIOQueueCapacity);
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns, cellWidthPixels, cellHeightPixels);
         mShellPid = processId[0];
         mClient.setTerminalShellPid(this, mShellPid);
+        if (mUseEmulatorThread) {
+            mEmulatorThread = new HandlerThread("TermSessionEmulator[pid=" + mShellPid + "]");
+            mEmulatorThread.start();
+            mEmulatorHandler = new EmulatorThreadHandler(mEmulatorThread.getLooper());
+        }
         final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
         new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
 
@@ -158,9 +431,18 @@ public final class TerminalSession extends TerminalOutput {
                         int read = termIn.read(buffer);
                         if (read == -1)
                             return;
+                        mBytesRead += read;
+                        final TerminalRecorder recorder = mRecorder;
+                        if (recorder != null) {
+                            try {
+                                recorder.recordOutput(buffer, 0, read);
+                            } catch (IOException e) {
+                                onRecordingFailed(recorder, e);
+                            }
+                        }
                         if (!mProcessToTerminalIOQueue.write(buffer, 0, read))
                             return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+                        sendNewInputMessage();
                     }
                 } catch (Exception e) {
                     // Ignore, just shutting down.
@@ -171,14 +453,8 @@ public final class TerminalSession extends TerminalOutput {
 
             @Override
             public void run() {
-                final byte[] buffer = new byte[4096];
                 try (FileOutputStream termOut = new FileOutputStream(terminalFileDescriptorWrapped)) {
-                    while (true) {
-                        int bytesToWrite = mTerminalToProcessIOQueue.read(buffer, true);
-                        if (bytesToWrite == -1)
-                            return;
-                        termOut.write(buffer, 0, bytesToWrite);
-                    }
+                    writeToProcess(termOut);
                 } catch (IOException e) {
                     // Ignore.
                 }
@@ -189,18 +465,72 @@ public final class TerminalSession extends TerminalOutput {
             @Override
             public void run() {
                 int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
+                mEmulatorHandler.sendMessage(mEmulatorHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
             }
         }.start();
+        scheduleHibernation();
     }
 
     /**
-     * Write data to the shell process.
+     * Write data to the shell process. Never blocks: data which does not fit in the queue to the process is kept until
+     * the process reads its input, in the order it was written. A write is dropped as a whole if the data kept could
+     * exceed {@link #MAX_PENDING_WRITE_BYTES}.
      */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0)
-            mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0 || count <= 0)
+            return;
+        synchronized (mPendingWrites) {
+            if (mPendingWriteBytes + count > mMaxPendingWriteBytes) {
+                Logger.logWarn(mClient, LOG_TAG, "Dropping write of " + count + " bytes since " + mPendingWriteBytes +
+                    " bytes are already waiting for the process to read its input");
+                return;
+            }
+            int written = 0;
+            if (mPendingWrites.isEmpty()) {
+                written = mTerminalToProcessIOQueue.offer(data, offset, count);
+                if (written < 0)
+                    return;
+            }
+            if (written < count) {
+                mPendingWrites.add(Arrays.copyOfRange(data, offset + written, offset + count));
+                mPendingWriteBytes += count - written;
+            }
+        }
+    }
+
+    /**
+     * Forward the data written to the session to the process until the queue is closed, moving
+     * {@link #mPendingWrites} to the queue whenever it has space. Called on the thread writing to the process.
+     */
+    void writeToProcess(OutputStream out) throws IOException {
+        final byte[] buffer = new byte[4096];
+        while (true) {
+            int bytesToWrite = mTerminalToProcessIOQueue.read(buffer, true);
+            if (bytesToWrite == -1)
+                return;
+            out.write(buffer, 0, bytesToWrite);
+            // Writes are only kept while the queue is full, so the queue has been read from after any of them.
+            synchronized (mPendingWrites) {
+                byte[] pending;
+                while ((pending = mPendingWrites.peek()) != null) {
+                    final int written = mTerminalToProcessIOQueue.offer(pending, mPendingWriteOffset, pending.length - mPendingWriteOffset);
+                    if (written <= 0)
+                        break;
+                    mPendingWriteBytes -= written;
+                    mPendingWriteOffset += written;
+                    if (mPendingWriteOffset < pending.length)
+                        break;
+                    mPendingWrites.poll();
+                    mPendingWriteOffset = 0;
+                }
+            }
+        }
+    }
+
+    /** The number of bytes written to the session which are waiting for space in the queue to the process. */
+    public long getPendingWriteBytes() {
+        return mPendingWriteBytes;
     }
 
     /**
@@ -211,6 +541,8 @@ public final class TerminalSession extends TerminalOutput {
             // 1114111 (= 2**16 + 1024**2 - 1) is the highest code point, [0xD800,0xDFFF] is the surrogate range.
             throw new IllegalArgumentException("Invalid code point: " + codePoint);
         }
+        if (mKeystrokeNanos == 0)
+            mKeystrokeNanos = System.nanoTime();
         int bufferPosition = 0;
         if (prependEscape)
             mUtf8InputBuffer[bufferPosition++] = 27;
@@ -245,6 +577,10 @@ public final class TerminalSession extends TerminalOutput {
         write(mUtf8InputBuffer, 0, bufferPosition);
     }
 
+    /**
+     * Get the terminal emulator, or null if it is not initialized yet. The rows of the screen and transcript cannot be
+     * read while the session {@link #isHibernated()}, see {@link #restore()}.
+     */
     public TerminalEmulator getEmulator() {
         return mEmulator;
     }
@@ -257,6 +593,468 @@ public final class TerminalSession extends TerminalOutput {
         mBoldWithBright = boldWithBright;
     }
 
+    /**
+     * Configure whether process output should be parsed on a session owned emulator thread instead of the main
+     * thread. Readers of the {@link TerminalEmulator} state on other threads must then hold the emulator lock, i.e.
+     * {@code synchronized (emulator)}. This value is consumed when the emulator instance is initialized.
+     */
+    public void setUseEmulatorThread(boolean useEmulatorThread) {
+        mUseEmulatorThread = useEmulatorThread;
+    }
+
+    public boolean isUsingEmulatorThread() {
+        return mEmulatorThread != null;
+    }
+
+    /**
+     * Set the capacity of the queue holding process output until it is parsed. Values outside
+     * {@link #PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MIN} and {@link #PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MAX} reset
+     * it to {@link #DEFAULT_PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY}. This value is consumed when the emulator instance
+     * is initialized.
+     */
+    public void setProcessToTerminalIOQueueCapacity(int capacity) {
+        if (capacity < PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MIN || capacity > PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MAX)
+            capacity = DEFAULT_PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY;
+        mProcessToTerminalIOQueueCapacity = capacity;
+    }
+
+    /**
+     * Set the capacity of the queue holding input until the process reads it, beyond which writes are kept in memory
+     * until the queue has space. Values outside {@link #TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MIN} and
+     * {@link #TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MAX} reset it to {@link #DEFAULT_TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY}.
+     * This value is consumed when the emulator instance is initialized.
+     */
+    public void setTerminalToProcessIOQueueCapacity(int capacity) {
+        if (capacity < TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MIN || capacity > TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MAX)
+            capacity = DEFAULT_TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY;
+        mTerminalToProcessIOQueueCapacity = capacity;
+    }
+
+    /**
+     * Set the max number of decoded bytes of an OSC 1337 inline image, see
+     * {@link TerminalEmulator#setInlineImageMaxBytes(int)}.
+     */
+    public void setInlineImageMaxBytes(int maxBytes) {
+        mInlineImageMaxBytes = maxBytes;
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.setInlineImageMaxBytes(maxBytes);
+            }
+        }
+    }
+
+    /**
+     * Set the max number of bytes of the decoded images, see {@link TerminalEmulator#setImageCacheMaxBytes(int)}.
+     */
+    public void setImageCacheMaxBytes(int maxBytes) {
+        mImageCacheMaxBytes = maxBytes;
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.setImageCacheMaxBytes(maxBytes);
+            }
+        }
+    }
+
+    /**
+     * Free the memory of images not on screen for a {@link ComponentCallbacks2#onTrimMemory(int)} level. All of them
+     * are evicted when the app is in the background or memory is critically low, and half of the budget is kept
+     * otherwise.
+     */
+    public void onTrimMemory(int level) {
+        if (mEmulator == null)
+            return;
+        final int percentOfBudget = (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) ? 0 : 50;
+        synchronized (mEmulator) {
+            mEmulator.trimImageCache(percentOfBudget);
+        }
+    }
+
+    /**
+     * Set the time without output after which the session is hibernated while it is not visible, see
+     * {@link #setVisible(boolean)}. The rows of its terminal are then written to a file in {@code dir}, which is
+     * deleted when they are restored. Values outside {@link #HIBERNATE_DELAY_SECONDS_MIN} and
+     * {@link #HIBERNATE_DELAY_SECONDS_MAX} reset it to {@link #DEFAULT_HIBERNATE_DELAY_SECONDS}, and 0 disables it.
+     */
+    public void setHibernation(File dir, int delaySeconds) {
+        if (delaySeconds < HIBERNATE_DELAY_SECONDS_MIN || delaySeconds > HIBERNATE_DELAY_SECONDS_MAX)
+            delaySeconds = DEFAULT_HIBERNATE_DELAY_SECONDS;
+        mHibernationDir = dir;
+        mHibernateDelayMillis = delaySeconds * 1000L;
+        scheduleHibernation();
+    }
+
+    /**
+     * Set whether the session is shown. A session is visible until this is called, and is only hibernated while not
+     * visible. Call {@link #restore()} after showing a session which may be hibernated. Must be called on the main
+     * thread.
+     */
+    public void setVisible(boolean visible) {
+        mVisible = visible;
+        scheduleHibernation();
+    }
+
+    /** Whether the rows of the terminal are released and written to a file, see {@link #setHibernation(File, int)}. */
+    public boolean isHibernated() {
+        return mHibernationFile != null;
+    }
+
+    /**
+     * Send a {@link #MSG_HIBERNATE} after the hibernation delay if the session may be hibernated, replacing a pending one.
+     */
+    private void scheduleHibernation() {
+        if (mEmulator == null)
+            return;
+        mEmulatorHandler.removeMessages(MSG_HIBERNATE);
+        if (!mVisible && mHibernateDelayMillis > 0 && mHibernationDir != null && mHibernationFile == null && isRunning())
+            mEmulatorHandler.sendEmptyMessageDelayed(MSG_HIBERNATE, mHibernateDelayMillis);
+    }
+
+    /**
+     * Release the rows of the emulator and write them to a file on the {@link #HIBERNATION_EXECUTOR}, unless the
+     * session became visible meanwhile. Called on the thread of {@link #mEmulatorHandler}, so that no output is being
+     * appended.
+     */
+    private void hibernate() {
+        final File dir = mHibernationDir;
+        if (dir == null || !isRunning())
+            return;
+        final File file = new File(dir, mHandle + ".rows");
+        final ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        synchronized (mEmulator) {
+            if (mVisible || isChangeDeferred())
+                return;
+            try {
+                mEmulator.writeRows(rows);
+            } catch (IOException e) {
+                // Not thrown by a ByteArrayOutputStream.
+                throw new IllegalStateException(e);
+            }
+            mEmulator.releaseRows();
+            mHibernationFile = file;
+        }
+        HIBERNATION_EXECUTOR.execute(() -> {
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs())
+                    throw new IOException("Failed to create directory " + dir);
+                try (OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                    rows.writeTo(out);
+                }
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to hibernate terminal session", e);
+                file.delete();
+                finishRestore(file, rows.toByteArray());
+            }
+        });
+    }
+
+    /**
+     * Restore the rows of the emulator if the session is hibernated. They are read on a background thread, after which
+     * the output kept while hibernated is parsed and the screen is updated. Views draw nothing for the session until
+     * then, so this must be called when a session which may be hibernated is shown. May be called on any thread.
+     */
+    public void restore() {
+        if (mEmulator == null || mHibernationFile == null)
+            return;
+        synchronized (mEmulator) {
+            if (mHibernationFile == null || mRestorePending)
+                return;
+            mRestorePending = true;
+        }
+        HIBERNATION_EXECUTOR.execute(() -> {
+            final File file = mHibernationFile;
+            if (file == null) {
+                // Restored meanwhile since the file could not be written.
+                return;
+            }
+            byte[] rows;
+            try (InputStream in = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) out.write(buffer, 0, read);
+                rows = out.toByteArray();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to read hibernated terminal session", e);
+                rows = new byte[0];
+            }
+            finishRestore(file, rows);
+        });
+    }
+
+    /**
+     * Whether changes to the emulator must be queued in {@link #mActionsAfterRestore}, since it is hibernated or the
+     * changes queued while it was have not run yet. Called while holding the {@link TerminalEmulator} lock.
+     */
+    private boolean isChangeDeferred() {
+        return mHibernationFile != null || !mActionsAfterRestore.isEmpty();
+    }
+
+    /**
+     * Restore the rows of the emulator hibernated to {@code file}, unless they were restored meanwhile, and post
+     * {@link #runActionsAfterRestore()} to the main thread. If the rows cannot be read they are blank. Called on the
+     * {@link #HIBERNATION_EXECUTOR}.
+     */
+    private void finishRestore(File file, byte[] rows) {
+        synchronized (mEmulator) {
+            mRestorePending = false;
+            if (mHibernationFile != file)
+                return;
+            try {
+                mEmulator.restoreRows(new ByteArrayInputStream(rows));
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to restore hibernated terminal session", e);
+            }
+            mHibernationFile = null;
+        }
+        file.delete();
+        // Views read the size of the emulator without its lock, since only the main thread resizes it.
+        mMainThreadHandler.post(this::runActionsAfterRestore);
+    }
+
+    /**
+     * Run what was requested while the emulator was hibernated, and then handle the process output and exit kept
+     * meanwhile. Called on the main thread after {@link #finishRestore(File, byte[])}.
+     */
+    private void runActionsAfterRestore() {
+        synchronized (mEmulator) {
+            for (Runnable action : mActionsAfterRestore) action.run();
+            mActionsAfterRestore.clear();
+        }
+        // A resize may have left transcript rows to be reflowed.
+        mEmulatorHandler.removeMessages(MSG_REFLOW_TRANSCRIPT);
+        mEmulatorHandler.sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
+        final Integer exitCode = mExitCodeAfterRestore;
+        if (exitCode != null) {
+            mExitCodeAfterRestore = null;
+            mEmulatorHandler.sendMessage(mEmulatorHandler.obtainMessage(MSG_PROCESS_EXITED, exitCode));
+        } else if (mProcessToTerminalIOQueue.size() > 0) {
+            sendNewInputMessage();
+        }
+        if (!mMainThreadHandler.hasMessages(MSG_SCREEN_UPDATED))
+            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED);
+        scheduleHibernation();
+    }
+
+    /**
+     * Set the max number of bytes of process output parsed per display frame. Values outside
+     * {@link #MAX_BYTES_PARSED_PER_FRAME_MIN} and {@link #MAX_BYTES_PARSED_PER_FRAME_MAX} reset it to
+     * {@link #DEFAULT_MAX_BYTES_PARSED_PER_FRAME}.
+     */
+    public void setMaxBytesParsedPerFrame(int maxBytesParsedPerFrame) {
+        if (maxBytesParsedPerFrame < MAX_BYTES_PARSED_PER_FRAME_MIN || maxBytesParsedPerFrame > MAX_BYTES_PARSED_PER_FRAME_MAX)
+            maxBytesParsedPerFrame = DEFAULT_MAX_BYTES_PARSED_PER_FRAME;
+        mMaxBytesParsedPerFrame = maxBytesParsedPerFrame;
+    }
+
+    public int getMaxBytesParsedPerFrame() {
+        return mMaxBytesParsedPerFrame;
+    }
+
+    /** The number of {@link #MSG_NEW_INPUT} messages sent for process output. */
+    public long getNewInputMessagesPosted() {
+        return mNewInputMessagesPosted.get();
+    }
+
+    /** The number of reads of process output that did not send a message since one was already pending. */
+    public long getNewInputMessagesCoalesced() {
+        return mNewInputMessagesCoalesced.get();
+    }
+
+    /** The total number of bytes of process output parsed by the emulator. */
+    public long getBytesParsed() {
+        return mBytesParsed;
+    }
+
+    /** The number of frames in which the client was notified of a screen update. */
+    public long getScreenUpdateFrames() {
+        return mScreenUpdateFrames;
+    }
+
+    /** The number of bytes parsed for the last frame. */
+    public int getLastFrameBytesParsed() {
+        return mLastFrameBytesParsed;
+    }
+
+    /** The max number of bytes parsed for a single frame. */
+    public int getMaxFrameBytesParsed() {
+        return mMaxFrameBytesParsed;
+    }
+
+    /**
+     * Start recording the output of the process and the resizes of the terminal to a stream in the asciicast v2 format,
+     * see {@link TerminalRecorder}, stopping any previous recording. Must be called after the emulator is initialized.
+     * The recording is stopped when the process exits.
+     */
+    public void startRecording(OutputStream out) throws IOException {
+        if (mEmulator == null)
+            throw new IllegalStateException("Terminal emulator not initialized");
+        final TerminalRecorder recorder;
+        synchronized (mEmulator) {
+            recorder = new TerminalRecorder(out, mEmulator.mColumns, mEmulator.mRows);
+        }
+        stopRecording();
+        mRecorder = recorder;
+    }
+
+    /**
+     * Stop recording and close the stream of the recording, if recording.
+     */
+    public void stopRecording() {
+        final TerminalRecorder recorder = mRecorder;
+        if (recorder == null)
+            return;
+        mRecorder = null;
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to close terminal session recording", e);
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    private void onRecordingFailed(TerminalRecorder recorder, IOException e) {
+        Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to write terminal session recording", e);
+        if (mRecorder == recorder)
+            stopRecording();
+    }
+
+    /**
+     * Play a recording on the screen, stopping any previous playback. Output events are appended to the emulator on
+     * the main thread, at most {@link #getMaxBytesParsedPerFrame()} bytes per frame. Resize events are skipped, since
+     * the size of the terminal follows its view. Output of the process is still appended while playing. Must be called
+     * on the main thread after the emulator is initialized.
+     *
+     * @param originalSpeed Whether to play events at their original times, or as fast as they are parsed.
+     */
+    public void playRecording(TerminalRecording recording, boolean originalSpeed) {
+        if (mEmulator == null)
+            throw new IllegalStateException("Terminal emulator not initialized");
+        stopPlayingRecording();
+        mRecordingPlayback = new RecordingPlayback(recording, originalSpeed);
+        mMainThreadHandler.post(mRecordingPlayback);
+    }
+
+    /** Stop the playback of a recording, if playing. Must be called on the main thread. */
+    public void stopPlayingRecording() {
+        if (mRecordingPlayback != null) {
+            mMainThreadHandler.removeCallbacks(mRecordingPlayback);
+            mRecordingPlayback = null;
+        }
+    }
+
+    /** The total number of bytes read from the pty of the process. */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /** The max number of bytes of process output that were queued waiting to be parsed. */
+    public int getInputQueueHighWaterMark() {
+        final ByteQueue queue = mProcessToTerminalIOQueue;
+        return (queue == null) ? 0 : queue.getHighWaterMark();
+    }
+
+    /** The total time in nanoseconds that reading from the pty was blocked since the queue of output was full. */
+    public long getReaderBlockedNanos() {
+        final ByteQueue queue = mProcessToTerminalIOQueue;
+        return (queue == null) ? 0 : queue.getWriterBlockedNanos();
+    }
+
+    /** The number of batches of queued process output parsed by the emulator. */
+    public long getParseBatches() {
+        return mParseBatches;
+    }
+
+    /** The total time in nanoseconds spent parsing process output. */
+    public long getParseNanos() {
+        return mParseNanos;
+    }
+
+    /** The time in nanoseconds of parsing the last batch of process output. */
+    public long getLastParseBatchNanos() {
+        return mLastParseBatchNanos;
+    }
+
+    /** The max time in nanoseconds of parsing a single batch of process output. */
+    public long getMaxParseBatchNanos() {
+        return mMaxParseBatchNanos;
+    }
+
+    /** The number of keystroke echoes measured, see {@link #getLastEchoLatencyNanos()}. */
+    public long getEchoes() {
+        return mEchoes;
+    }
+
+    /**
+     * The time in nanoseconds from the last code point written with {@link #writeCodePoint(boolean, int)} without
+     * output shown since, to the next screen update with parsed process output.
+     */
+    public long getLastEchoLatencyNanos() {
+        return mLastEchoLatencyNanos;
+    }
+
+    /** The max time in nanoseconds from a keystroke to the next screen update, see {@link #getLastEchoLatencyNanos()}. */
+    public long getMaxEchoLatencyNanos() {
+        return mMaxEchoLatencyNanos;
+    }
+
+    /**
+     * Send a {@link #MSG_NEW_INPUT} to the {@link #mEmulatorHandler} unless one is already pending.
+     */
+    private void sendNewInputMessage() {
+        if (mNewInputPending.compareAndSet(false, true)) {
+            mNewInputMessagesPosted.incrementAndGet();
+            mEmulatorHandler.sendEmptyMessage(MSG_NEW_INPUT);
+        } else {
+            mNewInputMessagesCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * Request a call to {@link #onFrame()} on the next display frame. Must be called on the main thread.
+     */
+    private void scheduleScreenUpdate() {
+        if (mFrameCallbackPending)
+            return;
+        mFrameCallbackPending = true;
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        mMainThreadHandler.postDelayed(mFrameFallback, FRAME_FALLBACK_DELAY_MILLIS);
+    }
+
+    /**
+     * Called on the main thread once per frame with pending screen updates to notify the client and resume parsing
+     * if it was deferred.
+     */
+    private void onFrame() {
+        if (!mFrameCallbackPending)
+            return;
+        mFrameCallbackPending = false;
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        mMainThreadHandler.removeCallbacks(mFrameFallback);
+
+        int frameBytesParsed = mBytesParsedInFrame.getAndSet(0);
+        mLastFrameBytesParsed = frameBytesParsed;
+        if (frameBytesParsed > mMaxFrameBytesParsed)
+            mMaxFrameBytesParsed = frameBytesParsed;
+        mScreenUpdateFrames++;
+        final long keystrokeNanos = mKeystrokeNanos;
+        if (keystrokeNanos != 0 && frameBytesParsed > 0) {
+            mKeystrokeNanos = 0;
+            final long echoLatencyNanos = System.nanoTime() - keystrokeNanos;
+            mLastEchoLatencyNanos = echoLatencyNanos;
+            if (echoLatencyNanos > mMaxEchoLatencyNanos)
+                mMaxEchoLatencyNanos = echoLatencyNanos;
+            mEchoes++;
+        }
+        if (mParsingDeferred) {
+            mParsingDeferred = false;
+            sendNewInputMessage();
+        }
+        notifyScreenUpdate();
+    }
+
     /**
      * Notify the {@link #mClient} that the screen has changed.
      */
@@ -264,11 +1062,38 @@ public final class TerminalSession extends TerminalOutput {
         mClient.onTextChanged(this);
     }
 
+    /**
+     * Schedule a screen update notification for the next frame from the thread the emulator runs on. When on the
+     * emulator thread, a single pending {@link #MSG_SCREEN_UPDATED} is posted to the main thread to schedule it.
+     */
+    private void notifyScreenUpdateFromEmulatorThread() {
+        if (mEmulatorHandler == mMainThreadHandler) {
+            scheduleScreenUpdate();
+        } else if (!mMainThreadHandler.hasMessages(MSG_SCREEN_UPDATED)) {
+            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED);
+        }
+    }
+
+    /**
+     * Run the runnable on the main thread, directly if already on it, otherwise by posting it.
+     */
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == mMainThreadHandler.getLooper())
+            runnable.run();
+        else
+            mMainThreadHandler.post(runnable);
+    }
+
     /**
      * Reset state for terminal emulator state.
      */
     public void reset() {
-        mEmulator.reset();
+        synchronized (mEmulator) {
+            if (isChangeDeferred())
+                mActionsAfterRestore.add(mEmulator::reset);
+            else
+                mEmulator.reset();
+        }
         notifyScreenUpdate();
     }
 
@@ -295,13 +1120,21 @@ public final class TerminalSession extends TerminalOutput {
         }
         // Stop the reader and writer threads, and close the I/O streams
         mTerminalToProcessIOQueue.close();
+        synchronized (mPendingWrites) {
+            mPendingWrites.clear();
+            mPendingWriteOffset = 0;
+            mPendingWriteBytes = 0;
+        }
         mProcessToTerminalIOQueue.close();
         JNI.close(mTerminalFileDescriptor);
+        stopRecording();
+        if (mEmulatorThread != null)
+            mEmulatorThread.quitSafely();
     }
 
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(() -> mClient.onTitleChanged(this));
     }
 
     public synchronized boolean isRunning() {
@@ -317,22 +1150,28 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+        runOnMainThread(() -> mClient.onCopyTextToClipboard(this, text));
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(() -> mClient.onPasteTextFromClipboard(this));
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(() -> mClient.onBell(this));
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(() -> mClient.onColorsChanged(this));
+    }
+
+    @Override
+    public void onImageDecoded() {
+        if (!mMainThreadHandler.hasMessages(MSG_SCREEN_UPDATED))
+            mMainThreadHandler.sendEmptyMessage(MSG_SCREEN_UPDATED);
     }
 
     public int getPid() {
@@ -381,19 +1220,56 @@ public final class TerminalSession extends TerminalOutput {
         return result;
     }
 
-    @SuppressLint("HandlerLeak")
-    class MainThreadHandler extends Handler {
+    /**
+     * Process output from the {@link #mProcessToTerminalIOQueue} and the exit of the process. Called on the thread of
+     * {@link #mEmulatorHandler}.
+     */
+    private final class EmulatorMessageProcessor {
 
         final byte[] mReceiveBuffer = new byte[64 * 1024];
 
-        @Override
-        public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
-                notifyScreenUpdate();
-            }
-            if (msg.what == MSG_PROCESS_EXITED) {
+        void processMessage(Message msg) {
+            if (msg.what == MSG_NEW_INPUT) {
+                mNewInputPending.set(false);
+                if (processInput(false)) {
+                    notifyScreenUpdateFromEmulatorThread();
+                    mEmulatorHandler.removeMessages(MSG_COMPACT_TRANSCRIPT);
+                    mEmulatorHandler.sendEmptyMessageDelayed(MSG_COMPACT_TRANSCRIPT, TRANSCRIPT_COMPACTION_DELAY_MILLIS);
+                    scheduleHibernation();
+                }
+            } else if (msg.what == MSG_HIBERNATE) {
+                hibernate();
+            } else if (msg.what == MSG_COMPACT_TRANSCRIPT) {
+                boolean moreRowsToCompact;
+                synchronized (mEmulator) {
+                    moreRowsToCompact = mEmulator.compactTranscriptRows(TRANSCRIPT_COMPACTION_BATCH_ROWS);
+                }
+                if (moreRowsToCompact)
+                    mEmulatorHandler.sendEmptyMessage(MSG_COMPACT_TRANSCRIPT);
+            } else if (msg.what == MSG_REFLOW_TRANSCRIPT) {
+                boolean moreRowsToReflow;
+                synchronized (mEmulator) {
+                    moreRowsToReflow = mEmulator.reflowTranscriptRows(TRANSCRIPT_REFLOW_BATCH_ROWS);
+                }
+                if (moreRowsToReflow) {
+                    mEmulatorHandler.sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
+                } else {
+                    // Show the reflowed transcript and compact its new rows.
+                    notifyScreenUpdateFromEmulatorThread();
+                    mEmulatorHandler.removeMessages(MSG_COMPACT_TRANSCRIPT);
+                    mEmulatorHandler.sendEmptyMessageDelayed(MSG_COMPACT_TRANSCRIPT, TRANSCRIPT_COMPACTION_DELAY_MILLIS);
+                }
+            } else if (msg.what == MSG_PROCESS_EXITED) {
+                synchronized (mEmulator) {
+                    if (isChangeDeferred()) {
+                        // The remaining output must be parsed first, so handle the exit once the rows are restored.
+                        mExitCodeAfterRestore = (Integer) msg.obj;
+                        restore();
+                        return;
+                    }
+                }
+                // Drain all remaining output regardless of the frame budget before reporting the exit
+                processInput(true);
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
                 String exitDescription = "\r\n[Process completed";
@@ -406,10 +1282,159 @@ public final class TerminalSession extends TerminalOutput {
                 }
                 exitDescription += " - press Enter]";
                 byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
-                notifyScreenUpdate();
-                mClient.onSessionFinished(TerminalSession.this);
+                synchronized (mEmulator) {
+                    mEmulator.append(bytesToWrite, bytesToWrite.length);
+                }
+                if (mEmulatorHandler == mMainThreadHandler) {
+                    notifyScreenUpdate();
+                    mClient.onSessionFinished(TerminalSession.this);
+                } else {
+                    mMainThreadHandler.sendEmptyMessage(MSG_SESSION_FINISHED);
+                }
+            }
+        }
+
+        /**
+         * Append the output in {@link #mProcessToTerminalIOQueue} to the emulator until the queue is empty or, unless
+         * {@code ignoreBudget} is set, {@link #mMaxBytesParsedPerFrame} bytes have been parsed in the current frame.
+         *
+         * @return Returns whether any output was appended.
+         */
+        boolean processInput(boolean ignoreBudget) {
+            final boolean changeDeferred;
+            synchronized (mEmulator) {
+                changeDeferred = isChangeDeferred();
+            }
+            if (changeDeferred) {
+                // Keep the output in the queue while hibernated, until it is half full so that the process is not
+                // blocked on a full queue, or until all of it must be parsed.
+                if (!ignoreBudget && mProcessToTerminalIOQueue.size() < mProcessToTerminalIOQueue.capacity() / 2)
+                    return false;
+                // The output is parsed once the rows are restored.
+                restore();
+                return false;
+            }
+            final long start = System.nanoTime();
+            boolean appended = false;
+            while (true) {
+                if (!ignoreBudget && mBytesParsedInFrame.get() >= mMaxBytesParsedPerFrame) {
+                    mParsingDeferred = true;
+                    break;
+                }
+                int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
+                if (bytesRead <= 0)
+                    break;
+                synchronized (mEmulator) {
+                    mEmulator.append(mReceiveBuffer, bytesRead);
+                }
+                mBytesParsedInFrame.addAndGet(bytesRead);
+                mBytesParsed += bytesRead;
+                appended = true;
+            }
+            if (appended) {
+                final long parseNanos = System.nanoTime() - start;
+                mParseNanos += parseNanos;
+                mLastParseBatchNanos = parseNanos;
+                if (parseNanos > mMaxParseBatchNanos)
+                    mMaxParseBatchNanos = parseNanos;
+                mParseBatches++;
+            }
+            return appended;
+        }
+    }
+
+    /**
+     * Plays the events of a {@link TerminalRecording} on the main thread, see
+     * {@link #playRecording(TerminalRecording, boolean)}.
+     */
+    private final class RecordingPlayback implements Runnable {
+
+        final TerminalRecording mRecording;
+
+        final boolean mOriginalSpeed;
+
+        final long mStartNanos = System.nanoTime();
+
+        int mNextEvent;
+
+        RecordingPlayback(TerminalRecording recording, boolean originalSpeed) {
+            mRecording = recording;
+            mOriginalSpeed = originalSpeed;
+        }
+
+        @Override
+        public void run() {
+            if (mRecordingPlayback != this)
+                return;
+            final int events = mRecording.getEventCount();
+            final long elapsedNanos = System.nanoTime() - mStartNanos;
+            int bytesAppended = 0;
+            synchronized (mEmulator) {
+                if (isChangeDeferred()) {
+                    // Continue once the rows are restored.
+                    restore();
+                    mMainThreadHandler.postDelayed(this, 1);
+                    return;
+                }
+                while (mNextEvent < events && bytesAppended < mMaxBytesParsedPerFrame) {
+                    if (mOriginalSpeed && mRecording.mEventNanos[mNextEvent] > elapsedNanos)
+                        break;
+                    final byte[] output = mRecording.mEventOutput[mNextEvent++];
+                    if (output != null) {
+                        mEmulator.append(output, output.length);
+                        bytesAppended += output.length;
+                    }
+                }
             }
+            if (bytesAppended > 0)
+                scheduleScreenUpdate();
+            if (mNextEvent == events) {
+                mRecordingPlayback = null;
+            } else if (mOriginalSpeed && mRecording.mEventNanos[mNextEvent] > elapsedNanos) {
+                final long delayNanos = mRecording.mEventNanos[mNextEvent] - (System.nanoTime() - mStartNanos);
+                mMainThreadHandler.postDelayed(this, Math.max(0, delayNanos / 1000000));
+            } else {
+                // Give the frame of the appended output a chance to be drawn first.
+                mMainThreadHandler.postDelayed(this, 1);
+            }
+        }
+    }
+
+    @SuppressLint("HandlerLeak")
+    class MainThreadHandler extends Handler {
+
+        final EmulatorMessageProcessor mProcessor = new EmulatorMessageProcessor();
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_SCREEN_UPDATED:
+                    scheduleScreenUpdate();
+                    break;
+                case MSG_SESSION_FINISHED:
+                    notifyScreenUpdate();
+                    mClient.onSessionFinished(TerminalSession.this);
+                    break;
+                default:
+                    mProcessor.processMessage(msg);
+            }
+        }
+    }
+
+    /**
+     * Handler running on {@link #mEmulatorThread} if {@link #setUseEmulatorThread(boolean)} is enabled.
+     */
+    final class EmulatorThreadHandler extends Handler {
+
+        final EmulatorMessageProcessor mProcessor = new EmulatorMessageProcessor();
+
+        EmulatorThreadHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            mProcessor.processMessage(msg);
         }
     }
 }
@@ -57,6 +57,13 @@ public final class TextStyle {
      */
     public final static int BITMAP = 1 << 15;
 
+    /**
+     * The effects which change the paint text is drawn with besides its color, so that runs with the same of them can
+     * be drawn without setting up the paint again.
+     */
+    public final static int TEXT_PAINT_EFFECTS = CHARACTER_ATTRIBUTE_BOLD | CHARACTER_ATTRIBUTE_ITALIC | CHARACTER_ATTRIBUTE_UNDERLINE
+        | CHARACTER_ATTRIBUTE_BLINK | CHARACTER_ATTRIBUTE_STRIKETHROUGH;
+
     public final static int COLOR_INDEX_FOREGROUND = 256;
 
     public final static int COLOR_INDEX_BACKGROUND = 257;
@@ -112,6 +119,47 @@ public final class TextStyle {
         return (int) (style & 0b11111111111);
     }
 
+    /**
+     * Resolve the foreground and background color of a style against a palette into {@code colors[0]} and
+     * {@code colors[1]}, with bold shown in bright colors if enabled, the colors swapped if one and only one of
+     * {@code reverseVideo} and the inverse effect apply, and the foreground dimmed if the dim effect applies.
+     */
+    public static void resolveColors(long style, int[] palette, boolean boldWithBright, boolean reverseVideo, int[] colors) {
+        int foreColor = decodeForeColor(style);
+        final int effect = decodeEffect(style);
+        int backColor = decodeBackColor(style);
+        if ((foreColor & 0xff000000) != 0xff000000) {
+            // If enabled, let bold have bright colors if applicable (one of the first 8):
+            final boolean bold = (effect & (CHARACTER_ATTRIBUTE_BOLD | CHARACTER_ATTRIBUTE_BLINK)) != 0;
+            if (boldWithBright && bold && foreColor >= 0 && foreColor < 8)
+                foreColor += 8;
+            foreColor = palette[foreColor];
+        }
+        if ((backColor & 0xff000000) != 0xff000000) {
+            backColor = palette[backColor];
+        }
+        // Reverse video here if _one and only one_ of the reverse flags are set:
+        final boolean reverseVideoHere = reverseVideo ^ (effect & (CHARACTER_ATTRIBUTE_INVERSE)) != 0;
+        if (reverseVideoHere) {
+            int tmp = foreColor;
+            foreColor = backColor;
+            backColor = tmp;
+        }
+        if ((effect & CHARACTER_ATTRIBUTE_DIM) != 0) {
+            int red = (0xFF & (foreColor >> 16));
+            int green = (0xFF & (foreColor >> 8));
+            int blue = (0xFF & foreColor);
+            // Dim color handling used by libvte which in turn took it from xterm
+            // (https://bug735245.bugzilla-attachments.gnome.org/attachment.cgi?id=284267):
+            red = red * 2 / 3;
+            green = green * 2 / 3;
+            blue = blue * 2 / 3;
+            foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
+        }
+        colors[0] = foreColor;
+        colors[1] = backColor;
+    }
+
     public static long encodeBitmap(int num, int X, int Y) {
         return ((long) num << 16) | ((long) Y << 32) | ((long) X << 48) | BITMAP;
     }
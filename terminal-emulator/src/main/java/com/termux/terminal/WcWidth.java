@@ -508,10 +508,34 @@ public final class WcWidth {
         return false;
     }
 
+    /**
+     * The widths of the code points in the Basic Multilingual Plane, packed as 2 bits per code point with 16 code points
+     * per int, so that {@link #width(int)} does not need to search {@link #ZERO_WIDTH} and {@link #WIDE_EASTASIAN} for
+     * the code points shown in almost all terminal output.
+     */
+    private static final int[] BMP_WIDTHS = new int[0x10000 / 16];
+
+    static {
+        for (int ucs = 0; ucs < 0x10000; ucs++) {
+            BMP_WIDTHS[ucs >>> 4] |= widthByIntervalSearch(ucs) << ((ucs & 15) << 1);
+        }
+    }
+
     /**
      * Return the terminal display width of a code point: 0, 1 || 2.
      */
     public static int width(int ucs) {
+        if ((ucs >>> 16) == 0) {
+            return (BMP_WIDTHS[ucs >>> 4] >>> ((ucs & 15) << 1)) & 3;
+        }
+        return widthByIntervalSearch(ucs);
+    }
+
+    /**
+     * Return the terminal display width of a code point by searching the interval tables, which {@link #BMP_WIDTHS}
+     * is built from.
+     */
+    static int widthByIntervalSearch(int ucs) {
         if (ucs == 0 || ucs == 0x034F || (0x200B <= ucs && ucs <= 0x200F) || ucs == 0x2028 || ucs == 0x2029 || (0x202A <= ucs && ucs <= 0x202E) || (0x2060 <= ucs && ucs <= 0x2063)) {
             return 0;
         }
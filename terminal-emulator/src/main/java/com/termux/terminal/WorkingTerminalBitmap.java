@@ -2,16 +2,19 @@ package com.termux.terminal;
 
 import android.graphics.Bitmap;
 
+import java.util.Arrays;
+
 /**
- * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
- * history.
- * <p>
- * See {@link #externalToInternalRow(int)} for how to map from logical screen rows to array indices.
+ * A sixel image being received, drawn into an int[] framebuffer of ARGB pixels which grows as needed and is copied
+ * to a {@link Bitmap} once by {@link #toBitmap(int, int)} when the image is complete.
  */
 public final class WorkingTerminalBitmap {
 
     final private int[] sixelInitialColorMap = { 0xFF000000, 0xFF3333CC, 0xFFCC2323, 0xFF33CC33, 0xFFCC33CC, 0xFF33CCCC, 0xFFCCCC33, 0xFF777777, 0xFF444444, 0xFF565699, 0xFF994444, 0xFF569956, 0xFF995699, 0xFF569999, 0xFF999956, 0xFFCCCCCC };
 
+    /** The max width and height in pixels of an image, beyond which pixels are dropped. */
+    static final int MAX_SIZE = 8192;
+
     private int[] colorMap;
 
     private int curX;
@@ -20,22 +23,27 @@ public final class WorkingTerminalBitmap {
 
     private int color;
 
+    /** The width and height of the drawn part of the image. */
     public int width;
 
     public int height;
 
-    public Bitmap bitmap;
+    /** The framebuffer, of {@link #mPixelsWidth} pixels per row. */
+    private int[] mPixels;
+
+    private int mPixelsWidth, mPixelsHeight;
 
     private static final String LOG_TAG = "WorkingTerminalBitmap";
 
     public WorkingTerminalBitmap(int w, int h) {
+        mPixelsWidth = Math.min(w, MAX_SIZE);
+        mPixelsHeight = Math.min(h, MAX_SIZE);
         try {
-            bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            mPixels = new int[mPixelsWidth * mPixelsHeight];
         } catch (OutOfMemoryError e) {
             Logger.logWarn(null, LOG_TAG, "Out of memory - sixel ignored");
-            bitmap = null;
+            mPixels = null;
         }
-        bitmap.eraseColor(0);
         width = 0;
         height = 0;
         curX = 0;
@@ -47,8 +55,38 @@ public final class WorkingTerminalBitmap {
         color = colorMap[0];
     }
 
+    /**
+     * Grow the framebuffer to at least {@code w} x {@code h} pixels, to twice its size in a dimension if that is more,
+     * so that drawing an image of n pixels copies O(n) pixels. Does not grow beyond {@link #MAX_SIZE}.
+     */
+    void ensureCapacity(int w, int h) {
+        if (mPixels == null)
+            return;
+        w = Math.min(w, MAX_SIZE);
+        h = Math.min(h, MAX_SIZE);
+        if (w <= mPixelsWidth && h <= mPixelsHeight)
+            return;
+        int newWidth = w <= mPixelsWidth ? mPixelsWidth : Math.min(MAX_SIZE, Math.max(w, mPixelsWidth * 2));
+        int newHeight = h <= mPixelsHeight ? mPixelsHeight : Math.min(MAX_SIZE, Math.max(h, mPixelsHeight * 2));
+        try {
+            if (newWidth == mPixelsWidth) {
+                mPixels = Arrays.copyOf(mPixels, newWidth * newHeight);
+            } else {
+                int[] pixels = new int[newWidth * newHeight];
+                for (int y = 0; y < height; y++)
+                    System.arraycopy(mPixels, y * mPixelsWidth, pixels, y * newWidth, width);
+                mPixels = pixels;
+            }
+        } catch (OutOfMemoryError e) {
+            Logger.logWarn(null, LOG_TAG, "Out of memory - sixel truncated");
+            return;
+        }
+        mPixelsWidth = newWidth;
+        mPixelsHeight = newHeight;
+    }
+
     public void sixelChar(int c, int rep) {
-        if (bitmap == null) {
+        if (mPixels == null) {
             return;
         }
         if (c == '$') {
@@ -60,44 +98,34 @@ public final class WorkingTerminalBitmap {
             curY += 6;
             return;
         }
-        if (bitmap.getWidth() < curX + rep) {
-            try {
-                bitmap = TerminalBitmap.resizeBitmap(bitmap, curX + rep + 100, bitmap.getHeight());
-            } catch (OutOfMemoryError e) {
-                Logger.logWarn(null, LOG_TAG, "Out of memory - sixel truncated");
-            }
-        }
-        if (bitmap.getHeight() < curY + 6) {
-            // Very unlikely to resize both at the same time
-            try {
-                bitmap = TerminalBitmap.resizeBitmap(bitmap, bitmap.getWidth(), curY + 100);
-            } catch (OutOfMemoryError e) {
-                Logger.logWarn(null, LOG_TAG, "Out of memory - sixel truncated");
-            }
+        if (rep <= 0 || c < '?' || c > '~') {
+            return;
         }
-        if (curX + rep > bitmap.getWidth()) {
-            rep = bitmap.getWidth() - curX;
+        ensureCapacity(curX + rep, curY + 6);
+        if (curX + rep > mPixelsWidth) {
+            rep = mPixelsWidth - curX;
         }
-        if (curY + 6 > bitmap.getHeight()) {
+        if (curY + 6 > mPixelsHeight || rep <= 0) {
             return;
         }
-        if (rep > 0 && c >= '?' && c <= '~') {
-            int b = c - '?';
-            if (curY + 6 > height) {
-                height = curY + 6;
-            }
-            while (rep-- > 0) {
-                for (int i = 0; i < 6; i++) {
-                    if ((b & (1 << i)) != 0) {
-                        bitmap.setPixel(curX, curY + i, color);
-                    }
-                }
-                curX += 1;
-                if (curX > width) {
-                    width = curX;
-                }
+        int b = c - '?';
+        if (curY + 6 > height) {
+            height = curY + 6;
+        }
+        // Fill the repeated pixels of each of the six rows at once.
+        int start = curY * mPixelsWidth + curX;
+        for (int i = 0; i < 6; i++, start += mPixelsWidth) {
+            if ((b & (1 << i)) != 0) {
+                if (rep == 1)
+                    mPixels[start] = color;
+                else
+                    Arrays.fill(mPixels, start, start + rep, color);
             }
         }
+        curX += rep;
+        if (curX > width) {
+            width = curX;
+        }
     }
 
     public void sixelSetColor(int col) {
@@ -115,4 +143,35 @@ public final class WorkingTerminalBitmap {
             colorMap[col] = color;
         }
     }
+
+    /**
+     * Get the ARGB pixel at a position of the drawn image.
+     */
+    int getPixel(int x, int y) {
+        return mPixels[y * mPixelsWidth + x];
+    }
+
+    /**
+     * Copy the drawn image to a new {@link Bitmap} of {@code w} x {@code h} pixels, which is transparent where it is
+     * larger than the image.
+     *
+     * @return The bitmap, or null if nothing was drawn or it cannot be allocated.
+     */
+    public Bitmap toBitmap(int w, int h) {
+        if (mPixels == null || width == 0 || height == 0 || w <= 0 || h <= 0) {
+            return null;
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        } catch (OutOfMemoryError e) {
+            Logger.logWarn(null, LOG_TAG, "Out of memory - sixel ignored");
+            return null;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        bitmap.setPixels(mPixels, 0, mPixelsWidth, 0, 0, Math.min(width, w), Math.min(height, h));
+        return bitmap;
+    }
 }
@@ -0,0 +1,40 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark of the printable ASCII fast path in {@link TerminalEmulator#append(byte[], int)} against appending a single
+ * byte at a time, which never takes it.
+ */
+public class AsciiRunBenchmarkTest extends TerminalTestCase {
+
+    public void testThroughput() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100; i++) line.append((char) ('!' + (i % 94)));
+        line.append("\r\n");
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 2000; i++) input.append(line);
+        byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        TerminalEmulator bulk = new TerminalEmulator(new MockTerminalOutput(), false, 120, 40, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 2000, null);
+        TerminalEmulator perByte = new TerminalEmulator(new MockTerminalOutput(), false, 120, 40, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, 2000, null);
+        long bulkNanos = Long.MAX_VALUE, perByteNanos = Long.MAX_VALUE;
+        byte[] single = new byte[1];
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            bulk.append(bytes, bytes.length);
+            bulkNanos = Math.min(bulkNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (byte b : bytes) {
+                single[0] = b;
+                perByte.append(single, 1);
+            }
+            perByteNanos = Math.min(perByteNanos, System.nanoTime() - start);
+        }
+        System.out.printf("AsciiRunBenchmarkTest: %d bytes - bulk %.1f MB/s, per byte %.1f MB/s%n", bytes.length,
+            bytes.length * 1000.0 / bulkNanos, bytes.length * 1000.0 / perByteNanos);
+        AsciiRunTest.assertSameState("throughput", perByte, bulk);
+        assertTrue("bulk append slower than per byte append", bulkNanos < perByteNanos);
+    }
+}
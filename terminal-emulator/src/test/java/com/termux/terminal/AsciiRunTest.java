@@ -0,0 +1,96 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Tests for the printable ASCII fast path in {@link TerminalEmulator#append(byte[], int)}. Appending a single byte at a
+ * time never takes the fast path, so it is used as the reference for the per-byte behaviour.
+ */
+public class AsciiRunTest extends TerminalTestCase {
+
+    private static final String[] FRAGMENTS = {
+        "hello", "a", "0123456789", "The quick brown fox jumps over the lazy dog", " ", "~!@#$%^&*()_+{}|:<>?",
+        "\r", "\n", "\r\n", "\t", "\b", "\u0007", "\u007f",
+        "\033[H", "\033[5;7H", "\033[2J", "\033[K", "\033[1K", "\033[3@", "\033[2P", "\033[4b",
+        "\033[1;31m", "\033[0m", "\033[7;42m", "\033[38;2;10;20;30m",
+        "\033[4h", "\033[4l", "\033[?7l", "\033[?7h",
+        "\033(0", "\033(B", "\016", "\017", "\033)0",
+        "\033[2;4r", "\033[r", "\0337", "\0338", "\033M", "\033D",
+        "\033]0;title\007", "\033[?1049h", "\033[?1049l",
+        "å", "中文", "😀", "é", "̈",
+    };
+
+    public void testWrapAtEndOfLine() {
+        withTerminalSized(5, 3).enterString("abcdefgh").assertLinesAre("abcde", "fgh  ", "     ");
+        assertCursorAt(1, 3);
+        assertLineWraps(true, false, false);
+    }
+
+    public void testRunFillsLineExactly() {
+        withTerminalSized(5, 3).enterString("abcde").assertLinesAre("abcde", "     ", "     ");
+        assertCursorAt(0, 4);
+        enterString("f").assertLinesAre("abcde", "f    ", "     ");
+        assertCursorAt(1, 1);
+    }
+
+    public void testRunWithoutAutoWrap() {
+        withTerminalSized(5, 3).enterString("\033[?7labcdefgh").assertLinesAre("abcdh", "     ", "     ");
+        assertCursorAt(0, 4);
+    }
+
+    public void testRunRespectsRightMargin() {
+        withTerminalSized(10, 3).enterString("\033[?69h\033[3;6s\033[1;3H").enterString("abcdefgh");
+        assertLinesAre("  abcd    ", "  efgh    ", "          ");
+    }
+
+    public void testRepeatAfterRun() {
+        withTerminalSized(10, 3).enterString("abc\033[3b").assertLinesAre("abcccc    ", "          ", "          ");
+    }
+
+    public void testRunOverWideCharacters() {
+        withTerminalSized(6, 2).enterString("中文中\rabc").assertLinesAre("abc 中", "      ");
+    }
+
+    public void testRunWithLineDrawing() {
+        withTerminalSized(5, 2).enterString("\033(0qqqq\033(Bqq").assertLinesAre("────q", "q    ");
+    }
+
+    public void testRandomStreamsMatchPerByteAppend() {
+        Random random = new Random(1337);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            int columns = 3 + random.nextInt(20);
+            int rows = 2 + random.nextInt(8);
+            StringBuilder input = new StringBuilder();
+            for (int i = 0; i < 60; i++) input.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+            TerminalEmulator bulk = new TerminalEmulator(new MockTerminalOutput(), false, columns, rows, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows * 2, null);
+            TerminalEmulator perByte = new TerminalEmulator(new MockTerminalOutput(), false, columns, rows, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows * 2, null);
+            bulk.append(bytes, bytes.length);
+            byte[] single = new byte[1];
+            for (byte b : bytes) {
+                single[0] = b;
+                perByte.append(single, 1);
+            }
+            assertSameState("input=" + input, perByte, bulk);
+        }
+    }
+
+    static void assertSameState(String message, TerminalEmulator expected, TerminalEmulator actual) {
+        assertEquals(message, expected.getCursorRow(), actual.getCursorRow());
+        assertEquals(message, expected.getCursorCol(), actual.getCursorCol());
+        TerminalBuffer expectedScreen = expected.getScreen();
+        TerminalBuffer actualScreen = actual.getScreen();
+        assertEquals(message, expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+        for (int row = -expectedScreen.getActiveTranscriptRows(); row < expectedScreen.mScreenRows; row++) {
+            TerminalRow expectedRow = expectedScreen.allocateFullLineIfNecessary(expectedScreen.externalToInternalRow(row));
+            TerminalRow actualRow = actualScreen.allocateFullLineIfNecessary(actualScreen.externalToInternalRow(row));
+            String rowMessage = message + ", row=" + row;
+            assertEquals(rowMessage, new String(expectedRow.mText, 0, expectedRow.getSpaceUsed()), new String(actualRow.mText, 0, actualRow.getSpaceUsed()));
+            assertEquals(rowMessage, expectedRow.mLineWrap, actualRow.mLineWrap);
+            for (int column = 0; column < expectedScreen.mColumns; column++)
+                assertEquals(rowMessage + ", column=" + column, expectedRow.getStyle(column), actualRow.getStyle(column));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+public class Base64StreamDecoderTest extends TestCase {
+
+    private static byte[] decode(String encoded, int maxLength) {
+        Base64StreamDecoder decoder = new Base64StreamDecoder();
+        decoder.reset(maxLength);
+        for (int i = 0; i < encoded.length(); i++) decoder.decode(encoded.charAt(i));
+        decoder.finish();
+        return Arrays.copyOf(decoder.getBuffer(), decoder.getLength());
+    }
+
+    public void testSameAsBase64() {
+        Random random = new Random(42);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length * 37];
+            random.nextBytes(data);
+            String encoded = Base64.getEncoder().encodeToString(data);
+            assertTrue(Arrays.equals(data, decode(encoded, Integer.MAX_VALUE)));
+            assertTrue(Arrays.equals(data, decode(Base64.getMimeEncoder().encodeToString(data), Integer.MAX_VALUE)));
+            assertTrue(Arrays.equals(data, decode(Base64.getUrlEncoder().withoutPadding().encodeToString(data), Integer.MAX_VALUE)));
+        }
+    }
+
+    public void testOverflow() {
+        Base64StreamDecoder decoder = new Base64StreamDecoder();
+        decoder.reset(4);
+        for (char c : "QUJDREVGRw==".toCharArray()) decoder.decode(c);
+        decoder.finish();
+        assertTrue(decoder.isOverflowed());
+        assertEquals(4, decoder.getLength());
+        assertEquals("ABCD", new String(decoder.getBuffer(), 0, 4));
+
+        // Reset for the next data.
+        decoder.reset(4);
+        for (char c : "QUI=".toCharArray()) decoder.decode(c);
+        decoder.finish();
+        assertFalse(decoder.isOverflowed());
+        assertEquals("AB", new String(decoder.takeBuffer(), 0, decoder.getLength()));
+    }
+
+}
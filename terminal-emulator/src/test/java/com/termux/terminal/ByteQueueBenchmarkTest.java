@@ -0,0 +1,198 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Microbenchmark of {@link ByteQueue} against the previous {@code synchronized} and {@code wait/notify} based
+ * implementation, kept below as {@link SynchronizedByteQueue}. A producer thread writes fixed size chunks as the pty
+ * reader thread does and a consumer thread reads them into a 64 KiB buffer as the session does, measuring throughput
+ * and the latency from the start of writing a chunk until it has been completely read.
+ */
+public class ByteQueueBenchmarkTest extends TestCase {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private static final int CHUNKS = 16 * 1024;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    interface Queue {
+        int read(byte[] buffer, boolean block);
+
+        boolean write(byte[] buffer, int offset, int length);
+    }
+
+    public void testThroughputAndLatency() throws Exception {
+        for (int capacity : new int[] { 4 * 1024, 64 * 1024 }) {
+            Result ring = null, locked = null;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                final ByteQueue byteQueue = new ByteQueue(capacity);
+                Result ringResult = run(new Queue() {
+                    @Override
+                    public int read(byte[] buffer, boolean block) {
+                        return byteQueue.read(buffer, block);
+                    }
+
+                    @Override
+                    public boolean write(byte[] buffer, int offset, int length) {
+                        return byteQueue.write(buffer, offset, length);
+                    }
+                });
+                Result lockedResult = run(new SynchronizedByteQueue(capacity));
+                if (round >= WARMUP_ROUNDS) {
+                    ring = Result.best(ring, ringResult);
+                    locked = Result.best(locked, lockedResult);
+                }
+            }
+            System.out.println("ByteQueueBenchmarkTest: capacity " + capacity + " - ByteQueue " + ring + ", synchronized " + locked);
+            // Threads make the numbers noisy, so only fail on a clear regression against the synchronized queue.
+            assertTrue("ByteQueue below half of the synchronized queue", ring.mMegabytesPerSecond >= locked.mMegabytesPerSecond / 2);
+        }
+    }
+
+    private static Result run(final Queue queue) throws InterruptedException {
+        final long[] chunkWriteStartNanos = new long[CHUNKS];
+        Thread producer = new Thread(() -> {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int i = 0; i < CHUNKS; i++) {
+                chunk[0] = (byte) i;
+                chunkWriteStartNanos[i] = System.nanoTime();
+                queue.write(chunk, 0, CHUNK_SIZE);
+            }
+        });
+        long[] latencies = new long[CHUNKS];
+        byte[] buffer = new byte[64 * 1024];
+        long start = System.nanoTime();
+        producer.start();
+        long totalRead = 0;
+        int chunksRead = 0;
+        while (chunksRead < CHUNKS) {
+            int read = queue.read(buffer, true);
+            assertTrue(read > 0);
+            totalRead += read;
+            long now = System.nanoTime();
+            while (chunksRead < CHUNKS && (long) (chunksRead + 1) * CHUNK_SIZE <= totalRead) {
+                latencies[chunksRead] = now - chunkWriteStartNanos[chunksRead];
+                chunksRead++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        producer.join();
+        Arrays.sort(latencies);
+        return new Result(totalRead * 1000.0 / elapsed, latencies[CHUNKS / 2], latencies[(int) (CHUNKS * 0.99)], latencies[(int) (CHUNKS * 0.999)]);
+    }
+
+    static final class Result {
+
+        final double mMegabytesPerSecond;
+
+        final long mP50Nanos, mP99Nanos, mP999Nanos;
+
+        Result(double megabytesPerSecond, long p50Nanos, long p99Nanos, long p999Nanos) {
+            mMegabytesPerSecond = megabytesPerSecond;
+            mP50Nanos = p50Nanos;
+            mP99Nanos = p99Nanos;
+            mP999Nanos = p999Nanos;
+        }
+
+        static Result best(Result a, Result b) {
+            return (a == null || b.mMegabytesPerSecond > a.mMegabytesPerSecond) ? b : a;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f MB/s, latency p50 %d us, p99 %d us, p99.9 %d us", mMegabytesPerSecond,
+                mP50Nanos / 1000, mP99Nanos / 1000, mP999Nanos / 1000);
+        }
+    }
+
+    /**
+     * The previous {@link ByteQueue} implementation, for comparison.
+     */
+    static final class SynchronizedByteQueue implements Queue {
+
+        private final byte[] mBuffer;
+
+        private int mHead;
+
+        private int mStoredBytes;
+
+        SynchronizedByteQueue(int size) {
+            mBuffer = new byte[size];
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, boolean block) {
+            while (mStoredBytes == 0) {
+                if (!block)
+                    return 0;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Ignore.
+                }
+            }
+            int totalRead = 0;
+            int bufferLength = mBuffer.length;
+            boolean wasFull = bufferLength == mStoredBytes;
+            int length = buffer.length;
+            int offset = 0;
+            while (length > 0 && mStoredBytes > 0) {
+                int oneRun = Math.min(bufferLength - mHead, mStoredBytes);
+                int bytesToCopy = Math.min(length, oneRun);
+                System.arraycopy(mBuffer, mHead, buffer, offset, bytesToCopy);
+                mHead += bytesToCopy;
+                if (mHead >= bufferLength)
+                    mHead = 0;
+                mStoredBytes -= bytesToCopy;
+                length -= bytesToCopy;
+                offset += bytesToCopy;
+                totalRead += bytesToCopy;
+            }
+            if (wasFull)
+                notify();
+            return totalRead;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int lengthToWrite) {
+            final int bufferLength = mBuffer.length;
+            synchronized (this) {
+                while (lengthToWrite > 0) {
+                    while (bufferLength == mStoredBytes) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // Ignore.
+                        }
+                    }
+                    final boolean wasEmpty = mStoredBytes == 0;
+                    int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
+                    lengthToWrite -= bytesToWriteBeforeWaiting;
+                    while (bytesToWriteBeforeWaiting > 0) {
+                        int tail = mHead + mStoredBytes;
+                        int oneRun;
+                        if (tail >= bufferLength) {
+                            tail = tail - bufferLength;
+                            oneRun = mHead - tail;
+                        } else {
+                            oneRun = bufferLength - tail;
+                        }
+                        int bytesToCopy = Math.min(oneRun, bytesToWriteBeforeWaiting);
+                        System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
+                        offset += bytesToCopy;
+                        bytesToWriteBeforeWaiting -= bytesToCopy;
+                        mStoredBytes += bytesToCopy;
+                    }
+                    if (wasEmpty)
+                        notify();
+                }
+            }
+            return true;
+        }
+    }
+}
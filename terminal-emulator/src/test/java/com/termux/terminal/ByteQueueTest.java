@@ -47,4 +47,109 @@ public class ByteQueueTest extends TestCase {
         ByteQueue q = new ByteQueue(10);
         assertEquals(0, q.read(new byte[128], false));
     }
+
+    public void testCloseWakesBlockedReader() throws Exception {
+        final ByteQueue q = new ByteQueue(10);
+        final int[] result = new int[1];
+        Thread reader = new Thread(() -> result[0] = q.read(new byte[10], true));
+        reader.start();
+        Thread.sleep(50);
+        q.close();
+        reader.join(5000);
+        assertFalse(reader.isAlive());
+        assertEquals(-1, result[0]);
+    }
+
+    public void testCloseWakesBlockedWriter() throws Exception {
+        final ByteQueue q = new ByteQueue(10);
+        final boolean[] result = { true };
+        Thread writer = new Thread(() -> result[0] = q.write(new byte[20], 0, 20));
+        writer.start();
+        Thread.sleep(50);
+        q.close();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertFalse(result[0]);
+    }
+
+    public void testConcurrentProducerAndConsumer() throws Exception {
+        final ByteQueue q = new ByteQueue(17);
+        final int totalBytes = 1 << 20;
+        Thread writer = new Thread(() -> {
+            byte[] chunk = new byte[23];
+            int written = 0;
+            while (written < totalBytes) {
+                int length = Math.min(1 + written % chunk.length, totalBytes - written);
+                for (int i = 0; i < length; i++) chunk[i] = (byte) (written + i);
+                q.write(chunk, 0, length);
+                written += length;
+            }
+        });
+        writer.start();
+        byte[] readBuffer = new byte[13];
+        int read = 0;
+        while (read < totalBytes) {
+            int bytesRead = q.read(readBuffer, true);
+            assertTrue(bytesRead > 0);
+            for (int i = 0; i < bytesRead; i++) {
+                if (readBuffer[i] != (byte) (read + i))
+                    fail("Inequals at offset=" + (read + i));
+            }
+            read += bytesRead;
+        }
+        writer.join(5000);
+        assertEquals(0, q.read(readBuffer, false));
+    }
+
+    public void testSize() throws Exception {
+        ByteQueue q = new ByteQueue(10);
+        assertEquals(10, q.capacity());
+        assertEquals(0, q.size());
+        q.write(new byte[] { 1, 2, 3 }, 0, 3);
+        assertEquals(3, q.size());
+        q.read(new byte[2], false);
+        assertEquals(1, q.size());
+    }
+
+    public void testOffer() throws Exception {
+        ByteQueue q = new ByteQueue(4);
+        assertEquals(3, q.offer(new byte[] { 1, 2, 3 }, 0, 3));
+        assertEquals(1, q.offer(new byte[] { 4, 5, 6 }, 0, 3));
+        assertEquals(0, q.offer(new byte[] { 5 }, 0, 1));
+        assertEquals(0, q.getWriterBlockedNanos());
+        byte[] b = new byte[4];
+        assertEquals(4, q.read(b, false));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, b);
+        // Wraps around the end of the buffer.
+        assertEquals(2, q.offer(new byte[] { 9, 5, 6 }, 1, 2));
+        assertEquals(2, q.read(b, false));
+        assertEquals(5, b[0]);
+        assertEquals(6, b[1]);
+        q.close();
+        assertEquals(-1, q.offer(new byte[] { 1 }, 0, 1));
+    }
+
+    public void testHighWaterMark() throws Exception {
+        ByteQueue q = new ByteQueue(10);
+        assertEquals(0, q.getHighWaterMark());
+        q.write(new byte[] { 1, 2, 3 }, 0, 3);
+        q.write(new byte[] { 4, 5 }, 0, 2);
+        assertEquals(5, q.getHighWaterMark());
+        q.read(new byte[10], false);
+        q.write(new byte[] { 1 }, 0, 1);
+        assertEquals(5, q.getHighWaterMark());
+        assertEquals(0, q.getWriterBlockedNanos());
+    }
+
+    public void testWriterBlockedNanos() throws Exception {
+        final ByteQueue q = new ByteQueue(10);
+        Thread writer = new Thread(() -> q.write(new byte[20], 0, 20));
+        writer.start();
+        Thread.sleep(50);
+        q.read(new byte[10], true);
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(10, q.getHighWaterMark());
+        assertTrue(q.getWriterBlockedNanos() > 0);
+    }
 }
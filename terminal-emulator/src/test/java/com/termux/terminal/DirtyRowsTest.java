@@ -0,0 +1,107 @@
+package com.termux.terminal;
+
+/**
+ * Tests for the tracking of changed screen rows in {@link TerminalBuffer}, used for partial redraws.
+ */
+public class DirtyRowsTest extends TerminalTestCase {
+
+    private TerminalBuffer consumedScreen() {
+        TerminalBuffer screen = mTerminal.getScreen();
+        screen.clearDirtyRows();
+        return screen;
+    }
+
+    private void assertDirtyRows(int... rows) {
+        TerminalBuffer screen = mTerminal.getScreen();
+        assertEquals(rows.length, screen.getDirtyRowCount());
+        for (int row : rows) assertTrue("row " + row, screen.isRowDirty(row));
+        if (rows.length > 0) {
+            assertEquals(rows[0], screen.getFirstDirtyRow());
+            assertEquals(rows[rows.length - 1], screen.getLastDirtyRow());
+        } else {
+            assertEquals(-1, screen.getFirstDirtyRow());
+            assertEquals(-1, screen.getLastDirtyRow());
+        }
+    }
+
+    public void testNewBufferIsDirty() {
+        withTerminalSized(5, 3);
+        assertDirtyRows(0, 1, 2);
+        consumedScreen();
+        assertDirtyRows();
+    }
+
+    public void testTypingMarksCursorRow() {
+        withTerminalSized(5, 4).enterString("\033[3;1H");
+        consumedScreen();
+        enterString("a");
+        assertDirtyRows(2);
+        consumedScreen();
+        enterString("bcd");
+        assertDirtyRows(2);
+    }
+
+    public void testCursorMovementIsNotDirty() {
+        withTerminalSized(5, 4);
+        consumedScreen();
+        enterString("\033[3;2H\033[A\r\n");
+        assertDirtyRows();
+    }
+
+    public void testWrapMarksBothRows() {
+        withTerminalSized(3, 4);
+        consumedScreen();
+        enterString("abcd");
+        assertDirtyRows(0, 1);
+    }
+
+    public void testScrollMarksScrollRegion() {
+        withTerminalSized(3, 4).enterString("\033[2;3r\033[3;1H");
+        consumedScreen();
+        enterString("\n");
+        assertDirtyRows(1, 2);
+        consumedScreen();
+        enterString("\033[r\033[4;1H\n");
+        assertDirtyRows(0, 1, 2, 3);
+    }
+
+    public void testEraseAndInsertLine() {
+        withTerminalSized(3, 4).enterString("\033[2;1H");
+        consumedScreen();
+        enterString("\033[K");
+        assertDirtyRows(1);
+        consumedScreen();
+        enterString("\033[L");
+        assertDirtyRows(1, 2, 3);
+    }
+
+    public void testSetOrClearEffect() {
+        withTerminalSized(5, 4);
+        consumedScreen();
+        enterString("\033[2;1;3;5;1$r");
+        assertDirtyRows(1, 2);
+    }
+
+    public void testWholeScreenChanges() {
+        withTerminalSized(3, 3);
+        consumedScreen();
+        enterString("\033[?5h");
+        assertDirtyRows(0, 1, 2);
+
+        consumedScreen();
+        enterString("\033[?1049h");
+        assertDirtyRows(0, 1, 2);
+
+        consumedScreen();
+        enterString("\033]4;1;#ff0000\007");
+        assertDirtyRows(0, 1, 2);
+
+        consumedScreen();
+        mTerminal.resize(3, 5, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        assertDirtyRows(0, 1, 2, 3, 4);
+
+        consumedScreen();
+        mTerminal.resize(4, 2, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        assertDirtyRows(0, 1);
+    }
+}
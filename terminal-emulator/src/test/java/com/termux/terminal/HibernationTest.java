@@ -0,0 +1,151 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tests for writing the rows of a terminal with {@link TerminalEmulator#writeRows(java.io.OutputStream)}, releasing
+ * them and restoring them, which must give the same terminal as if they had never been released.
+ */
+public class HibernationTest extends TerminalTestCase {
+
+    /** A terminal of the same size as {@link #mTerminal} which is never hibernated. */
+    private TerminalEmulator mExpected;
+
+    private TerminalTestCase withTerminalsSized(int columns, int rows) {
+        withTerminalSized(columns, rows);
+        mExpected = new TerminalEmulator(new MockTerminalOutput(), false, columns, rows,
+            INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows * 2, null);
+        return this;
+    }
+
+    private void appendToBoth(String output) {
+        final byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        mTerminal.append(bytes, bytes.length);
+        mExpected.append(bytes, bytes.length);
+    }
+
+    private static byte[] writeRows(TerminalEmulator emulator) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        emulator.writeRows(out);
+        return out.toByteArray();
+    }
+
+    private void hibernateAndRestore() throws IOException {
+        final byte[] rows = writeRows(mTerminal);
+        mTerminal.releaseRows();
+        assertEquals(0, mTerminal.getAllocatedRows());
+        mTerminal.restoreRows(new ByteArrayInputStream(rows));
+    }
+
+    private void assertSameState() {
+        assertEquals(mExpected.isAlternateBufferActive(), mTerminal.isAlternateBufferActive());
+        assertEquals(mExpected.getScreen().getActiveTranscriptRows(), mTerminal.getScreen().getActiveTranscriptRows());
+        assertEquals(mExpected.getScreen().getTranscriptText(), mTerminal.getScreen().getTranscriptText());
+        for (int row = -mExpected.getScreen().getActiveTranscriptRows(); row < mExpected.mRows; row++) {
+            assertEquals("Line wrap of row " + row, mExpected.getScreen().getLineWrap(row), mTerminal.getScreen().getLineWrap(row));
+            for (int column = 0; column < mExpected.mColumns; column++)
+                assertEquals("Style at " + row + "," + column, mExpected.getScreen().getStyleAt(row, column), mTerminal.getScreen().getStyleAt(row, column));
+        }
+        assertEquals(mExpected.getCursorRow(), mTerminal.getCursorRow());
+        assertEquals(mExpected.getCursorCol(), mTerminal.getCursorCol());
+        assertEquals(mExpected.getCursorStyle(), mTerminal.getCursorStyle());
+        assertEquals(mExpected.isCursorEnabled(), mTerminal.isCursorEnabled());
+        assertEquals(mExpected.isCursorKeysApplicationMode(), mTerminal.isCursorKeysApplicationMode());
+        assertEquals(mExpected.isKeypadApplicationMode(), mTerminal.isKeypadApplicationMode());
+        assertEquals(mExpected.isMouseTrackingActive(), mTerminal.isMouseTrackingActive());
+        assertEquals(mExpected.isReverseVideo(), mTerminal.isReverseVideo());
+    }
+
+    public void testRoundTrip() throws IOException {
+        withTerminalsSized(10, 4);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 12; i++)
+            output.append("\033[3").append(i % 8).append(";4").append((i + 3) % 8).append("m").append(i).append(" long wrapping line\033[m\r\n");
+        output.append("中文 😀 é wide\r\n");
+        appendToBoth(output.toString());
+        // Compact the rows of the transcript, which are written and restored compacted.
+        mTerminal.compactTranscriptRows(Integer.MAX_VALUE);
+        mExpected.compactTranscriptRows(Integer.MAX_VALUE);
+        appendToBoth("\033[?1h\033=\033[?1000h\033[?5h\033[?25l\033[4 q\033[2;3H\033[1;4mbold");
+        final int compactedRows = mTerminal.getCompactedTranscriptRows();
+        assertTrue(compactedRows > 0);
+
+        hibernateAndRestore();
+        assertEquals(compactedRows, mTerminal.getCompactedTranscriptRows());
+        assertSameState();
+
+        // The restored rows can be changed and scrolled like any other.
+        appendToBoth("\033[?1l\033>\033[?5l\033[4;1Hmore\r\n\033[32m中文\r\nlast");
+        assertSameState();
+    }
+
+    public void testAlternateBuffer() throws IOException {
+        withTerminalsSized(6, 3);
+        appendToBoth("main\r\nbuffer");
+        appendToBoth("\033[?1049h\033[H\033[7malt\033[m\r\n😀x");
+
+        hibernateAndRestore();
+        assertSameState();
+
+        appendToBoth("\033[?1049l");
+        assertSameState();
+    }
+
+    public void testPendingReflowIsWrittenReflowed() throws IOException {
+        final int lines = TerminalBuffer.DEFERRED_REFLOW_MIN_ROWS + 100;
+        withTerminalSized(10, 4);
+        mTerminal = new TerminalEmulator(mOutput, false, 10, 4, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, lines * 3, null);
+        mExpected = new TerminalEmulator(new MockTerminalOutput(), false, 10, 4, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, lines * 3, null);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < lines; i++) output.append("line ").append(i).append(" wraps\r\n");
+        appendToBoth(output.toString());
+        mTerminal.resize(7, 4, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        mExpected.resize(7, 4, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        mExpected.reflowTranscriptRows(Integer.MAX_VALUE);
+
+        hibernateAndRestore();
+        assertFalse(mTerminal.reflowTranscriptRows(Integer.MAX_VALUE));
+        assertSameState();
+    }
+
+    public void testReleasedRowsReadAsBlank() throws IOException {
+        withTerminalsSized(5, 3);
+        appendToBoth("abc\r\ndefghij\r\nkl\r\nmn");
+        final byte[] rows = writeRows(mTerminal);
+        mTerminal.releaseRows();
+
+        // The text is read while the rows are restored in the background, e.g. for accessibility or sharing it.
+        TerminalBuffer screen = mTerminal.getScreen();
+        assertEquals("", screen.getTranscriptText());
+        assertEquals("", screen.getSelectedText(0, 0, mTerminal.mColumns, mTerminal.mRows).trim());
+        assertEquals("", screen.getWordAtLocation(1, 1));
+        assertFalse(screen.getLineWrap(0));
+        assertNull(mTerminal.getChar(0, 0));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        screen.writeTranscriptText(out, false, false);
+        assertEquals(0, out.size());
+
+        mTerminal.restoreRows(new ByteArrayInputStream(rows));
+        assertSameState();
+    }
+
+    public void testRestoreFailureLeavesBlankRows() throws IOException {
+        withTerminalSized(5, 2).enterString("abc\r\ndef\r\nghi");
+        final byte[] rows = writeRows(mTerminal);
+        mTerminal.releaseRows();
+        try {
+            mTerminal.restoreRows(new ByteArrayInputStream(Arrays.copyOf(rows, rows.length / 2)));
+            fail("Restored truncated rows");
+        } catch (IOException e) {
+            // Expected.
+        }
+        // The rows which could not be read are blank, so that the terminal can still be read and written.
+        assertTrue(mTerminal.getScreen().getTranscriptText().startsWith("abc"));
+        enterString("\r\nxyz");
+        assertLineIs(1, "xyz  ");
+    }
+}
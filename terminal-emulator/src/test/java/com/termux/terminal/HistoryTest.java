@@ -1,5 +1,8 @@
 package com.termux.terminal;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 public class HistoryTest extends TerminalTestCase {
 
@@ -30,4 +33,72 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	public void testRowsAllocatedWhenWritten() {
+		withTerminalSized(3, 3).enterString("111\r\n222\r\n333\r\n444\r\n");
+		assertHistoryStartsWith("222", "111");
+		// The rows of the screen and the two rows scrolled into the transcript, but not the rest of the transcript.
+		assertEquals(5, mTerminal.getScreen().getAllocatedRows());
+		assertEquals(5 + 3, mTerminal.getAllocatedRows());
+		assertEquals(mTerminal.getScreen().getTotalRows() + 3, mTerminal.getRowCapacity());
+	}
+
+	public void testClearedTranscriptRowsRecycled() {
+		TerminalRowPool.clear();
+		withTerminalSized(3, 3).enterString("111\r\n222\r\n333\r\n444\r\n");
+		enterString("\033[3J");
+		assertEquals(3, mTerminal.getScreen().getAllocatedRows());
+		assertEquals(2, TerminalRowPool.size(3));
+		// The row scrolled into the transcript is replaced on the screen by a recycled row.
+		enterString("555\r\n").assertLinesAre("444", "555", "   ").assertHistoryStartsWith("333");
+		assertEquals(4, mTerminal.getScreen().getAllocatedRows());
+		assertEquals(1, TerminalRowPool.size(3));
+		TerminalRowPool.clear();
+	}
+
+	public void testAllocatedRowsCountedAsRowsChange() throws IOException {
+		final int lines = TerminalBuffer.DEFERRED_REFLOW_MIN_ROWS + 200;
+		mTerminal = new TerminalEmulator(mOutput, false, 10, 4, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, lines * 2, null);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < lines; i++) output.append("line ").append(i).append(" wraps\r\n");
+		enterString(output.toString());
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+
+		// The transcript rows left to be reflowed are counted too, until they are reflowed.
+		resize(7, 4);
+		final int allocatedRows = mTerminal.getScreen().getAllocatedRows();
+		assertTrue(allocatedRows > countRows(mTerminal.getScreen()));
+		assertTrue(mTerminal.reflowTranscriptRows(100));
+		assertTrue(mTerminal.getScreen().getAllocatedRows() > countRows(mTerminal.getScreen()));
+		assertFalse(mTerminal.reflowTranscriptRows(Integer.MAX_VALUE));
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+		resize(7, 6);
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+
+		ByteArrayOutputStream rows = new ByteArrayOutputStream();
+		mTerminal.writeRows(rows);
+		mTerminal.releaseRows();
+		assertEquals(0, mTerminal.getScreen().getAllocatedRows());
+		mTerminal.restoreRows(new ByteArrayInputStream(rows.toByteArray()));
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+
+		enterString("\033[?1049hb\r\nc");
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+		enterString("\033[?1049l\033[3J");
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+		enterString("more\r\nlines\r\n");
+		assertAllocatedRowsCounted(mTerminal.getScreen());
+	}
+
+	private static int countRows(TerminalBuffer buffer) {
+		int rows = 0;
+		for (TerminalRow line : buffer.mLines) if (line != null)
+			rows++;
+		return rows;
+	}
+
+	/** Assert that the allocated rows of a buffer without rows left to reflow are its rows which are not null. */
+	private static void assertAllocatedRowsCounted(TerminalBuffer buffer) {
+		assertEquals(countRows(buffer), buffer.getAllocatedRows());
+	}
+
 }
@@ -188,4 +188,33 @@ public class KeyHandlerTest extends TestCase {
         assertKeysEquals("\033[5~", KeyHandler.getCode(KeyEvent.KEYCODE_NUMPAD_9, 0, false, false));
         assertKeysEquals("\033[3~", KeyHandler.getCode(KeyEvent.KEYCODE_NUMPAD_DOT, 0, false, false));
     }
+
+    /** The codes looked up from the tables must be the ones built for every key, modifier and mode. */
+    public void testCodeTablesMatchComputedCodes() {
+        for (int keyCode = -1; keyCode <= KeyHandler.MAX_KEYCODE + 200; keyCode++) {
+            for (int keyModIndex = 0; keyModIndex < KeyHandler.KEYMOD_COMBINATIONS; keyModIndex++) {
+                int keyMod = keyModIndex << 28;
+                for (int mode = 0; mode < 4; mode++) {
+                    boolean cursorApp = (mode & 2) != 0;
+                    boolean keypadApplication = (mode & 1) != 0;
+                    String expected = KeyHandler.computeCode(keyCode, keyMod, cursorApp, keypadApplication);
+                    String actual = KeyHandler.getCode(keyCode, keyMod, cursorApp, keypadApplication);
+                    assertEquals("Key " + keyCode + ", modifiers " + keyModIndex + ", mode " + mode, stringToHex(expected), stringToHex(actual));
+                    // The same constant is returned for every press.
+                    assertSame(actual, KeyHandler.getCode(keyCode, keyMod, cursorApp, keypadApplication));
+                }
+            }
+        }
+
+        for (String termcap : KeyHandler.TERMCAP_TO_KEYCODE.keySet()) {
+            for (int mode = 0; mode < 4; mode++) {
+                boolean cursorApp = (mode & 2) != 0;
+                boolean keypadApplication = (mode & 1) != 0;
+                assertEquals("Termcap " + termcap + ", mode " + mode,
+                    stringToHex(KeyHandler.computeCodeFromTermcap(termcap, cursorApp, keypadApplication)),
+                    stringToHex(KeyHandler.getCodeFromTermcap(termcap, cursorApp, keypadApplication)));
+            }
+        }
+        assertNull(KeyHandler.getCodeFromTermcap("xx", false, false));
+    }
 }
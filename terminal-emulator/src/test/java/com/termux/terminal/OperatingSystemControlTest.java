@@ -193,4 +193,18 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertEnteringStringGivesResponse("\033]10;?\033\\", "\033]10;rgb:abab/cdcd/0000\033\\");
 	}
 
+	public void testInlineImagePayloadIsNotPrinted() {
+		// The payload, even with line breaks, is consumed. The image is not placed as it cannot be decoded.
+		withTerminalSized(5, 3).enterString("\033]1337;File=name=eA==;inline=1:iVBORw0K\r\nGgoAAAAN\007ab");
+		assertLinesAre("ab   ", "     ", "     ");
+		enterString("\033]1337;File=inline=1:" + "QUJD".repeat(1000) + "\033\\cd");
+		assertLinesAre("abcd ", "     ", "     ");
+	}
+
+	public void testColonInOtherSequencesDoesNotStartPayload() {
+		// An OSC 8 hyperlink, after which line breaks must not be ignored.
+		withTerminalSized(5, 3).enterString("\033]8;;http://example.com\007ab\033]8;;\007\r\ncd");
+		assertLinesAre("ab   ", "cd   ", "     ");
+	}
+
 }
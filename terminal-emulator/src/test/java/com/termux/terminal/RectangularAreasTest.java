@@ -68,6 +68,13 @@ public class RectangularAreasTest extends TerminalTestCase {
         withTerminalSized(3, 3).enterString("ABCD\033[1\"qE\033[0\"qFGHI\033[1;1;2;10${").assertLinesAre("   ", " E ", "GHI");
     }
 
+    public void testEraseRowsWithWideChars() {
+        // Erasing all of a row removes its wide chars, erasing part of it sets one char at a time.
+        withTerminalSized(4, 2).enterString("中文\r\nA中B\033[2;2H\033[K").assertLinesAre("中文", "A   ");
+        enterString("\033[1;1H\033[2KCD").assertLinesAre("CD  ", "A   ");
+        withTerminalSized(4, 2).enterString("中文\r\nA中B\033[1;2;2;3$z").assertLinesAre("    ", "A  B");
+    }
+
     /**
      * http://vt100.net/docs/vt510-rm/DECCRA
      */
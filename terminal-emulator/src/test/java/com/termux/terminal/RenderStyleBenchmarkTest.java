@@ -0,0 +1,138 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Benchmark of the per run work of rendering screens heavy in 256 and true colors which does not need a canvas: what
+ * the renderer does per frame to find the runs of each row, resolve their colors with
+ * {@link TextStyle#resolveColors(long, int[], boolean, boolean, int[])} and set up its paint for their effects, which
+ * it only does when the {@link TextStyle#TEXT_PAINT_EFFECTS} of a run differ from those of the last.
+ * <p>
+ * Reports per fixture the runs per frame, the time per frame of the best round and the paint setups per frame.
+ */
+public class RenderStyleBenchmarkTest extends TestCase {
+
+    private static final int COLUMNS = 160;
+
+    private static final int ROWS = 50;
+
+    private static final int FRAMES = 2000;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 5;
+
+    /**
+     * Output like that of a system monitor drawing meters in true color gradients over rows of 256 color backgrounds,
+     * with the same gradient on every row.
+     */
+    static byte[] gradients(Random random) {
+        StringBuilder output = new StringBuilder("\033[H");
+        for (int row = 0; row < ROWS; row++) {
+            output.append("\033[48;5;").append(232 + row % 24).append('m');
+            for (int column = 0; column < COLUMNS; column++) {
+                if (column % 2 == 0)
+                    output.append("\033[38;2;").append(column * 255 / COLUMNS).append(';').append(255 - column * 255 / COLUMNS).append(";64m");
+                output.append(random.nextInt(3) == 0 ? ' ' : '█');
+            }
+            output.append("\033[m");
+            if (row + 1 < ROWS)
+                output.append("\r\n");
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Output of an editor highlighting source code with a 256 color theme, with bold and dim tokens. */
+    static byte[] syntaxHighlighting(Random random) {
+        final String[] styles = {"38;5;204", "38;5;81", "1;38;5;148", "38;5;186", "2;38;5;242", "38;5;141", "38;5;208;48;5;236", "7"};
+        StringBuilder output = new StringBuilder("\033[H");
+        for (int row = 0; row < ROWS; row++) {
+            output.append("\033[38;5;239m").append(String.format("%4d ", row)).append("\033[m");
+            int column = 5;
+            while (column < COLUMNS - 12) {
+                int length = 1 + random.nextInt(10);
+                output.append("\033[").append(styles[random.nextInt(styles.length)]).append('m');
+                for (int i = 0; i < length; i++) output.append((char) ('a' + random.nextInt(26)));
+                output.append("\033[m ");
+                column += length + 1;
+            }
+            if (row + 1 < ROWS)
+                output.append("\r\n");
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Output of a picture drawn with half blocks, in which nearly every cell has colors of its own. */
+    static byte[] picture(Random random) {
+        StringBuilder output = new StringBuilder("\033[H");
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                output.append("\033[38;2;").append(random.nextInt(256)).append(';').append(row * 5).append(';').append(column)
+                    .append(";48;5;").append(16 + random.nextInt(216)).append("m\u2580");
+            }
+            output.append("\033[m");
+            if (row + 1 < ROWS)
+                output.append("\r\n");
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void testRenderStyles() {
+        Random random = new Random(1);
+        // Colors alone never change the paint effects, so screens without bold, italic or underline set them up once.
+        benchmark("gradients", gradients(random), 1);
+        benchmark("syntax highlighting", syntaxHighlighting(random), ROWS * COLUMNS);
+        benchmark("picture", picture(random), 1);
+    }
+
+    private static void benchmark(String fixture, byte[] screenBytes, int maxPaintSetupsPerFrame) {
+        TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, COLUMNS, ROWS, 10, 20, 100, null);
+        emulator.append(screenBytes, screenBytes.length);
+        final int[] counts = new int[2];
+        long best = Long.MAX_VALUE;
+        int sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            counts[0] = counts[1] = 0;
+            long start = System.nanoTime();
+            for (int frame = 0; frame < FRAMES; frame++) sink += renderStyles(emulator, counts);
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS)
+                best = Math.min(best, elapsed);
+        }
+        System.out.println(String.format("RenderStyleBenchmarkTest: %s: %d runs/frame, %.1f us/frame, %d paint setups/frame (%d)",
+            fixture, counts[0] / FRAMES, best / FRAMES / 1000.0, counts[1] / FRAMES, sink));
+        assertTrue(fixture + ": more paint setups than runs", counts[1] <= counts[0]);
+        assertTrue(fixture + ": " + counts[1] / FRAMES + " paint setups/frame", counts[1] / FRAMES <= maxPaintSetupsPerFrame);
+    }
+
+    /** Resolve the colors and paint effects of every run of the screen, counting runs and paint setups. */
+    private static int renderStyles(TerminalEmulator emulator, int[] counts) {
+        final TerminalBuffer screen = emulator.getScreen();
+        final int[] palette = emulator.mColors.mCurrentColors;
+        final int[] colors = new int[2];
+        int textPaintEffects = -1;
+        int sink = 0;
+        for (int row = 0; row < ROWS; row++) {
+            TerminalRow line = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+            long lastStyle = line.getStyle(0);
+            for (int column = 1; column <= COLUMNS; column++) {
+                long style = column < COLUMNS ? line.getStyle(column) : ~lastStyle;
+                if (style == lastStyle)
+                    continue;
+                TextStyle.resolveColors(lastStyle, palette, true, false, colors);
+                sink += colors[0] ^ colors[1];
+                final int effects = TextStyle.decodeEffect(lastStyle) & TextStyle.TEXT_PAINT_EFFECTS;
+                if (effects != textPaintEffects) {
+                    textPaintEffects = effects;
+                    counts[1]++;
+                }
+                counts[0]++;
+                lastStyle = style;
+            }
+        }
+        return sink;
+    }
+}
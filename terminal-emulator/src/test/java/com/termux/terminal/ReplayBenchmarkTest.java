@@ -0,0 +1,213 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of replaying the output of common programs through {@link TerminalEmulator#append(byte[], int)}, in chunks
+ * of {@link #CHUNK_BYTES} like the reads of a session from its pty. The output is generated in the form the programs
+ * write it, with a fixed seed so that every run replays the same bytes.
+ * <p>
+ * Reports per fixture the throughput of the best round, the bytes allocated per replay of the fixture and the 99th
+ * percentile latency of appending a chunk over all rounds, and fails if the throughput is below
+ * {@link #MIN_MEGABYTES_PER_SECOND}.
+ */
+public class ReplayBenchmarkTest extends TestCase {
+
+    /** The size of the reads of a session from its pty. */
+    private static final int CHUNK_BYTES = 4096;
+
+    private static final int COLUMNS = 120;
+
+    private static final int ROWS = 40;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 5;
+
+    /** A floor on the throughput far below that of any device, to catch replays that regress by orders of magnitude. */
+    private static final double MIN_MEGABYTES_PER_SECOND = 1;
+
+    private static final String[] WORDS = {"static", "final", "int", "return", "buffer", "row", "column", "if", "for",
+        "while", "style", "emulator", "null", "true", "value", "length", "offset", "the", "of", "a"};
+
+    /** Output of {@code cat} of a large source file. */
+    static byte[] cat(Random random, int lines) {
+        StringBuilder output = new StringBuilder();
+        for (int line = 0; line < lines; line++) {
+            int indent = random.nextInt(4) * 4;
+            for (int i = 0; i < indent; i++) output.append(' ');
+            int words = random.nextInt(12);
+            for (int i = 0; i < words; i++) output.append(WORDS[random.nextInt(WORDS.length)]).append(i + 1 < words ? " " : ";");
+            output.append("\r\n");
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Output of {@code ls --color} of a large directory, in columns of names colored by file type. */
+    static byte[] lsColor(Random random, int entries) {
+        final String[] colors = {"01;34", "01;32", "01;36", "00", "01;31", "01;35"};
+        final int columnWidth = 24;
+        StringBuilder output = new StringBuilder();
+        for (int entry = 0; entry < entries; entry++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + "_" + entry + (random.nextBoolean() ? ".txt" : "");
+            output.append("\033[0m\033[").append(colors[random.nextInt(colors.length)]).append('m').append(name).append("\033[0m");
+            if ((entry + 1) % (COLUMNS / columnWidth) == 0) {
+                output.append("\r\n");
+            } else {
+                for (int i = name.length(); i < columnWidth; i++) output.append(' ');
+            }
+        }
+        return output.append("\033[0m\r\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Output of scrolling through a file in vim: the region above the status line is scrolled by inserting and deleting
+     * lines, and the revealed line is drawn with syntax highlighting.
+     */
+    static byte[] vimScrolling(Random random, int steps) {
+        StringBuilder output = new StringBuilder("\033[?1049h\033[1;" + (ROWS - 1) + "r\033[H\033[2J");
+        for (int step = 0; step < steps; step++) {
+            boolean down = random.nextInt(4) != 0;
+            if (down)
+                output.append("\033[1;1H\033[M\033[").append(ROWS - 1).append(";1H");
+            else
+                output.append("\033[1;1H\033[L");
+            output.append("\033[33m").append(String.format("%5d ", step)).append("\033[m");
+            int words = random.nextInt(14);
+            for (int i = 0; i < words; i++) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                if (i % 3 == 0)
+                    output.append("\033[38;5;").append(130 + random.nextInt(20)).append('m').append(word).append("\033[m ");
+                else
+                    output.append(word).append(' ');
+            }
+            output.append("\033[K\033[").append(ROWS).append(";1H\033[1m\"file.c\" line ").append(step).append("\033[m\033[K");
+        }
+        return output.append("\033[r\033[?1049l").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Output of htop refreshing its cpu meters and process list in the alternate buffer. */
+    static byte[] htopRefresh(Random random, int frames) {
+        StringBuilder output = new StringBuilder("\033[?1049h\033[?25l");
+        for (int frame = 0; frame < frames; frame++) {
+            output.append("\033[H");
+            for (int cpu = 0; cpu < 8; cpu++) {
+                int used = random.nextInt(40);
+                output.append("\033[").append(cpu + 1).append(";1H\033[36m").append(cpu).append("\033[39m\033[1m[\033[22m\033[32m");
+                for (int i = 0; i < 40; i++) output.append(i < used ? '|' : ' ');
+                output.append("\033[39m").append(String.format("%5.1f%%", used * 2.5)).append("\033[1m]\033[22m");
+            }
+            output.append("\033[10;1H\033[30;42m  PID USER      PRI  NI  VIRT   RES CPU% MEM%   TIME+  Command\033[K\033[m");
+            final int selected = random.nextInt(ROWS - 11);
+            for (int process = 0; process < ROWS - 11; process++) {
+                output.append("\033[").append(process + 11).append(";1H");
+                if (process == selected)
+                    output.append("\033[30;46m");
+                output.append(String.format("%5d u0_a123    20   0 %5dM %5dM %4.1f %4.1f  %d:%02d.%02d ", 1000 + process, random.nextInt(9000),
+                    random.nextInt(900), random.nextInt(1000) / 10.0, random.nextInt(100) / 10.0, random.nextInt(10), random.nextInt(60), random.nextInt(100)));
+                output.append(WORDS[random.nextInt(WORDS.length)]).append("\033[K\033[m");
+            }
+        }
+        return output.append("\033[?25h\033[?1049l").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** A log with CJK text, emoji with variation selectors and zero width joiners, and combining chars. */
+    static byte[] cjkEmojiLog(Random random, int lines) {
+        final String[] words = {"日志", "连接", "服务器", "错误", "完成", "ユーザー", "ログイン", "사용자", "😀", "🚀", "👍🏽",
+            "👩‍💻", "❤️", "✅", "café", "naïve", "é", "ok"};
+        StringBuilder output = new StringBuilder();
+        for (int line = 0; line < lines; line++) {
+            output.append("\033[2m").append(String.format("12:%02d:%02d.%03d", line / 3600 % 60, line / 60 % 60, line % 1000)).append("\033[0m ");
+            output.append(random.nextInt(8) == 0 ? "\033[31mE\033[0m " : "\033[32mI\033[0m ");
+            int count = 3 + random.nextInt(10);
+            for (int i = 0; i < count; i++) output.append(words[random.nextInt(words.length)]).append(' ');
+            output.append("\r\n");
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Sixel images as written by img2sixel, each followed by a line of text. */
+    static byte[] sixel(int images) {
+        String image = SixelBenchmarkTest.img2sixel(400, 240, 16);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < images; i++) output.append(image).append("image ").append(i).append("\r\n");
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the bytes allocated by the current thread, or -1 if the JVM does not support it. The method is looked up by
+     * reflection, since java.lang.management is not part of the Android API.
+     */
+    private static long threadAllocatedBytes() {
+        try {
+            Object threadBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception | LinkageError e) {
+            return -1;
+        }
+    }
+
+    private void replay(String name, byte[] output) {
+        final int chunks = (output.length + CHUNK_BYTES - 1) / CHUNK_BYTES;
+        final long[] chunkNanos = new long[chunks * ROUNDS];
+        final byte[] buffer = new byte[CHUNK_BYTES];
+        long best = Long.MAX_VALUE, bestAllocated = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, COLUMNS, ROWS, 10, 20, TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS, null);
+            final long allocatedBefore = threadAllocatedBytes();
+            final long start = System.nanoTime();
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                final long chunkStart = System.nanoTime();
+                // Chunks are read into the same buffer, like a session reads from its pty.
+                final int offset = chunk * CHUNK_BYTES;
+                final int length = Math.min(CHUNK_BYTES, output.length - offset);
+                System.arraycopy(output, offset, buffer, 0, length);
+                emulator.append(buffer, length);
+                if (round >= WARMUP_ROUNDS)
+                    chunkNanos[(round - WARMUP_ROUNDS) * chunks + chunk] = System.nanoTime() - chunkStart;
+            }
+            final long elapsed = System.nanoTime() - start;
+            final long allocated = threadAllocatedBytes() - allocatedBefore;
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+                bestAllocated = Math.min(bestAllocated, allocated);
+            }
+        }
+        Arrays.sort(chunkNanos);
+        final long p99 = chunkNanos[(int) (chunkNanos.length * 0.99)];
+        System.out.println(String.format("ReplayBenchmarkTest: %s %d KiB, %.1f MB/s, %s allocated/op, chunk p99 %.1f us",
+            name, output.length / 1024, (double) output.length * 1000 / best,
+            bestAllocated < 0 ? "unknown" : (bestAllocated / 1024) + " KiB", p99 / 1e3));
+        assertTrue(name + " below " + MIN_MEGABYTES_PER_SECOND + " MB/s", (double) output.length * 1000 / best >= MIN_MEGABYTES_PER_SECOND);
+    }
+
+    public void testReplayCat() {
+        replay("cat of a large file", cat(new Random(1), 40000));
+    }
+
+    public void testReplayLsColor() {
+        replay("ls --color of a large directory", lsColor(new Random(2), 30000));
+    }
+
+    public void testReplayVimScrolling() {
+        replay("vim scrolling", vimScrolling(new Random(3), 20000));
+    }
+
+    public void testReplayHtopRefresh() {
+        replay("htop refresh", htopRefresh(new Random(4), 500));
+    }
+
+    public void testReplayCjkEmojiLog() {
+        replay("CJK and emoji log", cjkEmojiLog(new Random(5), 20000));
+    }
+
+    public void testReplaySixel() {
+        replay("sixel images", sixel(20));
+    }
+}
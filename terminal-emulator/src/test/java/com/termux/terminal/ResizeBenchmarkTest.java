@@ -0,0 +1,69 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Microbenchmark of resizing the columns of a buffer with a full transcript of {@link #TRANSCRIPT_ROWS} rows, which
+ * reflows the screen at once and the rest of the transcript in batches with
+ * {@link TerminalEmulator#reflowTranscriptRows(int)}.
+ */
+public class ResizeBenchmarkTest extends TestCase {
+
+    private static final int TRANSCRIPT_ROWS = 10000;
+
+    private static final int ROWS = 40;
+
+    /** The rows reflowed at once by a session after a resize. */
+    private static final int REFLOW_BATCH_ROWS = 1000;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    private static TerminalEmulator fullTranscript(String line) {
+        TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, 80, ROWS, 10, 20, TRANSCRIPT_ROWS, null);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < TRANSCRIPT_ROWS; i++) output.append(i).append(' ').append(line).append("\r\n");
+        byte[] input = output.toString().getBytes(StandardCharsets.UTF_8);
+        emulator.append(input, input.length);
+        assertEquals(TRANSCRIPT_ROWS, emulator.getScreen().getActiveRows());
+        return emulator;
+    }
+
+    private void benchmark(String name, String line) {
+        long bestResize = Long.MAX_VALUE, bestBatch = Long.MAX_VALUE, bestTotal = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            TerminalEmulator emulator = fullTranscript(line);
+            long start = System.nanoTime();
+            emulator.resize(60, ROWS, 10, 20);
+            final long resized = System.nanoTime();
+            long maxBatch = 0;
+            while (true) {
+                final long batchStart = System.nanoTime();
+                final boolean more = emulator.reflowTranscriptRows(REFLOW_BATCH_ROWS);
+                maxBatch = Math.max(maxBatch, System.nanoTime() - batchStart);
+                if (!more)
+                    break;
+            }
+            final long end = System.nanoTime();
+            assertTrue(emulator.getScreen().getActiveRows() > TRANSCRIPT_ROWS / 2);
+            if (round >= WARMUP_ROUNDS) {
+                bestResize = Math.min(bestResize, resized - start);
+                bestBatch = Math.min(bestBatch, maxBatch);
+                bestTotal = Math.min(bestTotal, end - start);
+            }
+        }
+        System.out.println(String.format("ResizeBenchmarkTest: %s %d rows from 80 to 60 columns, screen %.1f ms, transcript batches of %d rows max %.1f ms, total %.1f ms",
+            name, TRANSCRIPT_ROWS, bestResize / 1e6, REFLOW_BATCH_ROWS, bestBatch / 1e6, bestTotal / 1e6));
+        // The resize itself only reflows the screen, the transcript is left to the batches.
+        assertTrue(name + ": screen reflow not faster than the whole transcript", bestResize < bestTotal / 2);
+    }
+
+    public void testResizeColumns() {
+        benchmark("ascii lines", "the quick brown fox jumps over the lazy dog");
+        benchmark("wrapped ascii lines", "the quick brown fox jumps over the lazy dog, the quick brown fox jumps over the lazy dog");
+        benchmark("wide char lines", "中文 the quick brown fox 😀 jumps over the lazy dog");
+    }
+}
@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.nio.charset.StandardCharsets;
+
 public class ResizeTest extends TerminalTestCase {
 
 	public void testResizeWhenHasHistory() {
@@ -209,4 +211,88 @@ public class ResizeTest extends TerminalTestCase {
 		resize(5, rows).assertLinesAre("ＱＲ ", "     ", "     ", "     ");
 	}
 
+	/**
+	 * Output colored lines of different lengths with wide chars and blank lines, which fill more transcript rows than
+	 * {@link TerminalBuffer#DEFERRED_REFLOW_MIN_ROWS} so that a resize leaves most of them to be reflowed later.
+	 */
+	private static TerminalEmulator withTranscript(int columns, int transcriptRows) {
+		TerminalEmulator emulator = new TerminalEmulator(new MockTerminalOutput(), false, columns, 10, 10, 20, transcriptRows, null);
+		StringBuilder output = new StringBuilder();
+		for (int i = 0; i < 1200; i++) {
+			if (i % 11 == 0)
+				output.append("中文 ");
+			output.append("\033[3").append(i % 8).append('m').append(i).append("\033[0m");
+			for (int j = 0; j < i % 7; j++) output.append(" word").append(j);
+			output.append("\r\n");
+			if (i % 13 == 0)
+				output.append("\r\n\r\n");
+		}
+		output.append("$ ");
+		byte[] input = output.toString().getBytes(StandardCharsets.UTF_8);
+		emulator.append(input, input.length);
+		return emulator;
+	}
+
+	private static void assertSameRows(TerminalEmulator expected, TerminalEmulator actual, int fromRow) {
+		TerminalBuffer expectedScreen = expected.getScreen(), actualScreen = actual.getScreen();
+		assertEquals(expected.mColumns, actual.mColumns);
+		for (int row = fromRow; row < expected.mRows; row++) {
+			TerminalRow expectedRow = expectedScreen.allocateFullLineIfNecessary(expectedScreen.externalToInternalRow(row));
+			TerminalRow actualRow = actualScreen.allocateFullLineIfNecessary(actualScreen.externalToInternalRow(row));
+			assertEquals("row " + row, new String(expectedRow.mText, 0, expectedRow.getSpaceUsed()), new String(actualRow.mText, 0, actualRow.getSpaceUsed()));
+			assertEquals("row " + row, expectedRow.mLineWrap, actualRow.mLineWrap);
+			for (int column = 0; column < expected.mColumns; column++)
+				assertEquals("row " + row + ", column " + column, expectedRow.getStyle(column), actualRow.getStyle(column));
+		}
+		assertEquals(expected.getCursorRow(), actual.getCursorRow());
+		assertEquals(expected.getCursorCol(), actual.getCursorCol());
+	}
+
+	private static void assertReflowedLikeOutput(int fromColumns, int toColumns, int transcriptRows) {
+		TerminalEmulator resized = withTranscript(fromColumns, transcriptRows);
+		TerminalEmulator expected = withTranscript(toColumns, transcriptRows);
+		// Nothing was dropped from the transcript before resizing.
+		assertTrue(resized.getScreen().getActiveTranscriptRows() < transcriptRows - 10);
+		resized.compactTranscriptRows(Integer.MAX_VALUE);
+		resized.resize(toColumns, 10, 10, 20);
+		// The screen is reflowed at once and the transcript later.
+		assertSameRows(expected, resized, 0);
+		assertTrue(resized.getScreen().getActiveTranscriptRows() < TerminalBuffer.DEFERRED_REFLOW_MIN_ROWS);
+		int batches = 0;
+		while (resized.reflowTranscriptRows(100)) batches++;
+		assertTrue(batches > 10);
+		assertEquals(expected.getScreen().getActiveTranscriptRows(), resized.getScreen().getActiveTranscriptRows());
+		assertSameRows(expected, resized, -expected.getScreen().getActiveTranscriptRows());
+	}
+
+	public void testDeferredReflowWhenShrinking() {
+		// Overflows the transcript when reflowed, so that the oldest rows are dropped.
+		assertReflowedLikeOutput(30, 20, 2000);
+	}
+
+	public void testDeferredReflowWhenGrowing() {
+		assertReflowedLikeOutput(20, 30, 3000);
+	}
+
+	public void testResizeWhileReflowPending() {
+		TerminalEmulator resized = withTranscript(30, 3000);
+		resized.resize(20, 10, 10, 20);
+		resized.resize(25, 10, 10, 20);
+		TerminalEmulator expected = withTranscript(25, 3000);
+		assertSameRows(expected, resized, 0);
+		// Getting the transcript text reflows the rest of it.
+		assertEquals(expected.getScreen().getTranscriptText(), resized.getScreen().getTranscriptText());
+		assertFalse(resized.reflowTranscriptRows(100));
+		assertSameRows(expected, resized, -expected.getScreen().getActiveTranscriptRows());
+	}
+
+	public void testResetWhileReflowPending() {
+		TerminalEmulator resized = withTranscript(30, 3000);
+		resized.resize(20, 10, 10, 20);
+		byte[] reset = "\033c".getBytes(StandardCharsets.UTF_8);
+		resized.append(reset, reset.length);
+		assertFalse(resized.reflowTranscriptRows(100));
+		assertEquals(0, resized.getScreen().getActiveTranscriptRows());
+	}
+
 }
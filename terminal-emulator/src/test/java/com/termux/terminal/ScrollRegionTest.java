@@ -109,6 +109,14 @@ public class ScrollRegionTest extends TerminalTestCase {
 		enterString("\033[3r").enterString("\033[2T").assertLinesAre("1 ", "2 ", "  ", "  ", "3 ");
 	}
 
+	public void testInsertAndDeleteLinesMoveLineWrap() {
+		// The rows are moved with their line wrap, instead of their cells being copied to rows keeping theirs.
+		withTerminalSized(3, 4).enterString("ABCDEF\r\nGHI").assertLineWraps(true, false, false, false);
+		enterString("\033[1;1H\033[L").assertLinesAre("   ", "ABC", "DEF", "GHI").assertLineWraps(false, true, false, false);
+		enterString("\033[M").assertLinesAre("ABC", "DEF", "GHI", "   ").assertLineWraps(true, false, false, false);
+		enterString("\033[2;4r\033[2T").assertLinesAre("ABC", "   ", "   ", "DEF").assertLineWraps(true, false, false, false);
+	}
+
 	public void testScrollDownBelowScrollRegion() {
 		withTerminalSized(2, 5).enterString("1\r\n2\r\n3\r\n4\r\n5").assertLinesAre("1 ", "2 ", "3 ", "4 ", "5 ");
 		enterString("\033[1;3r"); // DECSTBM margins.
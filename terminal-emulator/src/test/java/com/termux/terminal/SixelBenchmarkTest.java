@@ -0,0 +1,91 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark of replaying sixel images in the form written by img2sixel: a raster attributes header, a palette of
+ * color registers and per band of six pixel rows one run length encoded line for each color used in the band, separated
+ * by graphics carriage returns.
+ */
+public class SixelBenchmarkTest extends TestCase {
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    /** Encode an image of the given size with a palette of {@code colors} registers, like img2sixel does. */
+    static String img2sixel(int width, int height, int colors) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Diagonal bands with some noise, for runs of varying lengths.
+                pixels[y * width + x] = ((x + y) / 24 + ((x * 7 + y * 13) % 29 == 0 ? 1 : 0)) % colors;
+            }
+        }
+        StringBuilder sixel = new StringBuilder("\033Pq\"1;1;" + width + ";" + height);
+        for (int color = 0; color < colors; color++) {
+            sixel.append('#').append(color).append(";2;").append(color * 100 / colors).append(';')
+                .append(100 - color * 100 / colors).append(';').append(color * 37 % 101);
+        }
+        for (int band = 0; band < height; band += 6) {
+            boolean first = true;
+            for (int color = 0; color < colors; color++) {
+                int runChar = -1, runLength = 0;
+                StringBuilder line = new StringBuilder();
+                boolean used = false;
+                for (int x = 0; x < width; x++) {
+                    int bits = 0;
+                    for (int i = 0; i < 6 && band + i < height; i++)
+                        if (pixels[(band + i) * width + x] == color) bits |= 1 << i;
+                    used |= bits != 0;
+                    int c = '?' + bits;
+                    if (c == runChar) {
+                        runLength++;
+                    } else {
+                        appendRun(line, runChar, runLength);
+                        runChar = c;
+                        runLength = 1;
+                    }
+                }
+                if (!used)
+                    continue;
+                appendRun(line, runChar, runLength);
+                if (!first)
+                    sixel.append('$');
+                first = false;
+                sixel.append('#').append(color).append(line);
+            }
+            sixel.append('-');
+        }
+        return sixel.append("\033\\").toString();
+    }
+
+    private static void appendRun(StringBuilder line, int c, int length) {
+        if (length == 0)
+            return;
+        if (length > 3)
+            line.append('!').append(length).append((char) c);
+        else
+            for (int i = 0; i < length; i++) line.append((char) c);
+    }
+
+    public void testReplayImg2sixelOutput() {
+        byte[] image = img2sixel(800, 480, 16).getBytes(StandardCharsets.UTF_8);
+        final int images = 20;
+        TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, 120, 40, 10, 20, 1000, null);
+        emulator.setCellSize(10, 20);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < images; i++) emulator.append(image, image.length);
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS)
+                best = Math.min(best, elapsed);
+        }
+        System.out.println(String.format("SixelBenchmarkTest: 800x480 image of %d bytes %.2f ms/image, %.1f MB/s",
+            image.length, best / 1e6 / images, (double) image.length * images * 1000 / best));
+        assertTrue("below 1 MB/s", (double) image.length * images * 1000 / best >= 1);
+    }
+}
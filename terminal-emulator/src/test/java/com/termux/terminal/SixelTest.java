@@ -0,0 +1,68 @@
+package com.termux.terminal;
+
+/**
+ * Sixel images, "ESC P q DATA ESC \", see https://vt100.net/docs/vt3xx-gp/chapter14.html.
+ */
+public class SixelTest extends TerminalTestCase {
+
+    private static final int RED = 0xFFFF0000;
+
+    /**
+     * Enter the data of a sixel image and return the framebuffer it was drawn to, which stays readable after the
+     * image has been placed on the screen.
+     */
+    private WorkingTerminalBitmap enterSixel(String data) {
+        enterString("\033Pq" + data);
+        WorkingTerminalBitmap image = mTerminal.getScreen().workingBitmap;
+        assertNotNull(image);
+        enterString("\033\\");
+        assertNull(mTerminal.getScreen().workingBitmap);
+        return image;
+    }
+
+    public void testSixelImage() {
+        withTerminalSized(5, 5);
+        mTerminal.setCellSize(10, 10);
+        // 5 red pixels in all six rows, then 1 in the first row of the next band.
+        WorkingTerminalBitmap image = enterSixel("\"1;1;6;12#1;2;100;0;0!5~-@");
+        assertEquals(RED, image.getPixel(0, 0));
+        assertEquals(RED, image.getPixel(4, 5));
+        assertEquals(0, image.getPixel(5, 0));
+        assertEquals(RED, image.getPixel(0, 6));
+        assertEquals(0, image.getPixel(0, 7));
+        assertEquals(0, image.getPixel(1, 6));
+    }
+
+    public void testColorRegisters() {
+        withTerminalSized(5, 5);
+        mTerminal.setCellSize(10, 10);
+        // Define two colors, then select the first again by number after a graphics carriage return.
+        WorkingTerminalBitmap image = enterSixel("#1;2;100;0;0#2;2;0;0;100@$#1?@");
+        assertEquals(0xFF0000FF, image.getPixel(0, 0));
+        assertEquals(RED, image.getPixel(1, 0));
+    }
+
+    public void testImageGrowsBeyondInitialSize() {
+        WorkingTerminalBitmap sixel = new WorkingTerminalBitmap(100, 100);
+        sixel.sixelSetColor(1, 100, 0, 0);
+        for (int band = 0; band < 50; band++) {
+            sixel.sixelChar('~', 150 + band);
+            sixel.sixelChar('-', 1);
+        }
+        assertEquals(199, sixel.width);
+        assertEquals(300, sixel.height);
+        assertEquals(RED, sixel.getPixel(198, 299));
+        assertEquals(RED, sixel.getPixel(149, 0));
+        assertEquals(0, sixel.getPixel(150, 0));
+        // Pixels beyond the max size are dropped.
+        sixel.sixelChar('~', WorkingTerminalBitmap.MAX_SIZE + 10);
+        assertEquals(WorkingTerminalBitmap.MAX_SIZE, sixel.width);
+    }
+
+    public void testNotSixel() {
+        // DECRQSS is still answered after a sixel image.
+        withTerminalSized(5, 5).enterString("\033Pq~\033\\");
+        assertEnteringStringGivesResponse("\033P$q\"p\033\\", "\033P1$r64;1\"p\033\\");
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.termux.terminal;
+
+/**
+ * Tests for the reference counting and eviction of images in a {@link TerminalBitmapStore}.
+ */
+public class TerminalBitmapStoreTest extends TerminalTestCase {
+
+    private TerminalBitmapStore store() {
+        return mTerminal.getScreen().mBitmapStore;
+    }
+
+    private TerminalBitmap imageAt(int row, int column) {
+        long style = mTerminal.getScreen().getStyleAt(row, column);
+        assertTrue(TextStyle.isBitmap(style));
+        return store().get(TextStyle.bitmapNum(style));
+    }
+
+    private void withImageTerminal(int columns, int rows) {
+        withTerminalSized(columns, rows);
+        mTerminal.setCellSize(10, 10);
+    }
+
+    /**
+     * Place an image of {@code rows} rows of one cell at the cursor and move the cursor below it, like a sixel image
+     * does. The image has no bitmap, since bitmaps cannot be created in unit tests.
+     */
+    private TerminalBitmap placeImage(int rows) {
+        TerminalBuffer screen = mTerminal.getScreen();
+        int num = store().nextNum();
+        TerminalBitmap image = new TerminalBitmap(num, 5, rows * 10 - 4, mTerminal.getCursorRow(), mTerminal.getCursorCol(), 10, 10, screen);
+        screen.addBitmap(num, image);
+        for (int i = 0; i < image.scrollLines; i++) enterString("\n");
+        return image;
+    }
+
+    private void enterLines(int lines) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) builder.append("\r\n");
+        enterString(builder.toString());
+    }
+
+    public void testImageRemovedWhenScrolledOut() {
+        withImageTerminal(5, 3);
+        placeImage(2);
+        assertEquals(1, mTerminal.getImageCount());
+        assertEquals(800, mTerminal.getImageCacheBytes());
+        TerminalBitmap image = imageAt(0, 0);
+        assertEquals(2, image.references);
+
+        // Still in the transcript.
+        enterLines(10);
+        assertEquals(1, mTerminal.getImageCount());
+
+        enterLines(TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS);
+        assertEquals(0, mTerminal.getImageCount());
+        assertEquals(0, mTerminal.getImageCacheBytes());
+        assertTrue(image.evicted);
+    }
+
+    public void testImageRemovedWhenCleared() {
+        withImageTerminal(5, 3);
+        placeImage(2);
+        TerminalBitmap image = imageAt(1, 0);
+        // Erasing one of the rows of the image keeps it.
+        enterString("\033[1;1H\033[2K");
+        assertEquals(1, mTerminal.getImageCount());
+        assertEquals(1, image.references);
+        assertFalse(image.evicted);
+        assertSame(image, imageAt(1, 0));
+
+        enterString("\033[2J");
+        assertEquals(0, mTerminal.getImageCount());
+        assertTrue(image.evicted);
+    }
+
+    public void testImageCopiedByScrollRegion() {
+        withImageTerminal(5, 4);
+        placeImage(1);
+        TerminalBitmap image = imageAt(0, 0);
+        // Insert a line above the image, which moves it down.
+        enterString("\033[1;1H\033[L");
+        assertSame(image, imageAt(1, 0));
+        assertEquals(1, mTerminal.getImageCount());
+        assertEquals(1, image.references);
+        // Delete the line of the image.
+        enterString("\033[2;1H\033[M");
+        assertEquals(0, mTerminal.getImageCount());
+    }
+
+    public void testImagesKeptOnResizeAndClearTranscript() {
+        withImageTerminal(5, 3);
+        placeImage(1);
+        placeImage(2);
+        assertEquals(2, mTerminal.getImageCount());
+        mTerminal.resize(3, 6, 10, 10);
+        assertEquals(2, mTerminal.getImageCount());
+        mTerminal.resize(8, 2, 10, 10);
+        assertEquals(2, mTerminal.getImageCount());
+
+        enterLines(2);
+        assertTrue(mTerminal.getScreen().getActiveTranscriptRows() > 0);
+        mTerminal.getScreen().clearTranscript();
+        enterString("\033[2J");
+        assertEquals(0, mTerminal.getImageCount());
+    }
+
+    public void testImagesOffScreenEvictedOverBudget() {
+        withImageTerminal(5, 3);
+        store().setBudget(1000);
+        placeImage(1);
+        TerminalBitmap first = imageAt(0, 0);
+        enterLines(3);
+        placeImage(1);
+        assertFalse(first.evicted);
+        // The first image is in the transcript, so its bitmap is evicted for the third one.
+        placeImage(1);
+        assertTrue(first.evicted);
+        assertEquals(3, mTerminal.getImageCount());
+        assertEquals(800, mTerminal.getImageCacheBytes());
+
+        // Images on screen are kept when trimming.
+        enterString("\r\n");
+        mTerminal.trimImageCache(0);
+        assertEquals(400, mTerminal.getImageCacheBytes());
+        assertFalse(imageAt(0, 0).evicted);
+    }
+
+    public void testNumbersNotReusedSoon() {
+        withImageTerminal(5, 3);
+        placeImage(1);
+        int first = TextStyle.bitmapNum(mTerminal.getScreen().getStyleAt(0, 0));
+        enterString("\033[2J\033[1;1H");
+        placeImage(1);
+        assertEquals(1, mTerminal.getImageCount());
+        assertFalse(first == TextStyle.bitmapNum(mTerminal.getScreen().getStyleAt(0, 0)));
+    }
+
+}
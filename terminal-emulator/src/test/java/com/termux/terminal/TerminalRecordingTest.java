@@ -0,0 +1,98 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tests for recording output with {@link TerminalRecorder} and playing it back headless with
+ * {@link TerminalRecording#play(TerminalEmulator)}, which must give the same screen as appending the output directly.
+ */
+public class TerminalRecordingTest extends TerminalTestCase {
+
+    private static TerminalRecording read(String recording) throws IOException {
+        return TerminalRecording.read(new StringReader(recording));
+    }
+
+    private static TerminalEmulator play(TerminalRecording recording) {
+        TerminalEmulator emulator = new TerminalEmulator(new MockTerminalOutput(), false, recording.getColumns(), recording.getRows(),
+            INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, recording.getRows() * 2, null);
+        recording.play(emulator);
+        return emulator;
+    }
+
+    private static void assertSameScreen(TerminalEmulator expected, TerminalEmulator actual) {
+        assertEquals(expected.mColumns, actual.mColumns);
+        assertEquals(expected.mRows, actual.mRows);
+        assertEquals(expected.getScreen().getTranscriptText(), actual.getScreen().getTranscriptText());
+        assertEquals(expected.getCursorRow(), actual.getCursorRow());
+        assertEquals(expected.getCursorCol(), actual.getCursorCol());
+        for (int row = 0; row < expected.mRows; row++)
+            for (int column = 0; column < expected.mColumns; column++)
+                assertEquals(expected.getScreen().getStyleAt(row, column), actual.getScreen().getStyleAt(row, column));
+    }
+
+    public void testRecordAndPlay() throws IOException {
+        final byte[] output = "\033[1;31mred\033[0m \"quoted\" back\\slash\ttab\r\n中文 😀 wide\r\n\033]0;title\007\033[2;3Hmoved\r\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TerminalRecorder recorder = new TerminalRecorder(out, 10, 4);
+        withTerminalSized(10, 4);
+        // Split the output in reads of 3 bytes, which splits code points of the wide chars.
+        for (int offset = 0; offset < output.length; offset += 3) {
+            final int length = Math.min(3, output.length - offset);
+            recorder.recordOutput(output, offset, length);
+            mTerminal.append(Arrays.copyOfRange(output, offset, offset + length), length);
+        }
+        recorder.recordResize(7, 3);
+        resize(7, 3);
+        recorder.close();
+
+        TerminalRecording recording = read(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(10, recording.getColumns());
+        assertEquals(4, recording.getRows());
+        assertEquals(output.length, recording.getOutputBytes());
+        assertSameScreen(mTerminal, play(recording));
+    }
+
+    public void testMalformedOutputIsReplaced() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TerminalRecorder recorder = new TerminalRecorder(out, 5, 2);
+        recorder.recordOutput(new byte[]{'a', (byte) 0xff, 'b'}, 0, 3);
+        recorder.close();
+        withTerminalSized(5, 2).enterString("a�b");
+        assertSameScreen(mTerminal, play(read(new String(out.toByteArray(), StandardCharsets.UTF_8))));
+    }
+
+    public void testReadAsciicast() throws IOException {
+        TerminalRecording recording = read("{\"version\": 2, \"width\": 6, \"height\": 3, \"timestamp\": 1504467315, \"title\": \"Demo\"}\n" +
+            "[0.248848, \"o\", \"\\u001b[1mhi\\u001b[m\\r\\n\"]\n" +
+            "[1.001376, \"i\", \"ignored input\"]\n" +
+            "\n" +
+            "[1.5, \"r\", \"4x3\"]\n" +
+            "[2.5, \"m\", \"marker\"]\n" +
+            "[3.25, \"o\", \"\\\"x\\/y\\\"\"]\n");
+        assertEquals(6, recording.getColumns());
+        assertEquals(3, recording.getRows());
+        assertEquals(3, recording.getEventCount());
+        assertEquals(3250000000L, recording.getDurationNanos());
+        TerminalEmulator emulator = play(recording);
+        assertEquals(4, emulator.mColumns);
+        assertEquals("hi\n\"x/y\"", emulator.getScreen().getTranscriptText());
+    }
+
+    public void testReadInvalid() {
+        String[] invalid = {"", "[0.1, \"o\", \"x\"]\n", "{\"version\": 2}\n",
+            "{\"version\": 2, \"width\": 6, \"height\": 3}\n[0.1, \"o\", \"unterminated]\n",
+            "{\"version\": 2, \"width\": 6, \"height\": 3}\n[0.1, \"r\", \"wide\"]\n"};
+        for (String recording : invalid) {
+            try {
+                read(recording);
+                fail("Read invalid recording: " + recording);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+}
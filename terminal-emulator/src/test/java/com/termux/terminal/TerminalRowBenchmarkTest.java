@@ -0,0 +1,59 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Microbenchmark of filling rows with wide characters, for which {@link TerminalRow} has to map columns to indices in
+ * {@link TerminalRow#mText} on every {@link TerminalRow#setChar(int, int, long)}.
+ */
+public class TerminalRowBenchmarkTest extends TestCase {
+
+    private static final int COLUMNS = 200;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    /** A limit far above the time of a row on any device, to catch setChar() going quadratic in the columns again. */
+    private static final double MAX_MICROS_PER_ROW = 200;
+
+    public void testFillRowsWithWideChars() {
+        final int rows = 2000;
+        TerminalRow row = new TerminalRow(COLUMNS, 0);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                row.clear(0);
+                for (int column = 0; column < COLUMNS; column += 2) row.setChar(column, 0x4E00 + column, 0);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS)
+                best = Math.min(best, elapsed);
+        }
+        System.out.println(String.format("TerminalRowBenchmarkTest: setChar() wide row of %d columns %.1f us/row", COLUMNS, best / 1000.0 / rows));
+        assertTrue("above " + MAX_MICROS_PER_ROW + " us/row", best / 1000.0 / rows < MAX_MICROS_PER_ROW);
+    }
+
+    public void testEmulatorWithFullWidthLines() {
+        StringBuilder line = new StringBuilder();
+        for (int column = 0; column < COLUMNS; column += 2) line.append((char) (0x4E00 + column));
+        line.append("\r\n");
+        byte[] input = line.toString().getBytes(StandardCharsets.UTF_8);
+        final int lines = 2000;
+
+        TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, COLUMNS, 50, 10, 20, 1000, null);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < lines; i++) emulator.append(input, input.length);
+            long elapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS)
+                best = Math.min(best, elapsed);
+        }
+        System.out.println(String.format("TerminalRowBenchmarkTest: emulator full width lines of %d columns %.1f us/line", COLUMNS, best / 1000.0 / lines));
+        assertTrue("above " + MAX_MICROS_PER_ROW + " us/line", best / 1000.0 / lines < MAX_MICROS_PER_ROW);
+    }
+}
@@ -413,4 +413,60 @@ public class TerminalRowTest extends TestCase {
         // assertEquals('Z', line.mText[line.findStartOfColumn(COLUMNS - 2)]);
         // assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
     }
+
+    public void testVersionChangesOnWrites() {
+        int version = row.getVersion();
+        row.setChar(0, 'a', 0);
+        assertTrue(row.getVersion() != version);
+        version = row.getVersion();
+        row.setChars(1, new byte[] { 'b', 'c' }, 0, 2, 0);
+        assertTrue(row.getVersion() != version);
+        version = row.getVersion();
+        row.clear(0);
+        assertTrue(row.getVersion() != version);
+        version = row.getVersion();
+        row.getStyle(0);
+        row.findStartOfColumn(1);
+        assertEquals(version, row.getVersion());
+    }
+
+    public void testFindStartOfColumnMatchesScanAfterRandomWrites() {
+        final int[] codePoints = { 'a', 'Z', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2,
+            TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, DIARESIS_CODEPOINT, 0xFE0F };
+        Random random = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            if (i % 300 == 0)
+                row.clear(0);
+            int codePoint = codePoints[random.nextInt(codePoints.length)];
+            int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+            row.setChar(column, codePoint, 0);
+            // Query a random prefix of columns in order to also check continuing partially valid column starts.
+            int queriedColumns = random.nextInt(COLUMNS + 1);
+            for (int c = 0; c < queriedColumns; c++)
+                assertEquals("column " + c + " after write " + i, scanForStartOfColumn(row, c), row.findStartOfColumn(c));
+        }
+    }
+
+    /** The scan done by {@link TerminalRow#findStartOfColumn(int)} without cached column starts. */
+    private static int scanForStartOfColumn(TerminalRow row, int column) {
+        int currentColumn = 0;
+        int currentCharIndex = 0;
+        while (true) {
+            int newCharIndex = currentCharIndex;
+            char c = row.mText[newCharIndex++];
+            int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, row.mText[newCharIndex++]) : c;
+            int wcwidth = WcWidth.width(codePoint);
+            if (wcwidth > 0) {
+                currentColumn += wcwidth;
+                if (currentColumn == column) {
+                    while (newCharIndex < row.getSpaceUsed() && WcWidth.width(row.mText, newCharIndex) <= 0)
+                        newCharIndex += Character.isHighSurrogate(row.mText[newCharIndex]) ? 2 : 1;
+                    return newCharIndex;
+                } else if (currentColumn > column) {
+                    return currentCharIndex;
+                }
+            }
+            currentCharIndex = newCharIndex;
+        }
+    }
 }
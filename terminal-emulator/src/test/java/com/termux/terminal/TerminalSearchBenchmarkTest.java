@@ -0,0 +1,60 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Microbenchmark of {@link TerminalSearch} in a full transcript of {@link TerminalEmulator#TERMINAL_TRANSCRIPT_ROWS_MAX}
+ * rows, compared to searching the String of {@link TerminalBuffer#getTranscriptText()}.
+ */
+public class TerminalSearchBenchmarkTest extends TestCase {
+
+    private static final int COLUMNS = 80;
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    private TerminalEmulator fullTranscript() {
+        final int rows = 40;
+        TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, COLUMNS, rows, 10, 20, TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX, null);
+        // The only match is in the oldest transcript row, and the other lines contain all of its letters and digits.
+        StringBuilder output = new StringBuilder("the needle #1\r\n");
+        for (int line = 0; line < TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX - 2; line++)
+            output.append("line ").append(line).append(": the quick brown fox jumps over the lazy dog, needs and edles\r\n");
+        byte[] input = output.toString().getBytes(StandardCharsets.UTF_8);
+        emulator.append(input, input.length);
+        assertEquals(TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX, emulator.getScreen().getActiveRows());
+        return emulator;
+    }
+
+    private void benchmark(String name, TerminalEmulator emulator, String query) {
+        TerminalBuffer screen = emulator.getScreen();
+        long best = Long.MAX_VALUE, bestTranscriptText = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            TerminalSearch search = new TerminalSearch(query, false, false);
+            assertTrue(search.find(screen, emulator.mRows, 0, false));
+            assertEquals(-screen.getActiveTranscriptRows(), search.getMatchStartRow());
+            long elapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertTrue(screen.getTranscriptText().lastIndexOf(query) < COLUMNS);
+            long elapsedTranscriptText = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                best = Math.min(best, elapsed);
+                bestTranscriptText = Math.min(bestTranscriptText, elapsedTranscriptText);
+            }
+        }
+        System.out.println(String.format("TerminalSearchBenchmarkTest: %s in %d rows %.1f ms, getTranscriptText() %.1f ms", name, screen.getActiveRows(), best / 1e6, bestTranscriptText / 1e6));
+    }
+
+    public void testFindOldestMatch() {
+        TerminalEmulator emulator = fullTranscript();
+        benchmark("rare letters", emulator, "the needle");
+        benchmark("common letters", emulator, "needle");
+        // Skips the other lines by their search masks.
+        benchmark("rare chars", emulator, "needle #1");
+    }
+}
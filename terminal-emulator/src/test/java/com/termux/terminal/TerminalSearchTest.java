@@ -0,0 +1,90 @@
+package com.termux.terminal;
+
+public class TerminalSearchTest extends TerminalTestCase {
+
+    private TerminalSearch mSearch;
+
+    private void assertFound(int row, int column, boolean forward, int startRow, int startColumn, int endRow, int endColumn) {
+        assertTrue(mSearch.find(mTerminal.getScreen(), row, column, forward));
+        assertEquals(startRow, mSearch.getMatchStartRow());
+        assertEquals(startColumn, mSearch.getMatchStartColumn());
+        assertEquals(endRow, mSearch.getMatchEndRow());
+        assertEquals(endColumn, mSearch.getMatchEndColumn());
+    }
+
+    private void assertNotFound(int row, int column, boolean forward) {
+        assertFalse(mSearch.find(mTerminal.getScreen(), row, column, forward));
+    }
+
+    public void testFindNextAndPrevious() {
+        withTerminalSized(10, 3).enterString("foo bar\r\nbaz foo\r\nx\r\nfoo\r\nend");
+        assertLinesAre("x         ", "foo       ", "end       ");
+        mSearch = new TerminalSearch("foo", false, false);
+        // Backward from the end of the screen, like searching from the latest output.
+        assertFound(2, 10, false, 1, 0, 1, 2);
+        assertFound(1, -1, false, -1, 4, -1, 6);
+        assertFound(-1, 3, false, -2, 0, -2, 2);
+        assertNotFound(-2, -1, false);
+        // Forward from the start of the transcript.
+        assertFound(-100, 0, true, -2, 0, -2, 2);
+        assertFound(-2, 1, true, -1, 4, -1, 6);
+        assertFound(-1, 5, true, 1, 0, 1, 2);
+        assertNotFound(1, 1, true);
+    }
+
+    public void testIgnoreCase() {
+        withTerminalSized(10, 3).enterString("Foo FOO\r\nfoo");
+        mSearch = new TerminalSearch("foo", false, false);
+        assertFound(-1, 0, true, 1, 0, 1, 2);
+        mSearch = new TerminalSearch("foo", false, true);
+        assertFound(-1, 0, true, 0, 0, 0, 2);
+        assertFound(0, 1, true, 0, 4, 0, 6);
+        mSearch = new TerminalSearch("ÄÖ", false, true);
+        enterString("\r\näö");
+        assertFound(0, 0, true, 2, 0, 2, 1);
+    }
+
+    public void testMatchAcrossWrappedRows() {
+        withTerminalSized(5, 3).enterString("abcdefgh");
+        assertLinesAre("abcde", "fgh  ", "     ");
+        mSearch = new TerminalSearch("def", false, false);
+        assertFound(0, 0, true, 0, 3, 1, 0);
+        mSearch = new TerminalSearch("^fgh", true, false);
+        assertNotFound(0, 0, true);
+    }
+
+    public void testRegex() {
+        withTerminalSized(12, 3).enterString("id=12 id=345\r\nnone");
+        mSearch = new TerminalSearch("id=[0-9]+", true, false);
+        assertFound(0, 0, true, 0, 0, 0, 4);
+        assertFound(0, 1, true, 0, 6, 0, 11);
+        assertFound(2, 0, false, 0, 6, 0, 11);
+        assertFound(0, 5, false, 0, 0, 0, 4);
+        // Empty matches are skipped.
+        mSearch = new TerminalSearch("x*", true, false);
+        assertNotFound(0, 0, true);
+    }
+
+    public void testWideAndCombiningChars() {
+        withTerminalSized(10, 3).enterString("a中文b éx 😀!");
+        mSearch = new TerminalSearch("文b", false, false);
+        assertFound(0, 0, true, 0, 3, 0, 5);
+        mSearch = new TerminalSearch("éx", false, false);
+        assertFound(0, 0, true, 0, 7, 0, 8);
+        enterString("\r\n😀!");
+        mSearch = new TerminalSearch("😀", false, false);
+        assertFound(1, 0, true, 1, 0, 1, 1);
+    }
+
+    public void testSearchMaskFollowsChanges() {
+        withTerminalSized(5, 2).enterString("abc\r\n\r\n");
+        mSearch = new TerminalSearch("xyz", false, false);
+        assertNotFound(-1, 0, true);
+        // Change the transcript row after its mask was computed when scrolling it in.
+        mTerminal.getScreen().allocateFullLineIfNecessary(mTerminal.getScreen().externalToInternalRow(-1)).setChar(0, 'x', TextStyle.NORMAL);
+        mTerminal.getScreen().allocateFullLineIfNecessary(mTerminal.getScreen().externalToInternalRow(-1)).setChar(1, 'y', TextStyle.NORMAL);
+        mTerminal.getScreen().allocateFullLineIfNecessary(mTerminal.getScreen().externalToInternalRow(-1)).setChar(2, 'z', TextStyle.NORMAL);
+        assertFound(-1, 0, true, -1, 0, -1, 2);
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Tests for writing to the process of a {@link TerminalSession}, which must never block and must deliver every byte in
+ * order. The process is played by a thread running {@link TerminalSession#writeToProcess(java.io.OutputStream)} into a
+ * file, like {@code cat > file} reading from the pty.
+ */
+public class TerminalSessionWriteTest extends TestCase {
+
+    private TerminalSession mSession;
+
+    private Thread mCat;
+
+    @Override
+    protected void setUp() {
+        mSession = new TerminalSession("/bin/sh", "/", new String[0], new String[0], null, null);
+        // Pretend that the process was started, with the smallest queue so that large writes have to wait for space.
+        mSession.mShellPid = 1;
+        mSession.mTerminalToProcessIOQueue = new ByteQueue(TerminalSession.TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MIN);
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        mSession.mTerminalToProcessIOQueue.close();
+        if (mCat != null)
+            mCat.join(5000);
+    }
+
+    /** Start reading what is written to the session into a file. */
+    private void startCat(File file) {
+        mCat = new Thread(() -> {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                mSession.writeToProcess(out);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        mCat.start();
+    }
+
+    /** Wait until everything written to the session has been read, and stop reading. */
+    private void stopCat() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (mSession.getPendingWriteBytes() > 0 || mSession.mTerminalToProcessIOQueue.size() > 0) {
+            assertTrue("Timed out waiting for the writes to be read", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        mSession.mTerminalToProcessIOQueue.close();
+        mCat.join(5000);
+        assertFalse(mCat.isAlive());
+    }
+
+    public void testPasteOneMegabyte() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; text.length() < 1024 * 1024; line++)
+            text.append("echo line ").append(line).append(" 中文 😀 é \"quoted\" $HOME\n");
+        // The emulator writes to the session like its own, without the callbacks to a client the session would make.
+        TerminalOutput output = new TerminalTestCase.MockTerminalOutput() {
+            @Override
+            public void write(byte[] data, int offset, int count) {
+                mSession.write(data, offset, count);
+            }
+        };
+        TerminalEmulator emulator = new TerminalEmulator(output, false, 80, 24, 10, 20, 100, null);
+        byte[] bracketedPasteMode = "\033[?2004h".getBytes(StandardCharsets.UTF_8);
+        emulator.append(bracketedPasteMode, bracketedPasteMode.length);
+
+        // Pasting does not wait for the process to read, which has not started reading yet.
+        emulator.paste(text.toString());
+        assertTrue(mSession.getPendingWriteBytes() > 0);
+
+        File file = File.createTempFile("paste", null);
+        try {
+            startCat(file);
+            stopCat();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write("\033[200~".getBytes(StandardCharsets.UTF_8));
+            expected.write(text.toString().replace('\n', '\r').getBytes(StandardCharsets.UTF_8));
+            expected.write("\033[201~".getBytes(StandardCharsets.UTF_8));
+            byte[] delivered = Files.readAllBytes(file.toPath());
+            assertEquals(expected.size(), delivered.length);
+            assertTrue(Arrays.equals(expected.toByteArray(), delivered));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testWritesKeepTheirOrder() throws Exception {
+        File file = File.createTempFile("keys", null);
+        try {
+            startCat(file);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            byte[] chunk = new byte[3000];
+            for (int i = 0; i < 200; i++) {
+                // Large writes interleaved with typed code points, while the writes are being read.
+                Arrays.fill(chunk, (byte) ('a' + i % 26));
+                mSession.write(chunk, 0, chunk.length);
+                expected.write(chunk);
+                mSession.writeCodePoint(i % 2 == 0, 'é');
+                if (i % 2 == 0)
+                    expected.write(27);
+                expected.write("é".getBytes(StandardCharsets.UTF_8));
+            }
+            stopCat();
+            assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(file.toPath())));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testWritesBeyondMaxPendingBytesAreDropped() throws Exception {
+        mSession.mMaxPendingWriteBytes = 64 * 1024;
+        byte[] chunk = new byte[16 * 1024];
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        // The process does not read, so all but the first queue capacity of the writes are kept.
+        for (int i = 0; i < 4; i++) {
+            Arrays.fill(chunk, (byte) ('a' + i));
+            mSession.write(chunk, 0, chunk.length);
+            expected.write(chunk);
+        }
+        final long pending = mSession.getPendingWriteBytes();
+        assertEquals(4 * chunk.length - TerminalSession.TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MIN, pending);
+
+        // A write which does not fit is dropped as a whole, while smaller ones are still kept.
+        Arrays.fill(chunk, (byte) 'x');
+        mSession.write(chunk, 0, chunk.length);
+        assertEquals(pending, mSession.getPendingWriteBytes());
+        mSession.writeCodePoint(false, 'é');
+        expected.write("é".getBytes(StandardCharsets.UTF_8));
+
+        File file = File.createTempFile("dropped", null);
+        try {
+            startCat(file);
+            stopCat();
+            assertTrue(Arrays.equals(expected.toByteArray(), Files.readAllBytes(file.toPath())));
+        } finally {
+            file.delete();
+        }
+    }
+}
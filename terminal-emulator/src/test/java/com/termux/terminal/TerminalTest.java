@@ -136,6 +136,18 @@ public class TerminalTest extends TerminalTestCase {
 		assertEquals("hi", mOutput.getOutputAndClear());
 	}
 
+	public void testPasteFiltersControlCharacters() {
+		withTerminalSized(5, 5);
+		mTerminal.paste("a\033[31mb\u009bc\r\nd\ne\rf\r\033\ng\r");
+		assertEquals("a[31mbc\rd\re\rf\rg\r", mOutput.getOutputAndClear());
+
+		// Long pastes are written in chunks, which must not split the code points.
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 20000) text.append("abc 中文 😀 é\n");
+		mTerminal.paste(text.toString());
+		assertEquals(text.toString().replace('\n', '\r'), mOutput.getOutputAndClear());
+	}
+
 	public void testSelectGraphics() {
 		selectGraphicsTestRun(';');
 		selectGraphicsTestRun(':');
@@ -54,4 +54,33 @@ public class TextStyleTest extends TestCase {
         encoded = TextStyle.encode(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH | TextStyle.CHARACTER_ATTRIBUTE_PROTECTED);
         assertTrue((TextStyle.decodeEffect(encoded) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) != 0);
     }
+
+    public void testResolveColors() {
+        final int[] palette = new TerminalColors().mCurrentColors;
+        final int[] colors = new int[2];
+        TextStyle.resolveColors(TextStyle.NORMAL, palette, false, false, colors);
+        assertEquals(palette[TextStyle.COLOR_INDEX_FOREGROUND], colors[0]);
+        assertEquals(palette[TextStyle.COLOR_INDEX_BACKGROUND], colors[1]);
+
+        TextStyle.resolveColors(TextStyle.encode(196, 0xff123456, 0), palette, false, false, colors);
+        assertEquals(palette[196], colors[0]);
+        assertEquals(0xff123456, colors[1]);
+
+        // Bold is shown in the bright variant of the first 8 colors if enabled.
+        long bold = TextStyle.encode(1, 2, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+        TextStyle.resolveColors(bold, palette, false, false, colors);
+        assertEquals(palette[1], colors[0]);
+        TextStyle.resolveColors(bold, palette, true, false, colors);
+        assertEquals(palette[9], colors[0]);
+        assertEquals(palette[2], colors[1]);
+
+        // Dim applies to the color text is drawn with, after inverse and reverse video, which cancel out.
+        long inverseDim = TextStyle.encode(0xff9999ff, 0xff303030, TextStyle.CHARACTER_ATTRIBUTE_INVERSE | TextStyle.CHARACTER_ATTRIBUTE_DIM);
+        TextStyle.resolveColors(inverseDim, palette, false, false, colors);
+        assertEquals(0xff202020, colors[0]);
+        assertEquals(0xff9999ff, colors[1]);
+        TextStyle.resolveColors(inverseDim, palette, false, true, colors);
+        assertEquals(0xff6666aa, colors[0]);
+        assertEquals(0xff303030, colors[1]);
+    }
 }
@@ -0,0 +1,102 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for the compaction of transcript rows with {@link TerminalRow#compact()}, which must not change what the rows
+ * contain.
+ */
+public class TranscriptCompactionTest extends TerminalTestCase {
+
+    private static final String OUTPUT = "plain\r\n\033[1;31mred\033[0m and \033[44mblue\033[0m\r\n中文 wide 😀\r\n"
+        + "ä combining\r\nwrapping line which is longer than the screen\r\n\033[7mreverse\033[0m\r\n"
+        + "one\r\ntwo\r\nthree\r\nfour\r\nfive\r\n";
+
+    /** A terminal with {@link #OUTPUT} entered and all transcript rows compacted. */
+    private TerminalEmulator compactedTerminal(int columns, int rows) {
+        withTerminalSized(columns, rows).enterString(OUTPUT);
+        assertFalse(mTerminal.compactTranscriptRows(Integer.MAX_VALUE));
+        assertEquals(mTerminal.getScreen().getActiveTranscriptRows(), mTerminal.getCompactedTranscriptRows());
+        return mTerminal;
+    }
+
+    private TerminalEmulator uncompactedTerminal(int columns, int rows) {
+        TerminalEmulator terminal = new TerminalEmulator(mOutput, false, columns, rows, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS, rows * 2, null);
+        byte[] bytes = OUTPUT.getBytes(StandardCharsets.UTF_8);
+        terminal.append(bytes, bytes.length);
+        return terminal;
+    }
+
+    private static void assertSameContents(TerminalEmulator expected, TerminalEmulator actual) {
+        TerminalBuffer expectedScreen = expected.getScreen(), actualScreen = actual.getScreen();
+        assertEquals(expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+        assertEquals(expectedScreen.getTranscriptText(), actualScreen.getTranscriptText());
+        for (int row = -expectedScreen.getActiveTranscriptRows(); row < expected.mRows; row++) {
+            assertEquals(expectedScreen.getLineWrap(row), actualScreen.getLineWrap(row));
+            for (int column = 0; column < expected.mColumns; column++) {
+                assertEquals("row " + row + ", column " + column, expectedScreen.getStyleAt(row, column), actualScreen.getStyleAt(row, column));
+                assertEquals(expectedScreen.getSelectedText(column, row, column, row), actualScreen.getSelectedText(column, row, column, row));
+            }
+        }
+    }
+
+    public void testCompactedRowsKeepContents() {
+        TerminalEmulator uncompacted = uncompactedTerminal(12, 4);
+        TerminalEmulator compacted = compactedTerminal(12, 4);
+        assertTrue(compacted.getScreen().getActiveTranscriptRows() > 0);
+        assertSameContents(uncompacted, compacted);
+        assertTrue(compacted.getTranscriptCompactionBytesSaved() > 0);
+        assertEquals(0, uncompacted.getTranscriptCompactionBytesSaved());
+    }
+
+    public void testCompactInBatches() {
+        withTerminalSized(5, 3).enterString("1\r\n2\r\n3\r\n4\r\n5\r\n6");
+        assertEquals(3, mTerminal.getScreen().getActiveTranscriptRows());
+        assertTrue(mTerminal.compactTranscriptRows(2));
+        assertEquals(2, mTerminal.getCompactedTranscriptRows());
+        assertFalse(mTerminal.compactTranscriptRows(2));
+        assertEquals(3, mTerminal.getCompactedTranscriptRows());
+        assertHistoryStartsWith("3    ", "2    ", "1    ");
+    }
+
+    public void testResizeWithCompactedRows() {
+        TerminalEmulator uncompacted = uncompactedTerminal(12, 4);
+        TerminalEmulator compacted = compactedTerminal(12, 4);
+        // Reflow to other columns and grow the screen into the compacted transcript rows.
+        uncompacted.resize(7, 6, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        compacted.resize(7, 6, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        assertSameContents(uncompacted, compacted);
+        uncompacted.resize(7, 9, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        compacted.compactTranscriptRows(Integer.MAX_VALUE);
+        compacted.resize(7, 9, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        assertSameContents(uncompacted, compacted);
+    }
+
+    public void testWritingInflatesRow() {
+        withTerminalSized(5, 2).enterString("ab\r\n\033[32mcd\033[0m\r\nef");
+        mTerminal.compactTranscriptRows(Integer.MAX_VALUE);
+        TerminalRow row = mTerminal.getScreen().allocateFullLineIfNecessary(mTerminal.getScreen().externalToInternalRow(-1));
+        assertTrue(row.isCompacted());
+        row.setChar(3, 'x', TextStyle.NORMAL);
+        assertFalse(row.isCompacted());
+        assertEquals("ab x", mTerminal.getScreen().getSelectedText(0, -1, 5, -1));
+        assertEquals(0, mTerminal.getCompactedTranscriptRows());
+
+        // A compacted row reused for a new line is cleared.
+        mTerminal.compactTranscriptRows(Integer.MAX_VALUE);
+        enterString("\r\ngh\r\nij");
+        assertLinesAre("gh   ", "ij   ");
+        assertInvariants();
+    }
+
+    public void testEffectOnCompactedRowAfterGrowingScreen() {
+        withTerminalSized(5, 2).enterString("ab\r\ncd\r\nef");
+        mTerminal.compactTranscriptRows(Integer.MAX_VALUE);
+        mTerminal.resize(5, 4, INITIAL_CELL_WIDTH_PIXELS, INITIAL_CELL_HEIGHT_PIXELS);
+        assertLinesAre("ab   ", "cd   ", "ef   ", "     ");
+        // DECCARA setting bold on the whole screen.
+        enterString("\033[1;1;4;5;1$r");
+        assertEquals(TextStyle.CHARACTER_ATTRIBUTE_BOLD, TextStyle.decodeEffect(mTerminal.getScreen().getStyleAt(0, 0)));
+        assertEquals(TextStyle.CHARACTER_ATTRIBUTE_BOLD, TextStyle.decodeEffect(mTerminal.getScreen().getStyleAt(1, 4)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for writing the text of a {@link TerminalBuffer} with
+ * {@link TerminalBuffer#writeSelectedText(java.io.Writer, int, int, int, int, boolean, boolean, boolean)}, which must
+ * give the same text as the String getters.
+ */
+public class TranscriptExportTest extends TerminalTestCase {
+
+    private String writeTranscript(boolean joinBackLines, boolean joinFullLines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mTerminal.getScreen().writeTranscriptText(out, joinBackLines, joinFullLines);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void assertSameAsGetters() throws IOException {
+        TerminalBuffer screen = mTerminal.getScreen();
+        String untrimmed = screen.getSelectedText(0, -screen.getActiveTranscriptRows(), mTerminal.mColumns, mTerminal.mRows, true, false);
+        assertEquals(untrimmed.trim(), screen.getTranscriptText());
+        assertEquals(screen.getTranscriptText(), writeTranscript(true, false));
+        assertEquals(screen.getTranscriptTextWithoutJoinedLines(), writeTranscript(false, false));
+        assertEquals(screen.getTranscriptTextWithFullLinesJoined(), writeTranscript(true, true));
+    }
+
+    public void testSameAsGetters() throws IOException {
+        withTerminalSized(6, 4).enterString("\r\n\r\n  first\r\nwrapping line\r\n中文 😀 wide\r\n\033[1mbold\033[0m  \r\n\r\n  last  \r\n\r\n");
+        assertSameAsGetters();
+        // The wide char which did not fit leaves a space at the end of the wrapped row.
+        assertEquals("first\nwrapping line\n中文  😀 wide\nbold\n\n  last", writeTranscript(true, false));
+    }
+
+    public void testOnlyWhitespace() throws IOException {
+        withTerminalSized(5, 3).enterString("\r\n   \r\n\r\n");
+        assertSameAsGetters();
+        assertEquals("", writeTranscript(true, false));
+    }
+
+    public void testSelectionWithoutTrim() throws IOException {
+        withTerminalSized(5, 3).enterString(" ab\r\ncd  e\r\nf");
+        StringWriter writer = new StringWriter();
+        mTerminal.getScreen().writeSelectedText(writer, 1, 0, 2, 1, true, false, false);
+        assertEquals(mTerminal.getScreen().getSelectedText(1, 0, 2, 1), writer.toString());
+        assertEquals("ab\ncd", writer.toString());
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Microbenchmark of {@link WcWidth#width(int)} against the interval search it used before the BMP lookup table, kept
+ * as {@link WcWidth#widthByIntervalSearch(int)}, and of the throughput of the emulator and of a renderer like scan of
+ * the screen on text typical of full screen TUIs, mixing ASCII with box drawing, CJK and emoji.
+ */
+public class WcWidthBenchmarkTest extends TestCase {
+
+    private static final String TEXT = "│ cpu ▕████▌    ▏ 42% │ 中文字幕 テスト │ ─┬─╭╮╰╯ ⣿⣿⡇ 😀 é ñ ✓ │ main ≡ ↑1 │\r\n";
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    private static final int[] CODE_POINTS = TEXT.codePoints().toArray();
+
+    public void testWidthThroughput() {
+        final int iterations = 200_000;
+        long table = Long.MAX_VALUE, search = Long.MAX_VALUE;
+        int sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) for (int codePoint : CODE_POINTS) sink += WcWidth.width(codePoint);
+            long tableElapsed = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) for (int codePoint : CODE_POINTS) sink += WcWidth.widthByIntervalSearch(codePoint);
+            long searchElapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                table = Math.min(table, tableElapsed);
+                search = Math.min(search, searchElapsed);
+            }
+        }
+        final double calls = (double) iterations * CODE_POINTS.length;
+        System.out.println(String.format("WcWidthBenchmarkTest: width() %.2f ns/call, interval search %.2f ns/call (%d)",
+            table / calls, search / calls, sink));
+        assertTrue("lookup table slower than interval search", table < search);
+    }
+
+    public void testEmulatorAndRenderScanThroughput() {
+        byte[] chunk = TEXT.getBytes(StandardCharsets.UTF_8);
+        byte[] input = new byte[chunk.length * 256];
+        for (int i = 0; i < 256; i++) System.arraycopy(chunk, 0, input, i * chunk.length, chunk.length);
+        final int appends = 200;
+
+        TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), false, 120, 40, 10, 20, 1000, null);
+        long emulatorBest = Long.MAX_VALUE, scanBest = Long.MAX_VALUE;
+        int sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < appends; i++) emulator.append(input, input.length);
+            long emulatorElapsed = System.nanoTime() - start;
+
+            // What the renderer does per frame for each row, besides measuring and drawing text.
+            TerminalBuffer screen = emulator.getScreen();
+            start = System.nanoTime();
+            for (int frame = 0; frame < 500; frame++) {
+                for (int row = 0; row < emulator.mRows; row++) {
+                    TerminalRow line = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+                    final int charsUsed = line.getSpaceUsed();
+                    for (int index = 0; index < charsUsed; index += Character.isHighSurrogate(line.mText[index]) ? 2 : 1)
+                        sink += WcWidth.width(line.mText, index);
+                    sink += line.findStartOfColumn(emulator.mColumns / 2);
+                }
+            }
+            long scanElapsed = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                emulatorBest = Math.min(emulatorBest, emulatorElapsed);
+                scanBest = Math.min(scanBest, scanElapsed);
+            }
+        }
+        System.out.println(String.format("WcWidthBenchmarkTest: emulator %.1f MB/s, render scan %.1f us/frame (%d)",
+            (double) input.length * appends * 1000 / emulatorBest, scanBest / 500 / 1000.0, sink));
+    }
+}
@@ -77,4 +77,13 @@ public class WcWidthTest extends TestCase {
         // UPSIDE-DOWN FACE (Unicode 8).
         assertWidthIs(2, 0x1F643);
     }
+
+    public void testSameAsIntervalSearchForAllCodePoints() {
+        for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+            if (WcWidth.width(codePoint) != WcWidth.widthByIntervalSearch(codePoint))
+                fail("code point " + Integer.toHexString(codePoint));
+        }
+        assertEquals(0, WcWidth.width(-1));
+        assertEquals(1, WcWidth.width(Character.MAX_CODE_POINT + 1));
+    }
 }
@@ -0,0 +1,85 @@
+package com.termux.view;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of the measured widths of code points for a typeface and text size, stored in an open addressing
+ * int to float hash map to avoid boxing. Like {@link TerminalRenderer} it needs to be recreated each time the typeface
+ * or font size changes.
+ * <p/>
+ * When more than {@link #MAX_ENTRIES} code points have been measured the cache is cleared, which is cheaper than
+ * tracking the least recently used entries and rare for the set of glyphs shown in a terminal.
+ */
+final class GlyphWidthCache {
+
+    /** Must be a power of two. */
+    private static final int CAPACITY = 4096;
+
+    /** Keep the load factor at most 0.5 so that probe sequences stay short. */
+    private static final int MAX_ENTRIES = CAPACITY / 2;
+
+    private static final int EMPTY = -1;
+
+    private final Paint mPaint = new Paint();
+
+    private final int[] mKeys = new int[CAPACITY];
+
+    private final float[] mWidths = new float[CAPACITY];
+
+    private int mSize;
+
+    private long mHits, mMisses;
+
+    GlyphWidthCache(int textSize, Typeface typeface) {
+        mPaint.setTypeface(typeface);
+        mPaint.setAntiAlias(true);
+        mPaint.setTextSize(textSize);
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    /**
+     * Get the width of the code point stored in {@code text} at {@code index}, measuring it if it is not cached.
+     *
+     * @param codePoint The code point.
+     * @param text The text containing the code point.
+     * @param index The index of the code point in the text.
+     * @param count The number of chars of the code point, 2 for surrogate pairs.
+     */
+    float measure(int codePoint, char[] text, int index, int count) {
+        final int mask = CAPACITY - 1;
+        int slot = (codePoint * 0x9E3779B9) >>> 20 & mask;
+        while (true) {
+            final int key = mKeys[slot];
+            if (key == codePoint) {
+                mHits++;
+                return mWidths[slot];
+            } else if (key == EMPTY) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        mMisses++;
+        final float width = mPaint.measureText(text, index, count);
+        if (mSize == MAX_ENTRIES) {
+            Arrays.fill(mKeys, EMPTY);
+            mSize = 0;
+            slot = (codePoint * 0x9E3779B9) >>> 20 & mask;
+        }
+        mKeys[slot] = codePoint;
+        mWidths[slot] = width;
+        mSize++;
+        return width;
+    }
+
+    long getHits() {
+        return mHits;
+    }
+
+    long getMisses() {
+        return mMisses;
+    }
+}
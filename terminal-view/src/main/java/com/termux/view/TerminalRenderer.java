@@ -28,6 +28,28 @@ public final class TerminalRenderer {
 
     private final Paint mTextPaint = new Paint();
 
+    /**
+     * The clip bounds of the canvas being rendered to, used to skip rows outside of it.
+     */
+    private final Rect mClipBounds = new Rect();
+
+    /**
+     * The recorded draw commands of recently rendered rows.
+     */
+    private final TerminalRowRenderCache mRowCache = new TerminalRowRenderCache();
+
+    /**
+     * The foreground and background color of the run being drawn, see {@link TextStyle#resolveColors(long, int[],
+     * boolean, boolean, int[])}.
+     */
+    private final int[] mRunColors = new int[2];
+
+    /**
+     * The {@link TextStyle#TEXT_PAINT_EFFECTS} of the run {@link #mTextPaint} was last set up to draw text for, or -1 if
+     * it was not set up yet.
+     */
+    private int mTextPaintEffects = -1;
+
     /**
      * The width of a single mono spaced character obtained by {@link Paint#measureText(String)} on a single 'X'.
      */
@@ -50,6 +72,11 @@ public final class TerminalRenderer {
 
     private final float[] asciiMeasures = new float[127];
 
+    /**
+     * The measured widths of the non-ASCII code points rendered, see {@link #asciiMeasures} for ASCII.
+     */
+    private final GlyphWidthCache mGlyphWidthCache;
+
     /**
      * The width of a single mono spaced character obtained by {@link Paint#measureText(String)} on a single 'X'.
      */
@@ -86,6 +113,7 @@ public final class TerminalRenderer {
             sb.setCharAt(0, (char) i);
             asciiMeasures[i] = mTextPaint.measureText(sb, 0, 1);
         }
+        mGlyphWidthCache = new GlyphWidthCache(textSize, typeface);
         mTextPaint.setTypeface(italicTypeface);
         mTextPaint.setAntiAlias(true);
         mTextPaint.setTextSize(textSize);
@@ -112,9 +140,15 @@ public final class TerminalRenderer {
         mEmulator.setCellSize((int) mFontWidth, (int) mFontLineSpacing);
         if (reverseVideo)
             canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+        final boolean hasClipBounds = canvas.getClipBounds(mClipBounds);
+        mRowCache.setMaxEntries(mEmulator.mRows * TerminalRowRenderCache.CACHED_SCREENS);
+        mRowCache.validate(mEmulator.mColors, boldWithBright, reverseVideo, cursorShape, columns);
         float heightOffset = mFontLineSpacingAndAscent;
         for (int row = topRow; row < endRow; row++) {
             heightOffset += mFontLineSpacing;
+            // Skip rows outside a partial invalidation, with a margin of a row for glyphs drawn outside their row.
+            if (hasClipBounds && (heightOffset + mFontLineSpacing <= mClipBounds.top || heightOffset - 2 * mFontLineSpacing >= mClipBounds.bottom))
+                continue;
             final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
             int selx1 = -1, selx2 = -1;
             if (row >= selectionY1 && row <= selectionY2) {
@@ -123,119 +157,120 @@ public final class TerminalRenderer {
                 selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
             }
             TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
-            final char[] line = lineObject.mText;
-            final int charsUsedInLine = lineObject.getSpaceUsed();
-            long lastRunStyle = 0;
-            boolean lastRunInsideCursor = false;
-            boolean lastRunInsideSelection = false;
-            int lastRunStartColumn = -1;
-            int lastRunStartIndex = 0;
-            boolean lastRunFontWidthMismatch = false;
-            int currentCharIndex = 0;
-            float measuredWidthForRun = 0.f;
-            for (int column = 0; column < columns; ) {
-                final char charAtIndex = line[currentCharIndex];
-                final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
-                final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
-                final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
-                final long style = lineObject.getStyle(column);
-                if (TextStyle.isBitmap(style)) {
-                    Bitmap bm = mEmulator.getScreen().getSixelBitmap(codePoint, style);
-                    if (bm != null) {
-                        float left = column * mFontWidth;
-                        float top = heightOffset - mFontLineSpacing;
-                        RectF r = new RectF(left, top, left + mFontWidth, top + mFontLineSpacing);
-                        canvas.drawBitmap(mEmulator.getScreen().getSixelBitmap(codePoint, style), mEmulator.getScreen().getSixelRect(codePoint, style), r, null);
-                    }
-                    column += 1;
-                    measuredWidthForRun = 0.f;
-                    lastRunStyle = 0;
-                    lastRunInsideCursor = false;
-                    lastRunStartColumn = column + 1;
-                    lastRunStartIndex = currentCharIndex;
-                    lastRunFontWidthMismatch = false;
-                    currentCharIndex += charsForCodePoint;
-                    continue;
-                }
-                final int codePointWcWidth = WcWidth.width(codePoint);
-                final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
-                final boolean insideSelection = column >= selx1 && column <= selx2;
-                // Check if the measured text width for this code point is not the same as that expected by wcwidth().
-                // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
-                // smileys which android font renders as wide.
-                // If this is detected, we draw this code point scaled to match what wcwidth() expects.
-                final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line, currentCharIndex, charsForCodePoint);
-                final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
-                if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
-                    if (column == 0 || column == lastRunStartColumn) {
-                        // Skip first column as there is nothing to draw, just record the current style.
-                    } else {
-                        final int columnWidthSinceLastRun = column - lastRunStartColumn;
-                        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-                        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-                        boolean invertCursorTextColor = false;
-                        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                            invertCursorTextColor = true;
-                        }
-                        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun, measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, boldWithBright, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
-                    }
-                    measuredWidthForRun = 0.f;
-                    lastRunStyle = style;
-                    lastRunInsideCursor = insideCursor;
-                    lastRunInsideSelection = insideSelection;
-                    lastRunStartColumn = column;
-                    lastRunStartIndex = currentCharIndex;
-                    lastRunFontWidthMismatch = fontWidthMismatch;
+            if (lineObject.mHasBitmap) {
+                // Rows with bitmaps are not cached since the bitmaps they refer to may be removed.
+                renderRow(canvas, screen, lineObject, heightOffset, columns, cursorX, selx1, selx2, palette, cursorShape, boldWithBright, reverseVideo);
+                continue;
+            }
+            final float rowRecordingTop = heightOffset - TerminalRowRenderCache.ROW_MARGIN_ROWS * mFontLineSpacing - mFontLineSpacing;
+            if (mRowCache.drawIfCached(canvas, lineObject, cursorX, selx1, selx2, rowRecordingTop))
+                continue;
+            Canvas recordingCanvas = mRowCache.beginRecording(canvas, lineObject, cursorX, selx1, selx2, (int) Math.ceil(columns * mFontWidth), mFontLineSpacing);
+            renderRow(recordingCanvas, screen, lineObject, heightOffset - rowRecordingTop, columns, cursorX, selx1, selx2, palette, cursorShape, boldWithBright, reverseVideo);
+            mRowCache.endRecordingAndDraw(canvas, rowRecordingTop);
+        }
+    }
+
+    /**
+     * Render a single row with its bottom at {@code heightOffset}.
+     */
+    private void renderRow(Canvas canvas, TerminalBuffer screen, TerminalRow lineObject, float heightOffset, int columns, int cursorX, int selx1, int selx2, int[] palette, int cursorShape, boolean boldWithBright, boolean reverseVideo) {
+        final char[] line = lineObject.mText;
+        final int charsUsedInLine = lineObject.getSpaceUsed();
+        long lastRunStyle = 0;
+        boolean lastRunInsideCursor = false;
+        boolean lastRunInsideSelection = false;
+        int lastRunStartColumn = -1;
+        int lastRunStartIndex = 0;
+        boolean lastRunFontWidthMismatch = false;
+        int currentCharIndex = 0;
+        float measuredWidthForRun = 0.f;
+        for (int column = 0; column < columns; ) {
+            final char charAtIndex = line[currentCharIndex];
+            final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
+            final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
+            final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
+            final long style = lineObject.getStyle(column);
+            if (TextStyle.isBitmap(style)) {
+                Bitmap bm = screen.getSixelBitmap(codePoint, style);
+                if (bm != null) {
+                    float left = column * mFontWidth;
+                    float top = heightOffset - mFontLineSpacing;
+                    RectF r = new RectF(left, top, left + mFontWidth, top + mFontLineSpacing);
+                    canvas.drawBitmap(bm, screen.getSixelRect(codePoint, style), r, null);
                 }
-                measuredWidthForRun += measuredCodePointWidth;
-                column += codePointWcWidth;
+                column += 1;
+                measuredWidthForRun = 0.f;
+                lastRunStyle = 0;
+                lastRunInsideCursor = false;
+                lastRunStartColumn = column + 1;
+                lastRunStartIndex = currentCharIndex;
+                lastRunFontWidthMismatch = false;
                 currentCharIndex += charsForCodePoint;
-                while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
-                    // Eat combining chars so that they are treated as part of the last non-combining code point,
-                    // instead of e.g. being considered inside the cursor in the next run.
-                    currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+                continue;
+            }
+            final int codePointWcWidth = WcWidth.width(codePoint);
+            final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
+            final boolean insideSelection = column >= selx1 && column <= selx2;
+            // Check if the measured text width for this code point is not the same as that expected by wcwidth().
+            // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
+            // smileys which android font renders as wide.
+            // If this is detected, we draw this code point scaled to match what wcwidth() expects.
+            final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mGlyphWidthCache.measure(codePoint, line, currentCharIndex, charsForCodePoint);
+            final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
+            if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
+                if (column == 0 || column == lastRunStartColumn) {
+                    // Skip first column as there is nothing to draw, just record the current style.
+                } else {
+                    final int columnWidthSinceLastRun = column - lastRunStartColumn;
+                    final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+                    int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+                    boolean invertCursorTextColor = false;
+                    if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+                        invertCursorTextColor = true;
+                    }
+                    drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun, measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, boldWithBright, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
                 }
+                measuredWidthForRun = 0.f;
+                lastRunStyle = style;
+                lastRunInsideCursor = insideCursor;
+                lastRunInsideSelection = insideSelection;
+                lastRunStartColumn = column;
+                lastRunStartIndex = currentCharIndex;
+                lastRunFontWidthMismatch = fontWidthMismatch;
             }
-            final int columnWidthSinceLastRun = columns - lastRunStartColumn;
-            final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-            int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-            boolean invertCursorTextColor = false;
-            if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                invertCursorTextColor = true;
+            measuredWidthForRun += measuredCodePointWidth;
+            column += codePointWcWidth;
+            currentCharIndex += charsForCodePoint;
+            while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
+                // Eat combining chars so that they are treated as part of the last non-combining code point,
+                // instead of e.g. being considered inside the cursor in the next run.
+                currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
             }
-            drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun, measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, boldWithBright, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
         }
+        final int columnWidthSinceLastRun = columns - lastRunStartColumn;
+        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+        int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+        boolean invertCursorTextColor = false;
+        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+            invertCursorTextColor = true;
+        }
+        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun, measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, boldWithBright, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
     }
 
     private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, int startColumn, int runWidthColumns, int startCharIndex, int runWidthChars, float mes, int cursor, int cursorStyle, long textStyle, boolean boldWithBright, boolean reverseVideo) {
-        int foreColor = TextStyle.decodeForeColor(textStyle);
         final int effect = TextStyle.decodeEffect(textStyle);
-        int backColor = TextStyle.decodeBackColor(textStyle);
+        TextStyle.resolveColors(textStyle, palette, boldWithBright, reverseVideo, mRunColors);
+        final int foreColor = mRunColors[0];
+        final int backColor = mRunColors[1];
         final boolean bold = (effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0;
         final boolean underline = (effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0;
         final boolean italic = (effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0;
         final boolean strikeThrough = (effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0;
-        final boolean dim = (effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0;
         final float fontWidth = italic ? mItalicFontWidth : mFontWidth;
         final int fontLineSpacing = italic ? mItalicFontLineSpacing : mFontLineSpacing;
         final int fontAscent = italic ? mItalicFontAscent : mFontAscent;
         final int fontLineSpacingAndAscent = italic ? mItalicFontLineSpacingAndAscent : mFontLineSpacingAndAscent;
-        if ((foreColor & 0xff000000) != 0xff000000) {
-            // If enabled, let bold have bright colors if applicable (one of the first 8):
-            if (boldWithBright && bold && foreColor >= 0 && foreColor < 8)
-                foreColor += 8;
-            foreColor = palette[foreColor];
-        }
-        if ((backColor & 0xff000000) != 0xff000000) {
-            backColor = palette[backColor];
-        }
-        // Reverse video here if _one and only one_ of the reverse flags are set:
-        final boolean reverseVideoHere = reverseVideo ^ (effect & (TextStyle.CHARACTER_ATTRIBUTE_INVERSE)) != 0;
-        if (reverseVideoHere) {
-            int tmp = foreColor;
-            foreColor = backColor;
-            backColor = tmp;
-        }
         float left = startColumn * fontWidth;
         float right = left + runWidthColumns * fontWidth;
         mes = mes / fontWidth;
@@ -264,26 +299,16 @@ public final class TerminalRenderer {
             canvas.drawRect(left, y - cursorHeight, right, y, mTextPaint);
         }
         if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) == 0) {
-            if (dim) {
-                int red = (0xFF & (foreColor >> 16));
-                int green = (0xFF & (foreColor >> 8));
-                int blue = (0xFF & foreColor);
-                // Dim color handling used by libvte which in turn took it from xterm
-                // (https://bug735245.bugzilla-attachments.gnome.org/attachment.cgi?id=284267):
-                red = red * 2 / 3;
-                green = green * 2 / 3;
-                blue = blue * 2 / 3;
-                foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
+            // Only set up the paint again for runs with other effects than the last, as most runs differ in color only.
+            final int textPaintEffects = effect & TextStyle.TEXT_PAINT_EFFECTS;
+            if (textPaintEffects != mTextPaintEffects) {
+                mTextPaint.setTypeface(italic ? mItalicTypeface : mTypeface);
+                mTextPaint.setFakeBoldText(bold);
+                mTextPaint.setUnderlineText(underline);
+                mTextPaint.setTextSkewX(italic && mItalicTypeface.equals(mTypeface) ? -0.35f : 0.f);
+                mTextPaint.setStrikeThruText(strikeThrough);
+                mTextPaintEffects = textPaintEffects;
             }
-            mTextPaint.setTypeface(mTypeface);
-            if (italic)
-                mTextPaint.setTypeface(mItalicTypeface);
-            mTextPaint.setFakeBoldText(bold);
-            mTextPaint.setUnderlineText(underline);
-            mTextPaint.setTextSkewX(0.f);
-            if (italic && mItalicTypeface.equals(mTypeface))
-                mTextPaint.setTextSkewX(-0.35f);
-            mTextPaint.setStrikeThruText(strikeThrough);
             mTextPaint.setColor(foreColor);
             // The text alignment is the default Paint.Align.LEFT.
             canvas.drawTextRun(text, startCharIndex, runWidthChars, startCharIndex, runWidthChars, left, y - mFontLineSpacingAndAscent, false, mTextPaint);
@@ -292,6 +317,16 @@ public final class TerminalRenderer {
             canvas.restore();
     }
 
+    /**
+     * Get the fraction of non-ASCII code point width lookups that were served from the glyph width cache since this
+     * renderer was created, or 0 if there were none.
+     */
+    public float getGlyphWidthCacheHitRate() {
+        final long hits = mGlyphWidthCache.getHits();
+        final long lookups = hits + mGlyphWidthCache.getMisses();
+        return lookups == 0 ? 0 : (float) hits / lookups;
+    }
+
     public float getFontWidth() {
         return mFontWidth;
     }
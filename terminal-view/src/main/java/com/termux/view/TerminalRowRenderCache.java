@@ -0,0 +1,211 @@
+package com.termux.view;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+import com.termux.terminal.TerminalColors;
+import com.termux.terminal.TerminalRow;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the draw commands of rendered {@link TerminalRow}s, so that rows which have not changed since they were
+ * last rendered are replayed instead of being measured and drawn again, e.g. when scrolling through the transcript or
+ * blinking the cursor.
+ * <p>
+ * The draw commands are recorded in a {@link RenderNode} on API 29+ for hardware accelerated canvases, and in a
+ * {@link Picture} otherwise. Entries are keyed by row, cursor column and selection range, and are only used if the
+ * {@link TerminalRow#getVersion()} is the one they were recorded at. State affecting all rows, like the palette, is
+ * checked in {@link #validate(TerminalColors, boolean, boolean, int, int)} which clears the cache on changes.
+ */
+final class TerminalRowRenderCache {
+
+    /**
+     * The number of screens of rows to keep, so that scrolling back and forth does not record rows again.
+     */
+    static final int CACHED_SCREENS = 3;
+
+    /**
+     * The number of rows recorded above and below a row, for glyphs drawn outside of their row.
+     */
+    static final int ROW_MARGIN_ROWS = 1;
+
+    private static final class Key {
+
+        TerminalRow mRow;
+
+        int mCursorX, mSelX1, mSelX2;
+
+        Key set(TerminalRow row, int cursorX, int selX1, int selX2) {
+            mRow = row;
+            mCursorX = cursorX;
+            mSelX1 = selX1;
+            mSelX2 = selX2;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return mRow == other.mRow && mCursorX == other.mCursorX && mSelX1 == other.mSelX1 && mSelX2 == other.mSelX2;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(mRow);
+            result = 31 * result + mCursorX;
+            result = 31 * result + mSelX1;
+            return 31 * result + mSelX2;
+        }
+    }
+
+    private static final class Entry {
+
+        int mVersion;
+
+        RenderNode mRenderNode;
+
+        Picture mPicture;
+
+        void discard() {
+            if (mRenderNode != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+                mRenderNode.discardDisplayList();
+            mRenderNode = null;
+            mPicture = null;
+        }
+    }
+
+    private int mMaxEntries = 1;
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(64, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() <= mMaxEntries)
+                return false;
+            eldest.getValue().discard();
+            return true;
+        }
+    };
+
+    private final Key mLookupKey = new Key();
+
+    private Entry mRecordingEntry;
+
+    private TerminalColors mColors;
+
+    private int mColorsVersion;
+
+    private boolean mBoldWithBright, mReverseVideo;
+
+    private int mCursorShape, mColumns;
+
+    /**
+     * Set the max number of cached rows, evicting the least recently drawn rows if there are more.
+     */
+    void setMaxEntries(int maxEntries) {
+        mMaxEntries = Math.max(1, maxEntries);
+        if (mEntries.size() > mMaxEntries) {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (mEntries.size() > mMaxEntries) {
+                iterator.next().discard();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Clear the cache if any state which affects how every row is drawn changed since the last call.
+     */
+    void validate(TerminalColors colors, boolean boldWithBright, boolean reverseVideo, int cursorShape, int columns) {
+        if (colors != mColors || colors.getVersion() != mColorsVersion || boldWithBright != mBoldWithBright || reverseVideo != mReverseVideo || cursorShape != mCursorShape || columns != mColumns) {
+            clear();
+            mColors = colors;
+            mColorsVersion = colors.getVersion();
+            mBoldWithBright = boldWithBright;
+            mReverseVideo = reverseVideo;
+            mCursorShape = cursorShape;
+            mColumns = columns;
+        }
+    }
+
+    void clear() {
+        for (Entry entry : mEntries.values()) entry.discard();
+        mEntries.clear();
+    }
+
+    /**
+     * Draw the recorded row at {@code top} if it is cached for the current version of the row.
+     *
+     * @return Returns whether the row was drawn.
+     */
+    boolean drawIfCached(Canvas canvas, TerminalRow row, int cursorX, int selX1, int selX2, float top) {
+        Entry entry = mEntries.get(mLookupKey.set(row, cursorX, selX1, selX2));
+        mLookupKey.mRow = null;
+        if (entry == null || entry.mVersion != row.getVersion() || !canDraw(canvas, entry)) {
+            return false;
+        }
+        draw(canvas, entry, top);
+        return true;
+    }
+
+    /**
+     * Start recording the draw commands of a row of the specified size, which must be drawn to the returned canvas with
+     * a margin of {@link #ROW_MARGIN_ROWS} rows above it and be followed by {@link #endRecordingAndDraw(Canvas, float)}.
+     */
+    Canvas beginRecording(Canvas canvas, TerminalRow row, int cursorX, int selX1, int selX2, int width, int rowHeight) {
+        Key key = new Key().set(row, cursorX, selX1, selX2);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+        entry.mVersion = row.getVersion();
+        mRecordingEntry = entry;
+        final int height = rowHeight * (1 + 2 * ROW_MARGIN_ROWS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()) {
+            entry.mPicture = null;
+            if (entry.mRenderNode == null) {
+                entry.mRenderNode = new RenderNode("TerminalRow");
+                entry.mRenderNode.setClipToBounds(false);
+            }
+            entry.mRenderNode.setPosition(0, 0, width, height);
+            return entry.mRenderNode.beginRecording(width, height);
+        } else {
+            entry.discard();
+            entry.mPicture = new Picture();
+            return entry.mPicture.beginRecording(width, height);
+        }
+    }
+
+    void endRecordingAndDraw(Canvas canvas, float top) {
+        Entry entry = mRecordingEntry;
+        mRecordingEntry = null;
+        if (entry.mRenderNode != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            entry.mRenderNode.endRecording();
+        else
+            entry.mPicture.endRecording();
+        draw(canvas, entry, top);
+    }
+
+    private static boolean canDraw(Canvas canvas, Entry entry) {
+        // A RenderNode can only be drawn to a hardware accelerated canvas.
+        return entry.mRenderNode == null || canvas.isHardwareAccelerated();
+    }
+
+    private static void draw(Canvas canvas, Entry entry, float top) {
+        canvas.save();
+        canvas.translate(0, top);
+        if (entry.mRenderNode != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            canvas.drawRenderNode(entry.mRenderNode);
+        else
+            canvas.drawPicture(entry.mPicture);
+        canvas.restore();
+    }
+}
@@ -40,6 +40,7 @@ import android.widget.Toast;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.view.textselection.TextSelectionCursorController;
@@ -89,6 +90,23 @@ public final class TerminalView extends View {
 
     int[] mDefaultSelectors = new int[] { -1, -1, -1, -1 };
 
+    /**
+     * The rows and columns of the search match highlighted by {@link #setSearchMatch(int, int, int, int)}, in the
+     * order of {@link #mDefaultSelectors}, or null if there is none.
+     */
+    private int[] mSearchMatch;
+
+    /**
+     * The cursor row at the last {@link #onScreenUpdated(boolean)}, so that it is redrawn when the cursor moves away
+     * from it. -1 forces the next screen update to invalidate the whole view.
+     */
+    private int mLastInvalidatedCursorRow = -1;
+
+    /**
+     * The number of rows changed by the terminal for the last screen update.
+     */
+    private int mLastDirtyRowCount;
+
     float mScaleFactor = 1.f;
 
     final GestureAndScaleRecognizer mGestureRecognizer;
@@ -181,7 +199,7 @@ public final class TerminalView extends View {
             public boolean onUp(MotionEvent event) {
                 mScrollRemainder = 0.0f;
                 mScrollXRemainder = 0.0f;
-                if (mEmulator != null && mEmulator.isMouseTrackingActive() && !event.isFromSource(InputDevice.SOURCE_MOUSE) && !isSelectingText() && !scrolledWithFinger) {
+                if (mEmulator != null && isMouseTrackingActive() && !event.isFromSource(InputDevice.SOURCE_MOUSE) && !isSelectingText() && !scrolledWithFinger) {
                     // Quick event processing when mouse tracking is active - do not wait for check of double tapping
                     // for zooming.
                     sendMouseEventCode(event, TerminalEmulator.MOUSE_LEFT_BUTTON, true);
@@ -209,7 +227,7 @@ public final class TerminalView extends View {
             public boolean onScroll(MotionEvent e, float distanceX, float distanceY) {
                 if (mEmulator == null)
                     return true;
-                if (mEmulator.isMouseTrackingActive() && e.isFromSource(InputDevice.SOURCE_MOUSE)) {
+                if (isMouseTrackingActive() && e.isFromSource(InputDevice.SOURCE_MOUSE)) {
                     // If moving with mouse pointer while pressing button, report that instead of scroll.
                     // This means that we never report moving with button press-events for touch input,
                     // since we cannot just start sending these events without a starting press event,
@@ -247,13 +265,16 @@ public final class TerminalView extends View {
                 // Do not start scrolling until last fling has been taken care of:
                 if (!mScroller.isFinished())
                     return true;
-                final boolean mouseTrackingAtStartOfFling = mEmulator.isMouseTrackingActive();
+                final boolean mouseTrackingAtStartOfFling;
                 float SCALE = 0.25f;
-                if (mouseTrackingAtStartOfFling) {
-                    mScroller.fling(0, 0, 0, -(int) (velocityY * SCALE), 0, 0, -mEmulator.mRows / 2, mEmulator.mRows / 2);
-                } else {
-                	//this doesn't fling in less
-                    mScroller.fling(0, mTopRow, 0, -(int) (velocityY * SCALE), 0, 0, -mEmulator.getScreen().getActiveTranscriptRows(), 0);
+                synchronized (mEmulator) {
+                    mouseTrackingAtStartOfFling = mEmulator.isMouseTrackingActive();
+                    if (mouseTrackingAtStartOfFling) {
+                        mScroller.fling(0, 0, 0, -(int) (velocityY * SCALE), 0, 0, -mEmulator.mRows / 2, mEmulator.mRows / 2);
+                    } else {
+                    	//this doesn't fling in less
+                        mScroller.fling(0, mTopRow, 0, -(int) (velocityY * SCALE), 0, 0, -mEmulator.getScreen().getActiveTranscriptRows(), 0);
+                    }
                 }
                 post(new Runnable() {
 
@@ -261,7 +282,7 @@ public final class TerminalView extends View {
 
                     @Override
                     public void run() {
-                        if (mouseTrackingAtStartOfFling != mEmulator.isMouseTrackingActive()) {
+                        if (mouseTrackingAtStartOfFling != isMouseTrackingActive()) {
                             mScroller.abortAnimation();
                             return;
                         }
@@ -343,8 +364,10 @@ public final class TerminalView extends View {
         if (session == mTermSession)
             return false;
         mTopRow = 0;
+        mSearchMatch = null;
         mTermSession = session;
         mEmulator = null;
+        mLastInvalidatedCursorRow = -1;
         mCombiningAccent = 0;
         updateSize();
         // Wait with enabling the scrollbar until we have a terminal to get scroll position from.
@@ -478,7 +501,11 @@ public final class TerminalView extends View {
 
     @Override
     protected int computeVerticalScrollRange() {
-        return mEmulator == null ? 1 : mEmulator.getScreen().getActiveRows();
+        if (mEmulator == null)
+            return 1;
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getActiveRows();
+        }
     }
 
     @Override
@@ -488,49 +515,102 @@ public final class TerminalView extends View {
 
     @Override
     protected int computeVerticalScrollOffset() {
-        return mEmulator == null ? 1 : mEmulator.getScreen().getActiveRows() + mTopRow - mEmulator.mRows;
+        if (mEmulator == null)
+            return 1;
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getActiveRows() + mTopRow - mEmulator.mRows;
+        }
     }
 
     public void onScreenUpdated() {
         onScreenUpdated(false);
     }
 
+    /**
+     * Invalidate the pixel band of the rows from {@code firstRow} to {@code lastRow} (inclusive), relative to the
+     * top of the view, and of the row above and below it to cover glyphs drawn outside their row.
+     */
+    void invalidateRows(int firstRow, int lastRow) {
+        int top = mRenderer.mFontLineSpacingAndAscent + (firstRow - 1) * mRenderer.mFontLineSpacing;
+        int bottom = mRenderer.mFontLineSpacingAndAscent + (lastRow + 2) * mRenderer.mFontLineSpacing;
+        invalidate(0, Math.max(0, top), getWidth(), Math.min(getHeight(), bottom));
+    }
+
+    /**
+     * The number of rows changed by the terminal for the last screen update, which is at most once per frame.
+     */
+    public int getLastDirtyRowCount() {
+        return mLastDirtyRowCount;
+    }
+
     public void onScreenUpdated(boolean skipScrolling) {
         if (mEmulator == null)
             return;
-        int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
-        if (mTopRow < -rowsInHistory)
-            mTopRow = -rowsInHistory;
-        if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
-            // Do not scroll when selecting text.
-            int rowShift = mEmulator.getScrollCounter();
-            if (-mTopRow + rowShift > rowsInHistory) {
-                // .. unless we're hitting the end of history transcript, in which
-                // case we abort text selection and scroll to end.
-                if (isSelectingText())
-                    stopTextSelectionMode();
-                if (mEmulator.isAutoScrollDisabled()) {
-                    mTopRow = -rowsInHistory;
+        final int topRowBeforeUpdate = mTopRow;
+        int firstRowToInvalidate = -1, lastRowToInvalidate = -1;
+        // Read and reset the scroll counter atomically with respect to an emulator thread appending to it
+        synchronized (mEmulator) {
+            int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+            if (mTopRow < -rowsInHistory)
+                mTopRow = -rowsInHistory;
+            if (mSearchMatch != null) {
+                // Keep the search match on its text as the terminal scrolls, until it scrolls out of the transcript.
+                int rowShift = mEmulator.getScrollCounter();
+                mSearchMatch[0] -= rowShift;
+                mSearchMatch[1] -= rowShift;
+                if (mSearchMatch[0] < -rowsInHistory)
+                    mSearchMatch = null;
+            }
+            if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
+                // Do not scroll when selecting text.
+                int rowShift = mEmulator.getScrollCounter();
+                if (-mTopRow + rowShift > rowsInHistory) {
+                    // .. unless we're hitting the end of history transcript, in which
+                    // case we abort text selection and scroll to end.
+                    if (isSelectingText())
+                        stopTextSelectionMode();
+                    if (mEmulator.isAutoScrollDisabled()) {
+                        mTopRow = -rowsInHistory;
+                        skipScrolling = true;
+                    }
+                } else {
                     skipScrolling = true;
+                    mTopRow -= rowShift;
+                    decrementYTextSelectionCursors(rowShift);
                 }
-            } else {
-                skipScrolling = true;
-                mTopRow -= rowShift;
-                decrementYTextSelectionCursors(rowShift);
             }
-        }
-        if (!skipScrolling && mTopRow != 0) {
-            // Scroll down if not already there.
-            if (mTopRow < -3) {
-                // Awaken scroll bars only if scrolling a noticeable amount
-                // - we do not want visible scroll bars during normal typing
-                // of one row at a time.
-                awakenScrollBars();
+            if (!skipScrolling && mTopRow != 0) {
+                // Scroll down if not already there.
+                if (mTopRow < -3) {
+                    // Awaken scroll bars only if scrolling a noticeable amount
+                    // - we do not want visible scroll bars during normal typing
+                    // of one row at a time.
+                    awakenScrollBars();
+                }
+                mTopRow = 0;
             }
-            mTopRow = 0;
+            mEmulator.clearScrollCounter();
+
+            // Only the rows changed by the terminal and the old and new cursor rows need to be redrawn, unless the
+            // view scrolled or a selection is shown
+            TerminalBuffer screen = mEmulator.getScreen();
+            int cursorRow = mEmulator.getCursorRow();
+            mLastDirtyRowCount = screen.getDirtyRowCount();
+            if (topRowBeforeUpdate == 0 && mTopRow == 0 && !isSelectingText() && mLastInvalidatedCursorRow >= 0 && mLastDirtyRowCount < mEmulator.mRows) {
+                firstRowToInvalidate = Math.min(cursorRow, mLastInvalidatedCursorRow);
+                lastRowToInvalidate = Math.max(cursorRow, mLastInvalidatedCursorRow);
+                if (mLastDirtyRowCount > 0) {
+                    firstRowToInvalidate = Math.min(firstRowToInvalidate, screen.getFirstDirtyRow());
+                    lastRowToInvalidate = Math.max(lastRowToInvalidate, screen.getLastDirtyRow());
+                }
+            }
+            mLastInvalidatedCursorRow = cursorRow;
+            screen.clearDirtyRows();
         }
-        mEmulator.clearScrollCounter();
-        invalidate();
+        if (firstRowToInvalidate >= 0)
+            invalidateRows(firstRowToInvalidate, lastRowToInvalidate);
+        else
+            invalidate();
         if (mAccessibilityEnabled) {
             // fire off events that the content of this control changed,
             // so that the accessibility service gets the updated text
@@ -650,7 +730,15 @@ public final class TerminalView extends View {
             // because TalkBack might omit speaking out whitespace or punctuation,
             // get the character under cursor to get a better idea what "column 24" means...
             // in conjunction with "speak line", it should give you a good idea where you are
-            Character charAtCursor = mEmulator.getChar(mEmulator.getCursorCol(), mTopRow + mEmulator.getCursorRow());
+            final Character charAtCursor;
+            final int cursorRow, cursorCol, rows, columns;
+            synchronized (mEmulator) {
+                cursorRow = mEmulator.getCursorRow();
+                cursorCol = mEmulator.getCursorCol();
+                rows = mEmulator.mRows;
+                columns = mEmulator.mColumns;
+                charAtCursor = mEmulator.getChar(cursorCol, mTopRow + cursorRow);
+            }
             // get the unicode name of the character; The screen reader may be configured to not
             // speak out punctuation, and it will probably not say " "
             String namedCharAtCursor = charAtCursor != null
@@ -663,21 +751,25 @@ public final class TerminalView extends View {
             // "line Y / nScreenLines column X / nScreenColumns. unicode_name_of_character"
             final String text = getResources().getString(R.string.a11y_line_text) +
                 " " +
-                (mEmulator.getCursorRow() + 1) +
+                (cursorRow + 1) +
                 " / " +
-                mEmulator.mRows +
+                rows +
                 " " +
                 getResources().getString(R.string.a11y_column_text) +
                 " " +
-                (mEmulator.getCursorCol() + 1) +
+                (cursorCol + 1) +
                 " / " +
-                mEmulator.mColumns +
+                columns +
                 ". " +
                 namedCharAtCursor;
             announceForAccessibility(text);
             return true;
         } else if (action == R.id.a11y_speak_cursor_line && mEmulator != null) {
-            CharSequence lineText = mEmulator.getScreen().getSelectedText(0, mTopRow + mEmulator.getCursorRow(), mEmulator.mColumns, mTopRow + mEmulator.getCursorRow());
+            CharSequence lineText;
+            synchronized (mEmulator) {
+                int row = mTopRow + mEmulator.getCursorRow();
+                lineText = mEmulator.getScreen().getSelectedText(0, row, mEmulator.mColumns, row);
+            }
             announceForAccessibility(lineText);
             return true;
         }
@@ -728,8 +820,11 @@ public final class TerminalView extends View {
         if (mEmulator == null) {
             return null;
         }
-        int row = mEmulator.getCursorRow();
-        String text = mEmulator.getScreen().getSelectedText(0, row, 99, row);
+        String text;
+        synchronized (mEmulator) {
+            int row = mEmulator.getCursorRow();
+            text = mEmulator.getScreen().getSelectedText(0, row, 99, row);
+        }
         if (text.indexOf(mSplitChar) >= 0) {
             text = text.substring(text.indexOf(mSplitChar) + 1);
             text = text.replaceAll("[^a-zA-Z ]", "");
@@ -743,9 +838,13 @@ public final class TerminalView extends View {
         if (mEmulator == null) {
             return null;
         }
-        int row = mEmulator.getCursorRow();
-        int cut = mEmulator.getCursorCol();
-        String originalText = mEmulator.getScreen().getSelectedText(0, row, 99, row);
+        int cut;
+        String originalText;
+        synchronized (mEmulator) {
+            int row = mEmulator.getCursorRow();
+            cut = mEmulator.getCursorCol();
+            originalText = mEmulator.getScreen().getSelectedText(0, row, 99, row);
+        }
         if (originalText.indexOf(mSplitChar) >= 0) {
             if (cut >= originalText.length()) {
                 originalText = originalText + currentChar;
@@ -763,7 +862,17 @@ public final class TerminalView extends View {
     }
 
     public boolean isAlternateBufferActive() {
-        return mEmulator != null && mEmulator.isAlternateBufferActive();
+        if (mEmulator == null)
+            return false;
+        synchronized (mEmulator) {
+            return mEmulator.isAlternateBufferActive();
+        }
+    }
+
+    private boolean isMouseTrackingActive() {
+        synchronized (mEmulator) {
+            return mEmulator.isMouseTrackingActive();
+        }
     }
 
     static String extractCurrentInputFromLine(String originalText, int cut, char splitChar, Character insertCharOrNull) {
@@ -844,7 +953,9 @@ public final class TerminalView extends View {
                 mMouseScrollStartY = y;
             }
         }
-        mEmulator.sendMouseEvent(button, x, y, pressed);
+        synchronized (mEmulator) {
+            mEmulator.sendMouseEvent(button, x, y, pressed);
+        }
     }
 
     /**
@@ -853,17 +964,19 @@ public final class TerminalView extends View {
     void doScroll(MotionEvent event, int rowsDown) {
         boolean up = rowsDown < 0;
         int amount = Math.abs(rowsDown);
-        for (int i = 0; i < amount; i++) {
-            if (mEmulator.isMouseTrackingActive()) {
-                sendMouseEventCode(event, up ? TerminalEmulator.MOUSE_WHEELUP_BUTTON : TerminalEmulator.MOUSE_WHEELDOWN_BUTTON, true);
-            } else if (mEmulator.isAlternateBufferActive()) {
-                // Send up and down key events for scrolling, which is what some terminals do to make scroll work in
-                // e.g. less, which shifts to the alt screen without mouse handling.
-                handleKeyCode(up ? KeyEvent.KEYCODE_DPAD_UP : KeyEvent.KEYCODE_DPAD_DOWN, 0);
-            } else {
-                mTopRow = Math.min(0, Math.max(-(mEmulator.getScreen().getActiveTranscriptRows()), mTopRow + (up ? -1 : 1)));
-                if (!awakenScrollBars())
-                    invalidate();
+        synchronized (mEmulator) {
+            for (int i = 0; i < amount; i++) {
+                if (mEmulator.isMouseTrackingActive()) {
+                    sendMouseEventCode(event, up ? TerminalEmulator.MOUSE_WHEELUP_BUTTON : TerminalEmulator.MOUSE_WHEELDOWN_BUTTON, true);
+                } else if (mEmulator.isAlternateBufferActive()) {
+                    // Send up and down key events for scrolling, which is what some terminals do to make scroll work in
+                    // e.g. less, which shifts to the alt screen without mouse handling.
+                    handleKeyCode(up ? KeyEvent.KEYCODE_DPAD_UP : KeyEvent.KEYCODE_DPAD_DOWN, 0);
+                } else {
+                    mTopRow = Math.min(0, Math.max(-(mEmulator.getScreen().getActiveTranscriptRows()), mTopRow + (up ? -1 : 1)));
+                    if (!awakenScrollBars())
+                        invalidate();
+                }
             }
         }
     }
@@ -872,9 +985,9 @@ public final class TerminalView extends View {
         boolean left = cols < 0;
         int amount = Math.abs(cols);
         for (int i = 0; i < amount; i++) {
-            if (mEmulator.isMouseTrackingActive()) {
+            if (isMouseTrackingActive()) {
                 sendMouseEventCode(event, left ? TerminalEmulator.MOUSE_WHEEL_LEFT : TerminalEmulator.MOUSE_WHEEL_RIGHT, true);
-            } else if (mEmulator.isAlternateBufferActive()) {
+            } else if (isAlternateBufferActive()) {
             	/* less is broken let me know if it works elsewhere @john-peterson
                 handleKeyCode(left ? KeyEvent.KEYCODE_DPAD_LEFT : KeyEvent.KEYCODE_DPAD_RIGHT, 0);
                 */
@@ -920,7 +1033,7 @@ public final class TerminalView extends View {
                 return true;
             } else if (event.isButtonPressed(MotionEvent.BUTTON_TERTIARY)) {
                 doPaste();
-            } else if (mEmulator.isMouseTrackingActive()) { // BUTTON_PRIMARY.
+            } else if (isMouseTrackingActive()) { // BUTTON_PRIMARY.
                 switch (event.getAction()) {
                     case MotionEvent.ACTION_DOWN:
                     case MotionEvent.ACTION_UP:
@@ -943,7 +1056,11 @@ public final class TerminalView extends View {
             ClipData.Item clipItem = clipData.getItemAt(0);
             if (clipItem != null) {
                 CharSequence text = clipItem.coerceToText(getContext());
-                if (!TextUtils.isEmpty(text)) mEmulator.paste(text.toString());
+                if (!TextUtils.isEmpty(text)) {
+                    synchronized (mEmulator) {
+                        mEmulator.paste(text.toString());
+                    }
+                }
             }
         }
     }
@@ -1227,7 +1344,10 @@ public final class TerminalView extends View {
         if (handleKeyCodeAction(keyCode, keyMod))
             return true;
         TerminalEmulator term = mTermSession.getEmulator();
-        String code = KeyHandler.getCode(keyCode, keyMod, term.isCursorKeysApplicationMode(), term.isKeypadApplicationMode());
+        String code;
+        synchronized (term) {
+            code = KeyHandler.getCode(keyCode, keyMod, term.isCursorKeysApplicationMode(), term.isKeypadApplicationMode());
+        }
         if (code == null)
             return false;
         mTermSession.write(code);
@@ -1300,6 +1420,7 @@ public final class TerminalView extends View {
         if (mEmulator == null || (newColumns != mEmulator.mColumns || newRows != mEmulator.mRows)) {
             mTermSession.updateSize(newColumns, newRows, (int) mRenderer.getFontWidth(), mRenderer.getFontLineSpacing());
             mEmulator = mTermSession.getEmulator();
+            mLastInvalidatedCursorRow = -1;
             mClient.onEmulatorSet();
             // Update mTerminalCursorBlinkerRunnable inner class mEmulator on session change
             if (mTerminalCursorBlinkerRunnable != null)
@@ -1320,9 +1441,21 @@ public final class TerminalView extends View {
             if (mTextSelectionCursorController != null) {
                 mTextSelectionCursorController.getSelectors(sel);
             }
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            if (mSearchMatch != null && !isSelectingText())
+                sel = mSearchMatch;
+            // The emulator may be appended to concurrently if the session runs it on its own thread, and hibernated
+            final boolean hibernated;
+            synchronized (mEmulator) {
+                // The rows of a hibernated session are released until it is restored, after which the screen is updated
+                hibernated = mTermSession.isHibernated();
+                if (hibernated)
+                    canvas.drawColor(0XFF000000);
+                else
+                    mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            }
             // render the text selection handles
-            renderTextSelection();
+            if (!hibernated)
+                renderTextSelection();
         }
     }
 
@@ -1330,9 +1463,50 @@ public final class TerminalView extends View {
         return mTermSession;
     }
 
+    /**
+     * Highlight a match of a {@link com.termux.terminal.TerminalSearch} like selected text, and scroll to it if it is
+     * not visible. The match moves with its text as the terminal scrolls.
+     */
+    public void setSearchMatch(int startRow, int startColumn, int endRow, int endColumn) {
+        if (mEmulator == null)
+            return;
+        mSearchMatch = new int[] { startRow, endRow, startColumn, endColumn };
+        synchronized (mEmulator) {
+            if (startRow < mTopRow || endRow >= mTopRow + mEmulator.mRows) {
+                // Show the match in the middle of the view.
+                mTopRow = Math.min(0, Math.max(-mEmulator.getScreen().getActiveTranscriptRows(), startRow - mEmulator.mRows / 2));
+                awakenScrollBars();
+            }
+        }
+        invalidate();
+    }
+
+    public void clearSearchMatch() {
+        if (mSearchMatch == null)
+            return;
+        mSearchMatch = null;
+        invalidate();
+    }
+
+    /** The row of the start of the highlighted search match, only valid if {@link #hasSearchMatch()}. */
+    public int getSearchMatchRow() {
+        return mSearchMatch[0];
+    }
+
+    /** The column of the start of the highlighted search match, only valid if {@link #hasSearchMatch()}. */
+    public int getSearchMatchColumn() {
+        return mSearchMatch[2];
+    }
+
+    public boolean hasSearchMatch() {
+        return mSearchMatch != null;
+    }
+
     private CharSequence getText() {
         if (mEmulator == null) return "";
-        return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        }
     }
 
     public int getCursorX(float x) {
@@ -1628,7 +1802,11 @@ public final class TerminalView extends View {
                     mCursorVisible = !mCursorVisible;
                     //mClient.logVerbose(LOG_TAG, "Toggling cursor blink state to " + mCursorVisible);
                     mEmulator.setCursorBlinkState(mCursorVisible);
-                    invalidate();
+                    final int cursorRow;
+                    synchronized (mEmulator) {
+                        cursorRow = mEmulator.getCursorRow();
+                    }
+                    invalidateRows(cursorRow - mTopRow, cursorRow - mTopRow);
                 }
             } finally {
                 // Recall the Runnable after mBlinkRate milliseconds to toggle the blink state
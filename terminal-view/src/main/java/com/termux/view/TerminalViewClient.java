@@ -53,6 +53,15 @@ public interface TerminalViewClient {
 
     void onEmulatorSet();
 
+    /**
+     * On copying the selected text, before it is read as a String and passed to
+     * {@link TerminalSession#onCopyTextToClipboard(String)}. This allows copying large selections
+     * in another way, like writing them to a file.
+     *
+     * @return Returns {@code true} if the selection was copied and the text should not be read.
+     */
+    boolean onCopySelectedText(TerminalSession session, int selX1, int selY1, int selX2, int selY2);
+
     void logError(String tag, String message);
 
     void logWarn(String tag, String message);
@@ -93,14 +93,16 @@ public class TextSelectionCursorController implements CursorController {
         int[] columnAndRow = terminalView.getColumnAndRow(event, true);
         mSelX1 = mSelX2 = columnAndRow[0];
         mSelY1 = mSelY2 = columnAndRow[1];
-        TerminalBuffer screen = terminalView.mEmulator.getScreen();
-        if (!" ".equals(screen.getSelectedText(mSelX1, mSelY1, mSelX1, mSelY1))) {
-            // Selecting something other than whitespace. Expand to word.
-            while (mSelX1 > 0 && !"".equals(screen.getSelectedText(mSelX1 - 1, mSelY1, mSelX1 - 1, mSelY1))) {
-                mSelX1--;
-            }
-            while (mSelX2 < terminalView.mEmulator.mColumns - 1 && !"".equals(screen.getSelectedText(mSelX2 + 1, mSelY1, mSelX2 + 1, mSelY1))) {
-                mSelX2++;
+        synchronized (terminalView.mEmulator) {
+            TerminalBuffer screen = terminalView.mEmulator.getScreen();
+            if (!" ".equals(screen.getSelectedText(mSelX1, mSelY1, mSelX1, mSelY1))) {
+                // Selecting something other than whitespace. Expand to word.
+                while (mSelX1 > 0 && !"".equals(screen.getSelectedText(mSelX1 - 1, mSelY1, mSelX1 - 1, mSelY1))) {
+                    mSelX1--;
+                }
+                while (mSelX2 < terminalView.mEmulator.mColumns - 1 && !"".equals(screen.getSelectedText(mSelX2 + 1, mSelY1, mSelX2 + 1, mSelY1))) {
+                    mSelX2++;
+                }
             }
         }
     }
@@ -131,8 +133,10 @@ public class TextSelectionCursorController implements CursorController {
                 }
                 switch(item.getItemId()) {
                     case ACTION_COPY:
-                        String selectedText = getSelectedText();
-                        terminalView.mTermSession.onCopyTextToClipboard(selectedText);
+                        if (!terminalView.mClient.onCopySelectedText(terminalView.mTermSession, mSelX1, mSelY1, mSelX2, mSelY2)) {
+                            String selectedText = getSelectedText();
+                            terminalView.mTermSession.onCopyTextToClipboard(selectedText);
+                        }
                         terminalView.stopTextSelectionMode();
                         break;
                     case ACTION_PASTE:
@@ -209,74 +213,76 @@ public class TextSelectionCursorController implements CursorController {
 
     @Override
     public void updatePosition(TextSelectionHandleView handle, int x, int y) {
-        TerminalBuffer screen = terminalView.mEmulator.getScreen();
-        final int scrollRows = screen.getActiveRows() - terminalView.mEmulator.mRows;
-        if (handle == mStartHandle) {
-            mSelX1 = terminalView.getCursorX(x);
-            mSelY1 = terminalView.getCursorY(y);
-            if (mSelX1 < 0) {
-                mSelX1 = 0;
-            }
-            if (mSelY1 < -scrollRows) {
-                mSelY1 = -scrollRows;
-            } else if (mSelY1 > terminalView.mEmulator.mRows - 1) {
-                mSelY1 = terminalView.mEmulator.mRows - 1;
-            }
-            if (mSelY1 > mSelY2) {
-                mSelY1 = mSelY2;
-            }
-            if (mSelY1 == mSelY2 && mSelX1 > mSelX2) {
-                mSelX1 = mSelX2;
-            }
-            if (!terminalView.mEmulator.isAlternateBufferActive()) {
-                int topRow = terminalView.getTopRow();
-                if (mSelY1 <= topRow) {
-                    topRow--;
-                    if (topRow < -scrollRows) {
-                        topRow = -scrollRows;
-                    }
-                } else if (mSelY1 >= topRow + terminalView.mEmulator.mRows) {
-                    topRow++;
-                    if (topRow > 0) {
-                        topRow = 0;
-                    }
+        synchronized (terminalView.mEmulator) {
+            TerminalBuffer screen = terminalView.mEmulator.getScreen();
+            final int scrollRows = screen.getActiveRows() - terminalView.mEmulator.mRows;
+            if (handle == mStartHandle) {
+                mSelX1 = terminalView.getCursorX(x);
+                mSelY1 = terminalView.getCursorY(y);
+                if (mSelX1 < 0) {
+                    mSelX1 = 0;
                 }
-                terminalView.setTopRow(topRow);
-            }
-            mSelX1 = getValidCurX(screen, mSelY1, mSelX1);
-        } else {
-            mSelX2 = terminalView.getCursorX(x);
-            mSelY2 = terminalView.getCursorY(y);
-            if (mSelX2 < 0) {
-                mSelX2 = 0;
-            }
-            if (mSelY2 < -scrollRows) {
-                mSelY2 = -scrollRows;
-            } else if (mSelY2 > terminalView.mEmulator.mRows - 1) {
-                mSelY2 = terminalView.mEmulator.mRows - 1;
-            }
-            if (mSelY1 > mSelY2) {
-                mSelY2 = mSelY1;
-            }
-            if (mSelY1 == mSelY2 && mSelX1 > mSelX2) {
-                mSelX2 = mSelX1;
-            }
-            if (!terminalView.mEmulator.isAlternateBufferActive()) {
-                int topRow = terminalView.getTopRow();
-                if (mSelY2 <= topRow) {
-                    topRow--;
-                    if (topRow < -scrollRows) {
-                        topRow = -scrollRows;
+                if (mSelY1 < -scrollRows) {
+                    mSelY1 = -scrollRows;
+                } else if (mSelY1 > terminalView.mEmulator.mRows - 1) {
+                    mSelY1 = terminalView.mEmulator.mRows - 1;
+                }
+                if (mSelY1 > mSelY2) {
+                    mSelY1 = mSelY2;
+                }
+                if (mSelY1 == mSelY2 && mSelX1 > mSelX2) {
+                    mSelX1 = mSelX2;
+                }
+                if (!terminalView.mEmulator.isAlternateBufferActive()) {
+                    int topRow = terminalView.getTopRow();
+                    if (mSelY1 <= topRow) {
+                        topRow--;
+                        if (topRow < -scrollRows) {
+                            topRow = -scrollRows;
+                        }
+                    } else if (mSelY1 >= topRow + terminalView.mEmulator.mRows) {
+                        topRow++;
+                        if (topRow > 0) {
+                            topRow = 0;
+                        }
                     }
-                } else if (mSelY2 >= topRow + terminalView.mEmulator.mRows) {
-                    topRow++;
-                    if (topRow > 0) {
-                        topRow = 0;
+                    terminalView.setTopRow(topRow);
+                }
+                mSelX1 = getValidCurX(screen, mSelY1, mSelX1);
+            } else {
+                mSelX2 = terminalView.getCursorX(x);
+                mSelY2 = terminalView.getCursorY(y);
+                if (mSelX2 < 0) {
+                    mSelX2 = 0;
+                }
+                if (mSelY2 < -scrollRows) {
+                    mSelY2 = -scrollRows;
+                } else if (mSelY2 > terminalView.mEmulator.mRows - 1) {
+                    mSelY2 = terminalView.mEmulator.mRows - 1;
+                }
+                if (mSelY1 > mSelY2) {
+                    mSelY2 = mSelY1;
+                }
+                if (mSelY1 == mSelY2 && mSelX1 > mSelX2) {
+                    mSelX2 = mSelX1;
+                }
+                if (!terminalView.mEmulator.isAlternateBufferActive()) {
+                    int topRow = terminalView.getTopRow();
+                    if (mSelY2 <= topRow) {
+                        topRow--;
+                        if (topRow < -scrollRows) {
+                            topRow = -scrollRows;
+                        }
+                    } else if (mSelY2 >= topRow + terminalView.mEmulator.mRows) {
+                        topRow++;
+                        if (topRow > 0) {
+                            topRow = 0;
+                        }
                     }
+                    terminalView.setTopRow(topRow);
                 }
-                terminalView.setTopRow(topRow);
+                mSelX2 = getValidCurX(screen, mSelY2, mSelX2);
             }
-            mSelX2 = getValidCurX(screen, mSelY2, mSelX2);
         }
         terminalView.invalidate();
     }
@@ -348,7 +354,9 @@ public class TextSelectionCursorController implements CursorController {
      * Get the currently selected text.
      */
     public String getSelectedText() {
-        return terminalView.mEmulator.getSelectedText(mSelX1, mSelY1, mSelX2, mSelY2);
+        synchronized (terminalView.mEmulator) {
+            return terminalView.mEmulator.getSelectedText(mSelX1, mSelY1, mSelX2, mSelY2);
+        }
     }
 
     /**
@@ -57,16 +57,20 @@ public class ShellUtils {
         if (terminalSession == null)
             return null;
         TerminalEmulator terminalEmulator = terminalSession.getEmulator();
-        if (terminalEmulator == null)
+        // The rows of a hibernated session are not in memory until it is restored.
+        if (terminalEmulator == null || terminalSession.isHibernated())
             return null;
         TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
         if (terminalBuffer == null)
             return null;
         String transcriptText;
-        if (linesJoined)
-            transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
-        else
-            transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+        // The getters may reflow rows of the transcript which are still pending after a resize.
+        synchronized (terminalEmulator) {
+            if (linesJoined)
+                transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
+            else
+                transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+        }
         if (transcriptText == null)
             return null;
         if (trim)
@@ -9,6 +9,7 @@ import com.termux.shared.settings.properties.SharedProperties;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.logger.Logger;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
 import com.termux.view.TerminalView;
 import java.io.File;
 import java.util.Arrays;
@@ -86,6 +87,15 @@ import java.util.Set;
  * 
  * - 0.19.0 (2022-11-04)
  *      - Add `KEY_BACKGROUND_OVERLAY_COLOR` and `DEFAULT_IVALUE_BACKGROUND_OVERLAY_COLOR`
+ *
+ * - 0.20.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_EMULATOR_THREAD`.
+ *      - Add `KEY_TERMINAL_MAX_BYTES_PARSED_PER_FRAME`.
+ *      - Add `KEY_TERMINAL_OUTPUT_QUEUE_CAPACITY`.
+ *      - Add `KEY_TERMINAL_INLINE_IMAGE_MAX_BYTES`.
+ *      - Add `KEY_TERMINAL_IMAGE_CACHE_MAX_BYTES`.
+ *      - Add `KEY_TERMINAL_HIBERNATE_DELAY`.
+ *      - Add `KEY_TERMINAL_INPUT_QUEUE_CAPACITY`.
  */
 /**
  * A class that defines shared constants of the SharedProperties used by Termux app and its plugins.
@@ -157,6 +167,12 @@ public final class TermuxPropertyConstants {
     // Default: "terminal-onclick-url-open"
     public static final String KEY_TERMINAL_ONCLICK_URL_OPEN = "terminal-onclick-url-open";
 
+    /**
+     * Defines the key for whether terminal output is parsed on a session owned emulator thread instead of the main thread
+     */
+    // Default: "terminal-emulator-thread"
+    public static final String KEY_TERMINAL_EMULATOR_THREAD = "terminal-emulator-thread";
+
     /**
      * Defines the key for whether to use black UI
      */
@@ -310,6 +326,79 @@ public final class TermuxPropertyConstants {
 
     public static final int DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_ROWS = TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS;
 
+    /**
+     * Defines the key for the max bytes of terminal output parsed per display frame
+     */
+    // Default: "terminal-max-bytes-parsed-per-frame"
+    public static final String KEY_TERMINAL_MAX_BYTES_PARSED_PER_FRAME = "terminal-max-bytes-parsed-per-frame";
+
+    public static final int IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME_MIN = TerminalSession.MAX_BYTES_PARSED_PER_FRAME_MIN;
+
+    public static final int IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME_MAX = TerminalSession.MAX_BYTES_PARSED_PER_FRAME_MAX;
+
+    public static final int DEFAULT_IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME = TerminalSession.DEFAULT_MAX_BYTES_PARSED_PER_FRAME;
+
+    /**
+     * Defines the key for the capacity in bytes of the queue holding terminal output until it is parsed
+     */
+    // Default: "terminal-output-queue-capacity"
+    public static final String KEY_TERMINAL_OUTPUT_QUEUE_CAPACITY = "terminal-output-queue-capacity";
+
+    public static final int IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY_MIN = TerminalSession.PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MIN;
+
+    public static final int IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY_MAX = TerminalSession.PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY_MAX;
+
+    public static final int DEFAULT_IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY = TerminalSession.DEFAULT_PROCESS_TO_TERMINAL_IO_QUEUE_CAPACITY;
+
+    /**
+     * Defines the key for the max decoded size in bytes of an inline image shown with OSC 1337
+     */
+    // Default: "terminal-inline-image-max-bytes"
+    public static final String KEY_TERMINAL_INLINE_IMAGE_MAX_BYTES = "terminal-inline-image-max-bytes";
+
+    public static final int IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES_MIN = TerminalEmulator.INLINE_IMAGE_MAX_BYTES_MIN;
+
+    public static final int IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES_MAX = TerminalEmulator.INLINE_IMAGE_MAX_BYTES_MAX;
+
+    public static final int DEFAULT_IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES = TerminalEmulator.DEFAULT_INLINE_IMAGE_MAX_BYTES;
+
+    /**
+     * Defines the key for the max size in bytes of the decoded images of a terminal session
+     */
+    // Default: "terminal-image-cache-max-bytes"
+    public static final String KEY_TERMINAL_IMAGE_CACHE_MAX_BYTES = "terminal-image-cache-max-bytes";
+
+    public static final int IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES_MIN = TerminalEmulator.IMAGE_CACHE_MAX_BYTES_MIN;
+
+    public static final int IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES_MAX = TerminalEmulator.IMAGE_CACHE_MAX_BYTES_MAX;
+
+    public static final int DEFAULT_IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES = TerminalEmulator.DEFAULT_IMAGE_CACHE_MAX_BYTES;
+
+    /**
+     * Defines the key for the seconds without output after which a terminal session that is not shown is hibernated
+     * to disk, 0 to never hibernate sessions
+     */
+    // Default: "terminal-hibernate-delay"
+    public static final String KEY_TERMINAL_HIBERNATE_DELAY = "terminal-hibernate-delay";
+
+    public static final int IVALUE_TERMINAL_HIBERNATE_DELAY_MIN = TerminalSession.HIBERNATE_DELAY_SECONDS_MIN;
+
+    public static final int IVALUE_TERMINAL_HIBERNATE_DELAY_MAX = TerminalSession.HIBERNATE_DELAY_SECONDS_MAX;
+
+    public static final int DEFAULT_IVALUE_TERMINAL_HIBERNATE_DELAY = TerminalSession.DEFAULT_HIBERNATE_DELAY_SECONDS;
+
+    /**
+     * Defines the key for the capacity in bytes of the queue holding terminal input until the process reads it
+     */
+    // Default: "terminal-input-queue-capacity"
+    public static final String KEY_TERMINAL_INPUT_QUEUE_CAPACITY = "terminal-input-queue-capacity";
+
+    public static final int IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY_MIN = TerminalSession.TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MIN;
+
+    public static final int IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY_MAX = TerminalSession.TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY_MAX;
+
+    public static final int DEFAULT_IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY = TerminalSession.DEFAULT_TERMINAL_TO_PROCESS_IO_QUEUE_CAPACITY;
+
     /* float */
     /**
      * Defines the key for the terminal toolbar height
@@ -477,8 +566,8 @@ public final class TermuxPropertyConstants {
      * Setting this to {@code null} will make {@link SharedProperties} throw an exception.
      */
     public static final Set<String> TERMUX_APP_PROPERTIES_LIST = new HashSet<>(Arrays.asList(/* boolean */
-    KEY_DISABLE_FILE_SHARE_RECEIVER, KEY_DISABLE_FILE_VIEW_RECEIVER, KEY_DISABLE_HARDWARE_KEYBOARD_SHORTCUTS, KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST, KEY_ENFORCE_CHAR_BASED_INPUT, KEY_EXTRA_KEYS_TEXT_ALL_CAPS, KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP, KEY_RUN_TERMUX_AM_SOCKET_SERVER, KEY_TERMINAL_ONCLICK_URL_OPEN, KEY_DRAW_BOLD_TEXT_WITH_BRIGHT_COLORS, KEY_USE_CTRL_SPACE_WORKAROUND, KEY_USE_FULLSCREEN, KEY_USE_FULLSCREEN_WORKAROUND, TermuxConstants.PROP_ALLOW_EXTERNAL_APPS, KEY_ACTIVITY_FINISH_REMOVE_TASK, /* int */
-    KEY_BELL_BEHAVIOUR, KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT, KEY_TERMINAL_CURSOR_BLINK_RATE, KEY_TERMINAL_CURSOR_STYLE, KEY_TERMINAL_MARGIN_HORIZONTAL, KEY_TERMINAL_MARGIN_VERTICAL, KEY_TERMINAL_TRANSCRIPT_ROWS, /* float */
+    KEY_DISABLE_FILE_SHARE_RECEIVER, KEY_DISABLE_FILE_VIEW_RECEIVER, KEY_DISABLE_HARDWARE_KEYBOARD_SHORTCUTS, KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST, KEY_ENFORCE_CHAR_BASED_INPUT, KEY_EXTRA_KEYS_TEXT_ALL_CAPS, KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP, KEY_RUN_TERMUX_AM_SOCKET_SERVER, KEY_TERMINAL_ONCLICK_URL_OPEN, KEY_TERMINAL_EMULATOR_THREAD, KEY_DRAW_BOLD_TEXT_WITH_BRIGHT_COLORS, KEY_USE_CTRL_SPACE_WORKAROUND, KEY_USE_FULLSCREEN, KEY_USE_FULLSCREEN_WORKAROUND, TermuxConstants.PROP_ALLOW_EXTERNAL_APPS, KEY_ACTIVITY_FINISH_REMOVE_TASK, /* int */
+    KEY_BELL_BEHAVIOUR, KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT, KEY_TERMINAL_CURSOR_BLINK_RATE, KEY_TERMINAL_CURSOR_STYLE, KEY_TERMINAL_MARGIN_HORIZONTAL, KEY_TERMINAL_MARGIN_VERTICAL, KEY_TERMINAL_TRANSCRIPT_ROWS, KEY_TERMINAL_MAX_BYTES_PARSED_PER_FRAME, KEY_TERMINAL_OUTPUT_QUEUE_CAPACITY, KEY_TERMINAL_INLINE_IMAGE_MAX_BYTES, KEY_TERMINAL_IMAGE_CACHE_MAX_BYTES, KEY_TERMINAL_HIBERNATE_DELAY, KEY_TERMINAL_INPUT_QUEUE_CAPACITY, /* float */
     KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR, /* Integer */
     KEY_SHORTCUT_CREATE_SESSION, KEY_SHORTCUT_NEXT_SESSION, KEY_SHORTCUT_PREVIOUS_SESSION, KEY_SHORTCUT_RENAME_SESSION, /* String */
     KEY_BACK_KEY_BEHAVIOUR, KEY_DEFAULT_WORKING_DIRECTORY, KEY_EXTRA_KEYS, KEY_EXTRA_KEYS2, KEY_EXTRA_KEYS_STYLE, KEY_NIGHT_MODE, KEY_SOFT_KEYBOARD_TOGGLE_BEHAVIOUR, KEY_VOLUME_KEYS_BEHAVIOUR, KEY_BACKGROUND_OVERLAY_COLOR));
@@ -489,7 +578,7 @@ public final class TermuxPropertyConstants {
      * "false" -> false
      * default: false
      */
-    public static final Set<String> TERMUX_DEFAULT_FALSE_BOOLEAN_BEHAVIOUR_PROPERTIES_LIST = new HashSet<>(Arrays.asList(KEY_DISABLE_FILE_SHARE_RECEIVER, KEY_DISABLE_FILE_VIEW_RECEIVER, KEY_DISABLE_HARDWARE_KEYBOARD_SHORTCUTS, KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST, KEY_ENFORCE_CHAR_BASED_INPUT, KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP, KEY_TERMINAL_ONCLICK_URL_OPEN, KEY_USE_CTRL_SPACE_WORKAROUND, KEY_USE_FULLSCREEN, KEY_USE_FULLSCREEN_WORKAROUND, KEY_ACTIVITY_FINISH_REMOVE_TASK, KEY_DRAW_BOLD_TEXT_WITH_BRIGHT_COLORS, TermuxConstants.PROP_ALLOW_EXTERNAL_APPS));
+    public static final Set<String> TERMUX_DEFAULT_FALSE_BOOLEAN_BEHAVIOUR_PROPERTIES_LIST = new HashSet<>(Arrays.asList(KEY_DISABLE_FILE_SHARE_RECEIVER, KEY_DISABLE_FILE_VIEW_RECEIVER, KEY_DISABLE_HARDWARE_KEYBOARD_SHORTCUTS, KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST, KEY_ENFORCE_CHAR_BASED_INPUT, KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP, KEY_TERMINAL_ONCLICK_URL_OPEN, KEY_TERMINAL_EMULATOR_THREAD, KEY_USE_CTRL_SPACE_WORKAROUND, KEY_USE_FULLSCREEN, KEY_USE_FULLSCREEN_WORKAROUND, KEY_ACTIVITY_FINISH_REMOVE_TASK, KEY_DRAW_BOLD_TEXT_WITH_BRIGHT_COLORS, TermuxConstants.PROP_ALLOW_EXTERNAL_APPS));
 
     /**
      * Defines the set for keys loaded by termux that have default boolean behaviour with true as default.
@@ -257,6 +257,18 @@ public abstract class TermuxSharedProperties {
                 return (int) getTerminalMarginVerticalInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS:
                 return (int) getTerminalTranscriptRowsInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_MAX_BYTES_PARSED_PER_FRAME:
+                return (int) getTerminalMaxBytesParsedPerFrameInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_QUEUE_CAPACITY:
+                return (int) getTerminalOutputQueueCapacityInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_INLINE_IMAGE_MAX_BYTES:
+                return (int) getTerminalInlineImageMaxBytesInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_IMAGE_CACHE_MAX_BYTES:
+                return (int) getTerminalImageCacheMaxBytesInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_HIBERNATE_DELAY:
+                return (int) getTerminalHibernateDelayInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_INPUT_QUEUE_CAPACITY:
+                return (int) getTerminalInputQueueCapacityInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_BACKGROUND_OVERLAY_COLOR:
                 return (int) getBackgroundOverlayInternalPropertyValueFromValue(value);
             /* float */
@@ -393,6 +405,84 @@ public abstract class TermuxSharedProperties {
         return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_ROWS), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_ROWS, TermuxPropertyConstants.IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_TRANSCRIPT_ROWS_MAX, true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalMaxBytesParsedPerFrameInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_MAX_BYTES_PARSED_PER_FRAME, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME, TermuxPropertyConstants.IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_MAX_BYTES_PARSED_PER_FRAME_MAX, true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalOutputQueueCapacityInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_QUEUE_CAPACITY, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY, TermuxPropertyConstants.IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_OUTPUT_QUEUE_CAPACITY_MAX, true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalInlineImageMaxBytesInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_INLINE_IMAGE_MAX_BYTES, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES, TermuxPropertyConstants.IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_INLINE_IMAGE_MAX_BYTES_MAX, true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalImageCacheMaxBytesInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_IMAGE_CACHE_MAX_BYTES, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES, TermuxPropertyConstants.IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_IMAGE_CACHE_MAX_BYTES_MAX, true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_HIBERNATE_DELAY_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_HIBERNATE_DELAY_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_HIBERNATE_DELAY}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalHibernateDelayInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_HIBERNATE_DELAY, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_HIBERNATE_DELAY), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_HIBERNATE_DELAY, TermuxPropertyConstants.IVALUE_TERMINAL_HIBERNATE_DELAY_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_HIBERNATE_DELAY_MAX, true, true, LOG_TAG);
+    }
+
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalInputQueueCapacityInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_INPUT_QUEUE_CAPACITY, DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY), TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY, TermuxPropertyConstants.IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY_MIN, TermuxPropertyConstants.IVALUE_TERMINAL_INPUT_QUEUE_CAPACITY_MAX, true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the color value if its not null and is in form of {@code #AARRGGBB}.
      * If the value does not contain alpha value then it will borrow it from {@link
@@ -585,6 +675,10 @@ public abstract class TermuxSharedProperties {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN, true);
     }
 
+    public boolean shouldUseTerminalEmulatorThread() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_EMULATOR_THREAD, true);
+    }
+
     public boolean isUsingCtrlSpaceWorkaround() {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_CTRL_SPACE_WORKAROUND, true);
     }
@@ -629,6 +723,30 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
     }
 
+    public int getTerminalMaxBytesParsedPerFrame() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MAX_BYTES_PARSED_PER_FRAME, true);
+    }
+
+    public int getTerminalOutputQueueCapacity() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_OUTPUT_QUEUE_CAPACITY, true);
+    }
+
+    public int getTerminalInlineImageMaxBytes() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_INLINE_IMAGE_MAX_BYTES, true);
+    }
+
+    public int getTerminalImageCacheMaxBytes() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_IMAGE_CACHE_MAX_BYTES, true);
+    }
+
+    public int getTerminalHibernateDelay() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_HIBERNATE_DELAY, true);
+    }
+
+    public int getTerminalInputQueueCapacity() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_INPUT_QUEUE_CAPACITY, true);
+    }
+
     public int getBackgroundOverlayColor() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_BACKGROUND_OVERLAY_COLOR, true);
     }
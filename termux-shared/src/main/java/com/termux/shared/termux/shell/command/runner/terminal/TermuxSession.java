@@ -165,7 +165,7 @@ public class TermuxSession {
         }
         mExecutionCommand.resultData.exitCode = exitCode;
         if (this.mSetStdoutOnExit)
-            mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+            appendTranscriptToStdout();
         if (!mExecutionCommand.setState(ExecutionCommand.ExecutionState.EXECUTED))
             return;
         TermuxSession.processTermuxSessionResult(this, null);
@@ -192,7 +192,7 @@ public class TermuxSession {
                 mExecutionCommand.resultData.exitCode = 137;
                 // Get whatever output has been set till now in case its needed
                 if (this.mSetStdoutOnExit)
-                    mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+                    appendTranscriptToStdout();
                 TermuxSession.processTermuxSessionResult(this, null);
             }
         }
@@ -200,6 +200,16 @@ public class TermuxSession {
         mTerminalSession.finishIfRunning();
     }
 
+    /**
+     * Append the transcript of the {@link TerminalSession} to the stdout of the {@link ExecutionCommand}, unless the
+     * session is hibernated, in which case its rows are not in memory.
+     */
+    private void appendTranscriptToStdout() {
+        String transcriptText = ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false);
+        if (transcriptText != null)
+            mExecutionCommand.resultData.stdout.append(transcriptText);
+    }
+
     /**
      * Process the results of {@link TermuxSession} or {@link ExecutionCommand}.
      *
@@ -85,6 +85,11 @@ public class TermuxTerminalViewClientBase implements TerminalViewClient {
     public void onEmulatorSet() {
     }
 
+    @Override
+    public boolean onCopySelectedText(TerminalSession session, int selX1, int selY1, int selX2, int selY2) {
+        return false;
+    }
+
     @Override
     public void logError(String tag, String message) {
         Logger.logError(tag, message);